@@ -0,0 +1,55 @@
+package com.github.project.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This is the main class of the benchmark jar. It runs the JMH benchmarks selected on the
+ * command line, which accepts every JMH option, and writes the results as JSON to
+ * jmh-result.json unless another format or file is given with -rf and -rff, so that runs
+ * can be compared over time.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class BenchmarkMain
+{
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json"; // The file receiving the results
+	
+	/**
+	 * This is the entry method of the benchmarks.
+	 * 
+	 * @param args JMH command-line options, such as a benchmark pattern, -f, -wi, -i or -prof
+	 * @throws Exception Thrown if the options are invalid or a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		
+		if(commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListProfilers()
+				|| commandLineOptions.shouldListResultFormats() || commandLineOptions.shouldListWithParams())
+		{
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+		
+		// Options set on the builder take precedence over the parent, so only fill in what is missing
+		if(!commandLineOptions.getResultFormat().hasValue())
+		{
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		
+		if(!commandLineOptions.getResult().hasValue())
+		{
+			options.result(DEFAULT_RESULT_FILE);
+		}
+		
+		new Runner(options.build()).run();
+	}
+}
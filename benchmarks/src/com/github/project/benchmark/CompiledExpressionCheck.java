@@ -0,0 +1,295 @@
+package com.github.project.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.mariuszgromada.math.mxparser.Argument;
+import org.mariuszgromada.math.mxparser.Expression;
+
+import com.github.project.server.CompiledExpression;
+
+/**
+ * This class checks CompiledExpression against mXparser. It calculates a fixed corpus of
+ * expressions chosen for mXparser's irregular grammar, followed by randomly generated ones,
+ * both ways with random parameter values, and reports every expression whose compiled result
+ * differs from mXparser's in any bit, whose error message differs, or that throws differently.
+ * It is run after any change to the compiler, or to the mXparser version:
+ * 
+ * java -cp benchmarks/target/benchmarks.jar com.github.project.benchmark.CompiledExpressionCheck [seed] [count]
+ * 
+ * The exit status is 1 if any expression differs. Powers are generated with small exponents
+ * only, as mXparser's exact power of a large integer exponent may take very long.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CompiledExpressionCheck
+{
+	private static final long DEFAULT_SEED = 1;				// The seed of the generated expressions
+	private static final int DEFAULT_COUNT = 100000;		// The number of generated expressions
+	private static final int MAXIMUM_REPORTED = 30;			// The number of differences printed
+	
+	private static final String[] PARAMETER_NAMES = { "x", "y", "t1" };
+	private static final String[] FUNCTION_NAMES = { "sin", "cos", "tan", "tg", "sqrt", "ln", "exp", "abs", "log10" };
+	private static final String[] OPERATORS = { "+", "-", "*", "/", "^" };
+	
+	// Expressions at the edges of mXparser's grammar, and texts just outside the compiled subset
+	private static final String[] CORPUS = { "1+2", "-2^2", "-(2)^2", "-pi^2", "2^3^2", "2^-3^2", "3-2*-pi^2", "1+2*-pi",
+			"-pi^-pi", "2*-3", "2--3", "2+-3", "--2", "+-2", "-0", "0*-1", "1/0", "sqrt(-1)", "5.", ".5", "1e", "2e", "1e400",
+			"1e-400", "lg(100)", "SIN(1)", "pi2", "2pi", "2(3)", "1_000", "1 2", "- 2^2", "2*- 3^2", "sin (1)", "\t1", "", "()",
+			"1)", "(1", "x", "-x^2", "e^x", "x*-y", "tg(x)", "-x*-y", "2^-x", "-(x+y)^2", "((((((((1))))))))", "1.0000000000000001",
+			"0.30000000000000004", "1e-15+1", "2^0.5^2", "4/2/2", "2^2^2^2", "-.5", "2*+3", "+3", "(+3)", "(-pi)", "-e*2^-pi",
+			"1+(-2)^2", "sin(-pi)*-2", "ln(0)^-3" };
+	
+	private final Random random;	// The source of generated expressions and parameter values
+	
+	private int compiledCount;		// The number of expressions in the compiled subset
+	private int differenceCount;	// The number of compiled expressions that differ from mXparser
+	
+	/**
+	 * This is the entry method of the check.
+	 * 
+	 * @param args The seed and the number of generated expressions, both optional
+	 */
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SEED;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COUNT;
+		
+		CompiledExpressionCheck check = new CompiledExpressionCheck(seed);
+		List<String> texts = new ArrayList<String>(Arrays.asList(CORPUS));
+		
+		for(int i = 0; i < count; i++)
+		{
+			texts.add(check.generateGroup(0, check.random.nextBoolean()));
+		}
+		
+		for(String text : texts)
+		{
+			check.check(text);
+		}
+		
+		System.out.println("Checked " + texts.size() + " expressions, " + check.compiledCount + " compiled, " + check.differenceCount + " different from mXparser");
+		
+		if(check.differenceCount > 0)
+		{
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * This method calculates one text with mXparser and, if it compiles, with its compiled program,
+	 * and reports any difference.
+	 * 
+	 * @param text The text of the expression
+	 */
+	private void check(String text)
+	{
+		CompiledExpression compiled = CompiledExpression.compile(text, PARAMETER_NAMES);
+		
+		if(compiled == null)
+		{
+			return;
+		}
+		
+		compiledCount++;
+		double[] values = new double[PARAMETER_NAMES.length];
+		Argument[] arguments = new Argument[PARAMETER_NAMES.length];
+		
+		for(int i = 0; i < values.length; i++)
+		{
+			values[i] = random.nextInt(4) == 0 ? random.nextInt(5) - 2 : (random.nextDouble() - 0.5) * 10;
+			arguments[i] = new Argument(PARAMETER_NAMES[i], values[i]);
+		}
+		
+		Expression expression = new Expression(text, arguments);
+		double expected = 0;
+		double actual = 0;
+		String expectedException = null;
+		String actualException = null;
+		
+		try
+		{
+			expected = expression.calculate();
+		}
+		catch(RuntimeException ex)
+		{
+			expectedException = ex.toString();
+		}
+		
+		try
+		{
+			actual = compiled.evaluate(values, 0, new double[compiled.getStackDepth()]);
+		}
+		catch(RuntimeException ex)
+		{
+			actualException = ex.toString();
+		}
+		
+		if(expectedException != null || actualException != null)
+		{
+			if(!String.valueOf(expectedException).equals(String.valueOf(actualException)))
+			{
+				report(text, values, expectedException + " / " + actualException);
+			}
+			
+			return;
+		}
+		
+		if(Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual))
+		{
+			report(text, values, "mXparser " + expected + ", compiled " + actual);
+		}
+		else if(!compiled.getCalculatedMessage().equals(expression.getErrorMessage()))
+		{
+			report(text, values, "error message " + expression.getErrorMessage());
+		}
+	}
+	
+	/**
+	 * This method counts a difference and prints the first ones.
+	 */
+	private void report(String text, double[] values, String difference)
+	{
+		if(differenceCount++ < MAXIMUM_REPORTED)
+		{
+			System.out.println("DIFFERENT [" + text + "] with " + Arrays.toString(values) + ": " + difference);
+		}
+	}
+	
+	/**
+	 * This method generates a group: terms joined by operators, with an optional leading sign.
+	 */
+	private String generateGroup(int nesting, boolean withParameters)
+	{
+		StringBuilder builder = new StringBuilder();
+		int sign = random.nextInt(5);
+		
+		if(sign == 0)
+		{
+			builder.append('-');
+		}
+		else if(sign == 1)
+		{
+			builder.append('+');
+		}
+		
+		int termCount = 1 + random.nextInt(nesting > 3 ? 2 : 5);
+		boolean exponent = false;
+		
+		for(int i = 0; i < termCount; i++)
+		{
+			if(i > 0)
+			{
+				String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+				exponent = operator.equals("^");
+				builder.append(generateSpace()).append(operator).append(generateSpace());
+				
+				// A sign directly after an operator is lexed differently by mXparser
+				if(random.nextInt(8) == 0)
+				{
+					builder.append(random.nextBoolean() ? '-' : '+').append(generateSpace());
+				}
+			}
+			
+			builder.append(exponent ? generateExponent(withParameters) : generateOperand(nesting, withParameters));
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * This method generates an operand: a number, constant, parameter, function or group.
+	 */
+	private String generateOperand(int nesting, boolean withParameters)
+	{
+		switch(random.nextInt(nesting > 5 ? 2 : withParameters ? 9 : 7))
+		{
+			case 0:
+				return generateNumber();
+			case 1:
+				return random.nextBoolean() ? "pi" : "e";
+			case 2:
+			case 3:
+				return "(" + generateGroup(nesting + 1, withParameters) + ")";
+			case 4:
+			case 5:
+				return FUNCTION_NAMES[random.nextInt(FUNCTION_NAMES.length)] + "(" + generateGroup(nesting + 1, withParameters) + ")";
+			case 6:
+				return "-" + generateNumber();
+			default:
+				return PARAMETER_NAMES[random.nextInt(PARAMETER_NAMES.length)];
+		}
+	}
+	
+	/**
+	 * This method generates a small exponent, so that no power takes long.
+	 */
+	private String generateExponent(boolean withParameters)
+	{
+		switch(random.nextInt(withParameters ? 6 : 5))
+		{
+			case 0:
+				return Integer.toString(random.nextInt(3));
+			case 1:
+				return random.nextInt(4) + "." + random.nextInt(1000);
+			case 2:
+				return "-" + random.nextInt(3);
+			case 3:
+				return random.nextBoolean() ? "pi" : "e";
+			case 4:
+				return "(" + random.nextInt(3) + "." + random.nextInt(100) + ")";
+			default:
+				return PARAMETER_NAMES[random.nextInt(PARAMETER_NAMES.length)];
+		}
+	}
+	
+	/**
+	 * This method generates a number in one of the notations mXparser accepts.
+	 */
+	private String generateNumber()
+	{
+		switch(random.nextInt(9))
+		{
+			case 0:
+				return Integer.toString(random.nextInt(10));
+			case 1:
+				return Integer.toString(random.nextInt(100000));
+			case 2:
+				return random.nextInt(100) + "." + random.nextInt(1000);
+			case 3:
+				return "." + random.nextInt(1000);
+			case 4:
+				return random.nextInt(10) + "e" + (random.nextBoolean() ? "-" : random.nextBoolean() ? "+" : "") + random.nextInt(320);
+			case 5:
+				return Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)).replace('E', 'e');
+			case 6:
+				return "0";
+			case 7:
+				return "0.1";
+			default:
+				return "1234567890123456789.123456789";
+		}
+	}
+	
+	/**
+	 * This method generates the occasional space between tokens.
+	 */
+	private String generateSpace()
+	{
+		return random.nextInt(6) == 0 ? " " : "";
+	}
+	
+	/**
+	 * Creates a CompiledExpressionCheck object generating expressions from the provided seed.
+	 * 
+	 * @param seed The seed of the generated expressions and parameter values
+	 */
+	public CompiledExpressionCheck(long seed)
+	{
+		random = new Random(seed);
+	}
+}
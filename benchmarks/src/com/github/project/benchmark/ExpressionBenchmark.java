@@ -0,0 +1,112 @@
+package com.github.project.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mariuszgromada.math.mxparser.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.project.server.CompiledExpression;
+
+/**
+ * This class benchmarks the cost of an mXparser Expression on a corpus of representative
+ * requests: constructing it, calculating an Expression that was calculated before (as the
+ * ExpressionCache hands out), and both together (as an uncached request costs). The same
+ * requests are measured compiled by CompiledExpression; a request outside the compiled subset
+ * measures only the failed compilation.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpressionBenchmark
+{
+	@Param({ "2+3*4", "(17.5-2)/3^2", "sin(pi/4)*cos(pi/3)+ln(10)", "5!+2^10 mod 7", "sum(i, 1, 100, i^2)", "der(sin(x), x, 1)", "int(x^2, x, 0, 1)" })
+	public String rawRequest;		// The expression text of the benchmarked request
+	
+	private Expression calculated;	// An Expression of the request that has been calculated once
+	private CompiledExpression compiled;	// The compiled request, or null if it is not in the subset
+	private double[] stack;				// The stack of the compiled request
+	
+	/**
+	 * Parses and calculates the Expression reused by the calculate benchmark.
+	 */
+	@Setup
+	public void setUp()
+	{
+		calculated = new Expression(rawRequest);
+		calculated.calculate();
+		compiled = CompiledExpression.compile(rawRequest);
+		stack = new double[compiled != null ? compiled.getStackDepth() : 0];
+	}
+	
+	/**
+	 * Measures the construction of an Expression, which only stores the text.
+	 */
+	@Benchmark
+	public Expression construct()
+	{
+		return new Expression(rawRequest);
+	}
+	
+	/**
+	 * Measures the calculation of an Expression that was calculated before.
+	 */
+	@Benchmark
+	public double calculate()
+	{
+		return calculated.calculate();
+	}
+	
+	/**
+	 * Measures the construction and first calculation of an Expression, which includes parsing.
+	 */
+	@Benchmark
+	public double constructAndCalculate()
+	{
+		return new Expression(rawRequest).calculate();
+	}
+	
+	/**
+	 * Measures the compilation of the request, which fails early outside the compiled subset.
+	 */
+	@Benchmark
+	public CompiledExpression compile()
+	{
+		return CompiledExpression.compile(rawRequest);
+	}
+	
+	/**
+	 * Measures the calculation of the compiled request.
+	 */
+	@Benchmark
+	public double evaluateCompiled()
+	{
+		return compiled != null ? compiled.evaluate(null, 0, stack) : Double.NaN;
+	}
+	
+	/**
+	 * Measures the compilation and calculation of the request, as an uncached request costs.
+	 */
+	@Benchmark
+	public double compileAndEvaluate()
+	{
+		CompiledExpression compiledRequest = CompiledExpression.compile(rawRequest);
+		return compiledRequest != null ? compiledRequest.evaluate(null, 0, new double[compiledRequest.getStackDepth()]) : Double.NaN;
+	}
+}
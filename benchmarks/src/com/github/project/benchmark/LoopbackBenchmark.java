@@ -0,0 +1,157 @@
+package com.github.project.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.project.client.ServerConnection;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.WireProtocol;
+import com.github.project.server.MathServerMain;
+
+/**
+ * This class benchmarks the full request/response path over loopback TCP: a client sends a
+ * calculation request, and the server reads it, queues it, evaluates it and writes the
+ * response, which the client reads. The server runs in the benchmark process on a free port
+ * with the selected front end, and every benchmark thread has its own connection.
+ * 
+ * The server is started from a daemon thread, so that every thread it launches is a daemon
+ * too and the fork exits when the benchmark ends. One request in a hundred is logged.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark
+{
+	private static final long SERVER_START_TIMEOUT_MILLIS = 10000; // The time the server may take to accept connections
+	
+	@Param({ "threads", "virtual", "nio" })
+	public String frontEnd;				// The mathserver.frontEnd of the server
+	
+	@Param({ "SERIALIZED", "BINARY" })
+	public String protocol;				// The wire protocol requested by the clients
+	
+	@Param({ "2*3+1" })
+	public String rawRequest;			// The expression of every request
+	
+	private int port;					// The port the server listens on
+	private File logFile;				// The server log
+	
+	/**
+	 * Starts the server and waits until it accepts connections.
+	 */
+	@Setup(Level.Trial)
+	public void startServer() throws Exception
+	{
+		try(ServerSocket probe = new ServerSocket(0))
+		{
+			port = probe.getLocalPort();
+		}
+		
+		logFile = File.createTempFile("mathserver-benchmark", ".log");
+		logFile.deleteOnExit();
+		
+		System.setProperty("mathserver.frontEnd", frontEnd);
+		System.setProperty("mathserver.requestLogSampling", "100");
+		System.setProperty("mathserver.statisticsIntervalSeconds", "0");
+		
+		final String[] args = { Integer.toString(port), logFile.getPath(), "2" };
+		Thread serverThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				MathServerMain.main(args);
+			}
+		}, "server-main");
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+		
+		while(true)
+		{
+			try(Socket socket = new Socket())
+			{
+				socket.connect(new InetSocketAddress("127.0.0.1", port));
+				return;
+			}
+			catch(IOException ex)
+			{
+				if(System.currentTimeMillis() > deadline)
+				{
+					throw new IllegalStateException("The server did not start on port " + port, ex);
+				}
+				
+				Thread.sleep(50);
+			}
+		}
+	}
+	
+	/**
+	 * Measures one request/response round trip on each of two connections.
+	 */
+	@Benchmark
+	@Threads(2)
+	public double roundTrip(ClientState client) throws Exception
+	{
+		client.connection.sendCalculation(rawRequest);
+		return ((CalculationResponse) client.connection.receive()).getCalculationResult();
+	}
+	
+	/**
+	 * The connection of one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class ClientState
+	{
+		private ServerConnection connection; // The connection to the server
+		
+		/**
+		 * Connects to the server and performs the handshake.
+		 */
+		@Setup(Level.Trial)
+		public void connect(LoopbackBenchmark benchmark) throws Exception
+		{
+			Socket socket = new Socket("127.0.0.1", benchmark.port);
+			socket.setTcpNoDelay(true);
+			connection = new ServerConnection(socket, "benchmark", WireProtocol.valueOf(benchmark.protocol));
+		}
+		
+		/**
+		 * Terminates the connection.
+		 */
+		@TearDown(Level.Trial)
+		public void disconnect() throws Exception
+		{
+			connection.send(new ConnectionTerminateRequest());
+			connection.receive();
+			connection.close();
+		}
+	}
+}
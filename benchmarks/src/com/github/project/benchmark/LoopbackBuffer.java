@@ -0,0 +1,130 @@
+package com.github.project.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class is an in-memory pipe for a single thread: bytes written to its output are read
+ * back from its input. Once every written byte has been read, the buffer is reused from the
+ * start, so a stream that is written and read in turns does not grow.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class LoopbackBuffer
+{
+	private byte[] buffer;	// The written bytes
+	private int count;		// The number of written bytes
+	private int position;	// The number of bytes read
+	
+	private final OutputStream output;	// Writes to the buffer
+	private final InputStream input;	// Reads from the buffer
+	
+	/**
+	 * This method returns the stream writing to this buffer
+	 * 
+	 * @return The output stream
+	 */
+	public OutputStream getOutputStream()
+	{
+		return output;
+	}
+	
+	/**
+	 * This method returns the stream reading from this buffer
+	 * 
+	 * @return The input stream
+	 */
+	public InputStream getInputStream()
+	{
+		return input;
+	}
+	
+	/**
+	 * Creates a LoopbackBuffer object.
+	 */
+	public LoopbackBuffer()
+	{
+		buffer = new byte[4096];
+		
+		output = new OutputStream()
+		{
+			public void write(int b)
+			{
+				ensureCapacity(1);
+				buffer[count++] = (byte) b;
+			}
+			
+			public void write(byte[] b, int offset, int length)
+			{
+				ensureCapacity(length);
+				System.arraycopy(b, offset, buffer, count, length);
+				count += length;
+			}
+		};
+		
+		input = new InputStream()
+		{
+			public int read()
+			{
+				if(position == count)
+				{
+					return -1;
+				}
+				
+				int b = buffer[position++] & 0xFF;
+				rewindIfDrained();
+				return b;
+			}
+			
+			public int read(byte[] b, int offset, int length)
+			{
+				if(length == 0)
+				{
+					return 0;
+				}
+				
+				if(position == count)
+				{
+					return -1;
+				}
+				
+				int read = Math.min(length, count - position);
+				System.arraycopy(buffer, position, b, offset, read);
+				position += read;
+				rewindIfDrained();
+				return read;
+			}
+			
+			public int available()
+			{
+				return count - position;
+			}
+		};
+	}
+	
+	/**
+	 * This method makes room for the provided number of bytes after the written ones
+	 */
+	private void ensureCapacity(int length)
+	{
+		if(count + length > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+		}
+	}
+	
+	/**
+	 * This method reuses the buffer from the start once every written byte has been read
+	 */
+	private void rewindIfDrained()
+	{
+		if(position == count)
+		{
+			position = 0;
+			count = 0;
+		}
+	}
+}
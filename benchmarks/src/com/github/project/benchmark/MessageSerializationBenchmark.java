@@ -0,0 +1,294 @@
+package com.github.project.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.project.core.BinaryMessageCodec;
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationBatchResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionEstablishRequest;
+import com.github.project.core.ConnectionEstablishResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.PrepareRequest;
+import com.github.project.core.PrepareResponse;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepChunkResponse;
+import com.github.project.core.SweepRequest;
+import com.github.project.core.WireProtocol;
+import com.github.project.server.ServerMetrics;
+
+/**
+ * This class benchmarks the round trip of every message type of com.github.project.core
+ * through both wire protocols: the message is written to a stream and read back, as one
+ * connection would. The SERIALIZED streams live for the whole run, so class descriptors are
+ * only written once, as on a real connection. They cycle through distinct copies of the
+ * message and are reset as often as a ServerConnection resets its stream, so no round trip
+ * is shortened to a back-reference to an object already written. The handshake messages are
+ * always serialized and have no binary encoding.
+ * 
+ * The setup of each trial prints the steady-state bytes of the message in its protocol.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageSerializationBenchmark
+{
+	private static final int BATCH_SIZE = 100;			// The number of expressions of the batch messages
+	private static final int DISTINCT_MESSAGES = 1024;	// The copies cycled through, and the writes between stream resets
+	
+	/**
+	 * Measures a round trip through the ObjectOutputStream and ObjectInputStream of the
+	 * SERIALIZED protocol.
+	 */
+	@Benchmark
+	public Object serialized(SerializedState state) throws IOException, ClassNotFoundException
+	{
+		state.out.writeObject(state.messages[state.next]);
+		
+		if(++state.next == DISTINCT_MESSAGES)
+		{
+			state.out.reset();
+			state.next = 0;
+		}
+		
+		state.out.flush();
+		return state.in.readObject();
+	}
+	
+	/**
+	 * Measures a round trip through the frames of the BINARY protocol.
+	 */
+	@Benchmark
+	public Object binary(BinaryState state) throws IOException, ClassNotFoundException
+	{
+		BinaryMessageCodec.writeMessage(state.out, state.message);
+		return BinaryMessageCodec.readMessage(state.in);
+	}
+	
+	/**
+	 * This method creates a representative message of the provided type.
+	 * 
+	 * @param messageType The simple class name of the message
+	 * @return The message
+	 */
+	static Object createMessage(String messageType)
+	{
+		switch(messageType)
+		{
+			case "CalculationRequest":
+				return new CalculationRequest("sum(i, 1, 100, i^2)", 42);
+			case "CalculationResponse":
+				return new CalculationResponse(ResponseCode.OK, 338350, "", 42);
+			case "CalculationBatchRequest":
+				String[] rawRequests = new String[BATCH_SIZE];
+				
+				for(int i = 0; i < BATCH_SIZE; i++)
+				{
+					rawRequests[i] = i + "*3+1";
+				}
+				
+				return new CalculationBatchRequest(rawRequests, 42);
+			case "CalculationBatchResponse":
+				double[] results = new double[BATCH_SIZE];
+				
+				for(int i = 0; i < BATCH_SIZE; i++)
+				{
+					results[i] = i * 3 + 1;
+				}
+				
+				return new CalculationBatchResponse(ResponseCode.OK, results, new int[0], new String[0], 42);
+			case "ConnectionEstablishRequest":
+				return new ConnectionEstablishRequest("benchmark", WireProtocol.BINARY);
+			case "ConnectionEstablishResponse":
+				return new ConnectionEstablishResponse(ResponseCode.OK, WireProtocol.BINARY);
+			case "ConnectionTerminateRequest":
+				return new ConnectionTerminateRequest();
+			case "ConnectionTerminateResponse":
+				return new ConnectionTerminateResponse(ResponseCode.OK);
+			case "BusyResponse":
+				return new BusyResponse(42, 50);
+			case "StatsRequest":
+				return new StatsRequest(42);
+			case "StatsResponse":
+				return ServerMetrics.getInstance().createResponse(42);
+			case "PrepareRequest":
+				return new PrepareRequest("x^2*sin(y)+z", new String[] { "x", "y", "z" }, 42);
+			case "PrepareResponse":
+				return new PrepareResponse(ResponseCode.OK, 1, null, 42);
+			case "ExecutePreparedRequest":
+				double[] parameterValues = new double[3 * BATCH_SIZE];
+				
+				for(int i = 0; i < parameterValues.length; i++)
+				{
+					parameterValues[i] = i * 0.5;
+				}
+				
+				return new ExecutePreparedRequest(1, parameterValues, 42);
+			case "SweepRequest":
+				return new SweepRequest("x^2*sin(y)", new String[] { "x", "y" }, new double[] { 0, -1 }, new double[] { 0.001, 0.5 }, new long[] { 10000000, 5 }, 42);
+			case "SweepChunkResponse":
+				double[] chunkResults = new double[BATCH_SIZE];
+				
+				for(int i = 0; i < chunkResults.length; i++)
+				{
+					chunkResults[i] = i * 0.25;
+				}
+				
+				return new SweepChunkResponse(ResponseCode.OK, 42, 4096, chunkResults, false, null);
+			case "Response":
+				return new Response(ResponseCode.BAD_REQUEST);
+			default:
+				throw new IllegalArgumentException("Unknown message type " + messageType);
+		}
+	}
+	
+	/**
+	 * This method creates a copy of a message that shares no object with it, by writing the
+	 * message to a new serialized stream and reading it back.
+	 * 
+	 * @param message The message to copy
+	 * @return The copy
+	 */
+	static Object copyMessage(Object message) throws IOException, ClassNotFoundException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.flush();
+		return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+	
+	/**
+	 * This method prints the bytes one message takes on a stream of the provided protocol,
+	 * after the class descriptors a serialized stream writes with its first message.
+	 * 
+	 * @param messageType The simple class name of the message
+	 * @param first The first message written to the stream
+	 * @param second A distinct copy written after it, whose bytes are printed
+	 * @param binary Whether to use the BINARY protocol instead of the SERIALIZED protocol
+	 */
+	static void printMessageSize(String messageType, Object first, Object second, boolean binary) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int firstMessageEnd;
+		
+		if(binary)
+		{
+			DataOutputStream out = new DataOutputStream(bytes);
+			BinaryMessageCodec.writeMessage(out, first);
+			firstMessageEnd = bytes.size();
+			BinaryMessageCodec.writeMessage(out, second);
+		}
+		else
+		{
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(first);
+			out.flush();
+			firstMessageEnd = bytes.size();
+			out.writeObject(second);
+			out.flush();
+		}
+		
+		System.out.println(messageType + (binary ? " BINARY: " : " SERIALIZED: ") + (bytes.size() - firstMessageEnd) + " bytes per message");
+	}
+	
+	/**
+	 * The streams of the SERIALIZED protocol and the message to send through them.
+	 */
+	@State(Scope.Thread)
+	public static class SerializedState
+	{
+		@Param({ "CalculationRequest", "CalculationResponse", "CalculationBatchRequest", "CalculationBatchResponse",
+				"ConnectionEstablishRequest", "ConnectionEstablishResponse", "ConnectionTerminateRequest",
+				"ConnectionTerminateResponse", "BusyResponse", "StatsRequest", "StatsResponse", "PrepareRequest",
+				"PrepareResponse", "ExecutePreparedRequest", "SweepRequest", "SweepChunkResponse", "Response" })
+		public String messageType;	// The simple class name of the message
+		
+		private Object[] messages;			// The distinct copies of the message sent in turn
+		private int next;					// The index of the next copy to send
+		private ObjectOutputStream out;		// Writes the message
+		private ObjectInputStream in;		// Reads the message back
+		
+		/**
+		 * Opens the streams, which exchange the stream header, and creates the copies of the message.
+		 */
+		@Setup
+		public void setUp() throws IOException, ClassNotFoundException
+		{
+			LoopbackBuffer buffer = new LoopbackBuffer();
+			out = new ObjectOutputStream(buffer.getOutputStream());
+			out.flush();
+			in = new ObjectInputStream(buffer.getInputStream());
+			messages = new Object[DISTINCT_MESSAGES];
+			messages[0] = createMessage(messageType);
+			
+			for(int i = 1; i < messages.length; i++)
+			{
+				messages[i] = copyMessage(messages[0]);
+			}
+			
+			next = 0;
+			printMessageSize(messageType, messages[0], messages[1], false);
+		}
+	}
+	
+	/**
+	 * The streams of the BINARY protocol and the message to send through them.
+	 */
+	@State(Scope.Thread)
+	public static class BinaryState
+	{
+		@Param({ "CalculationRequest", "CalculationResponse", "CalculationBatchRequest", "CalculationBatchResponse",
+				"ConnectionTerminateRequest", "ConnectionTerminateResponse", "BusyResponse", "StatsRequest", "StatsResponse",
+				"PrepareRequest", "PrepareResponse", "ExecutePreparedRequest", "SweepRequest", "SweepChunkResponse", "Response" })
+		public String messageType;	// The simple class name of the message
+		
+		private Object message;			// The message sent on every round trip
+		private DataOutputStream out;	// Writes the message
+		private DataInputStream in;		// Reads the message back
+		
+		/**
+		 * Opens the streams and creates the message.
+		 */
+		@Setup
+		public void setUp() throws IOException
+		{
+			LoopbackBuffer buffer = new LoopbackBuffer();
+			out = new DataOutputStream(buffer.getOutputStream());
+			in = new DataInputStream(buffer.getInputStream());
+			message = createMessage(messageType);
+			printMessageSize(messageType, message, message, true);
+		}
+	}
+}
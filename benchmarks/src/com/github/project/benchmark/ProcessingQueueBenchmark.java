@@ -0,0 +1,168 @@
+package com.github.project.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.Response;
+import com.github.project.server.ClientConnection;
+import com.github.project.server.ProcessingQueue;
+
+/**
+ * This class benchmarks ProcessingQueue.addToQueue with several connection threads adding
+ * requests at once while the processing threads take them. The requests repeat one cached
+ * expression, with coalescing disabled, so that every request goes through the queue and the
+ * processing threads drain it as fast as it allows. A full
+ * queue refuses requests; the admitted and refused counters show how many requests of the
+ * measured operations made it into the queue.
+ * 
+ * The ProcessingQueue is a singleton configured by system properties, so each scheduling
+ * policy is measured in its own fork.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingQueueBenchmark
+{
+	@Param({ "FAIR", "FIFO" })
+	public String scheduling;	// The mathserver.scheduling policy of the queue
+	
+	@Param({ "2" })
+	public int workers;			// The number of processing threads taking requests
+	
+	/**
+	 * Configures the ProcessingQueue and starts its processing threads. They run until the
+	 * fork exits.
+	 */
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		System.setProperty("mathserver.scheduling", scheduling);
+		System.setProperty("mathserver.heavyWorkers", "0");
+		System.setProperty("mathserver.logLevel", "WARN");
+		
+		// The requests repeat one text, so coalescing would answer most of them without the queue
+		System.setProperty("mathserver.disableCoalescing", "true");
+		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+		
+		for(int i = 0; i < workers; i++)
+		{
+			Thread worker = new Thread(processingQueue, "processing-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+	
+	/**
+	 * Measures one addToQueue call from each of four connection threads.
+	 */
+	@Benchmark
+	@Threads(4)
+	public boolean addToQueue(ConnectionState connection, AdmissionCounters counters)
+	{
+		boolean admitted = ProcessingQueue.getInstance().addToQueue(connection.request, connection.connection, connection.nextSequenceNumber++);
+		
+		if(admitted)
+		{
+			counters.admitted++;
+		}
+		else
+		{
+			counters.refused++;
+		}
+		
+		return admitted;
+	}
+	
+	/**
+	 * The connection of one benchmark thread, with its own username.
+	 */
+	@State(Scope.Thread)
+	public static class ConnectionState
+	{
+		private static final AtomicInteger nextUser = new AtomicInteger(); // Numbers the users of the threads
+		
+		private BenchmarkConnection connection;	// The connection the requests arrive on
+		private CalculationRequest request;		// The request added on every operation
+		private long nextSequenceNumber;		// The sequence number of the next request
+		
+		/**
+		 * Creates the connection and its request.
+		 */
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			connection = new BenchmarkConnection("user-" + nextUser.getAndIncrement());
+			request = new CalculationRequest("2*3+1");
+		}
+	}
+	
+	/**
+	 * The number of admitted and refused requests, reported next to the throughput.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class AdmissionCounters
+	{
+		public long admitted;	// Requests the queue accepted
+		public long refused;	// Requests the queue refused
+		
+		/**
+		 * Resets the counters before every iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			admitted = 0;
+			refused = 0;
+		}
+	}
+	
+	/**
+	 * A connection without a socket that discards its responses.
+	 */
+	private static class BenchmarkConnection extends ClientConnection
+	{
+		protected boolean isAcceptingResponses()
+		{
+			return false;
+		}
+		
+		protected void sendResponse(Response response)
+		{
+		
+		}
+		
+		protected int getOutboundBacklog()
+		{
+			return 0;
+		}
+		
+		BenchmarkConnection(String username_)
+		{
+			username = username_;
+		}
+	}
+}
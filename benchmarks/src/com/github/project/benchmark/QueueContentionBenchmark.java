@@ -0,0 +1,272 @@
+package com.github.project.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import com.github.project.core.CalculationRequest;
+import com.github.project.server.QueueElement;
+import com.github.project.server.RequestRingBuffer;
+import com.github.project.server.WaitStrategy;
+
+/**
+ * This class benchmarks the hand-off of requests between connection threads and processing
+ * threads through the RequestRingBuffer alone, under each WaitStrategy, and through a copy of
+ * the synchronized linked-list queue it replaced. In each group four producer threads add
+ * requests while two consumer threads take them, and no expressions are evaluated, so the
+ * numbers reflect queue contention only.
+ * 
+ * A producer retries a full ring buffer until its request is accepted, so both queues hand
+ * off every request. The old queue is unbounded and never refuses one. Once the measurement
+ * of an iteration has stopped, consumers poll instead of waiting and producers stop retrying,
+ * so that no thread is left waiting for one that has already left the iteration.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueContentionBenchmark
+{
+	private static final int PRODUCERS = 4;	// The producer threads of each group
+	private static final int CONSUMERS = 2;	// The consumer threads of each group
+	
+	private static final CalculationRequest REQUEST = new CalculationRequest("1+1"); // The request handed off
+	
+	/**
+	 * Measures one request added to the ring buffer.
+	 */
+	@Benchmark
+	@Group("ringBuffer")
+	@GroupThreads(PRODUCERS)
+	public void ringBufferProduce(RingBufferState state, ProducerState producer, Control control)
+	{
+		while(!state.buffer.offer(REQUEST, null, producer.sequenceNumber))
+		{
+			if(control.stopMeasurement)
+			{
+				return;
+			}
+			
+			Thread.onSpinWait();
+		}
+		
+		producer.sequenceNumber++;
+	}
+	
+	/**
+	 * Measures one request taken from the ring buffer, waiting with its strategy while it is empty.
+	 */
+	@Benchmark
+	@Group("ringBuffer")
+	@GroupThreads(CONSUMERS)
+	public long ringBufferTake(RingBufferState state, ConsumerState consumer, Control control)
+	{
+		if(control.stopMeasurement)
+		{
+			return state.buffer.poll(consumer.into) ? consumer.into.getSequenceNumber() : -1;
+		}
+		
+		state.buffer.take(consumer.into);
+		return consumer.into.getSequenceNumber();
+	}
+	
+	/**
+	 * Measures one request added to the synchronized linked list.
+	 */
+	@Benchmark
+	@Group("synchronizedList")
+	@GroupThreads(PRODUCERS)
+	public void synchronizedListProduce(SynchronizedListState state, ProducerState producer)
+	{
+		state.queue.put(REQUEST, producer.sequenceNumber++);
+	}
+	
+	/**
+	 * Measures one request taken from the synchronized linked list, waiting on its monitor
+	 * while it is empty.
+	 */
+	@Benchmark
+	@Group("synchronizedList")
+	@GroupThreads(CONSUMERS)
+	public long synchronizedListTake(SynchronizedListState state, ConsumerState consumer, Control control)
+	{
+		if(control.stopMeasurement)
+		{
+			return state.queue.poll(consumer.into) ? consumer.into.getSequenceNumber() : -1;
+		}
+		
+		state.queue.take(consumer.into);
+		return consumer.into.getSequenceNumber();
+	}
+	
+	/**
+	 * The ring buffer shared by the threads of a group.
+	 */
+	@State(Scope.Group)
+	public static class RingBufferState
+	{
+		@Param({ "SPIN", "YIELD", "PARK" })
+		public String waitStrategy;	// The WaitStrategy of the buffer
+		
+		@Param({ "4096" })
+		public int capacity;		// The number of slots of the buffer
+		
+		private RequestRingBuffer buffer; // The buffer of the iteration
+		
+		/**
+		 * Creates an empty buffer for the iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void setUp()
+		{
+			buffer = new RequestRingBuffer(capacity, WaitStrategy.valueOf(waitStrategy));
+		}
+	}
+	
+	/**
+	 * The synchronized linked list shared by the threads of a group.
+	 */
+	@State(Scope.Group)
+	public static class SynchronizedListState
+	{
+		private SynchronizedLinkedQueue queue; // The queue of the iteration
+		
+		/**
+		 * Creates an empty queue for the iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void setUp()
+		{
+			queue = new SynchronizedLinkedQueue();
+		}
+	}
+	
+	/**
+	 * The sequence numbers of one producer thread.
+	 */
+	@State(Scope.Thread)
+	public static class ProducerState
+	{
+		private long sequenceNumber; // The sequence number of the next request
+	}
+	
+	/**
+	 * The element one consumer thread takes requests into.
+	 */
+	@State(Scope.Thread)
+	public static class ConsumerState
+	{
+		private final QueueElement into = new QueueElement(); // Receives the taken requests
+	}
+	
+	/**
+	 * A copy of the ProcessingQueue algorithm the ring buffer replaced: an unbounded linked
+	 * list guarded by the queue monitor, allocating a node per request and waking a waiting
+	 * consumer with notify.
+	 */
+	private static class SynchronizedLinkedQueue
+	{
+		private Node queueHead;	// The oldest request, or null if the queue is empty
+		private Node queueTail;	// The newest request, or null if the queue is empty
+		
+		/**
+		 * This method adds a request to the tail of the list and wakes a waiting consumer.
+		 */
+		synchronized void put(CalculationRequest request, long sequenceNumber)
+		{
+			Node node = new Node(request, sequenceNumber);
+			
+			if(queueTail == null)
+			{
+				queueHead = node;
+			}
+			else
+			{
+				queueTail.next = node;
+			}
+			
+			queueTail = node;
+			notify();
+		}
+		
+		/**
+		 * This method removes the head of the list, waiting on the monitor while it is empty.
+		 */
+		synchronized void take(QueueElement into)
+		{
+			while(queueHead == null)
+			{
+				try
+				{
+					wait();
+				}
+				catch(InterruptedException ex)
+				{
+				
+				}
+			}
+			
+			poll(into);
+		}
+		
+		/**
+		 * This method removes the head of the list without waiting.
+		 * 
+		 * @return Whether or not a request was removed; false if the list is empty
+		 */
+		synchronized boolean poll(QueueElement into)
+		{
+			Node node = queueHead;
+			
+			if(node == null)
+			{
+				return false;
+			}
+			
+			queueHead = node.next;
+			
+			if(queueHead == null)
+			{
+				queueTail = null;
+			}
+			
+			into.set(node.request, null, node.sequenceNumber);
+			return true;
+		}
+	}
+	
+	/**
+	 * One request of the synchronized linked list.
+	 */
+	private static class Node
+	{
+		private final CalculationRequest request;	// The queued request
+		private final long sequenceNumber;			// The sequence number of the request
+		private Node next;							// The next newer request, or null
+		
+		Node(CalculationRequest request_, long sequenceNumber_)
+		{
+			request = request_;
+			sequenceNumber = sequenceNumber_;
+		}
+	}
+}
@@ -0,0 +1,581 @@
+package com.github.project.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.LatencyHistogram;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.WireProtocol;
+
+/**
+ * This is the main class of the load generator. It opens several connections to the server
+ * and sends the expressions of a corpus file over them, either at a fixed rate (open loop)
+ * or with a fixed number of requests in flight (closed loop), for capacity planning.
+ * 
+ * Latencies are recorded in a LatencyHistogram corrected for coordinated omission. In the
+ * open loop, a request's latency is measured from the time it was scheduled to be sent, so a
+ * server stall counts against every request that should have been sent during it. In the
+ * closed loop, a response slower than the connection's mean latency also records the
+ * requests that the connection would have sent meanwhile. The throughput and the p50, p99,
+ * p99.9 and maximum latency are printed every interval and for the whole run after warm-up.
+ * 
+ * The run is configured with system properties: loadgen.durationSeconds (default 30),
+ * loadgen.warmupSeconds (default 0), loadgen.intervalSeconds (default 1),
+ * loadgen.protocol (SERIALIZED or BINARY, default SERIALIZED), and loadgen.usernames, a
+ * comma-separated list of usernames given to the connections in turn, in which %d is
+ * replaced by the connection number (default "loadgen-%d").
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class LoadGeneratorMain
+{
+	private static final long DRAIN_TIMEOUT_MILLIS = 5000;	// The time given to outstanding requests once the run ends
+	private static final long STOP_CHECK_MILLIS = 100;		// The longest a closed-loop sender waits before checking for the end
+	
+	/**
+	 * This is the entry method of the load generator.
+	 * 
+	 * @param args The command line arguments (0: ip address, 1: port, 2: corpus file with one expression per line,
+	 * 3: number of connections, 4: "open" or "closed", 5: total requests per second (open) or requests in flight (closed))
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length < 6)
+		{
+			System.out.println("Usage: LoadGeneratorMain <ip address> <port> <corpus file> <connections> <open|closed> <requests per second|requests in flight>");
+			return;
+		}
+		
+		String ipAddress = args[0];
+		int port;
+		int connectionCount;
+		double load;
+		
+		try
+		{
+			port = Integer.parseInt(args[1]);
+			connectionCount = Integer.parseInt(args[3]);
+			load = Double.parseDouble(args[5]);
+		}
+		catch(NumberFormatException nfe)
+		{
+			System.err.println("Bad Number Format!");
+			return;
+		}
+		
+		if(port < 1024 || port > 65535)
+		{
+			System.out.println("Port number out of range");
+			return;
+		}
+		
+		if(connectionCount < 1 || load <= 0)
+		{
+			System.out.println("Connections and load must be positive");
+			return;
+		}
+		
+		boolean openLoop;
+		
+		if("open".equalsIgnoreCase(args[4]))
+		{
+			openLoop = true;
+		}
+		else if("closed".equalsIgnoreCase(args[4]))
+		{
+			openLoop = false;
+		}
+		else
+		{
+			System.out.println("Unknown mode; use open or closed");
+			return;
+		}
+		
+		WireProtocol protocol;
+		
+		try
+		{
+			protocol = WireProtocol.valueOf(System.getProperty("loadgen.protocol", "SERIALIZED").toUpperCase());
+		}
+		catch(IllegalArgumentException ex)
+		{
+			System.out.println("Unknown wire protocol");
+			return;
+		}
+		
+		String[] corpus = readCorpus(args[2]);
+		
+		if(corpus == null)
+		{
+			return;
+		}
+		
+		long durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("loadgen.durationSeconds", 30));
+		long warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("loadgen.warmupSeconds", 0));
+		long intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.getLong("loadgen.intervalSeconds", 1)));
+		String[] usernames = System.getProperty("loadgen.usernames", "loadgen-%d").split(",");
+		
+		// Open every connection before the load starts
+		LoadConnection[] connections = new LoadConnection[connectionCount];
+		
+		try
+		{
+			for(int i = 0; i < connectionCount; i++)
+			{
+				Socket socket = new Socket(ipAddress, port);
+				socket.setTcpNoDelay(true);
+				String username = usernames[i % usernames.length].trim().replace("%d", Integer.toString(i));
+				ServerConnection connection = new ServerConnection(socket, username, protocol);
+				
+				if(connection.getEstablishResponse().getResponseCode() != ResponseCode.OK)
+				{
+					System.out.println("Server Could Not Process Connection Request");
+					return;
+				}
+				
+				// The load is spread evenly, with the remainder of the requests in flight going to the first connections
+				if(openLoop)
+				{
+					connections[i] = new LoadConnection(connection, corpus, i, (long) (1e9 * connectionCount / load), 0);
+				}
+				else
+				{
+					int inFlight = (int) load / connectionCount + (i < (int) load % connectionCount ? 1 : 0);
+					connections[i] = new LoadConnection(connection, corpus, i, 0, Math.max(1, inFlight));
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Fatal Connection error!");
+			e.printStackTrace();
+			return;
+		}
+		catch(ClassNotFoundException clne)
+		{
+			System.err.println("Corrupted Data!");
+			return;
+		}
+		
+		System.out.printf("%d connections, %s loop at %s, %d expressions, %s protocol\n", connectionCount, openLoop ? "open" : "closed",
+				openLoop ? load + " requests/s" : (int) load + " requests in flight", corpus.length, protocol);
+		
+		// Stagger the open-loop schedules so that the connections do not send in step
+		long startTime = System.nanoTime();
+		
+		for(int i = 0; i < connectionCount; i++)
+		{
+			connections[i].start(startTime + (long) (1e9 * i / load));
+		}
+		
+		LatencyHistogram summary = new LatencyHistogram();
+		Counts summaryCounts = new Counts();
+		long lastReport = startTime;
+		
+		// Report every interval until the run ends
+		while(lastReport - startTime < durationNanos)
+		{
+			long nextReport = Math.min(lastReport + intervalNanos, startTime + durationNanos);
+			
+			while(System.nanoTime() < nextReport)
+			{
+				LockSupport.parkNanos(nextReport - System.nanoTime());
+			}
+			
+			LatencyHistogram interval = new LatencyHistogram();
+			Counts intervalCounts = new Counts();
+			
+			for(LoadConnection connection : connections)
+			{
+				connection.drainInto(interval, intervalCounts);
+			}
+			
+			long now = System.nanoTime();
+			boolean warmingUp = nextReport - startTime <= warmupNanos;
+			printReport(String.format("%7.1f s%s", (now - startTime) / 1e9, warmingUp ? " (warm-up)" : ""), interval, intervalCounts, now - lastReport);
+			
+			if(!warmingUp)
+			{
+				summary.add(interval);
+				summaryCounts.add(intervalCounts);
+			}
+			
+			lastReport = now;
+		}
+		
+		// Let outstanding requests finish, then close every connection
+		for(LoadConnection connection : connections)
+		{
+			connection.stop();
+		}
+		
+		for(LoadConnection connection : connections)
+		{
+			connection.close();
+		}
+		
+		System.out.println();
+		printReport("Summary", summary, summaryCounts, Math.max(1, durationNanos - warmupNanos));
+	}
+	
+	/**
+	 * This method reads the expressions of a corpus file, skipping blank lines and lines
+	 * starting with #.
+	 * 
+	 * @param path The path of the corpus file
+	 * @return The expressions, or null if the file cannot be read or holds none
+	 */
+	private static String[] readCorpus(String path)
+	{
+		List<String> expressions = new ArrayList<String>();
+		
+		try
+		{
+			for(String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8))
+			{
+				String expression = line.trim();
+				
+				if(!expression.isEmpty() && !expression.startsWith("#"))
+				{
+					expressions.add(expression);
+				}
+			}
+		}
+		catch(IOException ex)
+		{
+			System.out.println("Could not read corpus file");
+			return null;
+		}
+		
+		if(expressions.isEmpty())
+		{
+			System.out.println("Corpus file holds no expressions");
+			return null;
+		}
+		
+		return expressions.toArray(new String[0]);
+	}
+	
+	/**
+	 * This method prints one line of results.
+	 * 
+	 * @param label The label of the line
+	 * @param histogram The latencies of the reported period
+	 * @param counts The response counts of the reported period
+	 * @param elapsedNanos The length of the reported period
+	 */
+	private static void printReport(String label, LatencyHistogram histogram, Counts counts, long elapsedNanos)
+	{
+		System.out.printf("%s  throughput: %.0f requests/s  p50: %.3f ms  p99: %.3f ms  p99.9: %.3f ms  max: %.3f ms  responses: %d  busy: %d  timed out: %d  failed: %d\n",
+				label, counts.responses * 1e9 / elapsedNanos, histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+				histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaximum() / 1e6, counts.responses, counts.busy, counts.timedOut, counts.failed);
+	}
+	
+	/**
+	 * The number of responses of each kind in a reported period.
+	 */
+	private static class Counts
+	{
+		private long responses;	// Calculation responses, including timed out ones
+		private long busy;		// Requests refused with a BusyResponse
+		private long timedOut;	// Calculations that exceeded the time budget of the server
+		private long failed;	// Requests answered with BAD_REQUEST
+		
+		private void add(Counts other)
+		{
+			responses += other.responses;
+			busy += other.busy;
+			timedOut += other.timedOut;
+			failed += other.failed;
+		}
+	}
+	
+	/**
+	 * One connection of the load generator. A sender thread sends the requests and a reader
+	 * thread receives the responses, so that several requests may be in flight at once;
+	 * responses are matched to their requests by request ID.
+	 */
+	private static class LoadConnection
+	{
+		private final ServerConnection connection;	// The connection to the server
+		private final String[] corpus;				// The expressions to send, in turn
+		private int nextExpression;					// The index of the next expression to send
+		private long lastRequestID;					// The request ID of the last sent request
+		
+		private final long sendIntervalNanos;		// The time between two requests in the open loop, or 0
+		private final Semaphore inFlight;			// The requests that may be sent in the closed loop, or null
+		
+		private final ConcurrentHashMap<Long, Long> sendTimes;	// The time each outstanding request was due, by request ID
+		private final LatencyHistogram histogram;				// The latencies since the last report
+		private final AtomicLong responseCount;					// The calculation responses since the last report
+		private final AtomicLong busyCount;						// The BusyResponses since the last report
+		private final AtomicLong timedOutCount;					// The TIMED_OUT responses since the last report
+		private final AtomicLong failedCount;					// The BAD_REQUEST responses since the last report
+		private long latencySum;								// The sum of every latency, for the closed-loop correction
+		private long latencyCount;								// The number of latencies in the sum
+		
+		private volatile boolean stopping;	// Reflects whether or not the sender should stop
+		private Thread sender;				// Sends the requests
+		private Thread reader;				// Receives the responses
+		
+		/**
+		 * This method starts the sender and reader threads.
+		 * 
+		 * @param firstSendTime The System.nanoTime at which the first open-loop request is due
+		 */
+		void start(final long firstSendTime)
+		{
+			reader = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					receiveResponses();
+				}
+			}, "loadgen-reader");
+			reader.setDaemon(true);
+			reader.start();
+			
+			sender = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					sendRequests(firstSendTime);
+				}
+			}, "loadgen-sender");
+			sender.setDaemon(true);
+			sender.start();
+		}
+		
+		/**
+		 * This method sends requests until the run ends. In the open loop, each request is due one
+		 * interval after the previous one; a sender that falls behind catches up at once, and the
+		 * latency of each request is measured from the time it was due.
+		 */
+		private void sendRequests(long firstSendTime)
+		{
+			long nextSendTime = firstSendTime;
+			
+			try
+			{
+				while(!stopping)
+				{
+					if(inFlight != null)
+					{
+						if(inFlight.tryAcquire(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS))
+						{
+							send(System.nanoTime());
+						}
+						
+						continue;
+					}
+					
+					long now = System.nanoTime();
+					
+					if(now < nextSendTime)
+					{
+						LockSupport.parkNanos(nextSendTime - now);
+						continue;
+					}
+					
+					send(nextSendTime);
+					nextSendTime += sendIntervalNanos;
+				}
+			}
+			catch(IOException ex)
+			{
+				System.err.println("Connection failed while sending: " + ex.getMessage());
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		/**
+		 * This method sends the next expression of the corpus
+		 */
+		private void send(long dueTime) throws IOException
+		{
+			String rawRequest = corpus[nextExpression];
+			nextExpression = (nextExpression + 1) % corpus.length;
+			
+			// The send time is recorded first, as the response may arrive before send returns
+			long requestID = ++lastRequestID;
+			sendTimes.put(requestID, dueTime);
+			connection.send(new CalculationRequest(rawRequest, requestID));
+		}
+		
+		/**
+		 * This method receives responses until the server acknowledges the termination of the connection.
+		 */
+		private void receiveResponses()
+		{
+			try
+			{
+				while(true)
+				{
+					Response response = connection.receive();
+					long now = System.nanoTime();
+					
+					if(response instanceof ConnectionTerminateResponse)
+					{
+						return;
+					}
+					
+					Long sendTime = null;
+					
+					if(response instanceof CalculationResponse)
+					{
+						sendTime = sendTimes.remove(((CalculationResponse) response).getRequestID());
+					}
+					else if(response instanceof BusyResponse)
+					{
+						sendTime = sendTimes.remove(((BusyResponse) response).getRequestID());
+					}
+					
+					if(response.getResponseCode() == ResponseCode.BUSY)
+					{
+						busyCount.incrementAndGet();
+					}
+					else if(response.getResponseCode() == ResponseCode.BAD_REQUEST)
+					{
+						failedCount.incrementAndGet();
+					}
+					else if(sendTime != null)
+					{
+						recordLatency(now - sendTime);
+						responseCount.incrementAndGet();
+						
+						if(response.getResponseCode() == ResponseCode.TIMED_OUT)
+						{
+							timedOutCount.incrementAndGet();
+						}
+					}
+					
+					if(inFlight != null)
+					{
+						inFlight.release();
+					}
+				}
+			}
+			catch(IOException ex)
+			{
+				if(!stopping)
+				{
+					System.err.println("Connection failed while receiving: " + ex.getMessage());
+				}
+			}
+			catch(ClassNotFoundException ex)
+			{
+				System.err.println("Corrupted Data!");
+			}
+		}
+		
+		/**
+		 * This method records a latency. In the closed loop, the mean latency so far is the
+		 * expected interval between two requests of an in-flight slot.
+		 */
+		private void recordLatency(long latency)
+		{
+			if(inFlight == null)
+			{
+				histogram.record(latency);
+				return;
+			}
+			
+			long expectedInterval = latencyCount == 0 ? 0 : latencySum / latencyCount;
+			latencySum += latency;
+			latencyCount++;
+			histogram.recordCorrected(latency, expectedInterval);
+		}
+		
+		/**
+		 * This method moves the latencies and counts since the last report into the provided ones
+		 */
+		void drainInto(LatencyHistogram intoHistogram, Counts intoCounts)
+		{
+			histogram.drainInto(intoHistogram);
+			intoCounts.responses += responseCount.getAndSet(0);
+			intoCounts.busy += busyCount.getAndSet(0);
+			intoCounts.timedOut += timedOutCount.getAndSet(0);
+			intoCounts.failed += failedCount.getAndSet(0);
+		}
+		
+		/**
+		 * This method stops the sender and waits a limited time for the outstanding requests.
+		 */
+		void stop()
+		{
+			stopping = true;
+			
+			try
+			{
+				sender.join();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+				
+				while(!sendTimes.isEmpty() && System.nanoTime() < deadline)
+				{
+					Thread.sleep(10);
+				}
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		/**
+		 * This method terminates the connection and waits for the reader to finish.
+		 */
+		void close()
+		{
+			try
+			{
+				connection.send(new ConnectionTerminateRequest());
+				reader.join(DRAIN_TIMEOUT_MILLIS);
+				connection.close();
+			}
+			catch(IOException ex)
+			{
+			
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		LoadConnection(ServerConnection connection_, String[] corpus_, int firstExpression, long sendIntervalNanos_, int inFlightLimit)
+		{
+			connection = connection_;
+			corpus = corpus_;
+			nextExpression = firstExpression % corpus_.length;
+			sendIntervalNanos = sendIntervalNanos_;
+			inFlight = inFlightLimit > 0 ? new Semaphore(inFlightLimit) : null;
+			sendTimes = new ConcurrentHashMap<Long, Long>();
+			histogram = new LatencyHistogram();
+			responseCount = new AtomicLong();
+			busyCount = new AtomicLong();
+			timedOutCount = new AtomicLong();
+			failedCount = new AtomicLong();
+		}
+	}
+}
@@ -0,0 +1,581 @@
+package com.github.project.client;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.Request;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.WireProtocol;
+
+/**
+ * This class implements a client of the math server that can be embedded in an application.
+ * It keeps a small pool of connections to the server, each doing its own handshake, and
+ * multiplexes the calculations of any number of application threads onto them: calculate
+ * queues the expression and returns a CompletableFuture at once, so the calling thread never
+ * waits on the socket.
+ * 
+ * Each connection has a writer thread that takes queued calculations while the connection has
+ * fewer than maximumInFlight of them unanswered, tags them with request IDs and sends them
+ * with one flush, and a reader thread that completes the futures as the responses arrive in
+ * any order. Calculations beyond the in-flight limits wait in the queue, which holds at most
+ * maximumQueued of them; calculate fails the returned future with a RejectedExecutionException
+ * once it is full. A calculation answered with a BusyResponse is queued again after the wait
+ * the server asked for, which grows with each BUSY answer as in MathClientMain.
+ * 
+ * When a connection fails, its unanswered calculations are queued again for the other
+ * connections and the connection is reopened, waiting longer after each failed attempt.
+ * Calculations are retried while the server is busy and wait in the queue while no connection
+ * is open, so callers that cannot wait indefinitely should bound the futures with orTimeout.
+ * The futures complete on the reader threads, so slow dependent actions should use the async
+ * methods of CompletableFuture.
+ * 
+ * close sends the ConnectionTerminateRequest on each connection once every calculation has
+ * been answered, and fails the calculations that could not be sent with an IOException.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class MathClient implements AutoCloseable
+{
+	public static final int DEFAULT_CONNECTIONS = 2;				// Default size of the connection pool
+	public static final int DEFAULT_MAXIMUM_IN_FLIGHT = 256;		// Default number of unanswered calculations per connection
+	public static final int DEFAULT_MAXIMUM_QUEUED = 65536;			// Default number of calculations waiting to be sent
+	
+	private static final long POLL_MILLIS = 100;					// The longest a writer waits before checking its connection
+	private static final long INITIAL_RECONNECT_MILLIS = 100;		// The wait before the first attempt to reopen a connection
+	private static final long MAXIMUM_RECONNECT_MILLIS = 5000;		// The longest wait between two attempts to reopen a connection
+	private static final int MAXIMUM_BATCH = 64;					// The most calculations sent with one flush
+	
+	private final String host;						// The host name of the server
+	private final int port;							// The port of the server
+	private final String username;					// The username of the connections
+	private final WireProtocol protocol;			// The wire protocol requested by the connections
+	private final int maximumInFlight;				// The most unanswered calculations per connection
+	
+	private final LinkedBlockingDeque<PendingCalculation> queue;	// The calculations waiting to be sent
+	private final AtomicInteger unfinished;							// The calculations whose futures are not complete
+	private final ScheduledThreadPoolExecutor retryTimer;			// Queues BUSY calculations again after their wait
+	private final PooledConnection[] connections;					// The pool of connections
+	private final Thread[] writerThreads;							// The writer thread of each connection
+	
+	private volatile boolean closing;				// True once close has been called
+	private volatile boolean closed;				// True once close has failed the queued calculations
+	
+	/**
+	 * This method queues an expression for evaluation by the server. It does not wait for the
+	 * connection.
+	 * 
+	 * @param expression The math processing request to evaluate
+	 * @return A future completed with the CalculationResponse, or exceptionally if the
+	 * calculation cannot be sent
+	 */
+	public CompletableFuture<CalculationResponse> calculate(String expression)
+	{
+		CompletableFuture<CalculationResponse> future = new CompletableFuture<CalculationResponse>();
+		
+		if(closing)
+		{
+			future.completeExceptionally(new IllegalStateException("The client is closed"));
+			return future;
+		}
+		
+		unfinished.incrementAndGet();
+		
+		if(!queue.offerLast(new PendingCalculation(expression, future)))
+		{
+			unfinished.decrementAndGet();
+			future.completeExceptionally(new RejectedExecutionException("Too many calculations are waiting to be sent"));
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * This method returns the number of calculations whose futures are not yet complete
+	 * 
+	 * @return The number of queued, in flight and retrying calculations
+	 */
+	public int getUnfinishedCount()
+	{
+		return unfinished.get();
+	}
+	
+	/**
+	 * This method waits for every calculation to be answered, terminates each connection and
+	 * stops the threads of the client. Calculations left unsent because their connection
+	 * failed during the close are failed with an IOException. If the calling thread is
+	 * interrupted, it stops waiting, fails the calculations still queued and keeps its
+	 * interrupt status.
+	 */
+	public void close()
+	{
+		closing = true;
+		
+		try
+		{
+			for(Thread writerThread : writerThreads)
+			{
+				writerThread.join();
+			}
+			
+			// Let the waiting retries queue their calculations, so they are failed with the rest
+			retryTimer.shutdown();
+			retryTimer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch(InterruptedException ex)
+		{
+			// Retries still waiting fail themselves in requeue once they find the client closed
+			retryTimer.shutdown();
+			Thread.currentThread().interrupt();
+		}
+		
+		closed = true;
+		PendingCalculation calculation;
+		
+		while((calculation = queue.pollFirst()) != null)
+		{
+			fail(calculation, new IOException("The client was closed before the calculation was sent"));
+		}
+	}
+	
+	/**
+	 * This method completes the future of a calculation with its response
+	 */
+	private void complete(PendingCalculation calculation, CalculationResponse response)
+	{
+		unfinished.decrementAndGet();
+		calculation.future.complete(response);
+	}
+	
+	/**
+	 * This method completes the future of a calculation exceptionally
+	 */
+	private void fail(PendingCalculation calculation, Throwable cause)
+	{
+		unfinished.decrementAndGet();
+		calculation.future.completeExceptionally(cause);
+	}
+	
+	/**
+	 * This method queues a calculation answered with a BusyResponse again after the wait the
+	 * server asked for.
+	 */
+	private void retryLater(PendingCalculation calculation, BusyResponse busy)
+	{
+		long delay = MathClientMain.backoffMillis(busy, calculation.attempts++);
+		
+		try
+		{
+			retryTimer.schedule(new RetryTask(calculation), delay, TimeUnit.MILLISECONDS);
+		}
+		catch(RejectedExecutionException ex)
+		{
+			fail(calculation, new IOException("The client was closed before the calculation was sent"));
+		}
+	}
+	
+	/**
+	 * This method puts a calculation back at the head of the queue, failing it if the queue
+	 * is full or if close has already failed the queued calculations.
+	 */
+	private void requeue(PendingCalculation calculation)
+	{
+		if(!queue.offerFirst(calculation))
+		{
+			fail(calculation, new RejectedExecutionException("Too many calculations are waiting to be sent"));
+		}
+		else if(closed && queue.remove(calculation))
+		{
+			fail(calculation, new IOException("The client was closed before the calculation was sent"));
+		}
+	}
+	
+	/**
+	 * Creates a MathClient object with DEFAULT_CONNECTIONS binary connections to the server.
+	 * The connections are opened in the background.
+	 * 
+	 * @param host_ The host name of the server
+	 * @param port_ The port of the server
+	 * @param username_ The username of the connections
+	 */
+	public MathClient(String host_, int port_, String username_)
+	{
+		this(host_, port_, username_, WireProtocol.BINARY, DEFAULT_CONNECTIONS, DEFAULT_MAXIMUM_IN_FLIGHT, DEFAULT_MAXIMUM_QUEUED);
+	}
+	
+	/**
+	 * Creates a MathClient object. The connections are opened in the background.
+	 * 
+	 * @param host_ The host name of the server
+	 * @param port_ The port of the server
+	 * @param username_ The username of the connections
+	 * @param protocol_ The wire protocol to request for the messages after the handshake
+	 * @param connectionCount The number of connections to keep open
+	 * @param maximumInFlight_ The most unanswered calculations per connection
+	 * @param maximumQueued The most calculations waiting to be sent
+	 */
+	public MathClient(String host_, int port_, String username_, WireProtocol protocol_, int connectionCount, int maximumInFlight_, int maximumQueued)
+	{
+		if(connectionCount < 1 || maximumInFlight_ < 1 || maximumQueued < 1)
+		{
+			throw new IllegalArgumentException("The connection count and the limits must be positive");
+		}
+		
+		host = host_;
+		port = port_;
+		username = username_;
+		protocol = protocol_;
+		maximumInFlight = maximumInFlight_;
+		
+		queue = new LinkedBlockingDeque<PendingCalculation>(maximumQueued);
+		unfinished = new AtomicInteger();
+		retryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "math-client-retry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		connections = new PooledConnection[connectionCount];
+		writerThreads = new Thread[connectionCount];
+		
+		for(int i = 0; i < connectionCount; i++)
+		{
+			connections[i] = new PooledConnection(i);
+			writerThreads[i] = new Thread(connections[i], "math-client-" + i);
+			writerThreads[i].setDaemon(true);
+			writerThreads[i].start();
+		}
+	}
+	
+	/**
+	 * A calculation waiting for its response.
+	 */
+	private static class PendingCalculation
+	{
+		private final String expression;								// The math processing request
+		private final CompletableFuture<CalculationResponse> future;	// The future completed with the response
+		private int attempts;											// The number of BUSY answers so far
+		
+		PendingCalculation(String expression_, CompletableFuture<CalculationResponse> future_)
+		{
+			expression = expression_;
+			future = future_;
+		}
+	}
+	
+	/**
+	 * The timer task that queues a BUSY calculation again.
+	 */
+	private class RetryTask implements Runnable
+	{
+		private final PendingCalculation calculation;	// The calculation to queue again
+		
+		public void run()
+		{
+			requeue(calculation);
+		}
+		
+		RetryTask(PendingCalculation calculation_)
+		{
+			calculation = calculation_;
+		}
+	}
+	
+	/**
+	 * One connection of the pool. Its run method is the writer thread: it opens the
+	 * connection, sends queued calculations until the connection fails, and reopens it.
+	 */
+	private class PooledConnection implements Runnable
+	{
+		private final int index;												// The position of the connection in the pool
+		private final Semaphore inFlight;										// Permits for the unanswered calculations
+		private final Map<Long, PendingCalculation> outstanding;				// The unanswered calculations, by request ID
+		
+		private ServerConnection connection;	// The open connection, or null
+		private Thread readerThread;			// The reader thread of the open connection
+		private volatile boolean failed;		// True once the reader has seen the connection fail
+		private long lastRequestID;				// The request ID of the last sent calculation
+		
+		public void run()
+		{
+			long reconnectMillis = INITIAL_RECONNECT_MILLIS;
+			
+			while(true)
+			{
+				try
+				{
+					open();
+					reconnectMillis = INITIAL_RECONNECT_MILLIS;
+					
+					if(serve())
+					{
+						return;
+					}
+				}
+				catch(IOException | ClassNotFoundException ex)
+				{
+					// Fall through to reopen the connection
+				}
+				catch(InterruptedException ex)
+				{
+					shutdown();
+					return;
+				}
+				
+				shutdown();
+				
+				if(closing)
+				{
+					return;
+				}
+				
+				try
+				{
+					Thread.sleep(reconnectMillis);
+				}
+				catch(InterruptedException ex)
+				{
+					return;
+				}
+				
+				reconnectMillis = Math.min(MAXIMUM_RECONNECT_MILLIS, reconnectMillis * 2);
+			}
+		}
+		
+		/**
+		 * This method sends queued calculations until the connection fails, returning false, or
+		 * until the client is closed and every calculation has been answered, returning true
+		 * after terminating the connection.
+		 */
+		private boolean serve() throws IOException, ClassNotFoundException, InterruptedException
+		{
+			ArrayList<Request> batch = new ArrayList<Request>(MAXIMUM_BATCH);
+			
+			while(!failed)
+			{
+				if(closing && unfinished.get() == 0)
+				{
+					terminate();
+					return true;
+				}
+				
+				if(!inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS))
+				{
+					continue;
+				}
+				
+				PendingCalculation calculation = queue.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				
+				if(calculation == null)
+				{
+					inFlight.release();
+					continue;
+				}
+				
+				// Take as many more calculations as the in-flight limit allows without waiting
+				while(calculation != null)
+				{
+					long requestID = ++lastRequestID;
+					outstanding.put(requestID, calculation);
+					batch.add(new CalculationRequest(calculation.expression, requestID));
+					calculation = null;
+					
+					if(batch.size() < MAXIMUM_BATCH && inFlight.tryAcquire() && (calculation = queue.pollFirst()) == null)
+					{
+						inFlight.release();
+					}
+				}
+				
+				connection.sendAll(batch.toArray(new Request[batch.size()]));
+				batch.clear();
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * This method opens the connection and starts its reader thread. A connection the
+		 * server refuses is closed again, so that shutdown has nothing to clean up.
+		 */
+		private void open() throws IOException, ClassNotFoundException
+		{
+			Socket socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			ServerConnection openedConnection;
+			
+			try
+			{
+				openedConnection = new ServerConnection(socket, username, protocol);
+			}
+			catch(IOException | ClassNotFoundException | RuntimeException ex)
+			{
+				socket.close();
+				throw ex;
+			}
+			
+			if(openedConnection.getEstablishResponse().getResponseCode() != ResponseCode.OK)
+			{
+				socket.close();
+				throw new IOException("The server refused the connection");
+			}
+			
+			connection = openedConnection;
+			failed = false;
+			readerThread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					receiveResponses();
+				}
+			}, "math-client-" + index + "-reader");
+			readerThread.setDaemon(true);
+			readerThread.start();
+		}
+		
+		/**
+		 * This method sends the ConnectionTerminateRequest and waits for the reader thread to
+		 * receive the ConnectionTerminateResponse.
+		 */
+		private void terminate() throws IOException, InterruptedException
+		{
+			connection.send(new ConnectionTerminateRequest());
+			readerThread.join();
+		}
+		
+		/**
+		 * This method closes the connection, waits for its reader thread, and queues its
+		 * unanswered calculations again.
+		 */
+		private void shutdown()
+		{
+			if(connection == null)
+			{
+				return;
+			}
+			
+			try
+			{
+				connection.close();
+			}
+			catch(IOException ex)
+			{
+				// The connection is abandoned either way
+			}
+			
+			try
+			{
+				readerThread.join();
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+			
+			for(Long requestID : outstanding.keySet())
+			{
+				PendingCalculation calculation = outstanding.remove(requestID);
+				
+				if(calculation != null)
+				{
+					inFlight.release();
+					requeue(calculation);
+				}
+			}
+			
+			connection = null;
+			readerThread = null;
+		}
+		
+		/**
+		 * This method is the body of the reader thread. It completes the futures of the
+		 * answered calculations until the connection terminates or fails.
+		 */
+		private void receiveResponses()
+		{
+			try
+			{
+				while(true)
+				{
+					Response response = connection.receive();
+					
+					if(response instanceof ConnectionTerminateResponse)
+					{
+						return;
+					}
+					
+					PendingCalculation calculation;
+					
+					if(response instanceof CalculationResponse)
+					{
+						CalculationResponse calculationResponse = (CalculationResponse) response;
+						calculation = outstanding.remove(calculationResponse.getRequestID());
+						
+						if(calculation != null)
+						{
+							inFlight.release();
+							complete(calculation, calculationResponse);
+							continue;
+						}
+					}
+					else if(response instanceof BusyResponse)
+					{
+						BusyResponse busy = (BusyResponse) response;
+						calculation = outstanding.remove(busy.getRequestID());
+						
+						if(calculation != null)
+						{
+							inFlight.release();
+							retryLater(calculation, busy);
+							continue;
+						}
+					}
+					
+					throw new StreamCorruptedException("Unexpected response from the server");
+				}
+			}
+			catch(IOException | ClassNotFoundException | RuntimeException ex)
+			{
+				failed = true;
+				
+				try
+				{
+					connection.close();
+				}
+				catch(IOException closeEx)
+				{
+					// The writer thread reopens the connection
+				}
+			}
+		}
+		
+		PooledConnection(int index_)
+		{
+			index = index_;
+			inFlight = new Semaphore(maximumInFlight);
+			outstanding = new ConcurrentHashMap<Long, PendingCalculation>();
+		}
+	}
+}
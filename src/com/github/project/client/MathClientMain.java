@@ -4,14 +4,16 @@ import java.io.IOException;
 import java.net.Socket;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
-import com.github.project.core.CalculationRequest;
+import com.github.project.core.BusyResponse;
 import com.github.project.core.CalculationResponse;
-import com.github.project.core.ConnectionEstablishRequest;
 import com.github.project.core.ConnectionEstablishResponse;
 import com.github.project.core.ConnectionTerminateRequest;
 import com.github.project.core.Response;
 import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsResponse;
+import com.github.project.core.WireProtocol;
 
 /**
  * This is the main class of the client-side program. 
@@ -23,12 +25,17 @@ import com.github.project.core.ResponseCode;
 
 public class MathClientMain 
 {
+	private static final int MAXIMUM_BUSY_RETRIES = 5;		// The number of times a refused request is sent again
+	private static final int MAXIMUM_BACKOFF_MILLIS = 5000;	// The longest wait before sending a refused request again
+	
 	/**
 	 * Executes client in procedural fashion. The client parses command-line arguments, 
 	 * connects to the server, receives user input, sends calculation requests, receives 
 	 * responses, prints them to the screen, and terminates connection with the server.
+	 * The input "stats" prints the live metrics of the server instead. If the mathclient.input
+	 * system property is set, the expressions are streamed by a StreamingClient instead.
 	 * 
-	 * @param args The command line arguments (0: ip address, 1: port, 2: username)
+	 * @param args The command line arguments (0: ip address, 1: port, 2: username, 3: optional wire protocol, "binary" or "serialized")
 	 */
 	public static void main(String[] args)
 	{
@@ -37,7 +44,41 @@ public class MathClientMain
 		
 		// Set the username equal to the third argument
 		String userName = args[2];
-	
+		
+		// Request the binary wire protocol if the fourth argument asks for it
+		WireProtocol requestedProtocol = WireProtocol.SERIALIZED;
+		
+		if(args.length > 3)
+		{
+			try
+			{
+				requestedProtocol = WireProtocol.valueOf(args[3].toUpperCase());
+			}
+			catch(IllegalArgumentException ex)
+			{
+				System.out.println("Unknown wire protocol");
+				return;
+			}
+		}
+		
+		// Stream expressions without prompting if an input is given with the mathclient.input system property
+		StreamingClient streamingClient;
+		
+		try
+		{
+			streamingClient = StreamingClient.fromSystemProperties();
+		}
+		catch(IllegalArgumentException ex)
+		{
+			System.out.println("Unknown streaming format or window");
+			return;
+		}
+		catch(IOException ex)
+		{
+			System.err.println("Cannot Open Streaming Input Or Output!");
+			return;
+		}
+		
 		// Validate port number and create socket
 		try 
 		{
@@ -68,17 +109,10 @@ public class MathClientMain
 		
 		try
 		{
-			// Create input and output streams from the socket
-			ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-			ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+			// Send a ConnectionEstablishRequest with the provided username and wait for a response
+			ServerConnection connection = new ServerConnection(socket, userName, requestedProtocol);
+			ConnectionEstablishResponse conEstResponse = connection.getEstablishResponse();
 			
-			// Create a ConnectionEstablishRequest with the provided username and send it to the server
-			ConnectionEstablishRequest cer = new ConnectionEstablishRequest(userName);
-			oos.writeObject(cer);
-			
-			// Wait for a response
-			ConnectionEstablishResponse conEstResponse = (ConnectionEstablishResponse) ois.readObject();
-		
 			// If the server received it as a bad request, print error and exit
 			if(conEstResponse.getResponseCode() == ResponseCode.BAD_REQUEST)
 			{
@@ -86,6 +120,13 @@ public class MathClientMain
 				return;
 			}
 			
+			// Stream the expressions and results instead of prompting; the results may be on the standard output
+			if(streamingClient != null)
+			{
+				streamingClient.stream(connection);
+				return;
+			}
+			
 			// Notify user of successful connection
 			System.out.println("Client-Server Connection Established");
 			
@@ -93,19 +134,42 @@ public class MathClientMain
 			Scanner sc = new Scanner(System.in);
 			String input = null;
 			
-			CalculationRequest cr = null;
-			
 			System.out.print("Input: ");
 			
 			// Keep reading input, sending CalculationRequests, and receiving CalculationResponses until user types exit
 			while(!(input = sc.nextLine()).equals("exit"))
 			{
-				// Send request
-				cr = new CalculationRequest(input);
-				oos.writeObject(cr);
+				// Print the live metrics of the server instead of calculating
+				if(input.equals("stats"))
+				{
+					printStats(connection);
+					System.out.print("Input: ");
+					continue;
+				}
+				
+				long requestID;
+				Response calculationResponse;
+				
+				// Send request and receive response, backing off and sending it again while the server is busy
+				for(int attempt = 0; ; attempt++)
+				{
+					requestID = connection.sendCalculation(input);
+					calculationResponse = connection.receive();
+					
+					if(calculationResponse.getResponseCode() != ResponseCode.BUSY || attempt == MAXIMUM_BUSY_RETRIES)
+					{
+						break;
+					}
+					
+					backOff((BusyResponse) calculationResponse, attempt);
+				}
 				
-				// Receive response
-				Response calculationResponse =  (Response)ois.readObject();
+				// Print error if the server stayed busy and wait for next input
+				if(calculationResponse.getResponseCode() == ResponseCode.BUSY)
+				{
+					System.out.println("Server Is Busy. Try Again Later.");
+					continue;
+				}
 				
 				// Print error if the server received a bad request and wait for next input
 				if(calculationResponse.getResponseCode() == ResponseCode.BAD_REQUEST)
@@ -114,8 +178,22 @@ public class MathClientMain
 					continue;
 				}
 				
-				// Cast the correct response
+				// Print error if the calculation was cancelled for taking too long and wait for next input
+				if(calculationResponse.getResponseCode() == ResponseCode.TIMED_OUT)
+				{
+					System.out.println("Calculation Took Too Long. Try A Simpler Request.");
+					continue;
+				}
+				
+				// Cast the correct response and make sure it answers the request just sent
 				CalculationResponse calResponse = (CalculationResponse) calculationResponse;
+				
+				if(calResponse.getRequestID() != requestID)
+				{
+					System.out.println("Server Answered An Unknown Request. Try Again.");
+					continue;
+				}
+				
 				double result = calResponse.getCalculationResult();
 				String errorString = calResponse.getCalculationErrorDesc();
 				
@@ -136,9 +214,9 @@ public class MathClientMain
 			// Attempt to send this request 5 times or until accepted
 			for(int i = 0; i < 5; i++)
 			{
-				oos.writeObject(ctr);
+				connection.send(ctr);
 				
-				Response terminateResponse = (Response) ois.readObject();
+				Response terminateResponse = connection.receive();
 				
 				if(terminateResponse.getResponseCode() == ResponseCode.BAD_REQUEST)
 				{
@@ -149,7 +227,7 @@ public class MathClientMain
 			}
 			
 			// Close this connection
-			socket.close();
+			connection.close();
 		}
 		catch(IOException e) 
 		{
@@ -163,4 +241,62 @@ public class MathClientMain
 			return;
 		}
 	}
+	
+	/**
+	 * Asks the server for its live metrics and prints one metric per line.
+	 * 
+	 * @param connection The connection to the server
+	 * @throws IOException Thrown if the connection fails
+	 * @throws ClassNotFoundException Thrown if the received message is of an unknown type
+	 */
+	private static void printStats(ServerConnection connection) throws IOException, ClassNotFoundException
+	{
+		long requestID = connection.sendStats();
+		Response response = connection.receive();
+		
+		if(!(response instanceof StatsResponse) || ((StatsResponse) response).getRequestID() != requestID)
+		{
+			System.out.println("Server Could Not Report Its Statistics.");
+			return;
+		}
+		
+		for(Map.Entry<String, Long> metric : ((StatsResponse) response).getMetrics().entrySet())
+		{
+			System.out.printf("%s: %d\n", metric.getKey(), metric.getValue());
+		}
+	}
+	
+	/**
+	 * Returns how long to wait before a refused request is sent again. The wait starts at the 
+	 * delay suggested by the server and doubles with every attempt, up to a maximum. A random 
+	 * part of the wait is left out so that clients refused together do not all return at the 
+	 * same moment.
+	 * 
+	 * @param busyResponse The BusyResponse that refused the request
+	 * @param attempt The number of times the request has already been sent again
+	 * @return The wait in milliseconds
+	 */
+	static long backoffMillis(BusyResponse busyResponse, int attempt)
+	{
+		long backoffMillis = Math.min(MAXIMUM_BACKOFF_MILLIS, (long) busyResponse.getRetryAfterMillis() << Math.min(attempt, 16));
+		return backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+	}
+	
+	/**
+	 * Waits before a refused request is sent again, as long as backoffMillis returns.
+	 * 
+	 * @param busyResponse The BusyResponse that refused the request
+	 * @param attempt The number of times the request has already been sent again
+	 */
+	private static void backOff(BusyResponse busyResponse, int attempt)
+	{
+		try
+		{
+			Thread.sleep(backoffMillis(busyResponse, attempt));
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
 }
@@ -0,0 +1,292 @@
+package com.github.project.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+import com.github.project.core.BinaryMessageCodec;
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.ConnectionEstablishRequest;
+import com.github.project.core.ConnectionEstablishResponse;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.PrepareRequest;
+import com.github.project.core.Request;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepRequest;
+import com.github.project.core.WireProtocol;
+
+/**
+ * This class implements the client side of an app-layer connection with the server. It sends
+ * the ConnectionEstablishRequest with Java serialization, then sends and receives the rest of
+ * the messages in the wire protocol the server accepted.
+ * 
+ * Calculation requests sent with sendCalculation carry a request ID, so any number of them
+ * may be in flight at once. Their responses may arrive in any order and are matched to the
+ * requests by the ID they echo.
+ * 
+ * The send methods are synchronized, so several threads may send on one connection while
+ * another thread receives. The serialized output stream is reset every RESET_INTERVAL
+ * messages, so that neither side keeps every message of a long connection referenced.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ServerConnection
+{
+	private static final int RESET_INTERVAL = 1024; // The number of serialized messages sent between stream resets
+	
+	private final Socket socket;	// The socket connected to the server
+	
+	private final ObjectOutputStream oos;	// Output stream of the serialized messages
+	private final ObjectInputStream ois;	// Input stream of the serialized messages
+	private DataOutputStream binaryOutput;	// Output stream of the binary messages, once negotiated
+	private DataInputStream binaryInput;	// Input stream of the binary messages, once negotiated
+	
+	private final ConnectionEstablishResponse establishResponse;	// The server's answer to the handshake
+	private long lastRequestID;										// The request ID of the last sent CalculationRequest
+	private int messagesSinceReset;									// The serialized messages sent since the last stream reset
+	
+	/**
+	 * This method returns the server's answer to the handshake
+	 * 
+	 * @return The received ConnectionEstablishResponse
+	 */
+	public ConnectionEstablishResponse getEstablishResponse()
+	{
+		return establishResponse;
+	}
+	
+	/**
+	 * This method returns the wire protocol of the messages after the handshake
+	 * 
+	 * @return The wire protocol accepted by the server
+	 */
+	public WireProtocol getWireProtocol()
+	{
+		return establishResponse.getWireProtocol();
+	}
+	
+	/**
+	 * This method sends the passed Request message to the server.
+	 * 
+	 * @param request The Request object to send to the server
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized void send(Request request) throws IOException
+	{
+		write(request);
+		flush();
+	}
+	
+	/**
+	 * This method sends the passed Request messages to the server, flushing the socket once
+	 * after the last of them.
+	 * 
+	 * @param requests The Request objects to send to the server, in order
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized void sendAll(Request[] requests) throws IOException
+	{
+		for(Request request : requests)
+		{
+			write(request);
+		}
+		
+		flush();
+	}
+	
+	/**
+	 * This method sends a CalculationRequest tagged with a new request ID. It does not wait
+	 * for the response.
+	 * 
+	 * @param rawRequest The math processing request to send
+	 * @return The request ID that the CalculationResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendCalculation(String rawRequest) throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new CalculationRequest(rawRequest, requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method sends a CalculationBatchRequest tagged with a new request ID. It does not
+	 * wait for the CalculationBatchResponse.
+	 * 
+	 * @param rawRequests The math processing requests to send in one message
+	 * @return The request ID that the CalculationBatchResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendCalculationBatch(String[] rawRequests) throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new CalculationBatchRequest(rawRequests, requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method sends a PrepareRequest tagged with a new request ID. It does not wait for the
+	 * PrepareResponse, whose handle is valid on this connection only.
+	 * 
+	 * @param expression The expression to prepare, written in terms of its parameters
+	 * @param parameterNames The names of the parameters, in the order their values are sent
+	 * @return The request ID that the PrepareResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendPrepare(String expression, String[] parameterNames) throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new PrepareRequest(expression, parameterNames, requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method sends an ExecutePreparedRequest tagged with a new request ID. It does not
+	 * wait for the CalculationBatchResponse.
+	 * 
+	 * @param handle The handle returned by the PrepareResponse
+	 * @param parameterValues The parameter values, row after row
+	 * @return The request ID that the CalculationBatchResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendExecutePrepared(int handle, double[] parameterValues) throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new ExecutePreparedRequest(handle, parameterValues, requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method sends a SweepRequest tagged with a new request ID. It does not wait for the
+	 * SweepChunkResponses, which arrive in any order until the one flagged as last.
+	 * 
+	 * @param expression The expression to calculate, written in terms of the variables
+	 * @param variableNames The names of the swept variables, the slowest changing first
+	 * @param starts The first value of each variable
+	 * @param steps The step of each variable
+	 * @param counts The number of values of each variable
+	 * @return The request ID that every SweepChunkResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendSweep(String expression, String[] variableNames, double[] starts, double[] steps, long[] counts) throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new SweepRequest(expression, variableNames, starts, steps, counts, requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method sends a StatsRequest tagged with a new request ID. It does not wait for the
+	 * StatsResponse.
+	 * 
+	 * @return The request ID that the StatsResponse will carry
+	 * @throws IOException Thrown if the connection fails
+	 */
+	public synchronized long sendStats() throws IOException
+	{
+		long requestID = ++lastRequestID;
+		send(new StatsRequest(requestID));
+		return requestID;
+	}
+	
+	/**
+	 * This method waits for the next Response message from the server.
+	 * 
+	 * @return The received Response object
+	 * @throws IOException Thrown if the connection fails
+	 * @throws ClassNotFoundException Thrown if the received message is of an unknown type
+	 */
+	public Response receive() throws IOException, ClassNotFoundException
+	{
+		if(binaryInput != null)
+		{
+			return (Response) BinaryMessageCodec.readMessage(binaryInput);
+		}
+		
+		return (Response) ois.readObject();
+	}
+	
+	/**
+	 * This method writes one Request message to the buffered output stream without flushing it
+	 */
+	private void write(Request request) throws IOException
+	{
+		if(binaryOutput != null)
+		{
+			BinaryMessageCodec.writeMessage(binaryOutput, request);
+			return;
+		}
+		
+		oos.writeObject(request);
+		
+		if(++messagesSinceReset >= RESET_INTERVAL)
+		{
+			oos.reset();
+			messagesSinceReset = 0;
+		}
+	}
+	
+	/**
+	 * This method flushes the buffered output stream to the socket
+	 */
+	private void flush() throws IOException
+	{
+		if(binaryOutput != null)
+		{
+			binaryOutput.flush();
+		}
+		else
+		{
+			oos.flush();
+		}
+	}
+	
+	/**
+	 * This method closes the socket of this connection.
+	 * 
+	 * @throws IOException Thrown if the socket cannot be closed
+	 */
+	public void close() throws IOException
+	{
+		socket.close();
+	}
+	
+	/**
+	 * Creates a ServerConnection object by performing the app-layer handshake on the passed
+	 * socket. The requested wire protocol is used only if the server accepts it.
+	 * 
+	 * @param socket_ The socket connected to the server
+	 * @param username The username of the connection
+	 * @param requestedProtocol The wire protocol to request for the messages after the handshake
+	 * @throws IOException Thrown if the connection fails
+	 * @throws ClassNotFoundException Thrown if the server answers with an unknown message
+	 */
+	public ServerConnection(Socket socket_, String username, WireProtocol requestedProtocol) throws IOException, ClassNotFoundException
+	{
+		socket = socket_;
+		oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		oos.flush();
+		ois = new ObjectInputStream(socket.getInputStream());
+		
+		oos.writeObject(new ConnectionEstablishRequest(username, requestedProtocol));
+		oos.flush();
+		establishResponse = (ConnectionEstablishResponse) ois.readObject();
+		
+		// The object streams do not read ahead, so the binary streams start right after the handshake
+		if(establishResponse.getResponseCode() == ResponseCode.OK && establishResponse.getWireProtocol() == WireProtocol.BINARY)
+		{
+			binaryOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			binaryInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		}
+	}
+}
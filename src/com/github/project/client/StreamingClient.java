@@ -0,0 +1,403 @@
+package com.github.project.client;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.Response;
+
+/**
+ * This class implements the non-interactive mode of the client. It reads one expression per
+ * line from a file or the standard input and sends each as a CalculationRequest without waiting
+ * for the previous responses, keeping up to a window of requests outstanding. The responses
+ * arrive in any order and are matched by request ID; the results are written in input order as
+ * soon as every earlier result is written, so at most a window of expressions is ever held
+ * and inputs of any size stream through in constant memory. A request refused with a
+ * BusyResponse is sent again after a back-off, as many times as needed.
+ * 
+ * The mode is selected with the mathclient.input system property, a file path or "-" for the
+ * standard input. The results are written to mathclient.output (a file path, default "-" for
+ * the standard output) in the mathclient.format format: CSV (the default) writes a header and
+ * one expression,result,error row per line, and BINARY writes one 8-byte big-endian double
+ * per line, NaN for a failed calculation. mathclient.window sets the number of outstanding
+ * requests (default 1024).
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class StreamingClient
+{
+	private static final int DEFAULT_WINDOW = 1024; // Default number of outstanding requests
+	
+	private final BufferedReader input;			// The expressions, one per line
+	private final OutputStream output;			// Receives the results in input order
+	private final OutputFormat format;			// The encoding of the results
+	private final BufferedWriter csvOutput;		// Writes the rows of the CSV format
+	private final DataOutputStream binaryOutput;	// Writes the doubles of the BINARY format
+	private final int window;					// The number of outstanding requests
+	
+	private final Semaphore windowPermits;						// One permit per free slot of the window
+	private final AtomicReferenceArray<String> expressions;		// The expression of each slot, by sequence number modulo the window
+	private final double[] results;								// The result of each slot, used by the receiving thread only
+	private final String[] errors;								// The error message of each slot, used by the receiving thread only
+	private final boolean[] completed;							// Whether or not each slot has its result, used by the receiving thread only
+	private final int[] attempts;								// The number of times each slot was refused, used by the receiving thread only
+	private long nextToWrite;									// The sequence number of the next result to write, used by the receiving thread only
+	private long retriedCount;									// The number of requests sent again, used by the receiving thread only
+	private volatile Exception failure;							// The error that stopped the receiving thread, if any
+	
+	/**
+	 * This method creates a StreamingClient configured by the mathclient system properties
+	 * and opens its input and output.
+	 * 
+	 * @return The StreamingClient, or null if mathclient.input is not set
+	 * @throws IOException Thrown if the input or output cannot be opened
+	 * @throws IllegalArgumentException Thrown if the format or window is not valid
+	 */
+	public static StreamingClient fromSystemProperties() throws IOException
+	{
+		String inputPath = System.getProperty("mathclient.input");
+		
+		if(inputPath == null)
+		{
+			return null;
+		}
+		
+		OutputFormat format = OutputFormat.valueOf(System.getProperty("mathclient.format", "CSV").toUpperCase());
+		int window = Integer.getInteger("mathclient.window", DEFAULT_WINDOW);
+		
+		if(window < 1)
+		{
+			throw new IllegalArgumentException("The window must be positive");
+		}
+		
+		String outputPath = System.getProperty("mathclient.output", "-");
+		InputStream in = "-".equals(inputPath) ? System.in : new FileInputStream(inputPath);
+		OutputStream out = "-".equals(outputPath) ? System.out : new FileOutputStream(outputPath);
+		return new StreamingClient(in, out, format, window);
+	}
+	
+	/**
+	 * This method streams every expression of the input through the connection and writes the
+	 * results, then terminates the connection. A summary is printed to the standard error.
+	 * 
+	 * @param connection The established connection to the server
+	 * @throws IOException Thrown if the connection, the input or the output fails
+	 */
+	public void stream(final ServerConnection connection) throws IOException
+	{
+		long start = System.nanoTime();
+		
+		// Refused requests are sent again from a timer thread, so that their back-off never delays other responses
+		final ScheduledThreadPoolExecutor retryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "stream-retry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		Thread receiver = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				receiveResults(connection, retryTimer);
+			}
+		}, "stream-receiver");
+		receiver.start();
+		
+		long sequenceNumber = 0;
+		String expression;
+		
+		try
+		{
+			// Send every line once the window has room for it
+			while((expression = input.readLine()) != null)
+			{
+				acquireWindow(1);
+				expressions.set(slotOf(sequenceNumber), expression);
+				connection.send(new CalculationRequest(expression, requestIDOf(sequenceNumber)));
+				sequenceNumber++;
+			}
+			
+			// Every permit is back once every result is written
+			acquireWindow(window);
+			connection.send(new ConnectionTerminateRequest());
+			join(receiver);
+		}
+		finally
+		{
+			retryTimer.shutdownNow();
+			input.close();
+			
+			if(failure != null || receiver.isAlive())
+			{
+				connection.close();
+			}
+		}
+		
+		if(failure != null)
+		{
+			throw new IOException("Streaming failed", failure);
+		}
+		
+		if(format == OutputFormat.CSV)
+		{
+			csvOutput.flush();
+		}
+		else
+		{
+			binaryOutput.flush();
+		}
+		
+		if(output != System.out)
+		{
+			output.close();
+		}
+		
+		connection.close();
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("Streamed %d expressions in %.1f s (%.0f per second), %d sent again after a busy response\n", sequenceNumber, seconds, sequenceNumber / seconds, retriedCount);
+	}
+	
+	/**
+	 * The loop of the receiving thread. It stores every result in its slot, writes the results
+	 * that are next in order, and schedules refused requests to be sent again, until the server
+	 * acknowledges the terminate request. On failure, it releases the whole window so that the
+	 * sending thread sees the failure instead of waiting.
+	 */
+	private void receiveResults(ServerConnection connection, ScheduledThreadPoolExecutor retryTimer)
+	{
+		try
+		{
+			while(true)
+			{
+				Response response = connection.receive();
+				
+				if(response instanceof ConnectionTerminateResponse)
+				{
+					return;
+				}
+				else if(response instanceof CalculationResponse)
+				{
+					CalculationResponse calculationResponse = (CalculationResponse) response;
+					int slot = checkedSlotOf(calculationResponse.getRequestID());
+					results[slot] = calculationResponse.getCalculationResult();
+					errors[slot] = Double.isNaN(results[slot]) ? calculationResponse.getCalculationErrorDesc() : null;
+					completed[slot] = true;
+					writeCompletedResults();
+				}
+				else if(response instanceof BusyResponse)
+				{
+					scheduleRetry(connection, retryTimer, (BusyResponse) response);
+				}
+				else
+				{
+					throw new StreamCorruptedException("Unexpected " + response.getResponseCode() + " response");
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			failure = ex;
+			windowPermits.release(window);
+		}
+	}
+	
+	/**
+	 * This method sends a refused request again after the back-off of its attempt.
+	 */
+	private void scheduleRetry(final ServerConnection connection, ScheduledThreadPoolExecutor retryTimer, BusyResponse busyResponse) throws IOException
+	{
+		final long requestID = busyResponse.getRequestID();
+		final int slot = checkedSlotOf(requestID);
+		long delayMillis = MathClientMain.backoffMillis(busyResponse, attempts[slot]++);
+		retriedCount++;
+		
+		retryTimer.schedule(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					connection.send(new CalculationRequest(expressions.get(slot), requestID));
+				}
+				catch(IOException ex)
+				{
+					// The receiving thread fails on the broken connection too
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * This method writes every result that is next in order and frees its slot of the window.
+	 */
+	private void writeCompletedResults() throws IOException
+	{
+		int slot;
+		
+		while(completed[slot = slotOf(nextToWrite)])
+		{
+			writeResult(expressions.get(slot), results[slot], errors[slot]);
+			completed[slot] = false;
+			attempts[slot] = 0;
+			errors[slot] = null;
+			nextToWrite++;
+			windowPermits.release();
+		}
+	}
+	
+	/**
+	 * This method writes the result of one expression in the output format. A CSV row holds the
+	 * quoted expression, the result and the quoted error message, which is empty unless the
+	 * result is NaN.
+	 */
+	private void writeResult(String expression, double result, String error) throws IOException
+	{
+		if(format == OutputFormat.BINARY)
+		{
+			binaryOutput.writeDouble(result);
+			return;
+		}
+		
+		csvOutput.write(quote(expression));
+		csvOutput.write(',');
+		csvOutput.write(Double.toString(result));
+		csvOutput.write(',');
+		csvOutput.write(error == null ? "" : quote(error.trim()));
+		csvOutput.write('\n');
+	}
+	
+	/**
+	 * This method quotes a CSV field, doubling the quotes inside it.
+	 */
+	private static String quote(String field)
+	{
+		return "\"" + field.replace("\"", "\"\"") + "\"";
+	}
+	
+	/**
+	 * This method returns the slot of a request ID, which must belong to an outstanding request.
+	 */
+	private int checkedSlotOf(long requestID) throws StreamCorruptedException
+	{
+		long sequenceNumber = requestID - 1;
+		
+		if(sequenceNumber < nextToWrite || sequenceNumber >= nextToWrite + window)
+		{
+			throw new StreamCorruptedException("Response to unknown request " + requestID);
+		}
+		
+		return slotOf(sequenceNumber);
+	}
+	
+	/**
+	 * This method waits for the provided number of free slots, and fails if the receiving
+	 * thread has failed.
+	 */
+	private void acquireWindow(int permits) throws IOException
+	{
+		windowPermits.acquireUninterruptibly(permits);
+		
+		if(failure != null)
+		{
+			throw new IOException("Streaming failed", failure);
+		}
+	}
+	
+	private int slotOf(long sequenceNumber)
+	{
+		return (int) (sequenceNumber % window);
+	}
+	
+	/**
+	 * This method returns the request ID of a sequence number; 0 is CalculationRequest.NO_REQUEST_ID
+	 */
+	private static long requestIDOf(long sequenceNumber)
+	{
+		return sequenceNumber + 1;
+	}
+	
+	private static void join(Thread thread)
+	{
+		try
+		{
+			thread.join();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Creates a StreamingClient object reading expressions from the provided input and writing
+	 * the results to the provided output.
+	 * 
+	 * @param in The input of the expressions, one per line in UTF-8
+	 * @param out The output of the results
+	 * @param format_ The encoding of the results
+	 * @param window_ The number of outstanding requests
+	 * @throws IOException Thrown if the CSV header cannot be written
+	 */
+	public StreamingClient(InputStream in, OutputStream out, OutputFormat format_, int window_) throws IOException
+	{
+		input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		output = out;
+		format = format_;
+		window = window_;
+		
+		if(format == OutputFormat.CSV)
+		{
+			csvOutput = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			csvOutput.write("expression,result,error\n");
+			binaryOutput = null;
+		}
+		else
+		{
+			csvOutput = null;
+			binaryOutput = new DataOutputStream(new BufferedOutputStream(out));
+		}
+		
+		windowPermits = new Semaphore(window);
+		expressions = new AtomicReferenceArray<String>(window);
+		results = new double[window];
+		errors = new String[window];
+		completed = new boolean[window];
+		attempts = new int[window];
+	}
+	
+	/**
+	 * An enumeration of the encodings of the streamed results.
+	 */
+	public enum OutputFormat
+	{
+		CSV,
+		BINARY
+	}
+}
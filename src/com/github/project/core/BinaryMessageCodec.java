@@ -0,0 +1,606 @@
+package com.github.project.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements the BINARY wire protocol of the application layer communication
+ * protocol. Every message is a frame made of a one-byte message type, a four-byte payload
+ * length and the payload itself, with all numbers in network byte order:
+ * 
+ * CalculationRequest: the 8-byte request ID and the UTF-8 bytes of the request.
+ * CalculationBatchRequest: the 8-byte request ID, the 4-byte request count and, for each
+ * request, its 4-byte length and UTF-8 bytes.
+ * ConnectionTerminateRequest: no payload.
+ * Response and ConnectionTerminateResponse: the response code.
+ * CalculationResponse: the response code, the 8-byte request ID, the 8-byte result and, only
+ * if the result is NaN, the UTF-8 bytes of the error message.
+ * CalculationBatchResponse: the response code, the 8-byte request ID, the 4-byte result count,
+ * the 8-byte results, the 4-byte error count and, for each error, the 4-byte request index,
+ * the 4-byte length and the UTF-8 bytes of the error message.
+ * BusyResponse: the response code, the 8-byte request ID and the 4-byte retry delay.
+ * StatsRequest: the 8-byte request ID.
+ * StatsResponse: the response code, the 8-byte request ID, the 4-byte metric count and, for
+ * each metric, the 4-byte length and UTF-8 bytes of its name and its 8-byte value.
+ * PrepareRequest: the 8-byte request ID, the 4-byte length and UTF-8 bytes of the expression,
+ * the 4-byte parameter count and, for each parameter, the 4-byte length and UTF-8 bytes of its name.
+ * ExecutePreparedRequest: the 8-byte request ID, the 4-byte handle, the 4-byte value count
+ * and the 8-byte values.
+ * PrepareResponse: the response code, the 8-byte request ID, the 4-byte handle and, only if
+ * the expression was refused, the UTF-8 bytes of the error message.
+ * SweepRequest: the 8-byte request ID, the 4-byte length and UTF-8 bytes of the expression,
+ * the 4-byte variable count and, for each variable, the 4-byte length and UTF-8 bytes of its
+ * name, its 8-byte start, 8-byte step and 8-byte count.
+ * SweepChunkResponse: the response code, the 8-byte request ID, the 8-byte first point, the
+ * one-byte last flag, the 4-byte result count, the 8-byte results and, only if the sweep was
+ * refused or stopped, the UTF-8 bytes of the error message.
+ * 
+ * The frames carry no class descriptors, so a request is 13 bytes longer than its text
+ * and a response is usually 22 bytes. The handshake messages are never sent in this protocol.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public final class BinaryMessageCodec
+{
+	public static final int HEADER_SIZE = 5;					// The size of the type and length of a frame
+	public static final int MAXIMUM_PAYLOAD_SIZE = 1 << 24;	// The size of the largest payload accepted
+	
+	public static final byte TYPE_CALCULATION_REQUEST = 1;				// Frame type of a CalculationRequest
+	public static final byte TYPE_CONNECTION_TERMINATE_REQUEST = 2;		// Frame type of a ConnectionTerminateRequest
+	public static final byte TYPE_CALCULATION_BATCH_REQUEST = 3;			// Frame type of a CalculationBatchRequest
+	public static final byte TYPE_STATS_REQUEST = 4;						// Frame type of a StatsRequest
+	public static final byte TYPE_PREPARE_REQUEST = 5;					// Frame type of a PrepareRequest
+	public static final byte TYPE_EXECUTE_PREPARED_REQUEST = 6;			// Frame type of an ExecutePreparedRequest
+	public static final byte TYPE_SWEEP_REQUEST = 7;						// Frame type of a SweepRequest
+	public static final byte TYPE_RESPONSE = 64;							// Frame type of a plain Response
+	public static final byte TYPE_CALCULATION_RESPONSE = 65;				// Frame type of a CalculationResponse
+	public static final byte TYPE_CONNECTION_TERMINATE_RESPONSE = 66;		// Frame type of a ConnectionTerminateResponse
+	public static final byte TYPE_CALCULATION_BATCH_RESPONSE = 67;		// Frame type of a CalculationBatchResponse
+	public static final byte TYPE_BUSY_RESPONSE = 68;						// Frame type of a BusyResponse
+	public static final byte TYPE_STATS_RESPONSE = 69;					// Frame type of a StatsResponse
+	public static final byte TYPE_PREPARE_RESPONSE = 70;					// Frame type of a PrepareResponse
+	public static final byte TYPE_SWEEP_CHUNK_RESPONSE = 71;				// Frame type of a SweepChunkResponse
+	
+	private static final ResponseCode[] RESPONSE_CODES = ResponseCode.values(); // Response codes by their wire value
+	
+	/**
+	 * This method writes the provided message as one frame. The caller flushes the output.
+	 * 
+	 * @param out The output to write the frame to
+	 * @param message The Request or Response message to write
+	 * @throws StreamCorruptedException Thrown if the payload exceeds MAXIMUM_PAYLOAD_SIZE, before
+	 * anything is written
+	 * @throws IOException Thrown if the output fails
+	 * @throws IllegalArgumentException Thrown if the message has no binary encoding
+	 */
+	public static void writeMessage(DataOutput out, Object message) throws IOException
+	{
+		if(message instanceof CalculationRequest)
+		{
+			CalculationRequest request = (CalculationRequest) message;
+			byte[] rawRequest = request.getRawRequest().getBytes(StandardCharsets.UTF_8);
+			writeHeader(out, TYPE_CALCULATION_REQUEST, 8 + rawRequest.length);
+			out.writeLong(request.getRequestID());
+			out.write(rawRequest);
+		}
+		else if(message instanceof ConnectionTerminateRequest)
+		{
+			writeHeader(out, TYPE_CONNECTION_TERMINATE_REQUEST, 0);
+		}
+		else if(message instanceof CalculationBatchRequest)
+		{
+			writeBatchRequest(out, (CalculationBatchRequest) message);
+		}
+		else if(message instanceof StatsRequest)
+		{
+			writeHeader(out, TYPE_STATS_REQUEST, 8);
+			out.writeLong(((StatsRequest) message).getRequestID());
+		}
+		else if(message instanceof PrepareRequest)
+		{
+			writePrepareRequest(out, (PrepareRequest) message);
+		}
+		else if(message instanceof ExecutePreparedRequest)
+		{
+			ExecutePreparedRequest request = (ExecutePreparedRequest) message;
+			double[] parameterValues = request.getParameterValues();
+			writeHeader(out, TYPE_EXECUTE_PREPARED_REQUEST, (int) Math.min(16 + 8L * parameterValues.length, Integer.MAX_VALUE));
+			out.writeLong(request.getRequestID());
+			out.writeInt(request.getHandle());
+			out.writeInt(parameterValues.length);
+			
+			for(double parameterValue : parameterValues)
+			{
+				out.writeDouble(parameterValue);
+			}
+		}
+		else if(message instanceof SweepRequest)
+		{
+			writeSweepRequest(out, (SweepRequest) message);
+		}
+		else if(message instanceof CalculationBatchResponse)
+		{
+			writeBatchResponse(out, (CalculationBatchResponse) message);
+		}
+		else if(message instanceof CalculationResponse)
+		{
+			CalculationResponse response = (CalculationResponse) message;
+			double result = response.getCalculationResult();
+			byte[] errorMessage = new byte[0];
+			
+			// The error message only explains a failed calculation, so it is left out otherwise
+			if(Double.isNaN(result) && response.getCalculationErrorDesc() != null)
+			{
+				errorMessage = response.getCalculationErrorDesc().getBytes(StandardCharsets.UTF_8);
+			}
+			
+			writeHeader(out, TYPE_CALCULATION_RESPONSE, 17 + errorMessage.length);
+			out.writeByte(response.getResponseCode().ordinal());
+			out.writeLong(response.getRequestID());
+			out.writeDouble(result);
+			out.write(errorMessage);
+		}
+		else if(message instanceof BusyResponse)
+		{
+			BusyResponse response = (BusyResponse) message;
+			writeHeader(out, TYPE_BUSY_RESPONSE, 13);
+			out.writeByte(response.getResponseCode().ordinal());
+			out.writeLong(response.getRequestID());
+			out.writeInt(response.getRetryAfterMillis());
+		}
+		else if(message instanceof StatsResponse)
+		{
+			writeStatsResponse(out, (StatsResponse) message);
+		}
+		else if(message instanceof PrepareResponse)
+		{
+			PrepareResponse response = (PrepareResponse) message;
+			byte[] errorMessage = response.getErrorMessage() == null ? new byte[0] : response.getErrorMessage().getBytes(StandardCharsets.UTF_8);
+			writeHeader(out, TYPE_PREPARE_RESPONSE, 13 + errorMessage.length);
+			out.writeByte(response.getResponseCode().ordinal());
+			out.writeLong(response.getRequestID());
+			out.writeInt(response.getHandle());
+			out.write(errorMessage);
+		}
+		else if(message instanceof SweepChunkResponse)
+		{
+			SweepChunkResponse response = (SweepChunkResponse) message;
+			double[] results = response.getResults();
+			byte[] errorMessage = response.getErrorMessage() == null ? new byte[0] : response.getErrorMessage().getBytes(StandardCharsets.UTF_8);
+			writeHeader(out, TYPE_SWEEP_CHUNK_RESPONSE, (int) Math.min(22 + 8L * results.length + errorMessage.length, Integer.MAX_VALUE));
+			out.writeByte(response.getResponseCode().ordinal());
+			out.writeLong(response.getRequestID());
+			out.writeLong(response.getFirstPoint());
+			out.writeBoolean(response.isLast());
+			out.writeInt(results.length);
+			
+			for(double result : results)
+			{
+				out.writeDouble(result);
+			}
+			
+			out.write(errorMessage);
+		}
+		else if(message instanceof ConnectionTerminateResponse)
+		{
+			writeHeader(out, TYPE_CONNECTION_TERMINATE_RESPONSE, 1);
+			out.writeByte(((Response) message).getResponseCode().ordinal());
+		}
+		else if(message instanceof Response && message.getClass() == Response.class)
+		{
+			writeHeader(out, TYPE_RESPONSE, 1);
+			out.writeByte(((Response) message).getResponseCode().ordinal());
+		}
+		else
+		{
+			throw new IllegalArgumentException("No binary encoding for " + message.getClass().getName());
+		}
+	}
+	
+	/**
+	 * This method reads one complete frame and returns its message. Like ObjectInputStream, it
+	 * throws a ClassNotFoundException for a frame of an unknown type; the frame has been
+	 * consumed by then, so the input is still positioned at the next frame.
+	 * 
+	 * @param in The input to read the frame from
+	 * @return The Request or Response message of the frame
+	 * @throws IOException Thrown if the input fails or does not hold a valid frame
+	 * @throws ClassNotFoundException Thrown if the frame type is unknown
+	 */
+	public static Object readMessage(DataInput in) throws IOException, ClassNotFoundException
+	{
+		byte type = in.readByte();
+		int payloadLength = in.readInt();
+		checkPayloadLength(payloadLength);
+		
+		byte[] payload = new byte[payloadLength];
+		in.readFully(payload);
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		
+		try
+		{
+			switch(type)
+			{
+			case TYPE_CALCULATION_REQUEST:
+				long requestID = buffer.getLong();
+				return new CalculationRequest(new String(payload, 8, payload.length - 8, StandardCharsets.UTF_8), requestID);
+			case TYPE_CONNECTION_TERMINATE_REQUEST:
+				return new ConnectionTerminateRequest();
+			case TYPE_RESPONSE:
+				return new Response(readResponseCode(buffer));
+			case TYPE_CALCULATION_RESPONSE:
+				ResponseCode responseCode = readResponseCode(buffer);
+				long respondedRequestID = buffer.getLong();
+				double result = buffer.getDouble();
+				String errorMessage = buffer.hasRemaining() ? new String(payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8) : null;
+				return new CalculationResponse(responseCode, result, errorMessage, respondedRequestID);
+			case TYPE_CONNECTION_TERMINATE_RESPONSE:
+				return new ConnectionTerminateResponse(readResponseCode(buffer));
+			case TYPE_CALCULATION_BATCH_REQUEST:
+				return readBatchRequest(buffer);
+			case TYPE_CALCULATION_BATCH_RESPONSE:
+				return readBatchResponse(buffer);
+			case TYPE_BUSY_RESPONSE:
+				readResponseCode(buffer);
+				long refusedRequestID = buffer.getLong();
+				return new BusyResponse(refusedRequestID, buffer.getInt());
+			case TYPE_STATS_REQUEST:
+				return new StatsRequest(buffer.getLong());
+			case TYPE_STATS_RESPONSE:
+				return readStatsResponse(buffer);
+			case TYPE_PREPARE_REQUEST:
+				return readPrepareRequest(buffer);
+			case TYPE_EXECUTE_PREPARED_REQUEST:
+				return readExecutePreparedRequest(buffer);
+			case TYPE_PREPARE_RESPONSE:
+				ResponseCode prepareCode = readResponseCode(buffer);
+				long preparedRequestID = buffer.getLong();
+				int handle = buffer.getInt();
+				String prepareError = buffer.hasRemaining() ? new String(payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8) : null;
+				return new PrepareResponse(prepareCode, handle, prepareError, preparedRequestID);
+			case TYPE_SWEEP_REQUEST:
+				return readSweepRequest(buffer);
+			case TYPE_SWEEP_CHUNK_RESPONSE:
+				return readSweepChunkResponse(buffer);
+			default:
+				throw new ClassNotFoundException("Unknown message type " + type);
+			}
+		}
+		catch(RuntimeException ex)
+		{
+			throw new StreamCorruptedException("Malformed message of type " + type);
+		}
+	}
+	
+	/**
+	 * This method returns the length of the complete frame at the start of the provided region,
+	 * so that a non-blocking reader can tell whether a whole message has arrived.
+	 * 
+	 * @param buffer The buffer holding received bytes
+	 * @param offset The start of the unread bytes in the buffer
+	 * @param length The number of unread bytes in the buffer
+	 * @return The number of bytes of the next complete frame, or -1 if the frame is incomplete
+	 * @throws StreamCorruptedException Thrown if the frame announces an invalid payload length
+	 */
+	public static int frameLength(byte[] buffer, int offset, int length) throws StreamCorruptedException
+	{
+		if(length < HEADER_SIZE)
+		{
+			return -1;
+		}
+		
+		int payloadLength = 0;
+		
+		for(int i = 1; i < HEADER_SIZE; i++)
+		{
+			payloadLength = (payloadLength << 8) | (buffer[offset + i] & 0xFF);
+		}
+		
+		checkPayloadLength(payloadLength);
+		return length - HEADER_SIZE < payloadLength ? -1 : HEADER_SIZE + payloadLength;
+	}
+	
+	private static void writeBatchRequest(DataOutput out, CalculationBatchRequest request) throws IOException
+	{
+		String[] rawRequests = request.getRawRequests();
+		byte[][] encodedRequests = new byte[rawRequests.length][];
+		long payloadLength = 12;
+		
+		for(int i = 0; i < rawRequests.length; i++)
+		{
+			encodedRequests[i] = rawRequests[i].getBytes(StandardCharsets.UTF_8);
+			payloadLength += 4 + encodedRequests[i].length;
+		}
+		
+		writeHeader(out, TYPE_CALCULATION_BATCH_REQUEST, (int) Math.min(payloadLength, Integer.MAX_VALUE));
+		out.writeLong(request.getRequestID());
+		out.writeInt(encodedRequests.length);
+		
+		for(byte[] encodedRequest : encodedRequests)
+		{
+			out.writeInt(encodedRequest.length);
+			out.write(encodedRequest);
+		}
+	}
+	
+	private static void writeBatchResponse(DataOutput out, CalculationBatchResponse response) throws IOException
+	{
+		double[] results = response.getCalculationResults();
+		int[] errorIndices = response.getErrorIndices();
+		byte[][] encodedErrors = new byte[errorIndices.length][];
+		long payloadLength = 13 + 8L * results.length + 4;
+		
+		for(int i = 0; i < errorIndices.length; i++)
+		{
+			encodedErrors[i] = response.getErrorMessages()[i].getBytes(StandardCharsets.UTF_8);
+			payloadLength += 8 + encodedErrors[i].length;
+		}
+		
+		writeHeader(out, TYPE_CALCULATION_BATCH_RESPONSE, (int) Math.min(payloadLength, Integer.MAX_VALUE));
+		out.writeByte(response.getResponseCode().ordinal());
+		out.writeLong(response.getRequestID());
+		out.writeInt(results.length);
+		
+		for(double result : results)
+		{
+			out.writeDouble(result);
+		}
+		
+		out.writeInt(errorIndices.length);
+		
+		for(int i = 0; i < errorIndices.length; i++)
+		{
+			out.writeInt(errorIndices[i]);
+			out.writeInt(encodedErrors[i].length);
+			out.write(encodedErrors[i]);
+		}
+	}
+	
+	private static void writeStatsResponse(DataOutput out, StatsResponse response) throws IOException
+	{
+		Map<String, Long> metrics = response.getMetrics();
+		byte[][] encodedNames = new byte[metrics.size()][];
+		long payloadLength = 13;
+		int i = 0;
+		
+		for(String name : metrics.keySet())
+		{
+			encodedNames[i] = name.getBytes(StandardCharsets.UTF_8);
+			payloadLength += 12 + encodedNames[i].length;
+			i++;
+		}
+		
+		writeHeader(out, TYPE_STATS_RESPONSE, (int) Math.min(payloadLength, Integer.MAX_VALUE));
+		out.writeByte(response.getResponseCode().ordinal());
+		out.writeLong(response.getRequestID());
+		out.writeInt(encodedNames.length);
+		i = 0;
+		
+		for(long value : metrics.values())
+		{
+			out.writeInt(encodedNames[i].length);
+			out.write(encodedNames[i]);
+			out.writeLong(value);
+			i++;
+		}
+	}
+	
+	private static void writePrepareRequest(DataOutput out, PrepareRequest request) throws IOException
+	{
+		byte[] expression = request.getExpression().getBytes(StandardCharsets.UTF_8);
+		String[] parameterNames = request.getParameterNames();
+		byte[][] encodedNames = new byte[parameterNames.length][];
+		long payloadLength = 16 + expression.length;
+		
+		for(int i = 0; i < parameterNames.length; i++)
+		{
+			encodedNames[i] = parameterNames[i].getBytes(StandardCharsets.UTF_8);
+			payloadLength += 4 + encodedNames[i].length;
+		}
+		
+		writeHeader(out, TYPE_PREPARE_REQUEST, (int) Math.min(payloadLength, Integer.MAX_VALUE));
+		out.writeLong(request.getRequestID());
+		out.writeInt(expression.length);
+		out.write(expression);
+		out.writeInt(encodedNames.length);
+		
+		for(byte[] encodedName : encodedNames)
+		{
+			out.writeInt(encodedName.length);
+			out.write(encodedName);
+		}
+	}
+	
+	private static void writeSweepRequest(DataOutput out, SweepRequest request) throws IOException
+	{
+		byte[] expression = request.getExpression().getBytes(StandardCharsets.UTF_8);
+		String[] variableNames = request.getVariableNames();
+		byte[][] encodedNames = new byte[variableNames.length][];
+		long payloadLength = 16 + expression.length;
+		
+		for(int i = 0; i < variableNames.length; i++)
+		{
+			encodedNames[i] = variableNames[i].getBytes(StandardCharsets.UTF_8);
+			payloadLength += 28 + encodedNames[i].length;
+		}
+		
+		writeHeader(out, TYPE_SWEEP_REQUEST, (int) Math.min(payloadLength, Integer.MAX_VALUE));
+		out.writeLong(request.getRequestID());
+		out.writeInt(expression.length);
+		out.write(expression);
+		out.writeInt(encodedNames.length);
+		
+		for(int i = 0; i < encodedNames.length; i++)
+		{
+			out.writeInt(encodedNames[i].length);
+			out.write(encodedNames[i]);
+			out.writeDouble(request.getStarts()[i]);
+			out.writeDouble(request.getSteps()[i]);
+			out.writeLong(request.getCounts()[i]);
+		}
+	}
+	
+	private static CalculationBatchRequest readBatchRequest(ByteBuffer buffer)
+	{
+		long requestID = buffer.getLong();
+		String[] rawRequests = new String[readCount(buffer, 4)];
+		
+		for(int i = 0; i < rawRequests.length; i++)
+		{
+			rawRequests[i] = readString(buffer, buffer.getInt());
+		}
+		
+		return new CalculationBatchRequest(rawRequests, requestID);
+	}
+	
+	private static CalculationBatchResponse readBatchResponse(ByteBuffer buffer)
+	{
+		ResponseCode responseCode = readResponseCode(buffer);
+		long requestID = buffer.getLong();
+		double[] results = new double[readCount(buffer, 8)];
+		
+		for(int i = 0; i < results.length; i++)
+		{
+			results[i] = buffer.getDouble();
+		}
+		
+		int[] errorIndices = new int[readCount(buffer, 8)];
+		String[] errorMessages = new String[errorIndices.length];
+		
+		for(int i = 0; i < errorIndices.length; i++)
+		{
+			errorIndices[i] = buffer.getInt();
+			errorMessages[i] = readString(buffer, buffer.getInt());
+		}
+		
+		return new CalculationBatchResponse(responseCode, results, errorIndices, errorMessages, requestID);
+	}
+	
+	private static PrepareRequest readPrepareRequest(ByteBuffer buffer)
+	{
+		long requestID = buffer.getLong();
+		String expression = readString(buffer, buffer.getInt());
+		String[] parameterNames = new String[readCount(buffer, 4)];
+		
+		for(int i = 0; i < parameterNames.length; i++)
+		{
+			parameterNames[i] = readString(buffer, buffer.getInt());
+		}
+		
+		return new PrepareRequest(expression, parameterNames, requestID);
+	}
+	
+	private static ExecutePreparedRequest readExecutePreparedRequest(ByteBuffer buffer)
+	{
+		long requestID = buffer.getLong();
+		int handle = buffer.getInt();
+		double[] parameterValues = new double[readCount(buffer, 8)];
+		buffer.asDoubleBuffer().get(parameterValues);
+		return new ExecutePreparedRequest(handle, parameterValues, requestID);
+	}
+	
+	private static SweepRequest readSweepRequest(ByteBuffer buffer)
+	{
+		long requestID = buffer.getLong();
+		String expression = readString(buffer, buffer.getInt());
+		int variableCount = readCount(buffer, 28);
+		String[] variableNames = new String[variableCount];
+		double[] starts = new double[variableCount];
+		double[] steps = new double[variableCount];
+		long[] counts = new long[variableCount];
+		
+		for(int i = 0; i < variableCount; i++)
+		{
+			variableNames[i] = readString(buffer, buffer.getInt());
+			starts[i] = buffer.getDouble();
+			steps[i] = buffer.getDouble();
+			counts[i] = buffer.getLong();
+		}
+		
+		return new SweepRequest(expression, variableNames, starts, steps, counts, requestID);
+	}
+	
+	private static SweepChunkResponse readSweepChunkResponse(ByteBuffer buffer)
+	{
+		ResponseCode responseCode = readResponseCode(buffer);
+		long requestID = buffer.getLong();
+		long firstPoint = buffer.getLong();
+		boolean last = buffer.get() != 0;
+		double[] results = new double[readCount(buffer, 8)];
+		buffer.asDoubleBuffer().get(results);
+		buffer.position(buffer.position() + 8 * results.length);
+		String errorMessage = buffer.hasRemaining() ? readString(buffer, buffer.remaining()) : null;
+		return new SweepChunkResponse(responseCode, requestID, firstPoint, results, last, errorMessage);
+	}
+	
+	private static StatsResponse readStatsResponse(ByteBuffer buffer)
+	{
+		readResponseCode(buffer);
+		long requestID = buffer.getLong();
+		int metricCount = readCount(buffer, 12);
+		LinkedHashMap<String, Long> metrics = new LinkedHashMap<String, Long>();
+		
+		for(int i = 0; i < metricCount; i++)
+		{
+			String name = readString(buffer, buffer.getInt());
+			metrics.put(name, buffer.getLong());
+		}
+		
+		return new StatsResponse(metrics, requestID);
+	}
+	
+	/**
+	 * Reads an element count, rejecting counts the rest of the payload cannot hold so that a
+	 * corrupt frame cannot make the reader allocate a huge array.
+	 */
+	private static int readCount(ByteBuffer buffer, int minimumElementSize)
+	{
+		int count = buffer.getInt();
+		
+		if(count < 0 || count > buffer.remaining() / minimumElementSize)
+		{
+			throw new IllegalArgumentException("Invalid element count " + count);
+		}
+		
+		return count;
+	}
+	
+	private static String readString(ByteBuffer buffer, int length)
+	{
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+	
+	private static void writeHeader(DataOutput out, byte type, int payloadLength) throws IOException
+	{
+		checkPayloadLength(payloadLength);
+		out.writeByte(type);
+		out.writeInt(payloadLength);
+	}
+	
+	private static void checkPayloadLength(int payloadLength) throws StreamCorruptedException
+	{
+		if(payloadLength < 0 || payloadLength > MAXIMUM_PAYLOAD_SIZE)
+		{
+			throw new StreamCorruptedException("Invalid payload length " + payloadLength);
+		}
+	}
+	
+	private static ResponseCode readResponseCode(ByteBuffer buffer)
+	{
+		return RESPONSE_CODES[buffer.get()];
+	}
+	
+	private BinaryMessageCodec()
+	{
+	}
+}
@@ -0,0 +1,53 @@
+package com.github.project.core;
+
+/**
+ * This class implements the busy response message of the application layer communication 
+ * protocol. The server sends it with the BUSY response code in place of the response to a
+ * CalculationRequest or CalculationBatchRequest that it refused to queue because it is
+ * overloaded. The request was not calculated; the client may send it again after the
+ * suggested delay.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class BusyResponse extends Response
+{
+	public static final long serialVersionUID = 1L;
+	
+	private long requestID;			// The ID of the refused request
+	private int retryAfterMillis;	// The suggested delay before the request is sent again
+	
+	/**
+	 * This method returns the ID of the request this response refuses
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID for a response sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns how long the client should wait before sending the request again
+	 * 
+	 * @return The suggested delay in milliseconds
+	 */
+	public int getRetryAfterMillis()
+	{
+		return retryAfterMillis;
+	}
+	
+	/**
+	 * Creates a BusyResponse object refusing the request with the provided ID.
+	 * 
+	 * @param requestID_ The ID of the refused request
+	 * @param retryAfterMillis_ The suggested delay in milliseconds before the request is sent again
+	 */
+	public BusyResponse(long requestID_, int retryAfterMillis_)
+	{
+		super(ResponseCode.BUSY);
+		requestID = requestID_;
+		retryAfterMillis = retryAfterMillis_;
+	}
+}
@@ -0,0 +1,66 @@
+package com.github.project.core;
+
+/**
+ * This class implements the calculation batch request message of the application layer
+ * communication protocol. It encapsulates many math processing requests in one message, so
+ * that a client submitting a large number of expressions pays the per-message cost once.
+ * The server answers with a single CalculationBatchResponse holding the results in the same
+ * order as the requests.
+ * 
+ * Like a CalculationRequest, a batch may carry a request ID so that its response may be
+ * sent out of order.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CalculationBatchRequest extends Request
+{
+	public static final long serialVersionUID = 1L;
+	
+	private String[] rawRequests;	// The encapsulated math processing requests
+	private long requestID;			// The client-chosen ID echoed in the response, or NO_REQUEST_ID
+	
+	/**
+	 * This method returns the encapsulated math processing requests
+	 * 
+	 * @return The encapsulated math processing requests, in order
+	 */
+	public String[] getRawRequests()
+	{
+		return rawRequests;
+	}
+	
+	/**
+	 * This method returns the client-chosen ID of this batch
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID if the response is sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this batch carries a request ID
+	 * 
+	 * @return True if the response may be sent out of order
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != CalculationRequest.NO_REQUEST_ID;
+	}
+	
+	/**
+	 * Creates a CalculationBatchRequest object that encapsulates the provided math processing
+	 * requests with the provided request ID
+	 * 
+	 * @param rawRequests_ The math processing requests to encapsulate
+	 * @param requestID_ The ID to echo in the response, or CalculationRequest.NO_REQUEST_ID
+	 */
+	public CalculationBatchRequest(String[] rawRequests_, long requestID_)
+	{
+		rawRequests = rawRequests_;
+		requestID = requestID_;
+	}
+}
@@ -0,0 +1,93 @@
+package com.github.project.core;
+
+import java.util.Arrays;
+
+/**
+ * This class implements the calculation batch response message of the application layer
+ * communication protocol. It is used by the server to answer a CalculationBatchRequest. The
+ * results are packed into one array in the order of the requests. Error messages are sparse:
+ * only the requests whose result is NaN have one, listed by their index in the batch.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CalculationBatchResponse extends Response
+{
+	public static final long serialVersionUID = 1L;
+	
+	private double[] calculationResults;	// The results of the requests, in order
+	private int[] errorIndices;				// The indices of the requests with an error message, ascending
+	private String[] errorMessages;			// The error messages of those requests
+	private long requestID;					// The ID of the answered batch
+	
+	/**
+	 * This method returns the results of the requests of the batch
+	 * 
+	 * @return The results, in the order of the requests
+	 */
+	public double[] getCalculationResults()
+	{
+		return calculationResults;
+	}
+	
+	/**
+	 * This method returns the indices of the requests that have an error message
+	 * 
+	 * @return The indices in the batch, in ascending order
+	 */
+	public int[] getErrorIndices()
+	{
+		return errorIndices;
+	}
+	
+	/**
+	 * This method returns the error messages of the requests listed by getErrorIndices
+	 * 
+	 * @return The error messages, parallel to the error indices
+	 */
+	public String[] getErrorMessages()
+	{
+		return errorMessages;
+	}
+	
+	/**
+	 * This method returns the error message of the request at the provided index
+	 * 
+	 * @param index The index of the request in the batch
+	 * @return The error message, or null if the request has none
+	 */
+	public String getErrorMessage(int index)
+	{
+		int errorPosition = Arrays.binarySearch(errorIndices, index);
+		return errorPosition < 0 ? null : errorMessages[errorPosition];
+	}
+	
+	/**
+	 * This method returns the ID of the batch this response answers
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID for a response sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * Creates a CalculationBatchResponse object with the provided results and error messages.
+	 * 
+	 * @param responseCode_ The response code of this CalculationBatchResponse object
+	 * @param calculationResults_ The results of the requests, in order
+	 * @param errorIndices_ The indices of the requests with an error message, ascending
+	 * @param errorMessages_ The error messages of those requests
+	 * @param requestID_ The ID of the answered batch
+	 */
+	public CalculationBatchResponse(ResponseCode responseCode_, double[] calculationResults_, int[] errorIndices_, String[] errorMessages_, long requestID_)
+	{
+		super(responseCode_);
+		calculationResults = calculationResults_;
+		errorIndices = errorIndices_;
+		errorMessages = errorMessages_;
+		requestID = requestID_;
+	}
+}
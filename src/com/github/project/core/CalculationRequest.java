@@ -7,6 +7,11 @@ import java.io.Serializable;
  * protocol. It encapsulates a String request message, and it is used by the server 
  * and client to send and receive math processing requests.
  * 
+ * A request may carry a client-chosen request ID. The server answers requests with an ID as
+ * soon as they are calculated, possibly out of order, and echoes the ID in the response so
+ * that a client can keep many requests in flight. Requests without an ID are answered in the
+ * order they were sent.
+ * 
  * @author Nathan Beck
  * @version 1.0
  * @since 31 October 2020
@@ -15,7 +20,10 @@ public class CalculationRequest extends Request implements Serializable
 {
 	public static final long serialVersionUID = 1L;
 	
-	private String rawRequest; // The encapsulated math processing request
+	public static final long NO_REQUEST_ID = 0; // The request ID of requests that are answered in order
+	
+	private String rawRequest;	// The encapsulated math processing request
+	private long requestID;		// The client-chosen ID echoed in the response, or NO_REQUEST_ID
 	
 	/**
 	 * This method returns the encapsulated math processing request
@@ -27,13 +35,46 @@ public class CalculationRequest extends Request implements Serializable
 		return rawRequest;
 	}
 	
+	/**
+	 * This method returns the client-chosen ID of this request
+	 * 
+	 * @return The request ID, or NO_REQUEST_ID if the response is sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this request carries a request ID
+	 * 
+	 * @return True if the response may be sent out of order
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != NO_REQUEST_ID;
+	}
+	
 	/**
 	 * Creates a CalculationRequest object that encapsulates a math processing request
 	 * 
 	 * @param rawRequest_ The math processing request to encapsulate
 	 */
 	public CalculationRequest(String rawRequest_)
+	{
+		this(rawRequest_, NO_REQUEST_ID);
+	}
+	
+	/**
+	 * Creates a CalculationRequest object that encapsulates a math processing request with
+	 * the provided request ID
+	 * 
+	 * @param rawRequest_ The math processing request to encapsulate
+	 * @param requestID_ The ID to echo in the response, or NO_REQUEST_ID
+	 */
+	public CalculationRequest(String rawRequest_, long requestID_)
 	{
 		rawRequest = rawRequest_;
+		requestID = requestID_;
 	}
 }
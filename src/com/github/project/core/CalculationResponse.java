@@ -14,6 +14,7 @@ public class CalculationResponse extends Response
 	
 	private double calculationResult;
 	private String calculationErrorDesc;
+	private long requestID;
 	
 	public double getCalculationResult()
 	{
@@ -25,10 +26,26 @@ public class CalculationResponse extends Response
 		return calculationErrorDesc;
 	}
 	
+	/**
+	 * This method returns the ID of the request this response answers
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID for a response sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
 	public CalculationResponse(ResponseCode responseCode_, double calculationResult_, String calculationErrorDesc_)
+	{
+		this(responseCode_, calculationResult_, calculationErrorDesc_, CalculationRequest.NO_REQUEST_ID);
+	}
+	
+	public CalculationResponse(ResponseCode responseCode_, double calculationResult_, String calculationErrorDesc_, long requestID_)
 	{
 		super(responseCode_);
 		calculationResult = calculationResult_;
 		calculationErrorDesc = calculationErrorDesc_;
+		requestID = requestID_;
 	}
 }
@@ -13,7 +13,8 @@ public class ConnectionEstablishRequest extends Request
 {
 	public static final long serialVersionUID = 1L;
 	
-	private String username; // The requested username to use for the connection
+	private String username;				// The requested username to use for the connection
+	private WireProtocol wireProtocol;	// The wire protocol requested for the rest of the connection
 	
 	/**
 	 * This method returns the username encapsulated in this ConnectionEstablishRequest
@@ -25,13 +26,36 @@ public class ConnectionEstablishRequest extends Request
 		return username;
 	}
 	
+	/**
+	 * This method returns the wire protocol requested for the rest of the connection
+	 * 
+	 * @return The requested wire protocol; SERIALIZED for clients that do not request one
+	 */
+	public WireProtocol getWireProtocol()
+	{
+		return wireProtocol == null ? WireProtocol.SERIALIZED : wireProtocol;
+	}
+	
 	/**
 	 * Creates a ConenctionEstablishRequest object with the provided username.
 	 * 
 	 * @param username_ The username to be used in the app-layer connection state
 	 */
 	public ConnectionEstablishRequest(String username_)
+	{
+		this(username_, WireProtocol.SERIALIZED);
+	}
+	
+	/**
+	 * Creates a ConnectionEstablishRequest object with the provided username that asks the
+	 * server to switch to the provided wire protocol once the handshake is acknowledged.
+	 * 
+	 * @param username_ The username to be used in the app-layer connection state
+	 * @param wireProtocol_ The wire protocol requested for the rest of the connection
+	 */
+	public ConnectionEstablishRequest(String username_, WireProtocol wireProtocol_)
 	{
 		username = username_;
+		wireProtocol = wireProtocol_;
 	}
 }
@@ -12,13 +12,38 @@ public class ConnectionEstablishResponse extends Response
 {
 	public static final long serialVersionUID = 1L;
 	
+	private WireProtocol wireProtocol; // The wire protocol both sides use after this response
+	
+	/**
+	 * This method returns the wire protocol the server accepted for the rest of the connection
+	 * 
+	 * @return The accepted wire protocol; SERIALIZED for servers that do not negotiate one
+	 */
+	public WireProtocol getWireProtocol()
+	{
+		return wireProtocol == null ? WireProtocol.SERIALIZED : wireProtocol;
+	}
+	
 	/**
 	 * Creates a ConnectionEstablishResponse object with the provided response code.
 	 * 
 	 * @param responseCode_ The response code of this ConnectionEstablishResponse object
 	 */
 	public ConnectionEstablishResponse(ResponseCode responseCode_)
+	{
+		this(responseCode_, WireProtocol.SERIALIZED);
+	}
+	
+	/**
+	 * Creates a ConnectionEstablishResponse object with the provided response code and the
+	 * wire protocol accepted for the rest of the connection.
+	 * 
+	 * @param responseCode_ The response code of this ConnectionEstablishResponse object
+	 * @param wireProtocol_ The wire protocol both sides use after this response
+	 */
+	public ConnectionEstablishResponse(ResponseCode responseCode_, WireProtocol wireProtocol_)
 	{
 		super(responseCode_);
+		wireProtocol = wireProtocol_;
 	}
 }
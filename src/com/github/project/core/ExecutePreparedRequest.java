@@ -0,0 +1,81 @@
+package com.github.project.core;
+
+/**
+ * This class implements the execute prepared request message of the application layer
+ * communication protocol. It calculates an expression registered with a PrepareRequest for
+ * one or more sets of parameter values, carrying only the handle of the expression and the
+ * values packed into one array: row after row, each row holding one value per parameter in
+ * the order of the PrepareRequest. An expression without parameters is calculated once for an
+ * empty array.
+ * 
+ * The server answers with a CalculationBatchResponse holding one result per row, in order, or
+ * with no results and BAD_REQUEST if the handle is unknown or the values do not fill whole rows.
+ * Like a CalculationRequest, it may carry a request ID so that its response may be sent out
+ * of order.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ExecutePreparedRequest extends Request
+{
+	public static final long serialVersionUID = 1L;
+	
+	private int handle;					// The handle returned by the PrepareResponse
+	private double[] parameterValues;	// The parameter values, row after row
+	private long requestID;				// The client-chosen ID echoed in the response, or NO_REQUEST_ID
+	
+	/**
+	 * This method returns the handle of the prepared expression to calculate
+	 * 
+	 * @return The handle returned by the PrepareResponse
+	 */
+	public int getHandle()
+	{
+		return handle;
+	}
+	
+	/**
+	 * This method returns the packed parameter values
+	 * 
+	 * @return The parameter values, row after row
+	 */
+	public double[] getParameterValues()
+	{
+		return parameterValues;
+	}
+	
+	/**
+	 * This method returns the client-chosen ID of this request
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID if the response is sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this request carries a request ID
+	 * 
+	 * @return True if the response may be sent out of order
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != CalculationRequest.NO_REQUEST_ID;
+	}
+	
+	/**
+	 * Creates an ExecutePreparedRequest object for the provided handle and values.
+	 * 
+	 * @param handle_ The handle returned by the PrepareResponse
+	 * @param parameterValues_ The parameter values, row after row
+	 * @param requestID_ The ID to echo in the response, or CalculationRequest.NO_REQUEST_ID
+	 */
+	public ExecutePreparedRequest(int handle_, double[] parameterValues_, long requestID_)
+	{
+		handle = handle_;
+		parameterValues = parameterValues_;
+		requestID = requestID_;
+	}
+}
@@ -0,0 +1,223 @@
+package com.github.project.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in a histogram of fixed size, in the manner of HdrHistogram.
+ * Values below 128 ns have their own bucket; above that, each power of two is split into 64
+ * buckets, so a value is reported with an error of at most 1/64 (about 1.6%) whatever its
+ * magnitude. Each bucket reports the highest value it can hold, capped at the maximum
+ * recorded value, so percentiles are never understated.
+ * 
+ * Recording takes no lock: the buckets are atomic counters, so many threads may record into
+ * one histogram while another reads or drains it. A histogram read while values are recorded
+ * reflects some of them but not others, as any snapshot taken without stopping the recorders.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 7;								// The bits of a value kept by its bucket
+	private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);		// The number of buckets per power of two
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;	// Buckets for every non-negative long
+	
+	private final AtomicLongArray counts;	// The number of recorded values in each bucket
+	private final AtomicLong maximum;		// The largest recorded value
+	
+	/**
+	 * This method records one value.
+	 * 
+	 * @param value The value to record, in nanoseconds; negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		value = Math.max(0, value);
+		counts.incrementAndGet(bucketOf(value));
+		raiseMaximum(value);
+	}
+	
+	/**
+	 * This method records one value and corrects it for coordinated omission. A value longer
+	 * than the expected interval between two requests means that the requests that should have
+	 * been sent meanwhile were held back; each of them is recorded too, with the latency it
+	 * would have seen, as HdrHistogram does.
+	 * 
+	 * @param value The value to record, in nanoseconds
+	 * @param expectedInterval The expected time between two requests, or 0 for no correction
+	 */
+	public void recordCorrected(long value, long expectedInterval)
+	{
+		record(value);
+		
+		if(expectedInterval <= 0)
+		{
+			return;
+		}
+		
+		for(long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval)
+		{
+			record(missed);
+		}
+	}
+	
+	/**
+	 * This method moves every recorded value of this histogram into another one, leaving this
+	 * histogram empty. A value recorded during the move ends up in one of the two histograms.
+	 * 
+	 * @param into The histogram receiving the values
+	 */
+	public void drainInto(LatencyHistogram into)
+	{
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			long count = counts.getAndSet(bucket, 0);
+			
+			if(count != 0)
+			{
+				into.counts.addAndGet(bucket, count);
+			}
+		}
+		
+		into.raiseMaximum(maximum.getAndSet(0));
+	}
+	
+	/**
+	 * This method adds every recorded value of another histogram to this one.
+	 * 
+	 * @param other The histogram to add
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			long count = other.counts.get(bucket);
+			
+			if(count != 0)
+			{
+				counts.addAndGet(bucket, count);
+			}
+		}
+		
+		raiseMaximum(other.maximum.get());
+	}
+	
+	/**
+	 * This method returns the number of recorded values
+	 * 
+	 * @return The number of recorded values
+	 */
+	public long getTotalCount()
+	{
+		long totalCount = 0;
+		
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			totalCount += counts.get(bucket);
+		}
+		
+		return totalCount;
+	}
+	
+	/**
+	 * This method returns the largest recorded value
+	 * 
+	 * @return The largest recorded value, or 0 if the histogram is empty
+	 */
+	public long getMaximum()
+	{
+		return maximum.get();
+	}
+	
+	/**
+	 * This method returns the value below which the provided percentage of the recorded
+	 * values fall.
+	 * 
+	 * @param percentile The percentage, from 0 to 100
+	 * @return The value at the percentile, or 0 if the histogram is empty
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		// Rank the values of one snapshot of the counts, as they may change meanwhile
+		long[] snapshot = new long[BUCKET_COUNT];
+		long totalCount = 0;
+		
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			snapshot[bucket] = counts.get(bucket);
+			totalCount += snapshot[bucket];
+		}
+		
+		if(totalCount == 0)
+		{
+			return 0;
+		}
+		
+		long largest = maximum.get();
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * totalCount));
+		long seen = 0;
+		
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			seen += snapshot[bucket];
+			
+			if(seen >= rank)
+			{
+				return Math.min(largest, highestValueOf(bucket));
+			}
+		}
+		
+		return largest;
+	}
+	
+	/**
+	 * This method raises the maximum to the provided value if it is larger
+	 */
+	private void raiseMaximum(long value)
+	{
+		long current;
+		
+		while(value > (current = maximum.get()) && !maximum.compareAndSet(current, value));
+	}
+	
+	/**
+	 * This method returns the bucket holding the provided non-negative value
+	 */
+	private static int bucketOf(long value)
+	{
+		if(value < 2 * SUB_BUCKET_HALF)
+		{
+			return (int) value;
+		}
+		
+		// Keep the highest SUB_BUCKET_BITS bits of the value
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+	}
+	
+	/**
+	 * This method returns the highest value held by the provided bucket
+	 */
+	private static long highestValueOf(int bucket)
+	{
+		if(bucket < 2 * SUB_BUCKET_HALF)
+		{
+			return bucket;
+		}
+		
+		int shift = bucket / SUB_BUCKET_HALF - 1;
+		long subBucket = bucket - shift * SUB_BUCKET_HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Creates an empty LatencyHistogram object.
+	 */
+	public LatencyHistogram()
+	{
+		counts = new AtomicLongArray(BUCKET_COUNT);
+		maximum = new AtomicLong();
+	}
+}
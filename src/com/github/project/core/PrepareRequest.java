@@ -0,0 +1,78 @@
+package com.github.project.core;
+
+/**
+ * This class implements the prepare request message of the application layer communication
+ * protocol. It registers an expression with named parameters on the connection, so that the
+ * server parses it once; the PrepareResponse returns the handle with which ExecutePreparedRequests
+ * then send only the values of the parameters. Handles belong to the connection that prepared
+ * them and are forgotten when it closes.
+ * 
+ * Like a CalculationRequest, it may carry a request ID so that its response may be sent out
+ * of order.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class PrepareRequest extends Request
+{
+	public static final long serialVersionUID = 1L;
+	
+	private String expression;			// The expression to prepare, written in terms of its parameters
+	private String[] parameterNames;	// The names of the parameters, in the order their values are sent
+	private long requestID;				// The client-chosen ID echoed in the response, or NO_REQUEST_ID
+	
+	/**
+	 * This method returns the expression to prepare
+	 * 
+	 * @return The expression, written in terms of its parameters
+	 */
+	public String getExpression()
+	{
+		return expression;
+	}
+	
+	/**
+	 * This method returns the names of the parameters of the expression
+	 * 
+	 * @return The parameter names, in the order their values are sent
+	 */
+	public String[] getParameterNames()
+	{
+		return parameterNames;
+	}
+	
+	/**
+	 * This method returns the client-chosen ID of this request
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID if the response is sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this request carries a request ID
+	 * 
+	 * @return True if the response may be sent out of order
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != CalculationRequest.NO_REQUEST_ID;
+	}
+	
+	/**
+	 * Creates a PrepareRequest object for the provided expression and parameters.
+	 * 
+	 * @param expression_ The expression to prepare, written in terms of its parameters
+	 * @param parameterNames_ The names of the parameters, in the order their values are sent
+	 * @param requestID_ The ID to echo in the response, or CalculationRequest.NO_REQUEST_ID
+	 */
+	public PrepareRequest(String expression_, String[] parameterNames_, long requestID_)
+	{
+		expression = expression_;
+		parameterNames = parameterNames_;
+		requestID = requestID_;
+	}
+}
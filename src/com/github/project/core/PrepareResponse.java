@@ -0,0 +1,67 @@
+package com.github.project.core;
+
+/**
+ * This class implements the prepare response message of the application layer communication
+ * protocol. It is used by the server to answer a PrepareRequest: with OK and the handle of the
+ * prepared expression, or with BAD_REQUEST and the reason the expression could not be prepared.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class PrepareResponse extends Response
+{
+	public static final long serialVersionUID = 1L;
+	
+	public static final int NO_HANDLE = 0; // The handle of a response to a refused PrepareRequest
+	
+	private int handle;				// The handle of the prepared expression, or NO_HANDLE
+	private String errorMessage;	// The reason the expression was refused, or null
+	private long requestID;			// The ID of the answered request
+	
+	/**
+	 * This method returns the handle of the prepared expression
+	 * 
+	 * @return The handle to send in ExecutePreparedRequests, or NO_HANDLE if the expression was refused
+	 */
+	public int getHandle()
+	{
+		return handle;
+	}
+	
+	/**
+	 * This method returns the reason the expression could not be prepared
+	 * 
+	 * @return The error message, or null if the expression was prepared
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+	
+	/**
+	 * This method returns the ID of the request this response answers
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID for a response sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * Creates a PrepareResponse object.
+	 * 
+	 * @param responseCode_ OK if the expression was prepared, otherwise BAD_REQUEST
+	 * @param handle_ The handle of the prepared expression, or NO_HANDLE
+	 * @param errorMessage_ The reason the expression was refused, or null
+	 * @param requestID_ The ID of the answered request
+	 */
+	public PrepareResponse(ResponseCode responseCode_, int handle_, String errorMessage_, long requestID_)
+	{
+		super(responseCode_);
+		handle = handle_;
+		errorMessage = errorMessage_;
+		requestID = requestID_;
+	}
+}
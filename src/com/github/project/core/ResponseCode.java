@@ -10,5 +10,7 @@ package com.github.project.core;
 public enum ResponseCode 
 {
 	BAD_REQUEST,
-	OK
+	OK,
+	BUSY,
+	TIMED_OUT
 }
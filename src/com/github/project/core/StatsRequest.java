@@ -0,0 +1,59 @@
+package com.github.project.core;
+
+/**
+ * This class implements the statistics request message of the application layer communication
+ * protocol. It asks the server for a StatsResponse holding its live metrics, so that a
+ * monitoring client can poll a running server over the port it already serves. The request is
+ * answered at once by the connection rather than queued behind calculations.
+ * 
+ * Like a CalculationRequest, it may carry a request ID so that its response may be sent out
+ * of order.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class StatsRequest extends Request
+{
+	public static final long serialVersionUID = 1L;
+	
+	private long requestID; // The client-chosen ID echoed in the response, or NO_REQUEST_ID
+	
+	/**
+	 * This method returns the client-chosen ID of this request
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID if the response is sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this request carries a request ID
+	 * 
+	 * @return True if the response may be sent out of order
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != CalculationRequest.NO_REQUEST_ID;
+	}
+	
+	/**
+	 * Creates a StatsRequest object whose response is sent in order.
+	 */
+	public StatsRequest()
+	{
+		this(CalculationRequest.NO_REQUEST_ID);
+	}
+	
+	/**
+	 * Creates a StatsRequest object with the provided request ID.
+	 * 
+	 * @param requestID_ The ID to echo in the response, or CalculationRequest.NO_REQUEST_ID
+	 */
+	public StatsRequest(long requestID_)
+	{
+		requestID = requestID_;
+	}
+}
@@ -0,0 +1,69 @@
+package com.github.project.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements the statistics response message of the application layer communication
+ * protocol. It answers a StatsRequest with the metrics of the server, each a name and a whole
+ * number, in the order the server lists them. Counters are totals since the server started, so
+ * a monitoring client derives rates from the difference of two polls; latencies are percentiles
+ * in microseconds over the most recent metrics window of the server.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class StatsResponse extends Response
+{
+	public static final long serialVersionUID = 1L;
+	
+	private long requestID;						// The ID of the answered request
+	private LinkedHashMap<String, Long> metrics;	// The metric values by name, in the order listed by the server
+	
+	/**
+	 * This method returns the ID of the request this response answers
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID for a response sent in order
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns every metric of this response
+	 * 
+	 * @return The metric values by name, in the order listed by the server
+	 */
+	public Map<String, Long> getMetrics()
+	{
+		return Collections.unmodifiableMap(metrics);
+	}
+	
+	/**
+	 * This method returns the value of one metric
+	 * 
+	 * @param name The name of the metric
+	 * @return The value of the metric, or -1 if the server did not report it
+	 */
+	public long getMetric(String name)
+	{
+		Long value = metrics.get(name);
+		return value == null ? -1 : value;
+	}
+	
+	/**
+	 * Creates a StatsResponse object holding the provided metrics.
+	 * 
+	 * @param metrics_ The metric values by name, in the order to list them
+	 * @param requestID_ The ID of the answered request
+	 */
+	public StatsResponse(Map<String, Long> metrics_, long requestID_)
+	{
+		super(ResponseCode.OK);
+		metrics = new LinkedHashMap<String, Long>(metrics_);
+		requestID = requestID_;
+	}
+}
@@ -0,0 +1,94 @@
+package com.github.project.core;
+
+/**
+ * This class implements the sweep chunk response message of the application layer communication
+ * protocol. It holds the results of a run of consecutive points of a SweepRequest, starting at
+ * the point numbered firstPoint; a point whose calculation failed or exceeded the time budget
+ * has a NaN result. Only the response flagged as last tells how the sweep ended: OK once every
+ * point was answered, BUSY if the server stopped the sweep early, or BAD_REQUEST, with no
+ * results and the reason, if the sweep was refused.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class SweepChunkResponse extends Response
+{
+	public static final long serialVersionUID = 1L;
+	
+	private long requestID;			// The ID of the answered sweep
+	private long firstPoint;		// The number of the point of the first result
+	private double[] results;		// The results of consecutive points
+	private boolean last;			// Reflects whether or not this is the last chunk of the sweep
+	private String errorMessage;	// The reason the sweep was refused or stopped, or null
+	
+	/**
+	 * This method returns the ID of the sweep this chunk answers
+	 * 
+	 * @return The request ID of the SweepRequest
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns the point of the first result of this chunk
+	 * 
+	 * @return The row-major number of the first point
+	 */
+	public long getFirstPoint()
+	{
+		return firstPoint;
+	}
+	
+	/**
+	 * This method returns the results held by this chunk
+	 * 
+	 * @return The results of points firstPoint onwards, possibly none
+	 */
+	public double[] getResults()
+	{
+		return results;
+	}
+	
+	/**
+	 * This method returns whether or not this is the last chunk of the sweep
+	 * 
+	 * @return True if no more chunks of the sweep follow
+	 */
+	public boolean isLast()
+	{
+		return last;
+	}
+	
+	/**
+	 * This method returns the reason the sweep was refused or stopped
+	 * 
+	 * @return The error message, or null
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+	
+	/**
+	 * Creates a SweepChunkResponse object.
+	 * 
+	 * @param responseCode_ OK, or how the sweep ended if this is its last chunk
+	 * @param requestID_ The ID of the answered sweep
+	 * @param firstPoint_ The point of the first result
+	 * @param results_ The results of consecutive points
+	 * @param last_ Whether or not this is the last chunk of the sweep
+	 * @param errorMessage_ The reason the sweep was refused or stopped, or null
+	 */
+	public SweepChunkResponse(ResponseCode responseCode_, long requestID_, long firstPoint_, double[] results_, boolean last_, String errorMessage_)
+	{
+		super(responseCode_);
+		requestID = requestID_;
+		firstPoint = firstPoint_;
+		results = results_;
+		last = last_;
+		errorMessage = errorMessage_;
+	}
+}
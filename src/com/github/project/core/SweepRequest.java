@@ -0,0 +1,121 @@
+package com.github.project.core;
+
+/**
+ * This class implements the sweep request message of the application layer communication
+ * protocol. It calculates one expression over a grid of values of its variables: each variable
+ * takes count values, starting at start and growing by step, and the expression is calculated
+ * for every combination. The points of the grid are numbered in row-major order, the last
+ * variable changing fastest, so point p of a grid of two variables x and y has x at index
+ * p / countY and y at index p % countY.
+ * 
+ * The server answers with SweepChunkResponses, each holding the results of a run of consecutive
+ * points. Chunks are sent as soon as they are calculated and may arrive in any order, so a sweep
+ * must carry a request ID; the chunk flagged as last arrives after every other chunk of the sweep.
+ * A sweep without a request ID, with an invalid grid or with an expression that does not parse
+ * is answered with a single BAD_REQUEST chunk.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class SweepRequest extends Request
+{
+	public static final long serialVersionUID = 1L;
+	
+	private String expression;			// The expression to calculate at every point
+	private String[] variableNames;		// The names of the swept variables, slowest first
+	private double[] starts;			// The first value of each variable
+	private double[] steps;				// The difference between consecutive values of each variable
+	private long[] counts;				// The number of values of each variable
+	private long requestID;				// The client-chosen ID echoed in every chunk
+	
+	/**
+	 * This method returns the expression calculated at every point
+	 * 
+	 * @return The text of the expression
+	 */
+	public String getExpression()
+	{
+		return expression;
+	}
+	
+	/**
+	 * This method returns the names of the swept variables
+	 * 
+	 * @return The variable names, the slowest changing first
+	 */
+	public String[] getVariableNames()
+	{
+		return variableNames;
+	}
+	
+	/**
+	 * This method returns the first value of each variable
+	 * 
+	 * @return The start values, in the order of the variable names
+	 */
+	public double[] getStarts()
+	{
+		return starts;
+	}
+	
+	/**
+	 * This method returns the step of each variable
+	 * 
+	 * @return The steps, in the order of the variable names
+	 */
+	public double[] getSteps()
+	{
+		return steps;
+	}
+	
+	/**
+	 * This method returns the number of values of each variable
+	 * 
+	 * @return The counts, in the order of the variable names
+	 */
+	public long[] getCounts()
+	{
+		return counts;
+	}
+	
+	/**
+	 * This method returns the client-chosen ID of this request
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID if none was chosen
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns whether or not this request carries a request ID
+	 * 
+	 * @return True if the request may be answered; a sweep without an ID is refused
+	 */
+	public boolean hasRequestID()
+	{
+		return requestID != CalculationRequest.NO_REQUEST_ID;
+	}
+	
+	/**
+	 * Creates a SweepRequest object. The arrays hold one entry per variable.
+	 * 
+	 * @param expression_ The expression to calculate at every point
+	 * @param variableNames_ The names of the swept variables, the slowest changing first
+	 * @param starts_ The first value of each variable
+	 * @param steps_ The step of each variable
+	 * @param counts_ The number of values of each variable
+	 * @param requestID_ The ID to echo in every chunk
+	 */
+	public SweepRequest(String expression_, String[] variableNames_, double[] starts_, double[] steps_, long[] counts_, long requestID_)
+	{
+		expression = expression_;
+		variableNames = variableNames_;
+		starts = starts_;
+		steps = steps_;
+		counts = counts_;
+		requestID = requestID_;
+	}
+}
@@ -0,0 +1,16 @@
+package com.github.project.core;
+
+/**
+ * This enum contains the wire protocols a connection may use after the app-layer handshake.
+ * The handshake itself is always sent with Java serialization, so that clients which do not
+ * know about other protocols keep working.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum WireProtocol
+{
+	SERIALIZED,
+	BINARY
+}
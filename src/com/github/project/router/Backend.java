@@ -0,0 +1,596 @@
+package com.github.project.router;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.project.client.ServerConnection;
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationBatchResponse;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.Request;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.StatsResponse;
+import com.github.project.core.WireProtocol;
+import com.github.project.server.LogLevel;
+import com.github.project.server.Logger;
+
+/**
+ * This class represents one backend server process of the router. It keeps a few binary
+ * connections to the server, opened as a client named mathrouter.username (default router), and
+ * forwards routed requests over them: each connection has a writer thread that sends the queued
+ * requests with one flush per batch, and a reader thread that answers the clients as the
+ * responses arrive in any order.
+ * 
+ * A backend is in rotation only while all of its connections are open. Each health check sends
+ * a StatsRequest on every connection, which the server answers without queueing it behind the
+ * calculations; a connection that fails, or that leaves a check unanswered for longer than the
+ * timeout, takes the whole backend out of rotation. Its unanswered requests are then routed
+ * again, to the other backends, and the health checks reopen the connections once the server
+ * accepts them.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class Backend
+{
+	private static final int MAXIMUM_BATCH = 64;		// The most requests sent with one flush
+	private static final long POLL_MILLIS = 100;		// The longest a writer waits before checking for a health check
+	private static final String USERNAME = System.getProperty("mathrouter.username", "router"); // The username of the connections to the server
+	
+	private final String host;					// The host name of the server
+	private final int port;						// The port of the server
+	private final int connectionCount;			// The number of connections kept open
+	private final int timeoutMillis;			// The longest wait for a connection or a health check
+	private final int maximumOutstanding;		// The most requests forwarded and not yet answered
+	private BackendPool backendPool;			// Routes the requests of a failed connection again, set by start
+	
+	private final AtomicInteger outstanding;	// The requests forwarded and not yet answered
+	private final AtomicInteger nextConnection;	// The connection tried first by the next request
+	private final LongAdder forwardedCount;		// The number of requests forwarded
+	private final LongAdder failureCount;		// The number of times the backend was taken out of rotation
+	
+	private volatile BackendConnection[] connections;	// The open connections, or null while out of rotation
+	
+	/**
+	 * This method returns the name of the backend
+	 * 
+	 * @return The host and port of the server
+	 */
+	public String getName()
+	{
+		return host + ":" + port;
+	}
+	
+	/**
+	 * This method returns whether or not the backend is in rotation
+	 * 
+	 * @return True while every connection to the server is open
+	 */
+	public boolean isHealthy()
+	{
+		return connections != null;
+	}
+	
+	/**
+	 * This method returns the number of requests forwarded to the backend and not yet answered
+	 * 
+	 * @return The number of outstanding requests
+	 */
+	public int getOutstandingCount()
+	{
+		return outstanding.get();
+	}
+	
+	/**
+	 * This method returns the number of requests forwarded to the backend
+	 * 
+	 * @return The number of forwarded requests, including those routed again
+	 */
+	public long getForwardedCount()
+	{
+		return forwardedCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of times the backend was taken out of rotation
+	 * 
+	 * @return The number of failures
+	 */
+	public long getFailureCount()
+	{
+		return failureCount.sum();
+	}
+	
+	/**
+	 * This method queues a request on one of the connections of the backend. Multiple threads
+	 * may call this method at the same time.
+	 * 
+	 * @param request The request to forward
+	 * @return Whether or not the request was queued; false if the backend is out of rotation
+	 * or has maximumOutstanding requests already
+	 */
+	public boolean forward(RoutedRequest request)
+	{
+		BackendConnection[] current = connections;
+		
+		if(current == null || outstanding.incrementAndGet() > maximumOutstanding)
+		{
+			if(current != null)
+			{
+				outstanding.decrementAndGet();
+			}
+			
+			return false;
+		}
+		
+		int first = nextConnection.getAndIncrement();
+		
+		for(int i = 0; i < current.length; i++)
+		{
+			if(current[Math.floorMod(first + i, current.length)].forward(request))
+			{
+				forwardedCount.increment();
+				return true;
+			}
+		}
+		
+		outstanding.decrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * This method joins the backend to the pool that routes the requests of its failed
+	 * connections, then checks it for the first time, opening its connections. The pool calls
+	 * it once, before the health check thread starts.
+	 * 
+	 * @param backendPool_ The pool the backend belongs to
+	 */
+	public void start(BackendPool backendPool_)
+	{
+		backendPool = backendPool_;
+		checkHealth();
+	}
+	
+	/**
+	 * This method checks the health of the backend. A backend in rotation is probed on each of
+	 * its connections, and taken out of rotation if a probe fails; a backend out of rotation is
+	 * reconnected. Only the health check thread calls this method.
+	 */
+	public void checkHealth()
+	{
+		BackendConnection[] current = connections;
+		
+		if(current == null)
+		{
+			reconnect();
+			return;
+		}
+		
+		for(BackendConnection connection : current)
+		{
+			if(!connection.probe())
+			{
+				takeOutOfRotation(connection, "Health check of backend " + getName() + " failed");
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method opens every connection to the server and puts the backend in rotation. If any
+	 * connection cannot be opened, the opened ones are closed again.
+	 */
+	private void reconnect()
+	{
+		BackendConnection[] opened = new BackendConnection[connectionCount];
+		
+		try
+		{
+			for(int i = 0; i < connectionCount; i++)
+			{
+				opened[i] = new BackendConnection(i);
+			}
+		}
+		catch(IOException | ClassNotFoundException | RuntimeException ex)
+		{
+			for(BackendConnection connection : opened)
+			{
+				if(connection != null)
+				{
+					connection.fail();
+				}
+			}
+			
+			return;
+		}
+		
+		for(BackendConnection connection : opened)
+		{
+			connection.start();
+		}
+		
+		connections = opened;
+		Logger.getInstance().serverLog("Backend " + getName() + " is in rotation");
+	}
+	
+	/**
+	 * This method takes the backend out of rotation after one of its connections failed, closes
+	 * every connection and routes their unanswered requests again. A failure of a connection
+	 * closed earlier only closes that connection.
+	 */
+	private void takeOutOfRotation(BackendConnection failedConnection, String reason)
+	{
+		BackendConnection[] failedConnections;
+		
+		synchronized(this)
+		{
+			failedConnections = connections;
+			
+			if(failedConnections == null || failedConnections[failedConnection.index] != failedConnection)
+			{
+				failedConnections = new BackendConnection[] { failedConnection };
+			}
+			else
+			{
+				connections = null;
+				failureCount.increment();
+				Logger.getInstance().serverLog(LogLevel.WARN, reason + "; taken out of rotation");
+			}
+		}
+		
+		for(BackendConnection connection : failedConnections)
+		{
+			reroute(connection.fail());
+		}
+	}
+	
+	/**
+	 * This method routes the requests of a failed connection again, counting them as no longer
+	 * outstanding on this backend.
+	 */
+	private void reroute(ArrayList<RoutedRequest> requests)
+	{
+		if(requests == null)
+		{
+			return;
+		}
+		
+		outstanding.addAndGet(-requests.size());
+		
+		for(RoutedRequest request : requests)
+		{
+			backendPool.route(request);
+		}
+	}
+	
+	/**
+	 * This method returns the request ID echoed by a response to a forwarded request.
+	 */
+	private static long getRequestID(Response response) throws StreamCorruptedException
+	{
+		if(response instanceof CalculationResponse)
+		{
+			return ((CalculationResponse) response).getRequestID();
+		}
+		else if(response instanceof CalculationBatchResponse)
+		{
+			return ((CalculationBatchResponse) response).getRequestID();
+		}
+		else if(response instanceof BusyResponse)
+		{
+			return ((BusyResponse) response).getRequestID();
+		}
+		
+		throw new StreamCorruptedException("Unexpected response from backend");
+	}
+	
+	/**
+	 * Creates a Backend object out of rotation. The connections are opened when it is started.
+	 * 
+	 * @param host_ The host name of the server
+	 * @param port_ The port of the server
+	 * @param connectionCount_ The number of connections to keep open
+	 * @param timeoutMillis_ The longest wait for a connection or a health check
+	 * @param maximumOutstanding_ The most requests forwarded and not yet answered
+	 */
+	public Backend(String host_, int port_, int connectionCount_, int timeoutMillis_, int maximumOutstanding_)
+	{
+		host = host_;
+		port = port_;
+		connectionCount = connectionCount_;
+		timeoutMillis = timeoutMillis_;
+		maximumOutstanding = maximumOutstanding_;
+		
+		outstanding = new AtomicInteger();
+		nextConnection = new AtomicInteger();
+		forwardedCount = new LongAdder();
+		failureCount = new LongAdder();
+	}
+	
+	/**
+	 * One open connection to the server. Requests are queued for the writer thread and held by
+	 * their backend request ID until the reader thread receives their response. Once the
+	 * connection fails it is never reopened; the backend opens new connections instead.
+	 */
+	private class BackendConnection
+	{
+		private final int index;											// The position of the connection in the backend
+		private final ServerConnection connection;							// The open connection
+		private final LinkedBlockingQueue<RoutedRequest> queue;				// The requests waiting for the writer
+		private final ConcurrentHashMap<Long, RoutedRequest> inFlight;		// The sent requests, by backend request ID
+		private final AtomicLong lastRequestID;								// The backend request ID of the last sent request
+		private final Thread writerThread;									// Sends the queued requests
+		private final Thread readerThread;									// Receives the responses
+		
+		private boolean open;						// Reflects whether or not requests may be queued, guarded by this
+		private volatile long probeRequestID;		// The request ID of the unanswered health check, or 0
+		private volatile long probeSentNanos;		// The time the unanswered health check was requested
+		private volatile boolean probeRequested;	// Reflects whether or not the writer should send the health check
+		
+		/**
+		 * This method queues a request for the writer thread unless the connection failed.
+		 */
+		private synchronized boolean forward(RoutedRequest request)
+		{
+			if(!open)
+			{
+				return false;
+			}
+			
+			queue.add(request);
+			return true;
+		}
+		
+		/**
+		 * This method asks the writer to send a health check, or checks that the last one was
+		 * answered in time. It never waits on the socket, so a backend that stops reading cannot
+		 * stall the health checks: the writer blocks instead, and the check times out.
+		 */
+		private boolean probe()
+		{
+			if(probeRequestID != 0)
+			{
+				return System.nanoTime() - probeSentNanos < timeoutMillis * 1000000L;
+			}
+			
+			probeSentNanos = System.nanoTime();
+			probeRequestID = lastRequestID.incrementAndGet();
+			probeRequested = true;
+			return true;
+		}
+		
+		/**
+		 * The loop of the writer thread. It takes every queued request at once, tags them with
+		 * backend request IDs and sends them with one flush, along with the health check if one
+		 * was asked for.
+		 */
+		private void writeRequests()
+		{
+			ArrayList<RoutedRequest> batch = new ArrayList<RoutedRequest>(MAXIMUM_BATCH);
+			
+			while(true)
+			{
+				RoutedRequest first;
+				
+				try
+				{
+					first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException ex)
+				{
+					return;
+				}
+				
+				if(first != null)
+				{
+					batch.add(first);
+					queue.drainTo(batch, MAXIMUM_BATCH - 1);
+				}
+				
+				boolean probing = probeRequested;
+				
+				if(batch.isEmpty() && !probing)
+				{
+					continue;
+				}
+				
+				Request[] requests = new Request[batch.size() + (probing ? 1 : 0)];
+				boolean sending;
+				
+				synchronized(this)
+				{
+					sending = open;
+					
+					for(int i = 0; sending && i < batch.size(); i++)
+					{
+						long requestID = lastRequestID.incrementAndGet();
+						inFlight.put(requestID, batch.get(i));
+						requests[i] = batch.get(i).createBackendRequest(requestID);
+					}
+				}
+				
+				if(probing)
+				{
+					probeRequested = false;
+					requests[batch.size()] = new StatsRequest(probeRequestID);
+				}
+				
+				// The requests were taken from the queue after the connection failed, so they are routed from here
+				if(!sending)
+				{
+					reroute(batch);
+					return;
+				}
+				
+				batch.clear();
+				
+				try
+				{
+					connection.sendAll(requests);
+				}
+				catch(IOException ex)
+				{
+					takeOutOfRotation(this, "Failed to send to backend " + getName());
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * The loop of the reader thread. It answers the clients of the forwarded requests until
+		 * the connection fails.
+		 */
+		private void receiveResponses()
+		{
+			try
+			{
+				while(true)
+				{
+					Response response = connection.receive();
+					
+					if(response instanceof StatsResponse && ((StatsResponse) response).getRequestID() == probeRequestID)
+					{
+						probeRequestID = 0;
+						continue;
+					}
+					
+					RoutedRequest request = inFlight.remove(getRequestID(response));
+					
+					if(request == null)
+					{
+						throw new StreamCorruptedException("Response to an unknown request from backend");
+					}
+					
+					outstanding.decrementAndGet();
+					
+					if(!request.answer(response))
+					{
+						throw new StreamCorruptedException("Response of the wrong type from backend");
+					}
+				}
+			}
+			catch(IOException | ClassNotFoundException | RuntimeException ex)
+			{
+				takeOutOfRotation(this, "Lost the connection to backend " + getName());
+			}
+		}
+		
+		/**
+		 * This method closes the connection and returns its queued and unanswered requests, or
+		 * null if it failed before.
+		 */
+		private ArrayList<RoutedRequest> fail()
+		{
+			synchronized(this)
+			{
+				if(!open)
+				{
+					return null;
+				}
+				
+				open = false;
+			}
+			
+			try
+			{
+				connection.close();
+			}
+			catch(IOException ex)
+			{
+				// The connection is abandoned either way
+			}
+			
+			if(writerThread != null)
+			{
+				writerThread.interrupt();
+			}
+			
+			ArrayList<RoutedRequest> requests = new ArrayList<RoutedRequest>();
+			queue.drainTo(requests);
+			
+			for(Long requestID : inFlight.keySet())
+			{
+				RoutedRequest request = inFlight.remove(requestID);
+				
+				if(request != null)
+				{
+					requests.add(request);
+				}
+			}
+			
+			return requests;
+		}
+		
+		/**
+		 * This method starts the writer and reader threads of the connection.
+		 */
+		private void start()
+		{
+			writerThread.start();
+			readerThread.start();
+		}
+		
+		/**
+		 * Opens a connection to the server, waiting at most timeoutMillis for the handshake.
+		 */
+		BackendConnection(int index_) throws IOException, ClassNotFoundException
+		{
+			index = index_;
+			queue = new LinkedBlockingQueue<RoutedRequest>();
+			inFlight = new ConcurrentHashMap<Long, RoutedRequest>();
+			lastRequestID = new AtomicLong();
+			
+			Socket socket = new Socket();
+			
+			try
+			{
+				socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(timeoutMillis);
+				connection = new ServerConnection(socket, USERNAME, WireProtocol.BINARY);
+				socket.setSoTimeout(0);
+			}
+			catch(IOException | ClassNotFoundException | RuntimeException ex)
+			{
+				socket.close();
+				throw ex;
+			}
+			
+			if(connection.getEstablishResponse().getResponseCode() != ResponseCode.OK)
+			{
+				socket.close();
+				throw new IOException("Backend " + getName() + " refused the connection");
+			}
+			
+			open = true;
+			writerThread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					writeRequests();
+				}
+			}, "backend-" + getName() + "-" + index + "-writer");
+			writerThread.setDaemon(true);
+			readerThread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					receiveResponses();
+				}
+			}, "backend-" + getName() + "-" + index + "-reader");
+			readerThread.setDaemon(true);
+		}
+	}
+}
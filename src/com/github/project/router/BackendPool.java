@@ -0,0 +1,307 @@
+package com.github.project.router;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.project.core.StatsResponse;
+import com.github.project.server.ServerMetrics;
+
+/**
+ * This class holds the backend server processes of the router and chooses the backend of each
+ * routed request with its BalancingPolicy. A request is forwarded to the chosen backend, or to
+ * any other backend in rotation if the chosen one cannot take it; if none can, the client is
+ * answered with a BusyResponse. A request whose backend fails before answering it is routed
+ * again, at most MAXIMUM_ATTEMPTS times in all.
+ * 
+ * The hash ring of CONSISTENT_HASH places each backend at VIRTUAL_NODES points, so that the
+ * texts are spread evenly and the texts of a backend out of rotation are spread over all the
+ * others. The ring is built once, as the backends are fixed when the router starts; a backend
+ * out of rotation is skipped rather than removed.
+ * 
+ * A health check thread checks every backend each mathrouter.healthCheckIntervalMillis
+ * (default 1000).
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class BackendPool
+{
+	private static final int MAXIMUM_ATTEMPTS = 3;				// The most backends a request is forwarded to
+	private static final int VIRTUAL_NODES = 160;				// The points of each backend on the hash ring
+	private static final int NO_BACKEND_RETRY_MILLIS = 1000;	// The suggested delay when no backend can take a request
+	
+	private final Backend[] backends;				// The backends, in the order they were listed
+	private final BalancingPolicy balancingPolicy;	// Chooses the backend of each request
+	private final long healthCheckIntervalMillis;	// The wait between two health checks of every backend
+	private final int[] ringHashes;					// The points of the hash ring, ascending
+	private final Backend[] ringBackends;			// The backend at each point of the hash ring
+	private final long startNanos;					// The time the pool was created
+	
+	private final AtomicInteger nextBackend;		// The backend considered first by the next request
+	private final LongAdder routedCount;			// The number of requests received for routing
+	private final LongAdder reroutedCount;			// The number of requests routed again after a backend failed
+	private final LongAdder refusedCount;			// The number of requests no backend could take
+	
+	/**
+	 * This method forwards a request to a backend, or refuses it if no backend can take it or
+	 * it was forwarded MAXIMUM_ATTEMPTS times already. Multiple threads may call this method
+	 * at the same time.
+	 * 
+	 * @param request The request to route, received or taken from a failed backend
+	 */
+	public void route(RoutedRequest request)
+	{
+		int attempt = request.countAttempt();
+		
+		if(attempt == 1)
+		{
+			routedCount.increment();
+		}
+		else
+		{
+			reroutedCount.increment();
+			
+			if(attempt > MAXIMUM_ATTEMPTS)
+			{
+				refuse(request);
+				return;
+			}
+		}
+		
+		Backend chosen;
+		
+		if(balancingPolicy == BalancingPolicy.CONSISTENT_HASH && request.getRoutingKey() != null)
+		{
+			chosen = chooseByHash(request.getRoutingKey());
+		}
+		else
+		{
+			chosen = chooseLeastOutstanding();
+		}
+		
+		if(chosen != null && chosen.forward(request))
+		{
+			return;
+		}
+		
+		// The chosen backend went out of rotation or is full, so any other backend will do
+		for(Backend backend : backends)
+		{
+			if(backend != chosen && backend.forward(request))
+			{
+				return;
+			}
+		}
+		
+		refuse(request);
+	}
+	
+	/**
+	 * This method answers a request no backend can take with a BusyResponse
+	 */
+	private void refuse(RoutedRequest request)
+	{
+		refusedCount.increment();
+		request.refuse(NO_BACKEND_RETRY_MILLIS);
+	}
+	
+	/**
+	 * This method returns the backend in rotation with the fewest outstanding requests. Ties
+	 * go to the first backend after the one considered first by the previous request.
+	 */
+	private Backend chooseLeastOutstanding()
+	{
+		Backend chosen = null;
+		int first = nextBackend.getAndIncrement();
+		
+		for(int i = 0; i < backends.length; i++)
+		{
+			Backend backend = backends[Math.floorMod(first + i, backends.length)];
+			
+			if(backend.isHealthy() && (chosen == null || backend.getOutstandingCount() < chosen.getOutstandingCount()))
+			{
+				chosen = backend;
+			}
+		}
+		
+		return chosen;
+	}
+	
+	/**
+	 * This method returns the backend in rotation that owns the provided text: the first one
+	 * at or after the hash of the text on the ring.
+	 */
+	private Backend chooseByHash(String text)
+	{
+		int point = Arrays.binarySearch(ringHashes, hash(text));
+		
+		if(point < 0)
+		{
+			point = -point - 1;
+		}
+		
+		for(int i = 0; i < ringBackends.length; i++)
+		{
+			Backend backend = ringBackends[(point + i) % ringBackends.length];
+			
+			if(backend.isHealthy())
+			{
+				return backend;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * This method hashes a text onto the ring. The hash code of the String is mixed with the
+	 * finalizer of MurmurHash3, so that texts differing in one character land far apart.
+	 */
+	private static int hash(String text)
+	{
+		int hash = text.hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+	
+	/**
+	 * This method starts every backend, checking it once so that the reachable backends are in
+	 * rotation before the router accepts connections, then launches the health check thread.
+	 */
+	public void start()
+	{
+		for(Backend backend : backends)
+		{
+			backend.start(this);
+		}
+		
+		Thread healthCheckThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				// Check the backends every interval until the router is terminated
+				while(true)
+				{
+					try
+					{
+						Thread.sleep(healthCheckIntervalMillis);
+					}
+					catch(InterruptedException ex)
+					{
+						return;
+					}
+					
+					for(Backend backend : backends)
+					{
+						backend.checkHealth();
+					}
+				}
+			}
+		}, "health-check");
+		healthCheckThread.setDaemon(true);
+		healthCheckThread.start();
+	}
+	
+	/**
+	 * This method creates the StatsResponse answering a StatsRequest sent to the router, holding
+	 * the connections and responses of the router and the state of every backend.
+	 * 
+	 * @param requestID The ID of the answered request
+	 * @return The StatsResponse
+	 */
+	public StatsResponse createStatsResponse(long requestID)
+	{
+		ServerMetrics metrics = ServerMetrics.getInstance();
+		LinkedHashMap<String, Long> stats = new LinkedHashMap<String, Long>();
+		stats.put("uptimeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		stats.put("connections.active", (long) metrics.getActiveConnections());
+		stats.put("responses.OK", metrics.getOkResponses());
+		stats.put("responses.BAD_REQUEST", metrics.getBadRequestResponses());
+		stats.put("responses.BUSY", metrics.getBusyResponses());
+		stats.put("responses.TIMED_OUT", metrics.getTimedOutResponses());
+		stats.put("requests.routed", routedCount.sum());
+		stats.put("requests.rerouted", reroutedCount.sum());
+		stats.put("requests.refused", refusedCount.sum());
+		long healthyCount = 0;
+		
+		for(Backend backend : backends)
+		{
+			String prefix = "backend." + backend.getName() + ".";
+			stats.put(prefix + "healthy", backend.isHealthy() ? 1L : 0L);
+			stats.put(prefix + "outstanding", (long) backend.getOutstandingCount());
+			stats.put(prefix + "forwarded", backend.getForwardedCount());
+			stats.put(prefix + "failures", backend.getFailureCount());
+			healthyCount += backend.isHealthy() ? 1 : 0;
+		}
+		
+		stats.put("backends.healthy", healthyCount);
+		return new StatsResponse(stats, requestID);
+	}
+	
+	/**
+	 * Creates a BackendPool object with one backend for each provided address. The backends are
+	 * out of rotation until start is called. The connections to each backend, the timeout of the
+	 * connections and health checks and the most outstanding requests of each backend are read
+	 * from the mathrouter.backendConnections (default 2), mathrouter.healthCheckTimeoutMillis
+	 * (default 3000) and mathrouter.maximumOutstanding (default 65536) system properties.
+	 * 
+	 * @param hosts_ The host name of each backend server
+	 * @param ports_ The port of each backend server
+	 * @param balancingPolicy_ Chooses the backend of each request
+	 */
+	public BackendPool(String[] hosts_, int[] ports_, BalancingPolicy balancingPolicy_)
+	{
+		if(hosts_.length == 0 || hosts_.length != ports_.length)
+		{
+			throw new IllegalArgumentException("Every backend needs a host and a port");
+		}
+		
+		int connectionCount = Math.max(1, Integer.getInteger("mathrouter.backendConnections", 2));
+		int timeoutMillis = Math.max(1, Integer.getInteger("mathrouter.healthCheckTimeoutMillis", 3000));
+		int maximumOutstanding = Math.max(1, Integer.getInteger("mathrouter.maximumOutstanding", 65536));
+		
+		backends = new Backend[hosts_.length];
+		
+		for(int i = 0; i < backends.length; i++)
+		{
+			backends[i] = new Backend(hosts_[i], ports_[i], connectionCount, timeoutMillis, maximumOutstanding);
+		}
+		
+		balancingPolicy = balancingPolicy_;
+		healthCheckIntervalMillis = Math.max(1, Long.getLong("mathrouter.healthCheckIntervalMillis", 1000));
+		startNanos = System.nanoTime();
+		nextBackend = new AtomicInteger();
+		routedCount = new LongAdder();
+		reroutedCount = new LongAdder();
+		refusedCount = new LongAdder();
+		
+		// Each point packs the hash above the index of its backend, so sorting orders the points by hash
+		long[] points = new long[backends.length * VIRTUAL_NODES];
+		
+		for(int i = 0; i < backends.length; i++)
+		{
+			for(int j = 0; j < VIRTUAL_NODES; j++)
+			{
+				points[i * VIRTUAL_NODES + j] = ((long) hash(backends[i].getName() + "#" + j) << 32) | i;
+			}
+		}
+		
+		Arrays.sort(points);
+		ringHashes = new int[points.length];
+		ringBackends = new Backend[points.length];
+		
+		for(int i = 0; i < points.length; i++)
+		{
+			ringHashes[i] = (int) (points[i] >> 32);
+			ringBackends[i] = backends[(int) points[i]];
+		}
+	}
+}
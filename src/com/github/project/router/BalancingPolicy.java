@@ -0,0 +1,49 @@
+package com.github.project.router;
+
+/**
+ * This enum contains the ways the BackendPool chooses the backend server of a routed request.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum BalancingPolicy
+{
+	/**
+	 * Each request goes to the healthy backend with the fewest requests forwarded and not yet
+	 * answered, so a backend that falls behind receives less of the load.
+	 */
+	LEAST_OUTSTANDING,
+	
+	/**
+	 * Each calculation goes to the backend that owns its text on a hash ring, so repeats of an
+	 * expression find it in the caches of the same backend. A backend taken out of rotation
+	 * only moves its own texts to the next backend on the ring. Batches carry many texts and
+	 * are balanced by outstanding requests instead.
+	 */
+	CONSISTENT_HASH;
+	
+	/**
+	 * Returns the BalancingPolicy with the provided name, ignoring case.
+	 * 
+	 * @param name The name of the policy
+	 * @param defaultPolicy The policy to return if the name is null or unknown
+	 * @return The BalancingPolicy with the provided name, or the default policy
+	 */
+	public static BalancingPolicy parse(String name, BalancingPolicy defaultPolicy)
+	{
+		if(name == null)
+		{
+			return defaultPolicy;
+		}
+		
+		try
+		{
+			return valueOf(name.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return defaultPolicy;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.project.router;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import com.github.project.server.LogLevel;
+import com.github.project.server.Logger;
+
+/**
+ * This is the main class of the router program. The router accepts client connections exactly
+ * like a server, and forwards their calculations to a pool of backend server processes, so that
+ * the load of many clients is spread over several JVMs. The backends are listed on the command
+ * line as host:port addresses; they may all run on localhost.
+ * 
+ * The backend of each calculation is chosen with the policy named by the mathrouter.balancing
+ * system property: LEAST_OUTSTANDING (default) or CONSISTENT_HASH. The backends see every
+ * client of the router under the one username of the backend connections, so the FAIR
+ * scheduling of a backend cannot tell the users of the router apart.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class MathRouterMain
+{
+	private static final int DEFAULT_ACCEPT_BACKLOG = 1024; // Pending connections held by the OS before they are accepted
+	
+	/**
+	 * This is the entry method of the program. It connects to the backends and listens/accepts
+	 * connection requests.
+	 * 
+	 * @param args Arguments passed by the loader/command line
+	 */
+	public static void main(String[] args)
+	{
+		// Assert arguments and return if unsuccessful
+		if(!assertArguments(args))
+		{
+			return;
+		}
+		
+		// Bind logger output and return if unsuccessful
+		if(!bindLoggerOutput(args[1]))
+		{
+			return;
+		}
+		
+		// Connect to the backends, then begin accepting connections on provided port
+		BackendPool backendPool = createBackendPool(args);
+		backendPool.start();
+		acceptRequestConnections(Integer.parseInt(args[0]), backendPool);
+	}
+	
+	/**
+	 * Binds the logger output to the provided text file path
+	 * 
+	 * @param path The provided text file path to bind the Logger
+	 * @return Whether or not the bind was successful
+	 */
+	private static boolean bindLoggerOutput(String path)
+	{
+		Logger logger = Logger.getInstance();
+		
+		try
+		{
+			logger.bindOutput(path);
+		}
+		catch(FileNotFoundException ex)
+		{
+			logger.serverLog(LogLevel.ERROR, "Failed to bind log output");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Validates the command-line arguments
+	 * 
+	 * @param args The command-line arguments (0: port, 1: text file path, 2 and on: backend host:port addresses)
+	 * @return Whether or not the command-line arguments are valid
+	 */
+	private static boolean assertArguments(String[] args)
+	{
+		Logger logger = Logger.getInstance();
+		
+		if(args.length < 3)
+		{
+			logger.serverLog(LogLevel.ERROR, "Insufficient arguments");
+			return false;
+		}
+		
+		if(!isValidPort(args[0]))
+		{
+			logger.serverLog(LogLevel.ERROR, "Bad router port number");
+			return false;
+		}
+		
+		for(int i = 2; i < args.length; i++)
+		{
+			int separator = args[i].lastIndexOf(':');
+			
+			if(separator <= 0 || !isValidPort(args[i].substring(separator + 1)))
+			{
+				logger.serverLog(LogLevel.ERROR, "Bad backend address " + args[i] + "; expected host:port");
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Returns whether or not the provided text is a port number in the range the server accepts
+	 * 
+	 * @param text The text to parse
+	 * @return Whether or not the text is a port from 1024 to 65535
+	 */
+	private static boolean isValidPort(String text)
+	{
+		try
+		{
+			int port = Integer.parseInt(text);
+			return port >= 1024 && port < 65536;
+		}
+		catch(NumberFormatException ex)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * This method creates the pool of the backends listed by the validated command-line arguments.
+	 * 
+	 * @param args The validated command-line arguments
+	 * @return The BackendPool, with every backend out of rotation
+	 */
+	private static BackendPool createBackendPool(String[] args)
+	{
+		String[] hosts = new String[args.length - 2];
+		int[] ports = new int[args.length - 2];
+		
+		for(int i = 0; i < hosts.length; i++)
+		{
+			int separator = args[i + 2].lastIndexOf(':');
+			hosts[i] = args[i + 2].substring(0, separator);
+			ports[i] = Integer.parseInt(args[i + 2].substring(separator + 1));
+		}
+		
+		BalancingPolicy balancingPolicy = BalancingPolicy.parse(System.getProperty("mathrouter.balancing"), BalancingPolicy.LEAST_OUTSTANDING);
+		Logger.getInstance().serverLog("Routing to " + hosts.length + " backends by " + balancingPolicy);
+		return new BackendPool(hosts, ports, balancingPolicy);
+	}
+	
+	/**
+	 * This method listens for connection requests and accepts them if possible. It does this
+	 * action in an infinite loop until the router is terminated. Each connection is handled by
+	 * its own platform thread.
+	 * 
+	 * @param routerPort The TCP port on which to accept connection requests
+	 * @param backendPool The backends the requests are forwarded to
+	 */
+	private static void acceptRequestConnections(int routerPort, BackendPool backendPool)
+	{
+		Logger logger = Logger.getInstance();
+		ServerSocket serverSocket;
+		
+		try
+		{
+			serverSocket = new ServerSocket(routerPort, Integer.getInteger("mathserver.acceptBacklog", DEFAULT_ACCEPT_BACKLOG));
+		}
+		catch(IOException ex)
+		{
+			logger.serverLog(LogLevel.ERROR, "Failed to open server socket on provided port");
+			return;
+		}
+		
+		try
+		{
+			StringBuilder builder = new StringBuilder();
+			builder.append("Opened TCP connection on port ");
+			builder.append(serverSocket.getLocalPort());
+			builder.append(" at IP address ");
+			builder.append(InetAddress.getLocalHost().getHostAddress());
+			builder.append(" for routing");
+			logger.serverLog(builder.toString());
+		}
+		catch(UnknownHostException ex)
+		{
+		
+		}
+		
+		Thread.Builder handlerThreadBuilder = Thread.ofPlatform().name("connection-", 0);
+		
+		// Accept connections until the router is terminated
+		while(true)
+		{
+			try
+			{
+				Socket newConnection = serverSocket.accept();
+				handlerThreadBuilder.start(new RoutingConnectionHandler(newConnection, backendPool));
+				
+				logger.serverLog("Accepted new TCP connection...");
+			}
+			catch(IOException ex)
+			{
+			
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.github.project.router;
+
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationBatchResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.Request;
+import com.github.project.core.Response;
+
+/**
+ * This class holds a CalculationRequest or CalculationBatchRequest received by the router
+ * while it is forwarded to a backend server. The request is sent to the backend under a request
+ * ID of the backend connection, so that the backend answers it as soon as it is calculated, and
+ * the answer is sent to the client under the request ID the client chose, or in arrival order
+ * if it chose none.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class RoutedRequest
+{
+	private final RoutingConnectionHandler requestingHandler;	// The connection that received the request
+	private final long sequenceNumber;							// The per-connection sequence number of the request
+	private final CalculationRequest calculation;				// The received calculation, or null for a batch
+	private final CalculationBatchRequest batch;				// The received batch, or null for a calculation
+	private int attempts;										// The number of backends the request was forwarded to
+	
+	/**
+	 * This method returns the text that places the request on the hash ring
+	 * 
+	 * @return The text of the calculation, or null for a batch
+	 */
+	public String getRoutingKey()
+	{
+		return calculation == null ? null : calculation.getRawRequest();
+	}
+	
+	/**
+	 * This method returns the request ID chosen by the client
+	 * 
+	 * @return The request ID, or CalculationRequest.NO_REQUEST_ID
+	 */
+	public long getRequestID()
+	{
+		return calculation == null ? batch.getRequestID() : calculation.getRequestID();
+	}
+	
+	/**
+	 * This method counts one more attempt to forward the request, when it is first routed and
+	 * again each time the backend holding it fails.
+	 * 
+	 * @return The number of attempts so far, including this one
+	 */
+	public int countAttempt()
+	{
+		return ++attempts;
+	}
+	
+	/**
+	 * This method creates the copy of the request sent to a backend.
+	 * 
+	 * @param backendRequestID The request ID of the backend connection
+	 * @return The CalculationRequest or CalculationBatchRequest to send
+	 */
+	public Request createBackendRequest(long backendRequestID)
+	{
+		if(calculation == null)
+		{
+			return new CalculationBatchRequest(batch.getRawRequests(), backendRequestID);
+		}
+		
+		return new CalculationRequest(calculation.getRawRequest(), backendRequestID);
+	}
+	
+	/**
+	 * This method answers the client with the response of the backend, under the request ID
+	 * the client chose. A BusyResponse of the backend is passed on, so the client backs off as
+	 * it would from a single server.
+	 * 
+	 * @param backendResponse The response of the backend to the forwarded request
+	 * @return Whether or not the response answers this kind of request
+	 */
+	public boolean answer(Response backendResponse)
+	{
+		Response response;
+		
+		if(backendResponse instanceof BusyResponse)
+		{
+			response = new BusyResponse(getRequestID(), ((BusyResponse) backendResponse).getRetryAfterMillis());
+		}
+		else if(calculation != null && backendResponse instanceof CalculationResponse)
+		{
+			CalculationResponse calculationResponse = (CalculationResponse) backendResponse;
+			response = new CalculationResponse(calculationResponse.getResponseCode(), calculationResponse.getCalculationResult(), calculationResponse.getCalculationErrorDesc(), getRequestID());
+		}
+		else if(batch != null && backendResponse instanceof CalculationBatchResponse)
+		{
+			CalculationBatchResponse batchResponse = (CalculationBatchResponse) backendResponse;
+			response = new CalculationBatchResponse(batchResponse.getResponseCode(), batchResponse.getCalculationResults(), batchResponse.getErrorIndices(), batchResponse.getErrorMessages(), getRequestID());
+		}
+		else
+		{
+			return false;
+		}
+		
+		requestingHandler.sendRoutedResponse(sequenceNumber, getRequestID(), response);
+		return true;
+	}
+	
+	/**
+	 * This method answers the client with a BusyResponse when no backend can take the request.
+	 * 
+	 * @param retryAfterMillis The suggested delay before the request is sent again
+	 */
+	public void refuse(int retryAfterMillis)
+	{
+		requestingHandler.sendRoutedResponse(sequenceNumber, getRequestID(), new BusyResponse(getRequestID(), retryAfterMillis));
+	}
+	
+	/**
+	 * Creates a RoutedRequest object for a received CalculationRequest.
+	 * 
+	 * @param requestingHandler_ The connection that received the request
+	 * @param sequenceNumber_ The per-connection sequence number of the request
+	 * @param calculation_ The received CalculationRequest
+	 */
+	public RoutedRequest(RoutingConnectionHandler requestingHandler_, long sequenceNumber_, CalculationRequest calculation_)
+	{
+		requestingHandler = requestingHandler_;
+		sequenceNumber = sequenceNumber_;
+		calculation = calculation_;
+		batch = null;
+	}
+	
+	/**
+	 * Creates a RoutedRequest object for a received CalculationBatchRequest.
+	 * 
+	 * @param requestingHandler_ The connection that received the batch
+	 * @param sequenceNumber_ The per-connection sequence number of the batch
+	 * @param batch_ The received CalculationBatchRequest
+	 */
+	public RoutedRequest(RoutingConnectionHandler requestingHandler_, long sequenceNumber_, CalculationBatchRequest batch_)
+	{
+		requestingHandler = requestingHandler_;
+		sequenceNumber = sequenceNumber_;
+		calculation = null;
+		batch = batch_;
+	}
+}
@@ -0,0 +1,90 @@
+package com.github.project.router;
+
+import java.net.Socket;
+
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.PrepareRequest;
+import com.github.project.core.PrepareResponse;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepChunkResponse;
+import com.github.project.core.SweepRequest;
+import com.github.project.server.ConnectionHandler;
+
+/**
+ * This class implements the client connections of the router. It is a ConnectionHandler, so
+ * clients connect to the router exactly as to a server: the same handshake, wire protocols,
+ * request IDs, response ordering and outbound queue. Instead of the processing queue, received
+ * calculations and batches are handed to the BackendPool, which forwards them to a backend
+ * server, and the responses of the backends are sent through the ordering of the connection.
+ * 
+ * A StatsRequest is answered by the router with the metrics of the pool. Prepared expressions
+ * and sweeps are held by the connection they were sent on, so they are refused rather than
+ * split across backends; clients that need them connect to a server directly.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class RoutingConnectionHandler extends ConnectionHandler
+{
+	private static final String NOT_ROUTED_MESSAGE = "The router does not forward prepared expressions or sweeps"; // The error message of the refused requests
+	
+	private final BackendPool backendPool;	// The backends the requests are forwarded to
+	
+	/**
+	 * This method sends the response to a forwarded request, following the ordering rules of the
+	 * connection. The threads reading the backends call it.
+	 * 
+	 * @param sequenceNumber The sequence number assigned to the request when it was received
+	 * @param requestID The request ID of the request, or CalculationRequest.NO_REQUEST_ID
+	 * @param response The Response answering the request
+	 */
+	void sendRoutedResponse(long sequenceNumber, long requestID, Response response)
+	{
+		sendInOrder(sequenceNumber, requestID, response);
+	}
+	
+	protected void submitCalculationRequest(CalculationRequest request)
+	{
+		backendPool.route(new RoutedRequest(this, assignSequenceNumber(request.hasRequestID()), request));
+	}
+	
+	protected void submitCalculationBatch(CalculationBatchRequest request)
+	{
+		backendPool.route(new RoutedRequest(this, assignSequenceNumber(request.hasRequestID()), request));
+	}
+	
+	protected void answerPrepareRequest(PrepareRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		sendInOrder(sequenceNumber, request.getRequestID(), new PrepareResponse(ResponseCode.BAD_REQUEST, PrepareResponse.NO_HANDLE, NOT_ROUTED_MESSAGE, request.getRequestID()));
+	}
+	
+	protected void submitSweep(SweepRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		sendInOrder(sequenceNumber, request.getRequestID(), new SweepChunkResponse(ResponseCode.BAD_REQUEST, request.getRequestID(), 0, new double[0], true, NOT_ROUTED_MESSAGE));
+	}
+	
+	protected void answerStatsRequest(StatsRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		sendInOrder(sequenceNumber, request.getRequestID(), backendPool.createStatsResponse(request.getRequestID()));
+	}
+	
+	/**
+	 * Creates a RoutingConnectionHandler object that receives requests on the passed Socket
+	 * object and forwards them to the passed pool.
+	 * 
+	 * @param connectionSocket_ The Socket to receive requests
+	 * @param backendPool_ The backends the requests are forwarded to
+	 */
+	public RoutingConnectionHandler(Socket connectionSocket_, BackendPool backendPool_)
+	{
+		super(connectionSocket_);
+		backendPool = backendPool_;
+	}
+}
@@ -0,0 +1,227 @@
+package com.github.project.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationBatchResponse;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.ResponseCode;
+
+/**
+ * This class holds the progress of a CalculationBatchRequest inside the processing queue. The
+ * batch is queued once, and any number of processing threads may then claim chunks of its
+ * expressions and calculate them in parallel. The thread that completes the last chunk builds
+ * the CalculationBatchResponse.
+ * 
+ * An ExecutePreparedRequest is calculated as a batch too: its expressions are the rows of
+ * parameter values of one PreparedExpression, and it is answered the same way.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CalculationBatch extends ChunkedWork
+{
+	private static final int CHUNK_SIZE = 64; // The number of expressions claimed by a processing thread at once
+	
+	private final String[] rawRequests;					// The expressions of a CalculationBatchRequest, or null
+	private final PreparedExpression prepared;			// The expression of an ExecutePreparedRequest, or null
+	private final double[] parameterValues;				// The packed parameter values of an ExecutePreparedRequest, or null
+	private final long requestID;						// The request ID of the batch
+	
+	private final double[] results;			// The results of the expressions, in order
+	private final String[] errorMessages;	// The error messages of the expressions with a NaN result
+	
+	private final AtomicInteger nextIndex;		// The first expression not yet claimed by a processing thread
+	private final AtomicInteger remaining;		// The number of expressions not yet calculated
+	
+	/**
+	 * This method returns the expressions of a CalculationBatchRequest
+	 * 
+	 * @return The raw requests of the batch, or null if it executes a PreparedExpression
+	 */
+	public String[] getRawRequests()
+	{
+		return rawRequests;
+	}
+	
+	/**
+	 * This method returns the prepared expression of an ExecutePreparedRequest
+	 * 
+	 * @return The PreparedExpression calculated for every row, or null for a CalculationBatchRequest
+	 */
+	public PreparedExpression getPreparedExpression()
+	{
+		return prepared;
+	}
+	
+	/**
+	 * This method returns the parameter values of an ExecutePreparedRequest
+	 * 
+	 * @return The parameter values, row after row, or null for a CalculationBatchRequest
+	 */
+	public double[] getParameterValues()
+	{
+		return parameterValues;
+	}
+	
+	/**
+	 * This method returns the number of expressions of the batch
+	 * 
+	 * @return The number of results of the batch
+	 */
+	public int size()
+	{
+		return results.length;
+	}
+	
+	/**
+	 * This method returns the number of chunks the batch is calculated in
+	 * 
+	 * @return The number of chunks of this batch
+	 */
+	public int getChunkCount()
+	{
+		return (results.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+	
+	public int getCost()
+	{
+		return Math.max(1, results.length);
+	}
+	
+	/**
+	 * This method claims the next chunk of expressions for the calling thread.
+	 * 
+	 * @return The index of the first expression of the chunk, or -1 if every chunk is claimed
+	 */
+	public int claimChunk()
+	{
+		int start = nextIndex.getAndAdd(CHUNK_SIZE);
+		return start < results.length ? start : -1;
+	}
+	
+	/**
+	 * This method returns the end of the chunk starting at the provided index
+	 * 
+	 * @param start The index of the first expression of the chunk
+	 * @return The index after the last expression of the chunk
+	 */
+	public int chunkEnd(int start)
+	{
+		return Math.min(start + CHUNK_SIZE, results.length);
+	}
+	
+	/**
+	 * This method records the result of one expression of a claimed chunk.
+	 * 
+	 * @param index The index of the expression in the batch
+	 * @param result The result of the calculation
+	 * @param errorMessage The error message of the calculation
+	 */
+	public void setResult(int index, double result, String errorMessage)
+	{
+		results[index] = result;
+		
+		// Only failed calculations keep their message, so the error list stays sparse
+		if(Double.isNaN(result))
+		{
+			errorMessages[index] = errorMessage;
+		}
+	}
+	
+	/**
+	 * This method records that the calling thread has calculated a number of expressions.
+	 * 
+	 * @param count The number of expressions calculated
+	 * @return Whether or not the batch is now complete; true for exactly one call
+	 */
+	public boolean complete(int count)
+	{
+		return remaining.addAndGet(-count) == 0;
+	}
+	
+	/**
+	 * This method returns whether or not the batch holds no expressions at all
+	 * 
+	 * @return True if the batch is empty
+	 */
+	public boolean isEmpty()
+	{
+		return results.length == 0;
+	}
+	
+	/**
+	 * This method builds the response of the completed batch
+	 * 
+	 * @return The CalculationBatchResponse holding the results and the sparse error list
+	 */
+	public CalculationBatchResponse createResponse()
+	{
+		int errorCount = 0;
+		
+		for(String errorMessage : errorMessages)
+		{
+			if(errorMessage != null)
+			{
+				errorCount++;
+			}
+		}
+		
+		int[] errorIndices = new int[errorCount];
+		String[] packedErrorMessages = new String[errorCount];
+		int errorPosition = 0;
+		
+		for(int i = 0; i < errorMessages.length; i++)
+		{
+			if(errorMessages[i] != null)
+			{
+				errorIndices[errorPosition] = i;
+				packedErrorMessages[errorPosition] = errorMessages[i];
+				errorPosition++;
+			}
+		}
+		
+		return new CalculationBatchResponse(ResponseCode.OK, results, errorIndices, packedErrorMessages, requestID);
+	}
+	
+	/**
+	 * Creates a CalculationBatch object for a received batch request.
+	 * 
+	 * @param request_ The received CalculationBatchRequest
+	 * @param requestingHandler_ The ClientConnection that received the batch
+	 * @param sequenceNumber_ The per-connection sequence number of the batch
+	 */
+	public CalculationBatch(CalculationBatchRequest request_, ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		this(request_.getRawRequests(), null, null, request_.getRawRequests().length, request_.getRequestID(), requestingHandler_, sequenceNumber_);
+	}
+	
+	/**
+	 * Creates a CalculationBatch object for a received ExecutePreparedRequest.
+	 * 
+	 * @param prepared_ The PreparedExpression named by the handle of the request
+	 * @param request_ The received ExecutePreparedRequest, whose values fill whole rows
+	 * @param requestingHandler_ The ClientConnection that received the request
+	 * @param sequenceNumber_ The per-connection sequence number of the request
+	 */
+	public CalculationBatch(PreparedExpression prepared_, ExecutePreparedRequest request_, ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		this(null, prepared_, request_.getParameterValues(), prepared_.getRowCount(request_.getParameterValues()), request_.getRequestID(), requestingHandler_, sequenceNumber_);
+	}
+	
+	private CalculationBatch(String[] rawRequests_, PreparedExpression prepared_, double[] parameterValues_, int size, long requestID_, ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		super(requestingHandler_, sequenceNumber_);
+		rawRequests = rawRequests_;
+		prepared = prepared_;
+		parameterValues = parameterValues_;
+		requestID = requestID_;
+		
+		results = new double[size];
+		errorMessages = new String[size];
+		
+		nextIndex = new AtomicInteger();
+		remaining = new AtomicInteger(size);
+	}
+}
@@ -0,0 +1,98 @@
+package com.github.project.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class holds the common state of a unit of work that is queued once and then calculated
+ * in chunks by any number of processing threads: the connection that received it, its sequence
+ * number, and whether or not other processing threads were already asked to help. It takes a
+ * single slot of a RequestQueue regardless of its size.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public abstract class ChunkedWork
+{
+	private final ClientConnection requestingHandler;	// The ClientConnection that received the work
+	private final long sequenceNumber;					// The per-connection sequence number of the work
+	private final AtomicBoolean shared;					// Reflects whether or not other processing threads were asked to help
+	
+	/**
+	 * This method returns the ClientConnection that received the work
+	 * 
+	 * @return The ClientConnection to which the responses are sent
+	 */
+	public ClientConnection getRequestingHandler()
+	{
+		return requestingHandler;
+	}
+	
+	/**
+	 * This method returns the sequence number assigned to the work by the ClientConnection
+	 * 
+	 * @return The per-connection sequence number of the work
+	 */
+	public long getSequenceNumber()
+	{
+		return sequenceNumber;
+	}
+	
+	/**
+	 * This method returns the number of chunks the work is calculated in
+	 * 
+	 * @return The number of chunks, and so the most processing threads that can help at once
+	 */
+	public abstract int getChunkCount();
+	
+	/**
+	 * This method returns the cost charged to the user of the work by the FairRequestQueue
+	 * each time the work is queued
+	 * 
+	 * @return The number of expressions calculated before the work is queued again, at least 1
+	 */
+	public abstract int getCost();
+	
+	/**
+	 * This method marks the work as shared with other processing threads. Only the first
+	 * call succeeds, so that helpers are invited once per unit of work.
+	 * 
+	 * @return Whether or not the calling thread should invite helpers
+	 */
+	public boolean share()
+	{
+		return shared.compareAndSet(false, true);
+	}
+	
+	/**
+	 * This method marks the work as no longer shared, so that the next processing thread to
+	 * take it invites helpers again.
+	 */
+	protected void unshare()
+	{
+		shared.set(false);
+	}
+	
+	/**
+	 * This method returns whether or not the work has been shared with other processing threads
+	 * 
+	 * @return True once share has succeeded, so that queued copies of the work are helpers
+	 */
+	public boolean isShared()
+	{
+		return shared.get();
+	}
+	
+	/**
+	 * Creates a ChunkedWork object that has not been shared.
+	 * 
+	 * @param requestingHandler_ The ClientConnection that received the work
+	 * @param sequenceNumber_ The per-connection sequence number of the work
+	 */
+	protected ChunkedWork(ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		requestingHandler = requestingHandler_;
+		sequenceNumber = sequenceNumber_;
+		shared = new AtomicBoolean();
+	}
+}
@@ -0,0 +1,719 @@
+package com.github.project.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.project.core.BinaryMessageCodec;
+import com.github.project.core.BusyResponse;
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationBatchResponse;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.CalculationResponse;
+import com.github.project.core.ConnectionEstablishRequest;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.PrepareRequest;
+import com.github.project.core.PrepareResponse;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepChunkResponse;
+import com.github.project.core.SweepRequest;
+import com.github.project.core.WireProtocol;
+
+/**
+ * This class holds the app-layer state shared by every kind of client connection of the
+ * server, regardless of how its socket is read and written. It assigns sequence numbers
+ * to received calculation requests and makes sure their responses are sent in the same
+ * order, even when several processing threads finish them out of order. Requests that carry
+ * a request ID are exempt: their responses are sent as soon as they are calculated. It also decides 
+ * which wire protocol the connection uses once the handshake has been acknowledged.
+ * 
+ * Responses are guarded by a ReentrantLock rather than the object monitor. Sending a response 
+ * may block on socket I/O, and a virtual thread blocking inside a synchronized block would pin 
+ * its carrier thread.
+ * 
+ * Sending a response never waits for the client. Each front end queues the encoded responses
+ * and writes them from the I/O context of the connection, so a client that stops reading cannot
+ * stall the processing threads. The queue holds at most mathserver.outboundQueueSize responses
+ * (default 4096); a connection whose queue overflows is killed instead.
+ * 
+ * The expressions registered by PrepareRequests are held by the connection under handles of
+ * its own, up to mathserver.maximumPreparedExpressions (default 256) of them, and forgotten
+ * with it. Only the thread reading requests touches them: an ExecutePreparedRequest is resolved
+ * to its PreparedExpression before it is queued.
+ * 
+ * The chunks of a SweepRequest are sent as they are calculated rather than in order. A sweep
+ * must not outrun its client: once mathserver.sweepBacklog responses (default 64) wait to be
+ * written, the processing threads leave the sweep parked on the connection, and the front end
+ * queues it again once the backlog is down to a quarter of that.
+ * 
+ * The serialized output stream of a connection is reset every SERIALIZED_RESET_INTERVAL
+ * responses. An object stream keeps every object it has written referenced until it is reset,
+ * so without the resets both sides of a long connection would keep every response.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public abstract class ClientConnection
+{
+	protected final int connectionID;									// The connection ID (unique to each connection)
+	protected String username;											// The passed username from the client (not unique to each connection)
+	protected volatile ApplicationLayerConnectionState connectionState;	// The app-layer connection state of this connection
+	protected final ReentrantLock responseLock;							// Guards the responses and output stream of this connection
+	protected WireProtocol wireProtocol;								// The wire protocol of the messages after the handshake
+	
+	private long nextRequestSequenceNumber;							// The sequence number assigned to the next received CalculationRequest
+	private long nextResponseSequenceNumber;						// The sequence number of the next CalculationResponse to send
+	private final HashMap<Long, Response> heldResponses;			// Responses completed ahead of an earlier request, keyed by sequence number
+	private final AtomicBoolean closed;								// Reflects whether or not the connection was counted as closed
+	private final HashMap<Integer, PreparedExpression> preparedExpressions;	// The prepared expressions of this connection, by handle
+	private int lastPreparedHandle;									// The handle of the last prepared expression
+	private final ArrayList<ParameterSweep> pausedSweeps;			// The sweeps waiting for the backlog to be written, guarded by the response lock
+	
+	private static final long UNORDERED_SEQUENCE_NUMBER = -1; // The sequence number of requests answered out of order
+	private static final AtomicInteger nextConnectionID = new AtomicInteger(); // Used for ID generation in constructor
+	protected static final int SERIALIZED_RESET_INTERVAL = 1024; // The number of serialized responses written between stream resets
+	protected static final int MAXIMUM_OUTBOUND_RESPONSES = Math.max(1, Integer.getInteger("mathserver.outboundQueueSize", 4096)); // The number of unsent responses a connection may hold
+	private static final int MAXIMUM_PREPARED_EXPRESSIONS = Integer.getInteger("mathserver.maximumPreparedExpressions", 256); // The number of expressions a connection may prepare
+	private static final int SWEEP_PAUSE_BACKLOG = Math.max(1, Math.min(MAXIMUM_OUTBOUND_RESPONSES / 2, Integer.getInteger("mathserver.sweepBacklog", 64))); // The backlog at which sweeps are paused
+	private static final String MALFORMED_REQUEST_MESSAGE = "The request is missing a field"; // The error message of requests lacking a field
+	private static final String SWEEP_STOPPED_MESSAGE = "The server was too busy to finish the sweep"; // The error message of a sweep stopped early
+	private static final boolean BINARY_PROTOCOL_ENABLED = !Boolean.getBoolean("mathserver.disableBinaryProtocol"); // Whether or not clients may switch to the binary protocol
+	
+	/**
+	 * This method returns the connection ID of this connection
+	 * 
+	 * @return The connection ID unique to this connection
+	 */
+	public int getConnectionID()
+	{
+		return connectionID;
+	}
+	
+	/**
+	 * This method returns the username passed by the client
+	 * 
+	 * @return The username of this connection, or null before the connection is established
+	 */
+	public String getUsername()
+	{
+		return username;
+	}
+	
+	/**
+	 * This method sends a CalculationResponse to the connected client with the provided
+	 * response code, result and (possible) error message. As several processing threads may
+	 * finish requests of this connection out of order, responses without a request ID are held
+	 * back until every response with a lower sequence number has been sent. Responses with a
+	 * request ID are sent immediately, tagged with that ID.
+	 * 
+	 * @param sequenceNumber The sequence number assigned to the request when it was received
+	 * @param requestID The request ID of the request, or CalculationRequest.NO_REQUEST_ID
+	 * @param responseCode OK, or TIMED_OUT if the calculation exceeded its time budget
+	 * @param result The result of the calculation
+	 * @param calculationErrorMessage The error message of the calculation, if it exists
+	 */
+	public void sendCalculationResponse(long sequenceNumber, long requestID, ResponseCode responseCode, double result, String calculationErrorMessage)
+	{
+		CalculationResponse response = new CalculationResponse(responseCode, result, calculationErrorMessage, requestID);
+		sendInOrder(sequenceNumber, requestID, response);
+	}
+	
+	/**
+	 * This method sends the CalculationBatchResponse of a completed batch to the connected 
+	 * client, following the same ordering rules as single calculation responses.
+	 * 
+	 * @param sequenceNumber The sequence number assigned to the batch when it was received
+	 * @param response The CalculationBatchResponse to send
+	 */
+	public void sendBatchResponse(long sequenceNumber, CalculationBatchResponse response)
+	{
+		sendInOrder(sequenceNumber, response.getRequestID(), response);
+	}
+	
+	/**
+	 * This method sends a BusyResponse in place of the result of a request that was accepted
+	 * but then refused, following the same ordering rules as single calculation responses.
+	 * 
+	 * @param sequenceNumber The sequence number assigned to the request when it was received
+	 * @param requestID The request ID of the request, or CalculationRequest.NO_REQUEST_ID
+	 * @param retryAfterMillis The suggested delay before the request is sent again
+	 */
+	public void sendBusyResponse(long sequenceNumber, long requestID, int retryAfterMillis)
+	{
+		sendInOrder(sequenceNumber, requestID, new BusyResponse(requestID, retryAfterMillis));
+	}
+	
+	/**
+	 * This method sends the results of a chunk of a sweep to the connected client at once. The
+	 * chunk that completes the sweep is flagged as last; as the chunks are counted under the
+	 * response lock, it is queued after every other chunk of the sweep.
+	 * 
+	 * @param sweep The sweep the chunk belongs to
+	 * @param firstPoint The first point of the chunk
+	 * @param results The results of the points of the chunk
+	 */
+	public void sendSweepChunk(ParameterSweep sweep, long firstPoint, double[] results)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			boolean last = sweep.complete(results.length);
+			
+			if(isAcceptingResponses())
+			{
+				sendResponse(createSweepChunk(sweep, firstPoint, results, last));
+			}
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method gives up the unclaimed points of a sweep, sending the last chunk of the sweep
+	 * if no processing thread is still calculating one.
+	 * 
+	 * @param sweep The sweep to stop
+	 */
+	public void stopSweep(ParameterSweep sweep)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			long givenUp = sweep.stop();
+			
+			if(givenUp > 0 && sweep.complete(givenUp) && isAcceptingResponses())
+			{
+				sendResponse(createSweepChunk(sweep, sweep.getPointCount() - givenUp, new double[0], true));
+			}
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method parks a sweep on this connection if too many responses wait to be written.
+	 * Processing threads call it before claiming each chunk, and leave the sweep if it returns true.
+	 * 
+	 * @param sweep The sweep being calculated
+	 * @return Whether or not the calling thread should leave the sweep
+	 */
+	public boolean pauseSweep(ParameterSweep sweep)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			if(getOutboundBacklog() < SWEEP_PAUSE_BACKLOG)
+			{
+				return false;
+			}
+			
+			// Only the first thread to leave parks the sweep; the others just leave
+			if(sweep.pause())
+			{
+				pausedSweeps.add(sweep);
+			}
+			
+			return true;
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method queues the parked sweeps again once the backlog of this connection is down to
+	 * a quarter of the pausing backlog. Front ends call it after writing responses, outside of the
+	 * response lock. A sweep the processing queue has no room for is stopped.
+	 */
+	protected void resumeSweeps()
+	{
+		ParameterSweep[] resumedSweeps;
+		responseLock.lock();
+		
+		try
+		{
+			if(pausedSweeps.isEmpty() || getOutboundBacklog() > SWEEP_PAUSE_BACKLOG / 4)
+			{
+				return;
+			}
+			
+			resumedSweeps = pausedSweeps.toArray(new ParameterSweep[pausedSweeps.size()]);
+			pausedSweeps.clear();
+			
+			// The sweeps are unmarked under the lock so that none can be parked again without being listed
+			for(ParameterSweep sweep : resumedSweeps)
+			{
+				sweep.resume();
+			}
+			
+			if(!isAcceptingResponses())
+			{
+				return;
+			}
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		for(ParameterSweep sweep : resumedSweeps)
+		{
+			if(!ProcessingQueue.getInstance().resumeSweep(sweep))
+			{
+				stopSweep(sweep);
+			}
+		}
+	}
+	
+	/**
+	 * This method creates a chunk of a sweep; the last chunk of a stopped sweep is marked BUSY.
+	 */
+	private static SweepChunkResponse createSweepChunk(ParameterSweep sweep, long firstPoint, double[] results, boolean last)
+	{
+		if(last && sweep.isStopped())
+		{
+			return new SweepChunkResponse(ResponseCode.BUSY, sweep.getRequestID(), firstPoint, results, true, SWEEP_STOPPED_MESSAGE);
+		}
+		
+		return new SweepChunkResponse(ResponseCode.OK, sweep.getRequestID(), firstPoint, results, last, null);
+	}
+	
+	/**
+	 * This method assigns the sequence number of a received request, in arrival order. Requests
+	 * with a request ID take no part in the ordering and are not assigned one. It must only be
+	 * called by the thread reading requests from this connection.
+	 * 
+	 * @param hasRequestID Whether or not the request carries a request ID
+	 * @return The sequence number of the request
+	 */
+	protected long assignSequenceNumber(boolean hasRequestID)
+	{
+		return hasRequestID ? UNORDERED_SEQUENCE_NUMBER : nextRequestSequenceNumber++;
+	}
+	
+	/**
+	 * This method sends a response immediately if it carries a request ID, and otherwise holds
+	 * it until every response with a lower sequence number has been sent.
+	 * 
+	 * @param sequenceNumber The sequence number assigned to the request when it was received
+	 * @param requestID The request ID of the request, or CalculationRequest.NO_REQUEST_ID
+	 * @param response The Response answering the request
+	 */
+	protected void sendInOrder(long sequenceNumber, long requestID, Response response)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			// Do not bother sending the message if the connection can no longer receive it
+			if(!isAcceptingResponses())
+			{
+				return;
+			}
+			
+			// The client matches responses with a request ID itself, so they need not wait
+			if(requestID != CalculationRequest.NO_REQUEST_ID)
+			{
+				sendResponse(response);
+				return;
+			}
+			
+			// Hold the response message until it is next in order
+			heldResponses.put(sequenceNumber, response);
+			
+			// Send every held response that is now next in order
+			Response nextResponse;
+			
+			while((nextResponse = heldResponses.remove(nextResponseSequenceNumber)) != null)
+			{
+				sendResponse(nextResponse);
+				nextResponseSequenceNumber++;
+			}
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method returns the wire protocol to use after acknowledging the provided handshake.
+	 * The binary protocol is granted to the clients that request it unless the server was
+	 * started with the mathserver.disableBinaryProtocol system property.
+	 * 
+	 * @param request The received ConnectionEstablishRequest
+	 * @return The wire protocol to announce in the ConnectionEstablishResponse
+	 */
+	protected static WireProtocol negotiateWireProtocol(ConnectionEstablishRequest request)
+	{
+		if(request.getWireProtocol() == WireProtocol.BINARY && BINARY_PROTOCOL_ENABLED)
+		{
+			return WireProtocol.BINARY;
+		}
+		
+		return WireProtocol.SERIALIZED;
+	}
+	
+	/**
+	 * This method writes a Response as one frame of the binary protocol. A response too large
+	 * for a frame, which only the CalculationBatchResponse of a very large batch can be, is
+	 * answered with the BAD_REQUEST response of its kind instead; nothing of it has been
+	 * written, so the stream stays in step. The caller holds the lock of the output.
+	 * 
+	 * @param out The binary output of this connection
+	 * @param response The Response object to write
+	 * @return The Response object written in its place
+	 * @throws IOException Thrown if the output fails
+	 */
+	protected Response writeBinaryResponse(DataOutputStream out, Response response) throws IOException
+	{
+		try
+		{
+			BinaryMessageCodec.writeMessage(out, response);
+			return response;
+		}
+		catch(StreamCorruptedException ex)
+		{
+			Logger.getInstance().connectionHandlerLog(LogLevel.WARN, connectionID, username, "Response too large for one frame");
+			Response replacement;
+			
+			if(response instanceof CalculationBatchResponse)
+			{
+				long requestID = ((CalculationBatchResponse) response).getRequestID();
+				replacement = new CalculationBatchResponse(ResponseCode.BAD_REQUEST, new double[0], new int[0], new String[0], requestID);
+			}
+			else
+			{
+				replacement = new Response(ResponseCode.BAD_REQUEST);
+			}
+			
+			BinaryMessageCodec.writeMessage(out, replacement);
+			return replacement;
+		}
+	}
+	
+	/**
+	 * This method answers a received request that lacks one of its fields with the BAD_REQUEST
+	 * response of its kind, following the same ordering rules as a CalculationRequest. Only a
+	 * serialized message written by hand can lack a field, as the clients and the binary protocol
+	 * always fill them. Front ends call it before handling each request after the handshake. It
+	 * must only be called by the thread reading requests from this connection.
+	 * 
+	 * @param receivedMessage The deserialized message
+	 * @return Whether or not the message was a malformed request, which has been answered
+	 */
+	protected boolean rejectMalformedRequest(Object receivedMessage)
+	{
+		if(receivedMessage instanceof CalculationRequest)
+		{
+			CalculationRequest request = (CalculationRequest) receivedMessage;
+			
+			if(request.getRawRequest() == null)
+			{
+				long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+				sendInOrder(sequenceNumber, request.getRequestID(), new CalculationResponse(ResponseCode.BAD_REQUEST, Double.NaN, MALFORMED_REQUEST_MESSAGE, request.getRequestID()));
+				return true;
+			}
+		}
+		else if(receivedMessage instanceof CalculationBatchRequest)
+		{
+			CalculationBatchRequest request = (CalculationBatchRequest) receivedMessage;
+			
+			if(hasMissingElement(request.getRawRequests()))
+			{
+				long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+				sendInOrder(sequenceNumber, request.getRequestID(), new CalculationBatchResponse(ResponseCode.BAD_REQUEST, new double[0], new int[0], new String[0], request.getRequestID()));
+				return true;
+			}
+		}
+		else if(receivedMessage instanceof PrepareRequest)
+		{
+			PrepareRequest request = (PrepareRequest) receivedMessage;
+			
+			if(request.getExpression() == null || hasMissingElement(request.getParameterNames()))
+			{
+				long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+				sendInOrder(sequenceNumber, request.getRequestID(), new PrepareResponse(ResponseCode.BAD_REQUEST, PrepareResponse.NO_HANDLE, MALFORMED_REQUEST_MESSAGE, request.getRequestID()));
+				return true;
+			}
+		}
+		else if(receivedMessage instanceof ExecutePreparedRequest)
+		{
+			ExecutePreparedRequest request = (ExecutePreparedRequest) receivedMessage;
+			
+			if(request.getParameterValues() == null)
+			{
+				long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+				sendInOrder(sequenceNumber, request.getRequestID(), new CalculationBatchResponse(ResponseCode.BAD_REQUEST, new double[0], new int[0], new String[0], request.getRequestID()));
+				return true;
+			}
+		}
+		else if(receivedMessage instanceof SweepRequest)
+		{
+			SweepRequest request = (SweepRequest) receivedMessage;
+			
+			if(request.getExpression() == null || hasMissingElement(request.getVariableNames()) || request.getStarts() == null || request.getSteps() == null || request.getCounts() == null)
+			{
+				long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+				sendInOrder(sequenceNumber, request.getRequestID(), new SweepChunkResponse(ResponseCode.BAD_REQUEST, request.getRequestID(), 0, new double[0], true, MALFORMED_REQUEST_MESSAGE));
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * This method returns whether or not the provided array or one of its elements is null
+	 */
+	private static boolean hasMissingElement(String[] array)
+	{
+		if(array == null)
+		{
+			return true;
+		}
+		
+		for(String element : array)
+		{
+			if(element == null)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * This method adds a received CalculationRequest to the processing queue, tagged with
+	 * its arrival order on this connection. Requests with a request ID take no part in the
+	 * ordering and are not assigned a sequence number. If the processing queue refuses the
+	 * request, it is answered in its place with a BusyResponse. It must only be called by the 
+	 * thread reading requests from this connection.
+	 * 
+	 * @param request The received CalculationRequest
+	 */
+	protected void submitCalculationRequest(CalculationRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+		
+		if(!processingQueue.addToQueue(request, this, sequenceNumber))
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new BusyResponse(request.getRequestID(), processingQueue.getRetryAfterMillis()));
+		}
+	}
+	
+	/**
+	 * This method adds a received CalculationBatchRequest to the processing queue as one unit,
+	 * with the same ordering rules as a CalculationRequest, including the BusyResponse. It must
+	 * only be called by the thread reading requests from this connection.
+	 * 
+	 * @param request The received CalculationBatchRequest
+	 */
+	protected void submitCalculationBatch(CalculationBatchRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+		
+		if(!processingQueue.addBatchToQueue(request, this, sequenceNumber))
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new BusyResponse(request.getRequestID(), processingQueue.getRetryAfterMillis()));
+		}
+	}
+	
+	/**
+	 * This method answers a received PrepareRequest at once, following the same ordering rules
+	 * as a CalculationRequest. The expression is parsed by the calling thread, which is done
+	 * once per expression. It must only be called by the thread reading requests from this connection.
+	 * 
+	 * @param request The received PrepareRequest
+	 */
+	protected void answerPrepareRequest(PrepareRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		PrepareResponse response;
+		
+		if(preparedExpressions.size() >= MAXIMUM_PREPARED_EXPRESSIONS)
+		{
+			response = new PrepareResponse(ResponseCode.BAD_REQUEST, PrepareResponse.NO_HANDLE, "The connection has prepared " + MAXIMUM_PREPARED_EXPRESSIONS + " expressions already", request.getRequestID());
+		}
+		else
+		{
+			try
+			{
+				PreparedExpression prepared = PreparedExpression.prepare(request.getExpression(), request.getParameterNames());
+				preparedExpressions.put(++lastPreparedHandle, prepared);
+				response = new PrepareResponse(ResponseCode.OK, lastPreparedHandle, null, request.getRequestID());
+			}
+			catch(IllegalArgumentException ex)
+			{
+				response = new PrepareResponse(ResponseCode.BAD_REQUEST, PrepareResponse.NO_HANDLE, ex.getMessage(), request.getRequestID());
+			}
+		}
+		
+		sendInOrder(sequenceNumber, request.getRequestID(), response);
+	}
+	
+	/**
+	 * This method adds a received ExecutePreparedRequest to the processing queue as one batch
+	 * of rows, with the same ordering rules as a CalculationRequest, including the BusyResponse.
+	 * A request naming an unknown handle, or whose values do not fill whole rows, is answered at
+	 * once with an empty BAD_REQUEST CalculationBatchResponse. It must only be called by the
+	 * thread reading requests from this connection.
+	 * 
+	 * @param request The received ExecutePreparedRequest
+	 */
+	protected void submitPreparedExecution(ExecutePreparedRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		PreparedExpression prepared = preparedExpressions.get(request.getHandle());
+		
+		if(prepared == null || prepared.getRowCount(request.getParameterValues()) < 0)
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new CalculationBatchResponse(ResponseCode.BAD_REQUEST, new double[0], new int[0], new String[0], request.getRequestID()));
+			return;
+		}
+		
+		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+		
+		if(!processingQueue.addPreparedToQueue(prepared, request, this, sequenceNumber))
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new BusyResponse(request.getRequestID(), processingQueue.getRetryAfterMillis()));
+		}
+	}
+	
+	/**
+	 * This method parses the expression of a received SweepRequest and adds the sweep to the
+	 * processing queue, answering it with a BusyResponse if the queue refuses it. A sweep without
+	 * a request ID, with an invalid grid or with an expression that does not parse is answered at
+	 * once with a single BAD_REQUEST chunk, in order if it has no request ID. It must only be
+	 * called by the thread reading requests from this connection.
+	 * 
+	 * @param request The received SweepRequest
+	 */
+	protected void submitSweep(SweepRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		ParameterSweep sweep;
+		
+		try
+		{
+			if(!request.hasRequestID())
+			{
+				throw new IllegalArgumentException("A sweep must carry a request ID");
+			}
+			
+			sweep = new ParameterSweep(request, this, sequenceNumber);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new SweepChunkResponse(ResponseCode.BAD_REQUEST, request.getRequestID(), 0, new double[0], true, ex.getMessage()));
+			return;
+		}
+		
+		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+		
+		if(!processingQueue.addSweepToQueue(sweep))
+		{
+			sendInOrder(sequenceNumber, request.getRequestID(), new BusyResponse(request.getRequestID(), processingQueue.getRetryAfterMillis()));
+		}
+	}
+	
+	/**
+	 * This method answers a received StatsRequest at once with the current server metrics,
+	 * following the same ordering rules as a CalculationRequest. It must only be called by the
+	 * thread reading requests from this connection.
+	 * 
+	 * @param request The received StatsRequest
+	 */
+	protected void answerStatsRequest(StatsRequest request)
+	{
+		long sequenceNumber = assignSequenceNumber(request.hasRequestID());
+		sendInOrder(sequenceNumber, request.getRequestID(), ServerMetrics.getInstance().createResponse(request.getRequestID()));
+	}
+	
+	/**
+	 * This method counts this connection as closed in the server metrics. Implementations call
+	 * it wherever the connection is finalized or killed; only the first call is counted.
+	 */
+	protected void recordClosed()
+	{
+		if(closed.compareAndSet(false, true))
+		{
+			ServerMetrics.getInstance().connectionClosed();
+		}
+	}
+	
+	/**
+	 * This method returns whether or not calculation responses should still be sent to the client
+	 * 
+	 * @return False if the connection is severed or finalized
+	 */
+	protected abstract boolean isAcceptingResponses();
+	
+	/**
+	 * This method sends the passed Response message to the client. Implementations must be
+	 * safe to call from both the processing threads and the thread reading the connection, 
+	 * and should hold the response lock while queueing. They must not block on the socket, 
+	 * and must kill the connection rather than queue more than MAXIMUM_OUTBOUND_RESPONSES.
+	 * 
+	 * @param response The Response object to send to the client
+	 */
+	protected abstract void sendResponse(Response response);
+	
+	/**
+	 * This method returns the number of responses of this connection waiting to be written.
+	 * It is called with the response lock held.
+	 * 
+	 * @return The number of queued responses not yet taken by the writer
+	 */
+	protected abstract int getOutboundBacklog();
+	
+	/**
+	 * Creates a ClientConnection object with a new connection ID and no username, and counts
+	 * it as open in the server metrics.
+	 */
+	protected ClientConnection()
+	{
+		connectionID = nextConnectionID.getAndIncrement();
+		connectionState = ApplicationLayerConnectionState.NO_USERNAME;
+		heldResponses = new HashMap<Long, Response>();
+		responseLock = new ReentrantLock();
+		wireProtocol = WireProtocol.SERIALIZED;
+		closed = new AtomicBoolean();
+		preparedExpressions = new HashMap<Integer, PreparedExpression>();
+		pausedSweeps = new ArrayList<ParameterSweep>();
+		ServerMetrics.getInstance().connectionOpened();
+	}
+	
+	/**
+	 * An enumeration defining the app-layer connection states for the enclosing ClientConnection.
+	 * 
+	 * @author nbeck
+	 * 
+	 */
+	protected enum ApplicationLayerConnectionState
+	{
+		NO_USERNAME,
+		USERNAME,
+		FINALIZED,
+		KILLED
+	}
+}
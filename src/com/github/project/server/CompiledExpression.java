@@ -0,0 +1,645 @@
+package com.github.project.server;
+
+import java.util.Arrays;
+
+import org.mariuszgromada.math.mxparser.mXparser;
+import org.mariuszgromada.math.mxparser.mathcollection.BinaryRelations;
+import org.mariuszgromada.math.mxparser.mathcollection.MathConstants;
+import org.mariuszgromada.math.mxparser.mathcollection.MathFunctions;
+
+/**
+ * This class holds an expression compiled into a flat postfix program, which is calculated
+ * without mXparser's token interpretation. Only the common arithmetic subset is compiled:
+ * decimal numbers, + - * / ^ and parentheses, the functions sin, cos, tan (or tg), sqrt, ln,
+ * exp, abs and log10, the constants pi and e, and named parameters. Any other text is not
+ * compiled, and is left to mXparser.
+ * 
+ * A compiled expression gives the result mXparser gives, bit for bit. Every operation calls the
+ * MathFunctions method mXparser calls, in the order mXparser calls it, and the result is rounded
+ * to a nearby integer as mXparser does. Where mXparser's grammar is irregular the subset is
+ * narrower than mXparser's: a sign is compiled only as part of a number directly after the start
+ * of a group or after * / ^, or as a negation of the first term of a group, and an expression
+ * is not compiled while mXparser rounds to the ULP.
+ * 
+ * The program itself allocates nothing, but the MathFunctions methods do: with canonical rounding
+ * mXparser adds, subtracts and multiplies through BigDecimal, and the trigonometric functions
+ * look up their special values, so a calculation allocates some hundreds of bytes, and several
+ * kilobytes with trigonometry. Compiling a text allocates about as much again, so callers keep
+ * the compiled program of a text rather than compiling it for every request.
+ * 
+ * A program has no loops, but a power with a large integer exponent is calculated by mXparser's
+ * exact multiplication and may take long, so compiled expressions are calculated within the same
+ * time budget as any other. They do not observe mXparser's cancellation, and are never cancelled
+ * along with another expression.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CompiledExpression
+{
+	private static final int MAXIMUM_NESTING = 64;	// The deepest parentheses compiled rather than left to mXparser
+	
+	private static final int PUSH_CONSTANT = 0;		// Pushes the constant whose index follows
+	private static final int PUSH_PARAMETER = 1;	// Pushes the parameter whose index follows
+	private static final int ADD = 2;
+	private static final int SUBTRACT = 3;
+	private static final int MULTIPLY = 4;
+	private static final int DIVIDE = 5;
+	private static final int POWER = 6;
+	private static final int NEGATE = 7;
+	private static final int SIN = 8;
+	private static final int COS = 9;
+	private static final int TAN = 10;
+	private static final int SQRT = 11;
+	private static final int LN = 12;
+	private static final int EXP = 13;
+	private static final int ABS = 14;
+	private static final int LOG10 = 15;
+	
+	private static final String[] FUNCTION_NAMES = { "sin", "cos", "tan", "tg", "sqrt", "ln", "exp", "abs", "log10" };
+	private static final int[] FUNCTION_OPERATIONS = { SIN, COS, TAN, TAN, SQRT, LN, EXP, ABS, LOG10 };
+	private static final String[] CONSTANT_NAMES = { "pi", "e" };
+	private static final double[] CONSTANT_VALUES = { MathConstants.PI, MathConstants.E };
+	
+	private final int[] program;				// The operations in postfix order, each push followed by its index
+	private final double[] constants;			// The numbers and constants pushed by the program
+	private final int stackDepth;				// The most values on the stack at once
+	private final String calculatedMessage;		// The message mXparser gives once the expression is calculated
+	
+	/**
+	 * This method compiles an expression without parameters.
+	 * 
+	 * @param text The text of the expression
+	 * @return The compiled expression, or null if the text is not in the compiled subset
+	 */
+	public static CompiledExpression compile(String text)
+	{
+		return compile(text, new String[0]);
+	}
+	
+	/**
+	 * This method compiles an expression with the provided parameters.
+	 * 
+	 * @param text The text of the expression
+	 * @param parameterNames The names of the parameters, in the order of their values
+	 * @return The compiled expression, or null if the text is not in the compiled subset
+	 */
+	public static CompiledExpression compile(String text, String[] parameterNames)
+	{
+		if(mXparser.checkIfUlpRounding())
+		{
+			return null;
+		}
+		
+		// A parameter named like a keyword hides it from mXparser, so it is not compiled
+		for(String parameterName : parameterNames)
+		{
+			if(!isIdentifier(parameterName) || indexOf(FUNCTION_NAMES, parameterName) >= 0 || indexOf(CONSTANT_NAMES, parameterName) >= 0)
+			{
+				return null;
+			}
+		}
+		
+		Compiler compiler = new Compiler(text, parameterNames);
+		
+		if(!compiler.compileGroup(0) || compiler.skipSpaces() < text.length())
+		{
+			return null;
+		}
+		
+		return new CompiledExpression(text, Arrays.copyOf(compiler.program, compiler.programLength), Arrays.copyOf(compiler.constants, compiler.constantCount), compiler.maximumDepth);
+	}
+	
+	/**
+	 * This method returns the size of the stack the expression is calculated with
+	 * 
+	 * @return The most values on the stack at once
+	 */
+	public int getStackDepth()
+	{
+		return stackDepth;
+	}
+	
+	/**
+	 * This method returns the error message mXparser gives after calculating the expression
+	 * 
+	 * @return The message reporting no errors
+	 */
+	public String getCalculatedMessage()
+	{
+		return calculatedMessage;
+	}
+	
+	/**
+	 * This method calculates the expression for one row of parameter values.
+	 * 
+	 * @param parameterValues The parameter values, or null if the expression has no parameters
+	 * @param offset The index of the value of the first parameter
+	 * @param stack The stack to calculate with, of at least getStackDepth() values
+	 * @return The result, as mXparser calculates it
+	 */
+	public double evaluate(double[] parameterValues, int offset, double[] stack)
+	{
+		int top = -1;
+		
+		for(int i = 0; i < program.length; i++)
+		{
+			switch(program[i])
+			{
+				case PUSH_CONSTANT:
+					stack[++top] = constants[program[++i]];
+					break;
+				case PUSH_PARAMETER:
+					stack[++top] = parameterValues[offset + program[++i]];
+					break;
+				case ADD:
+					top--;
+					stack[top] = MathFunctions.plus(stack[top], stack[top + 1]);
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = MathFunctions.minus(stack[top], stack[top + 1]);
+					break;
+				case MULTIPLY:
+					top--;
+					stack[top] = MathFunctions.multiply(stack[top], stack[top + 1]);
+					break;
+				case DIVIDE:
+					top--;
+					stack[top] = MathFunctions.div(stack[top], stack[top + 1]);
+					break;
+				case POWER:
+					top--;
+					stack[top] = MathFunctions.power(stack[top], stack[top + 1]);
+					break;
+				case NEGATE:
+					stack[top] = -stack[top];
+					break;
+				case SIN:
+					stack[top] = MathFunctions.sin(stack[top]);
+					break;
+				case COS:
+					stack[top] = MathFunctions.cos(stack[top]);
+					break;
+				case TAN:
+					stack[top] = MathFunctions.tan(stack[top]);
+					break;
+				case SQRT:
+					stack[top] = MathFunctions.sqrt(stack[top]);
+					break;
+				case LN:
+					stack[top] = MathFunctions.ln(stack[top]);
+					break;
+				case EXP:
+					stack[top] = MathFunctions.exp(stack[top]);
+					break;
+				case ABS:
+					stack[top] = MathFunctions.abs(stack[top]);
+					break;
+				case LOG10:
+					stack[top] = MathFunctions.log10(stack[top]);
+					break;
+			}
+		}
+		
+		double result = stack[0];
+		
+		// mXparser replaces a result within its epsilon of an integer by the integer
+		if(mXparser.checkIfAlmostIntRounding())
+		{
+			double rounded = Math.round(result);
+			
+			if(Math.abs(result - rounded) <= BinaryRelations.getEpsilon())
+			{
+				result = rounded;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * This method returns whether or not a name is made only of the characters of an identifier.
+	 */
+	private static boolean isIdentifier(String name)
+	{
+		if(name.isEmpty() || !isLetter(name.charAt(0)))
+		{
+			return false;
+		}
+		
+		for(int i = 1; i < name.length(); i++)
+		{
+			if(!isIdentifierPart(name.charAt(i)))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static boolean isLetter(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean isIdentifierPart(char c)
+	{
+		return isLetter(c) || isDigit(c) || c == '_';
+	}
+	
+	private static int indexOf(String[] names, String name)
+	{
+		for(int i = 0; i < names.length; i++)
+		{
+			if(names[i].equals(name))
+			{
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Creates a CompiledExpression object.
+	 */
+	private CompiledExpression(String text_, int[] program_, double[] constants_, int stackDepth_)
+	{
+		program = program_;
+		constants = constants_;
+		stackDepth = stackDepth_;
+		calculatedMessage = "[" + text_ + "] checking ...\n[" + text_ + "] no errors.\n";
+	}
+	
+	/**
+	 * A recursive descent compiler of one expression. Each method compiles a part of the
+	 * grammar and returns false as soon as the text leaves the compiled subset.
+	 */
+	private static class Compiler
+	{
+		private final String text;				// The text being compiled
+		private final String[] parameterNames;	// The names of the parameters
+		private int position;					// The index of the next character to compile
+		
+		private int[] program;			// The program compiled so far
+		private int programLength;		// The number of entries of the program
+		private double[] constants;		// The constants of the program so far
+		private int constantCount;		// The number of constants
+		private int depth;				// The values on the stack after the program so far
+		private int maximumDepth;		// The most values on the stack so far
+		
+		/**
+		 * This method compiles a group: the whole expression, or the inside of parentheses. Its
+		 * first term may be negated, which mXparser applies once the term is calculated.
+		 */
+		private boolean compileGroup(int nesting)
+		{
+			if(nesting > MAXIMUM_NESTING)
+			{
+				return false;
+			}
+			
+			char sign = 0;
+			int start = skipSpaces();
+			
+			if(start < text.length() && (text.charAt(start) == '+' || text.charAt(start) == '-') && !startsNumber(start + 1))
+			{
+				sign = text.charAt(start);
+				position = start + 1;
+			}
+			
+			if(!compileTerm(nesting, sign == 0))
+			{
+				return false;
+			}
+			
+			if(sign == '-')
+			{
+				emit(NEGATE);
+			}
+			
+			while(true)
+			{
+				int operator = skipSpaces();
+				
+				if(operator >= text.length() || (text.charAt(operator) != '+' && text.charAt(operator) != '-'))
+				{
+					return true;
+				}
+				
+				position = operator + 1;
+				
+				if(!compileTerm(nesting, false))
+				{
+					return false;
+				}
+				
+				emitBinary(text.charAt(operator) == '+' ? ADD : SUBTRACT);
+			}
+		}
+		
+		/**
+		 * This method compiles a product of powers, calculated from left to right.
+		 */
+		private boolean compileTerm(int nesting, boolean signed)
+		{
+			if(!compilePower(nesting, signed))
+			{
+				return false;
+			}
+			
+			while(true)
+			{
+				int operator = skipSpaces();
+				
+				if(operator >= text.length() || (text.charAt(operator) != '*' && text.charAt(operator) != '/'))
+				{
+					return true;
+				}
+				
+				position = operator + 1;
+				
+				if(!compilePower(nesting, true))
+				{
+					return false;
+				}
+				
+				emitBinary(text.charAt(operator) == '*' ? MULTIPLY : DIVIDE);
+			}
+		}
+		
+		/**
+		 * This method compiles a chain of powers, calculated from right to left.
+		 */
+		private boolean compilePower(int nesting, boolean signed)
+		{
+			if(!compileOperand(nesting, signed))
+			{
+				return false;
+			}
+			
+			int operator = skipSpaces();
+			
+			if(operator >= text.length() || text.charAt(operator) != '^')
+			{
+				return true;
+			}
+			
+			position = operator + 1;
+			
+			if(!compilePower(nesting, true))
+			{
+				return false;
+			}
+			
+			emitBinary(POWER);
+			return true;
+		}
+		
+		/**
+		 * This method compiles a number, which may be signed if signed is set, a parenthesized
+		 * group, a function call, a constant or a parameter.
+		 */
+		private boolean compileOperand(int nesting, boolean signed)
+		{
+			int start = skipSpaces();
+			
+			if(start >= text.length())
+			{
+				return false;
+			}
+			
+			char c = text.charAt(start);
+			
+			if(c == '+' || c == '-')
+			{
+				if(!signed || !startsNumber(start + 1))
+				{
+					return false;
+				}
+				
+				position = start + 1;
+				return compileNumber(c == '-');
+			}
+			
+			if(isDigit(c) || c == '.')
+			{
+				return compileNumber(false);
+			}
+			
+			if(c == '(')
+			{
+				position = start + 1;
+				return compileParenthesized(nesting);
+			}
+			
+			if(!isLetter(c))
+			{
+				return false;
+			}
+			
+			int end = start + 1;
+			
+			while(end < text.length() && isIdentifierPart(text.charAt(end)))
+			{
+				end++;
+			}
+			
+			String name = text.substring(start, end);
+			position = end;
+			int index;
+			
+			if((index = indexOf(FUNCTION_NAMES, name)) >= 0)
+			{
+				if(end >= text.length() || text.charAt(end) != '(')
+				{
+					return false;
+				}
+				
+				position = end + 1;
+				
+				if(!compileParenthesized(nesting))
+				{
+					return false;
+				}
+				
+				emit(FUNCTION_OPERATIONS[index]);
+				return true;
+			}
+			
+			if((index = indexOf(CONSTANT_NAMES, name)) >= 0)
+			{
+				emitPush(PUSH_CONSTANT, addConstant(CONSTANT_VALUES[index]));
+				return true;
+			}
+			
+			if((index = indexOf(parameterNames, name)) >= 0)
+			{
+				emitPush(PUSH_PARAMETER, index);
+				return true;
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * This method compiles a group and its closing parenthesis, the opening one having been read.
+		 */
+		private boolean compileParenthesized(int nesting)
+		{
+			if(!compileGroup(nesting + 1))
+			{
+				return false;
+			}
+			
+			int end = skipSpaces();
+			
+			if(end >= text.length() || text.charAt(end) != ')')
+			{
+				return false;
+			}
+			
+			position = end + 1;
+			return true;
+		}
+		
+		/**
+		 * This method compiles a decimal number at the next non-space character: digits with an
+		 * optional fraction, or a fraction alone, then an optional exponent.
+		 */
+		private boolean compileNumber(boolean negative)
+		{
+			int start = skipSpaces();
+			int end = skipDigits(start);
+			
+			if(end < text.length() && text.charAt(end) == '.')
+			{
+				int fractionEnd = skipDigits(end + 1);
+				
+				if(fractionEnd == end + 1)
+				{
+					return false;
+				}
+				
+				end = fractionEnd;
+			}
+			
+			if(end == start)
+			{
+				return false;
+			}
+			
+			// An e not followed by an exponent is left to fail as an operand next to the number
+			if(end < text.length() && (text.charAt(end) == 'e' || text.charAt(end) == 'E'))
+			{
+				int exponentStart = end + 1;
+				
+				if(exponentStart < text.length() && (text.charAt(exponentStart) == '+' || text.charAt(exponentStart) == '-'))
+				{
+					exponentStart++;
+				}
+				
+				int exponentEnd = skipDigits(exponentStart);
+				
+				if(exponentEnd > exponentStart)
+				{
+					end = exponentEnd;
+				}
+			}
+			
+			double value = Double.parseDouble(text.substring(start, end));
+			emitPush(PUSH_CONSTANT, addConstant(negative ? -value : value));
+			position = end;
+			return true;
+		}
+		
+		/**
+		 * This method returns whether or not a number starts at the first non-space character
+		 * from an index, so that a sign before it belongs to the number.
+		 */
+		private boolean startsNumber(int index)
+		{
+			while(index < text.length() && text.charAt(index) == ' ')
+			{
+				index++;
+			}
+			
+			return index < text.length() && (isDigit(text.charAt(index)) || text.charAt(index) == '.');
+		}
+		
+		private int skipDigits(int index)
+		{
+			while(index < text.length() && isDigit(text.charAt(index)))
+			{
+				index++;
+			}
+			
+			return index;
+		}
+		
+		/**
+		 * This method moves past spaces.
+		 * 
+		 * @return The index of the next non-space character, or the length of the text
+		 */
+		private int skipSpaces()
+		{
+			while(position < text.length() && text.charAt(position) == ' ')
+			{
+				position++;
+			}
+			
+			return position;
+		}
+		
+		private int addConstant(double value)
+		{
+			if(constantCount == constants.length)
+			{
+				constants = Arrays.copyOf(constants, constantCount * 2);
+			}
+			
+			constants[constantCount] = value;
+			return constantCount++;
+		}
+		
+		private void emitPush(int operation, int index)
+		{
+			emit(operation);
+			emit(index);
+			maximumDepth = Math.max(maximumDepth, ++depth);
+		}
+		
+		private void emitBinary(int operation)
+		{
+			emit(operation);
+			depth--;
+		}
+		
+		private void emit(int entry)
+		{
+			if(programLength == program.length)
+			{
+				program = Arrays.copyOf(program, programLength * 2);
+			}
+			
+			program[programLength++] = entry;
+		}
+		
+		Compiler(String text_, String[] parameterNames_)
+		{
+			text = text_;
+			parameterNames = parameterNames_;
+			program = new int[16];
+			constants = new double[4];
+		}
+	}
+}
@@ -1,42 +1,64 @@
 package com.github.project.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
 
+import com.github.project.core.BinaryMessageCodec;
+import com.github.project.core.CalculationBatchRequest;
 import com.github.project.core.CalculationRequest;
-import com.github.project.core.CalculationResponse;
 import com.github.project.core.ConnectionEstablishRequest;
 import com.github.project.core.ConnectionEstablishResponse;
 import com.github.project.core.ConnectionTerminateRequest;
 import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.PrepareRequest;
 import com.github.project.core.Response;
 import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepRequest;
+import com.github.project.core.WireProtocol;
 
 /**
  * This class implements the connection handlers of the server. It is a 
  * Runnable class that serves as an entry point for the threads that respond 
  * to the connection requests.
  * 
+ * Once the handshake is complete, responses are written by a writer thread of the connection
+ * rather than the thread that sends them. Senders only add the response to the outbound queue,
+ * and the writer writes every queued response before flushing the socket once.
+ * 
  * @author Nathan Beck
  * @version 1.0
  * @since 31 October 2020
  */
-public class ConnectionHandler implements Runnable
+public class ConnectionHandler extends ClientConnection implements Runnable
 {
 	private Socket connectionSocket; 	// The Socket receiving requests
 	
 	private ObjectInputStream ois;		// Input stream from Socket 
 	private ObjectOutputStream oos;		// Output stream from Socket
 	
-	private String username;									// The passed username from the client (not unique to each connection)
-	private final int connectionID;								// The connection ID for this ConnectionHandler (unique to each connection)
-	private ApplicationLayerConnectionState connectionState;	// The app-layer connection state of this ConnectionHandler
+	private DataInputStream binaryInput;	// Input stream from Socket once the binary protocol is negotiated
+	private DataOutputStream binaryOutput;	// Output stream from Socket once the binary protocol is negotiated
 	
-	private static int nextConnectionID = 0; // Used for ID generation in constructor
+	private final ArrayDeque<Response> outboundResponses;	// Responses waiting for the writer thread
+	private final Condition outboundReady;					// Signaled when responses are queued or the writer should stop
+	private Thread writerThread;							// The thread writing the queued responses, once started
+	private boolean outboundClosed;							// Reflects whether or not the writer should stop once the queue is empty
+	private int responsesSinceReset;						// The serialized responses written since the last stream reset
 	
 	/**
 	 * This method serves as the entry point for the threads handling 
@@ -47,14 +69,18 @@ public class ConnectionHandler implements Runnable
 	{	
 		Logger logger = Logger.getInstance();
 		
+		// Open the object streams; done here rather than on the accepting thread as it waits for the client
+		if(!openStreams())
+		{
+			return;
+		}
+		
 		// Wait for and accept username information
 		initializeApplicationLayerConnection();
+		startWriter();
 		
 		logger.connectionHandlerLog(connectionID, username, "Established application-layer connection");
 		
-		// Get the processing queue for queueing of requests
-		ProcessingQueue processingQueue = ProcessingQueue.getInstance();
-		
 		// Keep doing the following actions until TCP socket disconnects, client requests termination, or app-layer 
 		// state is changed to KILLED
 		while(connectionSocket.isConnected())
@@ -69,20 +95,56 @@ public class ConnectionHandler implements Runnable
 			try
 			{
 				// Receive client message
-				Object receivedMessage = ois.readObject();
+				Object receivedMessage = receiveMessage();
 				
 				// Determine which message was received
-				if(receivedMessage instanceof CalculationRequest)
+				if(rejectMalformedRequest(receivedMessage))
+				{
+					logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received request with a missing field");
+				}
+				else if(receivedMessage instanceof CalculationRequest)
 				{
 					CalculationRequest calcRequest = (CalculationRequest) receivedMessage;
 					
-					StringBuilder builder = new StringBuilder();
-					builder.append("Received calculation request: ");
-					builder.append(calcRequest.getRawRequest());
-					logger.connectionHandlerLog(connectionID, username, builder.toString());
+					logger.requestLog(connectionID, username, "Received calculation request: ", calcRequest.getRawRequest());
+					
+					// Add calculation requests to the processing queue, tagged with their arrival order
+					submitCalculationRequest(calcRequest);
+				}
+				else if(receivedMessage instanceof CalculationBatchRequest)
+				{
+					CalculationBatchRequest batchRequest = (CalculationBatchRequest) receivedMessage;
+					logger.requestLog(connectionID, username, "Received calculation batch of requests: ", batchRequest.getRawRequests().length);
+					
+					// Add the whole batch to the processing queue as one unit
+					submitCalculationBatch(batchRequest);
+				}
+				else if(receivedMessage instanceof PrepareRequest)
+				{
+					PrepareRequest prepareRequest = (PrepareRequest) receivedMessage;
+					logger.requestLog(connectionID, username, "Received prepare request: ", prepareRequest.getExpression());
+					answerPrepareRequest(prepareRequest);
+				}
+				else if(receivedMessage instanceof ExecutePreparedRequest)
+				{
+					ExecutePreparedRequest executeRequest = (ExecutePreparedRequest) receivedMessage;
+					logger.requestLog(connectionID, username, "Received prepared execution of handle: ", executeRequest.getHandle());
+					
+					// Add the rows of parameter values to the processing queue as one batch
+					submitPreparedExecution(executeRequest);
+				}
+				else if(receivedMessage instanceof SweepRequest)
+				{
+					SweepRequest sweepRequest = (SweepRequest) receivedMessage;
+					logger.requestLog(connectionID, username, "Received sweep request: ", sweepRequest.getExpression());
 					
-					// Add calculation requests to the processing queue
-					processingQueue.addToQueue((CalculationRequest) receivedMessage, this);
+					// Parse the expression once and add the whole grid to the processing queue as one unit
+					submitSweep(sweepRequest);
+				}
+				else if(receivedMessage instanceof StatsRequest)
+				{
+					// Answer at once, so that monitoring does not wait behind queued calculations
+					answerStatsRequest((StatsRequest) receivedMessage);
 				}
 				else if(receivedMessage instanceof ConnectionTerminateRequest)
 				{
@@ -94,9 +156,15 @@ public class ConnectionHandler implements Runnable
 					break;
 				}
 			}
+			catch(EOFException | SocketException ex)
+			{
+				// The client is gone, so there is no one to answer
+				kill("Client closed connection without terminating. Killing handler...");
+				return;
+			}
 			catch(Exception ex)
 			{
-				logger.connectionHandlerLog(connectionID, username, "Received bad request message");
+				logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received bad request message");
 				
 				// Send a generic response indicating poor reception
 				Response poorReceptionResponse = new Response(ResponseCode.BAD_REQUEST);
@@ -115,29 +183,51 @@ public class ConnectionHandler implements Runnable
 	}
 	
 	/**
-	 * This method sends an OK CalculationResponse to the connected client with the provided 
-	 * result and (possible) error message.
+	 * This method opens the object streams of the socket. Creating the input stream blocks until 
+	 * the client sends its stream header, so it must not be called on the accepting thread.
 	 * 
-	 * @param result The result of the calculation
-	 * @param calculationErrorMessage The error message of the calculation, if it exists
+	 * @return Whether or not the streams were opened
 	 */
-	public void sendCalculationResponse(double result, String calculationErrorMessage)
+	private boolean openStreams()
 	{
-		// Do not bother sending the message if the TCP connection is severed
-		if(!connectionSocket.isConnected())
+		try
 		{
-			return;
+			// Responses are flushed once per batch, so Nagle's algorithm only adds delay
+			connectionSocket.setTcpNoDelay(true);
+			
+			InputStream socketInputStream = connectionSocket.getInputStream();
+			ois = new ObjectInputStream(socketInputStream);
+			OutputStream socketOutputStream = connectionSocket.getOutputStream();
+			oos = new ObjectOutputStream(socketOutputStream);
 		}
-		
-		// Do not bother sending the message if the connection is finalized
-		if(connectionState == ApplicationLayerConnectionState.FINALIZED)
+		catch(IOException ex)
 		{
-			return;
+			Logger.getInstance().connectionHandlerLog(LogLevel.WARN, connectionID, username, "Failed to open connection streams");
+			connectionState = ApplicationLayerConnectionState.KILLED;
+			recordClosed();
+			
+			try
+			{
+				connectionSocket.close();
+			}
+			catch(IOException closeEx)
+			{
+			}
+			
+			return false;
 		}
 		
-		// Create the CalculationResponse message and send it to the client
-		CalculationResponse response = new CalculationResponse(ResponseCode.OK, result, calculationErrorMessage);
-		sendResponse(response);
+		return true;
+	}
+	
+	/**
+	 * This method returns whether or not calculation responses should still be sent to the client
+	 * 
+	 * @return False if the TCP connection is severed or the app-layer connection is finalized
+	 */
+	protected boolean isAcceptingResponses()
+	{
+		return oos != null && connectionSocket.isConnected() && connectionState != ApplicationLayerConnectionState.FINALIZED;
 	}
 	
 	/**
@@ -156,9 +246,15 @@ public class ConnectionHandler implements Runnable
 			// Switch app-layer state to USERNAME as the username has been set
 			connectionState = ApplicationLayerConnectionState.USERNAME;
 			
-			// Send an OK response back to the client
-			ConnectionEstablishResponse okResponse = new ConnectionEstablishResponse(ResponseCode.OK);
+			// Send an OK response back to the client with the wire protocol of the following messages
+			WireProtocol negotiatedProtocol = negotiateWireProtocol(receivedRequest);
+			ConnectionEstablishResponse okResponse = new ConnectionEstablishResponse(ResponseCode.OK, negotiatedProtocol);
 			sendResponse(okResponse);
+			
+			if(negotiatedProtocol == WireProtocol.BINARY)
+			{
+				switchToBinaryProtocol();
+			}
 		}
 		catch(Exception ex)
 		{
@@ -169,25 +265,277 @@ public class ConnectionHandler implements Runnable
 	}
 	
 	/**
-	 * This method sends the passed Response message to the client. If at any point the response fails to send, 
-	 * then the server cannot communicate as there are failings with the underlying connection. In such a case, 
-	 * the app-layer protocol cannot function correctly, so the app-layer connection state is set to KILLED to 
-	 * direct the severing of the TCP connection (if it is not already severed).
+	 * This method switches the streams of the connection to the binary protocol. The object 
+	 * streams do not read ahead or buffer, so the binary streams start exactly after the handshake.
+	 * 
+	 * @throws IOException Thrown if the socket streams cannot be obtained
+	 */
+	private void switchToBinaryProtocol() throws IOException
+	{
+		responseLock.lock();
+		
+		try
+		{
+			oos.flush();
+			binaryInput = new DataInputStream(new BufferedInputStream(connectionSocket.getInputStream()));
+			binaryOutput = new DataOutputStream(new BufferedOutputStream(connectionSocket.getOutputStream()));
+			wireProtocol = WireProtocol.BINARY;
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method receives the next message from the client in the negotiated wire protocol.
+	 * 
+	 * @return The received message
+	 * @throws IOException Thrown if the connection fails or the message is corrupt
+	 * @throws ClassNotFoundException Thrown if the message is of an unknown type
+	 */
+	private Object receiveMessage() throws IOException, ClassNotFoundException
+	{
+		if(wireProtocol == WireProtocol.BINARY)
+		{
+			return BinaryMessageCodec.readMessage(binaryInput);
+		}
+		
+		return ois.readObject();
+	}
+	
+	/**
+	 * This method sends the passed Response message to the client. Before the writer thread is started,
+	 * the handshake responses are written directly by the handler thread. Afterwards the response is only
+	 * added to the outbound queue, so that the processing threads never wait for the client. A client that
+	 * lets more than MAXIMUM_OUTBOUND_RESPONSES responses pile up is killed.
 	 * 
 	 * @param response The Response object to send to the client
 	 */
-	private void sendResponse(Response response)
+	protected void sendResponse(Response response)
 	{
-		Logger logger = Logger.getInstance();
+		responseLock.lock();
 		
 		try
 		{
-			oos.writeObject(response);
+			if(connectionState == ApplicationLayerConnectionState.KILLED)
+			{
+				return;
+			}
+			
+			if(writerThread == null)
+			{
+				writeResponses(response);
+				return;
+			}
+			
+			if(outboundResponses.size() >= MAXIMUM_OUTBOUND_RESPONSES)
+			{
+				kill("Client is not reading its responses. Killing handler...");
+				return;
+			}
+			
+			outboundResponses.add(response);
+			outboundReady.signal();
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	protected int getOutboundBacklog()
+	{
+		return outboundResponses.size();
+	}
+	
+	/**
+	 * This method starts the writer thread of the connection. The writer is a virtual thread if the
+	 * handler is one.
+	 */
+	private void startWriter()
+	{
+		Thread.Builder writerBuilder = Thread.currentThread().isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+		Thread writer = writerBuilder.name("connection-" + connectionID + "-writer").unstarted(new Runnable()
+		{
+			public void run()
+			{
+				writeOutbound();
+			}
+		});
+		
+		responseLock.lock();
+		
+		try
+		{
+			writerThread = writer;
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		writer.start();
+	}
+	
+	/**
+	 * The loop of the writer thread. It takes every queued response at once, writes them without
+	 * holding the response lock, and flushes the socket once per batch.
+	 */
+	private void writeOutbound()
+	{
+		ArrayList<Response> batch = new ArrayList<Response>();
+		
+		while(true)
+		{
+			responseLock.lock();
+			
+			try
+			{
+				while(outboundResponses.isEmpty() && !outboundClosed && connectionState != ApplicationLayerConnectionState.KILLED)
+				{
+					outboundReady.awaitUninterruptibly();
+				}
+				
+				if(connectionState == ApplicationLayerConnectionState.KILLED || outboundResponses.isEmpty())
+				{
+					return;
+				}
+				
+				batch.addAll(outboundResponses);
+				outboundResponses.clear();
+			}
+			finally
+			{
+				responseLock.unlock();
+			}
+			
+			writeResponses(batch.toArray(new Response[batch.size()]));
+			batch.clear();
+			resumeSweeps();
+		}
+	}
+	
+	/**
+	 * This method writes the passed Response messages to the socket and flushes it once. If at any point the
+	 * responses fail to send, then the server cannot communicate as there are failings with the underlying
+	 * connection. In such a case, the app-layer protocol cannot function correctly, so the connection is
+	 * killed. Only the writer thread, or the handler thread before the writer is started, calls this method.
+	 * The time taken to write and flush the responses is recorded in the server metrics.
+	 * 
+	 * @param responses The Response objects to send to the client
+	 */
+	private void writeResponses(Response... responses)
+	{
+		ServerMetrics metrics = ServerMetrics.getInstance();
+		long start = System.nanoTime();
+		
+		try
+		{
+			for(int i = 0; i < responses.length; i++)
+			{
+				if(wireProtocol == WireProtocol.BINARY)
+				{
+					responses[i] = writeBinaryResponse(binaryOutput, responses[i]);
+				}
+				else
+				{
+					oos.writeObject(responses[i]);
+					
+					if(++responsesSinceReset >= SERIALIZED_RESET_INTERVAL)
+					{
+						oos.reset();
+						responsesSinceReset = 0;
+					}
+				}
+			}
+			
+			if(wireProtocol == WireProtocol.BINARY)
+			{
+				binaryOutput.flush();
+			}
+			else
+			{
+				oos.flush();
+			}
 		}
 		catch(IOException ex)
 		{
-			logger.connectionHandlerLog(connectionID, username, "Underlying TCP connection failed. Killing handler...");
+			kill("Underlying TCP connection failed. Killing handler...");
+			return;
+		}
+		
+		metrics.recordResponseWrite(System.nanoTime() - start);
+		
+		for(Response response : responses)
+		{
+			metrics.responseSent(response.getResponseCode());
+		}
+	}
+	
+	/**
+	 * This method stops the writer thread once it has written the queued responses, and waits for it.
+	 */
+	private void stopWriter()
+	{
+		responseLock.lock();
+		
+		try
+		{
+			outboundClosed = true;
+			outboundReady.signal();
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		if(writerThread == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			writerThread.join();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * This method severs the connection after a failure and logs the reason. Closing the socket
+	 * releases the handler and writer threads if they are blocked on it.
+	 * 
+	 * @param message The message to log
+	 */
+	private void kill(String message)
+	{
+		Logger.getInstance().connectionHandlerLog(LogLevel.WARN, connectionID, username, message);
+		
+		responseLock.lock();
+		
+		try
+		{
 			connectionState = ApplicationLayerConnectionState.KILLED;
+			outboundResponses.clear();
+			outboundReady.signal();
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		recordClosed();
+		
+		try
+		{
+			connectionSocket.close();
+		}
+		catch(IOException ex)
+		{
 		}
 	}
 	
@@ -207,12 +555,14 @@ public class ConnectionHandler implements Runnable
 		// as the connection should terminate quickly.
 		try
 		{
-			while(ois.readObject() != null);
+			while(receiveMessage() != null);
 		}
 		catch(Exception ex)
 		{
 		}
-			
+		
+		stopWriter();
+		
 		try
 		{
 			ois.close();
@@ -223,46 +573,20 @@ public class ConnectionHandler implements Runnable
 		{
 		}
 		
+		recordClosed();
 		logger.connectionHandlerLog(connectionID, username, "Client terminated connection succesfully");
 	}
 	
 	/**
 	 * Creates a ConnectionHandler object that receives requests on 
-	 * the passed Socket object.
+	 * the passed Socket object. The object streams are opened by run().
 	 * 
 	 * @param connectionSocket_ The Socket to receive requests
 	 */
 	public ConnectionHandler(Socket connectionSocket_)
 	{
-		connectionID = nextConnectionID++;
-		connectionState = ApplicationLayerConnectionState.NO_USERNAME;
 		connectionSocket = connectionSocket_;
-		
-		try
-		{
-			InputStream socketInputStream = connectionSocket.getInputStream();
-			ois = new ObjectInputStream(socketInputStream);
-			OutputStream socketOutputStream = connectionSocket.getOutputStream();
-			oos = new ObjectOutputStream(socketOutputStream);
-		}
-		catch(IOException ex)
-		{
-			ex.printStackTrace();
-			return;
-		}
-	}
-	
-	/**
-	 * An enumeration defining the app-layer connection states for the enclosing ConnectionHandler.
-	 * 
-	 * @author nbeck
-	 *
-	 */
-	private enum ApplicationLayerConnectionState
-	{
-		NO_USERNAME,
-		USERNAME,
-		FINALIZED,
-		KILLED
+		outboundResponses = new ArrayDeque<Response>();
+		outboundReady = responseLock.newCondition();
 	}
 }
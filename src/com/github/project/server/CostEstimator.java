@@ -0,0 +1,161 @@
+package com.github.project.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.project.core.CalculationBatchRequest;
+
+/**
+ * This class estimates whether an expression is cheap or expensive to calculate, so that the
+ * ProcessingQueue can route it into the light or the heavy lane.
+ * 
+ * An expression is first classified by its tokens: the iterated operators of mXparser (sum,
+ * prod, int, der and the like) loop over their argument and are heavy, while everything else
+ * is plain arithmetic. Once an expression has been evaluated, its measured time takes
+ * precedence: an expression that took longer than the heavy threshold is heavy, and one that
+ * finished sooner is light, whatever its tokens. Only the measurements that disagree with the
+ * tokens are remembered, up to a bounded number of expressions; the history is cleared when
+ * it is full.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class CostEstimator
+{
+	// The mXparser operators that calculate their argument repeatedly
+	private static final Set<String> ITERATED_OPERATORS = new HashSet<String>(Arrays.asList(
+			"sum", "prod", "int", "der", "der-", "der+", "dern", "diff", "difb",
+			"avg", "vari", "stdi", "mini", "maxi", "solve"));
+	
+	private final long heavyNanos;								// The evaluation time above which an expression is heavy
+	private final int maximumHistorySize;						// The number of measured expressions remembered
+	private final ConcurrentHashMap<String, Boolean> history;	// Measured classifications that disagree with the tokens
+	
+	/**
+	 * This method returns whether or not the provided expression is estimated to be expensive.
+	 * Multiple threads may call this method at the same time.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return Whether or not the expression belongs in the heavy lane
+	 */
+	public boolean isHeavy(String rawRequest)
+	{
+		Boolean measured = history.get(rawRequest);
+		return measured != null ? measured : hasIteratedOperator(rawRequest);
+	}
+	
+	/**
+	 * This method returns whether or not the provided batch is estimated to be expensive, which
+	 * it is if any of its expressions is.
+	 * 
+	 * @param request The batch to classify
+	 * @return Whether or not the batch belongs in the heavy lane
+	 */
+	public boolean isHeavy(CalculationBatchRequest request)
+	{
+		for(String rawRequest : request.getRawRequests())
+		{
+			if(isHeavy(rawRequest))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * This method records the measured evaluation time of an expression, so that later
+	 * requests for the same text are classified by it.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @param elapsedNanos The time the evaluation took
+	 */
+	public void record(String rawRequest, long elapsedNanos)
+	{
+		boolean heavy = elapsedNanos > heavyNanos;
+		
+		// Measurements that agree with the tokens add nothing to remember
+		if(heavy == hasIteratedOperator(rawRequest))
+		{
+			history.remove(rawRequest);
+			return;
+		}
+		
+		if(history.size() >= maximumHistorySize)
+		{
+			history.clear();
+		}
+		
+		history.put(rawRequest, heavy);
+	}
+	
+	/**
+	 * This method returns whether or not the provided expression calls an iterated operator.
+	 * It scans the text for an operator name followed by an opening parenthesis.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return Whether or not the expression calls an iterated operator
+	 */
+	static boolean hasIteratedOperator(String rawRequest)
+	{
+		int length = rawRequest.length();
+		int i = 0;
+		
+		while(i < length)
+		{
+			if(!Character.isLetter(rawRequest.charAt(i)))
+			{
+				i++;
+				continue;
+			}
+			
+			// Read a whole name, so that operators inside longer names are not matched
+			int start = i;
+			
+			while(i < length && (Character.isLetterOrDigit(rawRequest.charAt(i)) || rawRequest.charAt(i) == '_'))
+			{
+				i++;
+			}
+			
+			int end = i;
+			
+			// The one-sided derivatives are written der- and der+
+			if(end < length && (rawRequest.charAt(end) == '-' || rawRequest.charAt(end) == '+') && rawRequest.startsWith("der", start) && end - start == 3)
+			{
+				end++;
+			}
+			
+			int next = end;
+			
+			while(next < length && Character.isWhitespace(rawRequest.charAt(next)))
+			{
+				next++;
+			}
+			
+			if(next < length && rawRequest.charAt(next) == '(' && ITERATED_OPERATORS.contains(rawRequest.substring(start, end)))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Creates a CostEstimator object.
+	 * 
+	 * @param heavyMillis The evaluation time above which an expression is heavy
+	 * @param maximumHistorySize_ The number of measured expressions remembered
+	 */
+	public CostEstimator(long heavyMillis, int maximumHistorySize_)
+	{
+		heavyNanos = TimeUnit.MILLISECONDS.toNanos(heavyMillis);
+		maximumHistorySize = Math.max(1, maximumHistorySize_);
+		history = new ConcurrentHashMap<String, Boolean>();
+	}
+}
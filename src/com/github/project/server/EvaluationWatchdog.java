@@ -0,0 +1,261 @@
+package com.github.project.server;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mariuszgromada.math.mxparser.mXparser;
+
+/**
+ * This class enforces the time budget of a single expression evaluation. Each processing
+ * thread registers a Worker and marks the start and end of every evaluation; a daemon thread
+ * checks the running evaluations several times per budget.
+ * 
+ * mXparser can only cancel every running calculation at once, so an evaluation over budget is
+ * flagged on its Worker before the cancellation is raised. The flagged evaluation reports the
+ * timeout, while any other evaluation cancelled along with it waits for the cancellation to be
+ * lifted and calculates again. The cancellation is lifted as soon as no flagged evaluation is
+ * running. An evaluation that does not stop within the abandon delay is left behind: its
+ * Worker is marked abandoned, and the replacement registered with it starts another processing
+ * thread so that throughput recovers while the stuck thread finishes on its own.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class EvaluationWatchdog implements Runnable
+{
+	private static final long MINIMUM_CHECK_NANOS = 5000000L;		// The shortest interval between two checks
+	private static final long CANCELLATION_POLL_NANOS = 1000000L;	// The park of a thread waiting for the cancellation to be lifted
+	
+	private final long budgetNanos;			// The time an evaluation may run before it is cancelled
+	private final long abandonNanos;		// The time a cancelled evaluation may keep running before it is abandoned
+	
+	private final CopyOnWriteArrayList<Worker> workers;	// The registered processing threads
+	private final AtomicLong cancellationEpoch;			// Incremented when a cancellation is raised and lifted; odd while raised
+	
+	/**
+	 * This method registers the calling processing thread.
+	 * 
+	 * @param replacement Starts a processing thread in place of this one if it is abandoned
+	 * @return The Worker through which the thread reports its evaluations
+	 */
+	public Worker register(Runnable replacement)
+	{
+		Worker worker = new Worker(Thread.currentThread(), replacement);
+		workers.add(worker);
+		return worker;
+	}
+	
+	/**
+	 * This method forgets a processing thread that stopped processing requests.
+	 * 
+	 * @param worker The Worker of the thread
+	 */
+	public void unregister(Worker worker)
+	{
+		workers.remove(worker);
+	}
+	
+	/**
+	 * This method returns the current cancellation epoch. A worker reads it before an evaluation
+	 * to tell afterwards whether a cancellation was raised at any time during the evaluation.
+	 * 
+	 * @return The cancellation epoch, which is odd while a cancellation is raised
+	 */
+	public long getCancellationEpoch()
+	{
+		return cancellationEpoch.get();
+	}
+	
+	/**
+	 * This method waits until the cancellation is lifted if an evaluation that started in the
+	 * provided epoch may have been cancelled by it.
+	 * 
+	 * @param epoch The cancellation epoch read before the evaluation
+	 * @return Whether or not the evaluation may have been cancelled and must be calculated again
+	 */
+	public boolean awaitCancellationLifted(long epoch)
+	{
+		if(!isRaised(epoch) && cancellationEpoch.get() == epoch)
+		{
+			return false;
+		}
+		
+		while(isRaised(cancellationEpoch.get()))
+		{
+			LockSupport.parkNanos(this, CANCELLATION_POLL_NANOS);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * This method is the entry point of the watchdog thread. It checks the running evaluations
+	 * several times per budget until the server is terminated.
+	 */
+	public void run()
+	{
+		long checkNanos = Math.max(MINIMUM_CHECK_NANOS, budgetNanos / 4);
+		
+		while(true)
+		{
+			LockSupport.parkNanos(this, checkNanos);
+			check();
+		}
+	}
+	
+	/**
+	 * This method cancels the evaluations over budget, abandons the ones that ignored the
+	 * cancellation, and lifts the cancellation once no flagged evaluation is running. Workers
+	 * whose thread ended are unregistered.
+	 */
+	private void check()
+	{
+		Logger logger = Logger.getInstance();
+		long now = System.nanoTime();
+		boolean flaggedRunning = false;
+		
+		for(Worker worker : workers)
+		{
+			long start = worker.evaluationStart;
+			
+			// A thread that ended, whatever it was doing, is neither cancelled nor replaced
+			if(!worker.thread.isAlive())
+			{
+				workers.remove(worker);
+				logger.serverLog(LogLevel.WARN, "Processing thread " + worker.thread.getName() + " ended; no longer watching it");
+				continue;
+			}
+			
+			if(start == 0)
+			{
+				continue;
+			}
+			
+			long elapsed = now - start;
+			
+			if(worker.flaggedStart != start)
+			{
+				if(elapsed <= budgetNanos)
+				{
+					continue;
+				}
+				
+				// Flag the evaluation before raising the cancellation, so that it reports the timeout
+				worker.flaggedStart = start;
+				raiseCancellation();
+				logger.serverLog(LogLevel.WARN, "Evaluation on " + worker.thread.getName() + " exceeded its time budget; cancelling");
+			}
+			
+			if(worker.abandoned)
+			{
+				continue;
+			}
+			
+			if(elapsed > budgetNanos + abandonNanos)
+			{
+				worker.abandoned = true;
+				logger.serverLog(LogLevel.ERROR, "Evaluation on " + worker.thread.getName() + " ignored cancellation; replacing the thread");
+				worker.replacement.run();
+				continue;
+			}
+			
+			flaggedRunning = true;
+		}
+		
+		// The epoch only becomes even once the flag is cleared, so that no evaluation misses the cancellation
+		if(isRaised(cancellationEpoch.get()) && !flaggedRunning)
+		{
+			mXparser.resetCancelCurrentCalculationFlag();
+			cancellationEpoch.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * This method raises the mXparser cancellation, entering an odd epoch first so that every
+	 * running evaluation can tell it may have been cancelled.
+	 */
+	private void raiseCancellation()
+	{
+		if(!isRaised(cancellationEpoch.get()))
+		{
+			cancellationEpoch.incrementAndGet();
+		}
+		
+		mXparser.cancelCurrentCalculation();
+	}
+	
+	/**
+	 * This method returns whether or not the provided epoch is one in which a cancellation is raised
+	 */
+	private static boolean isRaised(long epoch)
+	{
+		return (epoch & 1) != 0;
+	}
+	
+	/**
+	 * Creates an EvaluationWatchdog object. Its thread is started by the caller.
+	 * 
+	 * @param budgetMillis The time an evaluation may run before it is cancelled
+	 * @param abandonMillis The time a cancelled evaluation may keep running before it is abandoned
+	 */
+	public EvaluationWatchdog(long budgetMillis, long abandonMillis)
+	{
+		budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+		abandonNanos = TimeUnit.MILLISECONDS.toNanos(abandonMillis);
+		workers = new CopyOnWriteArrayList<Worker>();
+		cancellationEpoch = new AtomicLong();
+	}
+	
+	/**
+	 * The evaluation state of one processing thread. Only the owning thread starts and
+	 * finishes evaluations; the watchdog flags and abandons them.
+	 */
+	public static class Worker
+	{
+		private final Thread thread;				// The processing thread
+		private final Runnable replacement;			// Starts a processing thread in place of this one
+		private volatile long evaluationStart;		// The System.nanoTime at which the running evaluation started, or 0
+		private volatile long flaggedStart;			// The start of the evaluation flagged as over budget
+		private volatile boolean abandoned;			// Reflects whether or not a replacement thread was started
+		
+		/**
+		 * This method marks the start of an evaluation.
+		 */
+		public void startEvaluation()
+		{
+			long start = System.nanoTime();
+			evaluationStart = start == 0 ? 1 : start;
+		}
+		
+		/**
+		 * This method marks the end of the running evaluation.
+		 * 
+		 * @return Whether or not the evaluation was flagged as over budget
+		 */
+		public boolean finishEvaluation()
+		{
+			long start = evaluationStart;
+			evaluationStart = 0;
+			return flaggedStart == start;
+		}
+		
+		/**
+		 * This method returns whether or not the thread was replaced and should stop taking requests
+		 * 
+		 * @return Whether or not the thread was abandoned
+		 */
+		public boolean isAbandoned()
+		{
+			return abandoned;
+		}
+		
+		Worker(Thread thread_, Runnable replacement_)
+		{
+			thread = thread_;
+			replacement = replacement_;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package com.github.project.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mariuszgromada.math.mxparser.Expression;
+
+/**
+ * This class implements a bounded LRU cache of parsed mXparser Expression objects keyed by
+ * the raw request text. An Expression keeps its tokens after its first calculation, so a
+ * cached Expression skips tokenizing and syntax checking on every later request.
+ * 
+ * Expression objects are not thread-safe, so a processing thread acquires an Expression for
+ * its exclusive use and releases it back into the cache after calculating. If two threads
+ * need the same text at once, the second one parses its own copy. The cache is split into
+ * independently locked segments to keep the processing threads from contending on one lock,
+ * and each segment is bounded by the estimated memory size of its expressions. A parsed
+ * Expression keeps its own list of every mXparser keyword, about 20 KB whatever its text.
+ * 
+ * The cache also remembers, by the same text, the CompiledExpression of every text that was
+ * compiled, or that the text is not in the compiled subset, so that a text is compiled once
+ * rather than on every request. A CompiledExpression is immutable and shared by every thread.
+ * Both kinds of entry count towards the memory bound of their segment; parsed expressions,
+ * being much larger, are evicted first.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ExpressionCache
+{
+	private static final int SEGMENT_COUNT = 16;					// The number of independently locked segments
+	private static final long BASE_ENTRY_BYTES = 24 * 1024;			// Estimated size of an Expression regardless of its text, mostly its keyword list
+	private static final long BYTES_PER_CHARACTER = 128;			// Estimated size of the tokens parsed from each character
+	private static final long BASE_COMPILED_BYTES = 160;			// Estimated size of a compilation outcome regardless of its text
+	private static final long COMPILED_BYTES_PER_CHARACTER = 32;	// Estimated size of the key and program compiled from each character
+	private static final Object NOT_COMPILABLE = new Object();		// Marks a text outside the compiled subset
+	
+	private final Segment[] segments;	// The segments of this cache, selected by hash of the request text
+	private final boolean enabled;		// Reflects whether or not this cache holds any expressions
+	
+	private final LongAdder hitCount;		// The number of acquisitions answered from the cache
+	private final LongAdder missCount;		// The number of acquisitions that parsed a new Expression
+	private final LongAdder evictionCount;	// The number of expressions evicted to stay within the bound
+	
+	/**
+	 * This method returns an Expression for the provided request text for the exclusive use of
+	 * the calling thread. The Expression must be passed back to release once calculated.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return A cached Expression, or a newly created one if none is cached
+	 */
+	public Expression acquire(String rawRequest)
+	{
+		if(enabled)
+		{
+			Expression cachedExpression = segmentFor(rawRequest).remove(rawRequest);
+			
+			if(cachedExpression != null)
+			{
+				hitCount.increment();
+				return cachedExpression;
+			}
+		}
+		
+		missCount.increment();
+		return new Expression(rawRequest);
+	}
+	
+	/**
+	 * This method returns the compiled program of the provided request text, compiling the text
+	 * the first time it is seen. The CompiledExpression may be used by any number of threads.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The CompiledExpression, or null if the text is not in the compiled subset
+	 */
+	public CompiledExpression getCompiled(String rawRequest)
+	{
+		if(!enabled)
+		{
+			return CompiledExpression.compile(rawRequest);
+		}
+		
+		Segment segment = segmentFor(rawRequest);
+		Object outcome = segment.getCompiled(rawRequest);
+		
+		if(outcome == null)
+		{
+			CompiledExpression compiled = CompiledExpression.compile(rawRequest);
+			outcome = compiled != null ? compiled : NOT_COMPILABLE;
+			evictionCount.add(segment.putCompiled(rawRequest, outcome));
+		}
+		
+		return outcome == NOT_COMPILABLE ? null : (CompiledExpression) outcome;
+	}
+	
+	/**
+	 * This method returns an acquired Expression to the cache, making it the most recently
+	 * used entry and evicting the least recently used entries if the segment is over its bound.
+	 * 
+	 * @param rawRequest The raw request text the Expression was acquired for
+	 * @param expression The calculated Expression to return to the cache
+	 */
+	public void release(String rawRequest, Expression expression)
+	{
+		if(enabled)
+		{
+			evictionCount.add(segmentFor(rawRequest).put(rawRequest, expression));
+		}
+	}
+	
+	/**
+	 * This method returns the number of acquisitions answered from the cache
+	 * 
+	 * @return The number of cache hits
+	 */
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of acquisitions that parsed a new Expression
+	 * 
+	 * @return The number of cache misses
+	 */
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of expressions evicted to stay within the memory bound
+	 * 
+	 * @return The number of evictions
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of expressions currently held by the cache
+	 * 
+	 * @return The number of cached expressions
+	 */
+	public int size()
+	{
+		int size = 0;
+		
+		for(Segment segment : segments)
+		{
+			size += segment.size();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * This method returns the estimated memory size of a parsed expression with the provided text
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The estimated size of the parsed expression in bytes
+	 */
+	private static long estimateSize(String rawRequest)
+	{
+		return BASE_ENTRY_BYTES + BYTES_PER_CHARACTER * rawRequest.length();
+	}
+	
+	/**
+	 * This method returns the estimated memory size of the compilation outcome of the provided text
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The estimated size of the outcome in bytes
+	 */
+	private static long estimateCompiledSize(String rawRequest)
+	{
+		return BASE_COMPILED_BYTES + COMPILED_BYTES_PER_CHARACTER * rawRequest.length();
+	}
+	
+	/**
+	 * This method returns the segment responsible for the provided request text
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The segment holding expressions with the provided text
+	 */
+	private Segment segmentFor(String rawRequest)
+	{
+		int hash = rawRequest.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENT_COUNT - 1)];
+	}
+	
+	/**
+	 * Creates an ExpressionCache object bounded by the provided estimated memory size.
+	 * 
+	 * @param maximumBytes The estimated memory size the cache may hold; 0 disables caching
+	 */
+	public ExpressionCache(long maximumBytes)
+	{
+		enabled = maximumBytes > 0;
+		segments = new Segment[SEGMENT_COUNT];
+		
+		for(int i = 0; i < SEGMENT_COUNT; i++)
+		{
+			segments[i] = new Segment(maximumBytes / SEGMENT_COUNT);
+		}
+		
+		hitCount = new LongAdder();
+		missCount = new LongAdder();
+		evictionCount = new LongAdder();
+	}
+	
+	/**
+	 * A segment of the cache. Entries are kept in insertion order, and an acquired entry is
+	 * removed and re-inserted on release, so the first entry is always the least recently used.
+	 * Compilation outcomes stay in the segment when read, so they are kept in access order.
+	 */
+	private static class Segment
+	{
+		private final LinkedHashMap<String, Expression> entries;	// The cached expressions of this segment
+		private final LinkedHashMap<String, Object> compiledEntries;	// The compilation outcomes of this segment
+		private final long maximumBytes;							// The estimated memory size this segment may hold
+		private long currentBytes;									// The estimated memory size currently held
+		
+		/**
+		 * Removes and returns the Expression cached for the provided text, if any.
+		 */
+		synchronized Expression remove(String rawRequest)
+		{
+			Expression expression = entries.remove(rawRequest);
+			
+			if(expression != null)
+			{
+				currentBytes -= estimateSize(rawRequest);
+			}
+			
+			return expression;
+		}
+		
+		/**
+		 * Caches the Expression for the provided text unless another copy was released first,
+		 * then evicts least recently used entries until the segment is within its bound.
+		 * 
+		 * @return The number of evicted entries
+		 */
+		synchronized int put(String rawRequest, Expression expression)
+		{
+			if(entries.containsKey(rawRequest))
+			{
+				return 0;
+			}
+			
+			entries.put(rawRequest, expression);
+			currentBytes += estimateSize(rawRequest);
+			return evict();
+		}
+		
+		/**
+		 * Returns the compilation outcome recorded for the provided text, if any.
+		 */
+		synchronized Object getCompiled(String rawRequest)
+		{
+			return compiledEntries.get(rawRequest);
+		}
+		
+		/**
+		 * Records the compilation outcome of the provided text unless another thread recorded it
+		 * first, then evicts least recently used entries until the segment is within its bound.
+		 * 
+		 * @return The number of evicted entries
+		 */
+		synchronized int putCompiled(String rawRequest, Object outcome)
+		{
+			if(compiledEntries.putIfAbsent(rawRequest, outcome) != null)
+			{
+				return 0;
+			}
+			
+			currentBytes += estimateCompiledSize(rawRequest);
+			return evict();
+		}
+		
+		/**
+		 * Evicts least recently used parsed expressions, then compilation outcomes, until the
+		 * segment is within its bound.
+		 * 
+		 * @return The number of evicted entries
+		 */
+		private int evict()
+		{
+			int evicted = 0;
+			Iterator<Map.Entry<String, Expression>> iterator = entries.entrySet().iterator();
+			
+			while(currentBytes > maximumBytes && iterator.hasNext())
+			{
+				Map.Entry<String, Expression> eldest = iterator.next();
+				currentBytes -= estimateSize(eldest.getKey());
+				iterator.remove();
+				evicted++;
+			}
+			
+			Iterator<Map.Entry<String, Object>> compiledIterator = compiledEntries.entrySet().iterator();
+			
+			while(currentBytes > maximumBytes && compiledIterator.hasNext())
+			{
+				Map.Entry<String, Object> eldest = compiledIterator.next();
+				currentBytes -= estimateCompiledSize(eldest.getKey());
+				compiledIterator.remove();
+				evicted++;
+			}
+			
+			return evicted;
+		}
+		
+		synchronized int size()
+		{
+			return entries.size();
+		}
+		
+		Segment(long maximumBytes_)
+		{
+			entries = new LinkedHashMap<String, Expression>();
+			compiledEntries = new LinkedHashMap<String, Object>(16, 0.75f, true);
+			maximumBytes = maximumBytes_;
+		}
+	}
+}
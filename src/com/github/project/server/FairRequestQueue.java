@@ -0,0 +1,463 @@
+package com.github.project.server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.project.core.CalculationRequest;
+
+/**
+ * This class implements a request queue that shares the processing threads fairly between
+ * users rather than between requests. Every username has its own first-in, first-out queue,
+ * and the queues are served by deficit round-robin: on each turn a user's deficit grows by
+ * its weight, and the user's requests are taken while their cost fits in the deficit. A
+ * single request costs 1 and a batch costs the number of its expressions, so a user who
+ * floods the server with requests or large batches waits behind their own work only. A sweep
+ * is queued again after each turn of calculation and costs the points of one turn each time.
+ * 
+ * Weights are read from the mathserver.userWeights system property as a list such as
+ * "alice=4,bob=2"; other users have the weight of the mathserver.defaultUserWeight property
+ * (default 1). The queue is guarded by one lock, and waiting processing threads are signaled
+ * through its condition. The lock is held only to link and unlink entries: entries are created
+ * before it is taken and copied out after it is released, and the number of queued requests,
+ * read on every admission, is published without it.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class FairRequestQueue implements RequestQueue
+{
+	private static final int MAXIMUM_IDLE_USERS = 1024; // Idle users kept for statistics before they are forgotten
+	
+	private final int capacity;							// The number of requests this queue holds
+	private final Map<String, Integer> weights;			// The configured weights, by username
+	private final int defaultWeight;					// The weight of users without a configured weight
+	
+	private final ReentrantLock lock;					// Guards every field below
+	private final Condition notEmpty;					// Signaled when a request is added
+	private final HashMap<String, UserQueue> users;		// The queue of every known user, by username
+	private final ArrayDeque<UserQueue> activeUsers;	// The users with queued requests, in round-robin order
+	private volatile int count;							// The number of queued requests, written under the lock
+	private int idleVisits;								// Consecutive turns that ended without taking a request
+	
+	/**
+	 * This method returns the number of requests this queue can hold
+	 * 
+	 * @return The capacity of this queue
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * This method returns the number of requests waiting in this queue
+	 * 
+	 * @return The number of queued requests
+	 */
+	public int size()
+	{
+		return count;
+	}
+	
+	/**
+	 * This method attempts to add a request to the queue of the user of the requesting
+	 * connection without waiting.
+	 * 
+	 * @param request The CalculationRequest object to add
+	 * @param requestingHandler The ClientConnection object that received the request
+	 * @param sequenceNumber The per-connection sequence number of the request
+	 * @return Whether or not the request was added; false if the queue is full
+	 */
+	public boolean offer(CalculationRequest request, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		return offer(new Entry(request, null, requestingHandler, sequenceNumber, 1), false);
+	}
+	
+	/**
+	 * This method attempts to add a batch or sweep to the queue of the user of the requesting
+	 * connection without waiting. Work already being calculated is re-offered only to invite idle
+	 * processing threads to help; such a copy costs nothing and goes to the front of the user's queue.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the queue is full
+	 */
+	public boolean offer(ChunkedWork work)
+	{
+		boolean helper = work.isShared();
+		int cost = helper ? 0 : work.getCost();
+		return offer(new Entry(null, work, work.getRequestingHandler(), work.getSequenceNumber(), cost), helper);
+	}
+	
+	/**
+	 * This method attempts to add a batch or sweep that was partly calculated to the back of
+	 * the queue of its user without waiting, charged its cost again.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the queue is full
+	 */
+	public boolean requeue(ChunkedWork work)
+	{
+		return offer(new Entry(null, work, work.getRequestingHandler(), work.getSequenceNumber(), work.getCost()), false);
+	}
+	
+	/**
+	 * This method adds an entry to the queue of its user and wakes a waiting processing thread.
+	 */
+	private boolean offer(Entry entry, boolean first)
+	{
+		lock.lock();
+		
+		try
+		{
+			if(count >= capacity)
+			{
+				return false;
+			}
+			
+			UserQueue user = getUserQueue(entry.requestingHandler.getUsername());
+			
+			if(first)
+			{
+				user.entries.addFirst(entry);
+			}
+			else
+			{
+				user.entries.addLast(entry);
+			}
+			
+			if(!user.active)
+			{
+				user.active = true;
+				activeUsers.addLast(user);
+			}
+			
+			count++;
+			notEmpty.signal();
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * This method removes the next request in deficit round-robin order, waiting while the
+	 * queue is empty.
+	 * 
+	 * @param into The QueueElement object to receive the removed request
+	 */
+	public void take(QueueElement into)
+	{
+		Entry entry;
+		lock.lock();
+		
+		try
+		{
+			while(count == 0)
+			{
+				notEmpty.awaitUninterruptibly();
+			}
+			
+			entry = next();
+			count--;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		into.set(entry.request, entry.work, entry.requestingHandler, entry.sequenceNumber);
+		into.setEnqueueTime(entry.enqueueTime);
+	}
+	
+	/**
+	 * This method removes the next entry in deficit round-robin order. It must be called with
+	 * the lock held and at least one entry queued.
+	 * 
+	 * @return The removed entry
+	 */
+	private Entry next()
+	{
+		while(true)
+		{
+			UserQueue user = activeUsers.peekFirst();
+			Entry entry = user.entries.peekFirst();
+			
+			// A user starting a turn receives its quantum once
+			if(!user.turnStarted)
+			{
+				user.turnStarted = true;
+				user.deficit += user.weight;
+			}
+			
+			if(entry.cost <= user.deficit)
+			{
+				user.entries.pollFirst();
+				user.deficit -= entry.cost;
+				user.recordTaken(System.nanoTime() - entry.enqueueTime);
+				idleVisits = 0;
+				
+				// A user without queued requests leaves the rotation and keeps no credit
+				if(user.entries.isEmpty())
+				{
+					activeUsers.pollFirst();
+					user.active = false;
+					user.turnStarted = false;
+					user.deficit = 0;
+				}
+				
+				return entry;
+			}
+			
+			// The turn is over; move the user to the back of the rotation
+			activeUsers.pollFirst();
+			activeUsers.addLast(user);
+			user.turnStarted = false;
+			
+			// When a whole round passes without taking a request, every user is waiting for
+			// an expensive entry. Skip the rounds in which nobody could have taken one.
+			if(++idleVisits >= activeUsers.size())
+			{
+				skipIdleRounds();
+				idleVisits = 0;
+			}
+		}
+	}
+	
+	/**
+	 * This method grants every active user the quanta of the rounds that would pass before
+	 * the first of them could afford its next entry.
+	 */
+	private void skipIdleRounds()
+	{
+		long rounds = Long.MAX_VALUE;
+		
+		for(UserQueue user : activeUsers)
+		{
+			long shortfall = user.entries.peekFirst().cost - user.deficit;
+			rounds = Math.min(rounds, (shortfall + user.weight - 1) / user.weight - 1);
+		}
+		
+		if(rounds <= 0)
+		{
+			return;
+		}
+		
+		for(UserQueue user : activeUsers)
+		{
+			user.deficit += rounds * user.weight;
+		}
+	}
+	
+	/**
+	 * This method returns the queue of the provided user, creating it if needed. Users without
+	 * queued requests are forgotten when too many of them are known.
+	 */
+	private UserQueue getUserQueue(String username)
+	{
+		String key = username == null ? "" : username;
+		UserQueue user = users.get(key);
+		
+		if(user != null)
+		{
+			return user;
+		}
+		
+		if(users.size() >= MAXIMUM_IDLE_USERS + activeUsers.size())
+		{
+			Iterator<UserQueue> iterator = users.values().iterator();
+			
+			while(iterator.hasNext())
+			{
+				if(!iterator.next().active)
+				{
+					iterator.remove();
+				}
+			}
+		}
+		
+		Integer weight = weights.get(key);
+		user = new UserQueue(key, weight != null ? weight : defaultWeight);
+		users.put(key, user);
+		return user;
+	}
+	
+	/**
+	 * This method returns the queue depth and queueing delay of every user that had requests
+	 * queued or taken since the last call, and starts a new measurement period. Users idle
+	 * for a whole period are forgotten.
+	 * 
+	 * @return One summary per user separated by "; ", or an empty string if no user was active
+	 */
+	public String describeUsers()
+	{
+		StringBuilder builder = new StringBuilder();
+		lock.lock();
+		
+		try
+		{
+			Iterator<UserQueue> iterator = users.values().iterator();
+			
+			while(iterator.hasNext())
+			{
+				UserQueue user = iterator.next();
+				
+				if(!user.active && user.takenCount == 0)
+				{
+					iterator.remove();
+					continue;
+				}
+				
+				if(builder.length() > 0)
+				{
+					builder.append("; ");
+				}
+				
+				builder.append(user.username);
+				builder.append(" (weight ");
+				builder.append(user.weight);
+				builder.append("): queued ");
+				builder.append(user.entries.size());
+				builder.append(", taken ");
+				builder.append(user.takenCount);
+				builder.append(String.format(", mean wait %.1f ms", user.takenCount == 0 ? 0.0 : (double) user.totalWaitNanos / user.takenCount / 1e6));
+				builder.append(String.format(", max wait %.1f ms", user.maximumWaitNanos / 1e6));
+				user.resetStatistics();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * This method parses a list of user weights such as "alice=4,bob=2". Malformed entries
+	 * and weights below 1 are ignored.
+	 * 
+	 * @param list The list of weights, or null
+	 * @return The weights by username
+	 */
+	public static Map<String, Integer> parseWeights(String list)
+	{
+		HashMap<String, Integer> weights = new HashMap<String, Integer>();
+		
+		if(list == null)
+		{
+			return weights;
+		}
+		
+		for(String item : list.split(","))
+		{
+			int separator = item.lastIndexOf('=');
+			
+			if(separator <= 0)
+			{
+				continue;
+			}
+			
+			try
+			{
+				int weight = Integer.parseInt(item.substring(separator + 1).trim());
+				
+				if(weight >= 1)
+				{
+					weights.put(item.substring(0, separator).trim(), weight);
+				}
+			}
+			catch(NumberFormatException ex)
+			{
+			}
+		}
+		
+		return weights;
+	}
+	
+	/**
+	 * Creates a FairRequestQueue object with the provided capacity and user weights.
+	 * 
+	 * @param capacity_ The number of requests the queue holds
+	 * @param weights_ The weights of users, by username
+	 * @param defaultWeight_ The weight of users without a configured weight
+	 */
+	public FairRequestQueue(int capacity_, Map<String, Integer> weights_, int defaultWeight_)
+	{
+		capacity = Math.max(1, capacity_);
+		weights = new HashMap<String, Integer>(weights_);
+		defaultWeight = Math.max(1, defaultWeight_);
+		
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		users = new HashMap<String, UserQueue>();
+		activeUsers = new ArrayDeque<UserQueue>();
+	}
+	
+	/**
+	 * A queued request, batch or sweep with the cost charged to its user.
+	 */
+	private static class Entry
+	{
+		private final CalculationRequest request;			// The queued request, or null
+		private final ChunkedWork work;						// The queued batch or sweep, or null
+		private final ClientConnection requestingHandler;	// The connection that received it
+		private final long sequenceNumber;					// Its per-connection sequence number
+		private final int cost;								// The deficit it consumes when taken
+		private final long enqueueTime;						// The System.nanoTime at which it was queued
+		
+		Entry(CalculationRequest request_, ChunkedWork work_, ClientConnection requestingHandler_, long sequenceNumber_, int cost_)
+		{
+			request = request_;
+			work = work_;
+			requestingHandler = requestingHandler_;
+			sequenceNumber = sequenceNumber_;
+			cost = cost_;
+			enqueueTime = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * The queue, scheduling state and statistics of one user.
+	 */
+	private static class UserQueue
+	{
+		private final String username;			// The username of the queue
+		private final long weight;				// The deficit granted per turn
+		private final ArrayDeque<Entry> entries;	// The queued entries of the user
+		private long deficit;					// The cost the user may still be served this turn
+		private boolean turnStarted;			// Reflects whether or not the current turn's quantum was granted
+		private boolean active;					// Reflects whether or not the user is in the rotation
+		
+		private long takenCount;				// Entries taken since the statistics were reset
+		private long totalWaitNanos;			// Their total queueing delay
+		private long maximumWaitNanos;			// Their longest queueing delay
+		
+		void recordTaken(long waitNanos)
+		{
+			takenCount++;
+			totalWaitNanos += waitNanos;
+			maximumWaitNanos = Math.max(maximumWaitNanos, waitNanos);
+		}
+		
+		void resetStatistics()
+		{
+			takenCount = 0;
+			totalWaitNanos = 0;
+			maximumWaitNanos = 0;
+		}
+		
+		UserQueue(String username_, int weight_)
+		{
+			username = username_;
+			weight = weight_;
+			entries = new ArrayDeque<Entry>();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.github.project.server;
+
+/**
+ * This enum contains the categories of the messages of the Logger. Each category has its
+ * own level, read from the mathserver.logLevel.system, mathserver.logLevel.connection and
+ * mathserver.logLevel.request system properties.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum LogCategory
+{
+	/**
+	 * Messages of the server as a whole, such as startup and statistics.
+	 */
+	SYSTEM,
+	
+	/**
+	 * Messages about the lifecycle of a client connection.
+	 */
+	CONNECTION,
+	
+	/**
+	 * One message per received request. These may also be sampled.
+	 */
+	REQUEST
+}
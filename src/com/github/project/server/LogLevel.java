@@ -0,0 +1,46 @@
+package com.github.project.server;
+
+/**
+ * This enum contains the levels of the messages of the Logger, from least to most severe.
+ * A category of messages logs only the messages at or above its configured level.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum LogLevel
+{
+	DEBUG,
+	INFO,
+	WARN,
+	ERROR,
+	
+	/**
+	 * Used only as a configured level, to turn a category off.
+	 */
+	OFF;
+	
+	/**
+	 * Returns the LogLevel with the provided name, ignoring case.
+	 * 
+	 * @param name The name of the level
+	 * @param defaultLevel The level to return if the name is null or unknown
+	 * @return The LogLevel with the provided name, or the default level
+	 */
+	public static LogLevel parse(String name, LogLevel defaultLevel)
+	{
+		if(name == null)
+		{
+			return defaultLevel;
+		}
+		
+		try
+		{
+			return valueOf(name.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return defaultLevel;
+		}
+	}
+}
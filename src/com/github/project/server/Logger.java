@@ -1,23 +1,62 @@
 package com.github.project.server;
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * This class provides a singleton instance by which the server process can 
+ * This class provides a singleton instance by which the server process can
  * log actions to the output window and a text file.
  * 
+ * Logging threads never write themselves. A message that passes the level of its category
+ * is handed to a single background writer through a lock-free queue, and the writer formats
+ * the messages and flushes the outputs once per batch. The queue is bounded: when it is full,
+ * DEBUG and INFO messages are dropped and counted, while WARN and ERROR messages are always
+ * accepted. The writer logs the number of dropped messages once there is room again.
+ * 
+ * The level of every category is read from the mathserver.logLevel system property
+ * (default INFO) and may be overridden per category with mathserver.logLevel.system,
+ * mathserver.logLevel.connection and mathserver.logLevel.request. Per-request messages
+ * can be sampled with mathserver.requestLogSampling; a value of N logs one request in N.
+ * The size of the queue is read from mathserver.logBufferSize.
+ * 
  * @author nbeck
  * @version 1.0
  */
-public class Logger 
+public class Logger
 {
+	private static final int DEFAULT_BUFFER_SIZE = 8192;			// Default number of messages waiting for the writer
+	private static final int FLUSH_INTERVAL = 1024;					// Messages written between flushes while the queue stays busy
+	private static final long WRITER_PARK_NANOS = 100000000L;		// Upper bound of a single park of the idle writer
+	private static final long SHUTDOWN_DRAIN_MILLIS = 2000;			// Time given to the writer to drain the queue at exit
+	
 	private static final Logger instance = new Logger(); // The singleton instance of this class
 	
-	private boolean initialized; // Reflects whether or not the Logger is attached to a file
+	private final LogLevel[] categoryLevels;	// The configured level of each category, by ordinal
+	private final int requestSampling;			// One in this many per-request messages is logged
+	
+	private final ConcurrentLinkedQueue<LogEntry> pendingEntries;	// Messages waiting for the writer
+	private final AtomicInteger pendingCount;						// The number of messages in the queue
+	private final int bufferSize;									// The number of messages the queue holds before dropping
+	private final LongAdder droppedCount;							// Messages dropped since the writer last reported
+	
+	private final Thread writerThread;			// The background thread writing the messages
+	private volatile boolean writerParked;		// Reflects whether or not the writer may be parked on an empty queue
+	private volatile boolean shuttingDown;		// Reflects whether or not the writer should exit once the queue is empty
 	
-	private PrintWriter textWriter; // The PrintWriter used to write to the text file
+	private final PrintWriter consoleWriter;			// Buffered writer of the output window, used by the writer only
+	private PrintWriter textWriter;						// The PrintWriter used to write to the text file, used by the writer only
+	private volatile PrintWriter pendingTextWriter;		// A newly bound text file, adopted by the writer
+	
+	private long cachedTimestampSecond;		// The second of the cached timestamp, used by the writer only
+	private String cachedTimestamp;			// The formatted date of that second, used by the writer only
 	
 	/**
 	 * Returns the singleton instance of the Logger class.
@@ -29,6 +68,19 @@ public class Logger
 		return instance;
 	}
 	
+	/**
+	 * This method returns whether or not messages of the provided category and level are logged.
+	 * Callers may use it to avoid building messages that would be discarded.
+	 * 
+	 * @param category The category of the message
+	 * @param level The level of the message
+	 * @return Whether or not the message would be logged
+	 */
+	public boolean isEnabled(LogCategory category, LogLevel level)
+	{
+		return level.compareTo(categoryLevels[category.ordinal()]) >= 0;
+	}
+	
 	/**
 	 * This method logs a message sent from a connection handler.
 	 * 
@@ -38,12 +90,47 @@ public class Logger
 	 */
 	public void connectionHandlerLog(int connectionID, String username, String message)
 	{
-		// Declare format strings and date strings
-		String formatString = "%s | CONNECTION %d <%s>: %s\n";
-		String dateString = new Date().toString();
+		connectionHandlerLog(LogLevel.INFO, connectionID, username, message);
+	}
+	
+	/**
+	 * This method logs a message sent from a connection handler at the provided level.
+	 * 
+	 * @param level The level of the message
+	 * @param connectionID The connection ID specific to the connection
+	 * @param username The username attached to the connection
+	 * @param message The message to be printed by the connection handler
+	 */
+	public void connectionHandlerLog(LogLevel level, int connectionID, String username, String message)
+	{
+		if(isEnabled(LogCategory.CONNECTION, level))
+		{
+			enqueue(new LogEntry(LogCategory.CONNECTION, level, connectionID, username, message, null));
+		}
+	}
+	
+	/**
+	 * This method logs the receipt of a request by a connection handler. These messages are
+	 * sampled, and the message is joined with its detail by the writer rather than the caller.
+	 * 
+	 * @param connectionID The connection ID specific to the connection
+	 * @param username The username attached to the connection
+	 * @param message The message to be printed by the connection handler
+	 * @param detail The detail appended to the message, such as the request text
+	 */
+	public void requestLog(int connectionID, String username, String message, Object detail)
+	{
+		if(!isEnabled(LogCategory.REQUEST, LogLevel.INFO))
+		{
+			return;
+		}
 		
-		// Commit the message to the output and text file
-		commitMessage(formatString, dateString, connectionID, username, message);
+		if(requestSampling > 1 && ThreadLocalRandom.current().nextInt(requestSampling) != 0)
+		{
+			return;
+		}
+		
+		enqueue(new LogEntry(LogCategory.REQUEST, LogLevel.INFO, connectionID, username, message, detail));
 	}
 	
 	/**
@@ -53,50 +140,219 @@ public class Logger
 	 */
 	public void serverLog(String message)
 	{
-		// Declare format strings and date strings
-		String formatString = "%s | SYSTEM: %s\n";
-		String dateString = new Date().toString();
+		serverLog(LogLevel.INFO, message);
+	}
+	
+	/**
+	 * This method logs a message sent from the server at the provided level
+	 * 
+	 * @param level The level of the message
+	 * @param message The message to be printed by the server
+	 */
+	public void serverLog(LogLevel level, String message)
+	{
+		if(isEnabled(LogCategory.SYSTEM, level))
+		{
+			enqueue(new LogEntry(LogCategory.SYSTEM, level, 0, null, message, null));
+		}
+	}
+	
+	/**
+	 * Hands a message to the writer, or drops it if the queue is full and the message is
+	 * less severe than WARN.
+	 * 
+	 * @param entry The message to write
+	 */
+	private void enqueue(LogEntry entry)
+	{
+		if(pendingCount.incrementAndGet() > bufferSize && entry.level.compareTo(LogLevel.WARN) < 0)
+		{
+			pendingCount.decrementAndGet();
+			droppedCount.increment();
+			return;
+		}
 		
-		// Commit the message to the output and text file
-		commitMessage(formatString, dateString, message);
+		pendingEntries.add(entry);
+		
+		// The writer announces that it may park before it checks the queue a last time
+		if(writerParked)
+		{
+			LockSupport.unpark(writerThread);
+		}
 	}
 	
 	/**
-	 * Writes a message to the output screen and the bound text file.
+	 * The loop of the writer thread. It writes messages until the queue is empty, flushes
+	 * the outputs, and parks until more messages arrive.
+	 */
+	private void writeMessages()
+	{
+		StringBuilder line = new StringBuilder(256);
+		int unflushedCount = 0;
+		
+		while(true)
+		{
+			adoptPendingTextWriter();
+			LogEntry entry = pendingEntries.poll();
+			
+			if(entry == null)
+			{
+				reportDroppedMessages(line);
+				flushOutputs();
+				unflushedCount = 0;
+				
+				if(shuttingDown)
+				{
+					return;
+				}
+				
+				writerParked = true;
+				
+				if(pendingEntries.isEmpty())
+				{
+					LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+				}
+				
+				writerParked = false;
+				continue;
+			}
+			
+			pendingCount.decrementAndGet();
+			writeEntry(entry, line);
+			
+			if(++unflushedCount >= FLUSH_INTERVAL)
+			{
+				flushOutputs();
+				unflushedCount = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Formats one message and writes it to the output window and the bound text file.
 	 * 
-	 * @param formatString The formatted string to print
-	 * @param args The arguments to inject into the formatted string
+	 * @param entry The message to write
+	 * @param line The builder reused for every line
 	 */
-	private synchronized void commitMessage(String formatString, Object... args)
+	private void writeEntry(LogEntry entry, StringBuilder line)
 	{
-		// Print the message to the screen
-		System.out.printf(formatString, args);
+		line.setLength(0);
+		line.append(formatTimestamp(entry.timeMillis));
+		line.append(" | ");
 		
-		// Print the message to the text file if this Logger is bound to a file
-		if(initialized)
+		// INFO messages keep the original format; other levels are named
+		if(entry.level != LogLevel.INFO)
 		{
-			textWriter.printf(formatString, args);
-			textWriter.flush();
+			line.append(entry.level);
+			line.append(' ');
+		}
+		
+		if(entry.category == LogCategory.SYSTEM)
+		{
+			line.append("SYSTEM: ");
+		}
+		else
+		{
+			line.append("CONNECTION ");
+			line.append(entry.connectionID);
+			line.append(" <");
+			line.append(entry.username);
+			line.append(">: ");
+		}
+		
+		line.append(entry.message);
+		
+		if(entry.detail != null)
+		{
+			line.append(entry.detail);
+		}
+		
+		line.append('\n');
+		
+		consoleWriter.append(line);
+		
+		if(textWriter != null)
+		{
+			textWriter.append(line);
 		}
 	}
 	
 	/**
-	 * This method binds the Logger to a text file with the given path
+	 * Logs the number of messages dropped since the last report, if any.
 	 * 
-	 * @param path The Path of the text file
-	 * @throws FileNotFoundException Thrown if the path cannot be opened or created
+	 * @param line The builder reused for every line
+	 */
+	private void reportDroppedMessages(StringBuilder line)
+	{
+		long dropped = droppedCount.sumThenReset();
+		
+		if(dropped > 0)
+		{
+			String message = "Log buffer full; dropped " + dropped + " messages";
+			writeEntry(new LogEntry(LogCategory.SYSTEM, LogLevel.WARN, 0, null, message, null), line);
+		}
+	}
+	
+	/**
+	 * Returns the formatted date of the provided time. The format of Date.toString has a
+	 * resolution of one second, so the formatted date is reused within a second.
+	 * 
+	 * @param timeMillis The time of the message
+	 * @return The formatted date
 	 */
-	public synchronized void bindOutput(String path) throws FileNotFoundException
+	private String formatTimestamp(long timeMillis)
 	{
-		// Close the current binding if this Logger is bound
-		if(initialized)
+		long second = timeMillis / 1000;
+		
+		if(cachedTimestamp == null || second != cachedTimestampSecond)
+		{
+			cachedTimestampSecond = second;
+			cachedTimestamp = new Date(timeMillis).toString();
+		}
+		
+		return cachedTimestamp;
+	}
+	
+	private void flushOutputs()
+	{
+		consoleWriter.flush();
+		
+		if(textWriter != null)
+		{
+			textWriter.flush();
+		}
+	}
+	
+	/**
+	 * Switches to a text file bound since the last message, closing the previous one.
+	 */
+	private void adoptPendingTextWriter()
+	{
+		if(pendingTextWriter == null)
+		{
+			return;
+		}
+		
+		if(textWriter != null)
 		{
 			textWriter.close();
 		}
 		
-		// Create a new binding and reflect this binding with a true state
-		textWriter = new PrintWriter(path);
-		initialized = true;
+		textWriter = pendingTextWriter;
+		pendingTextWriter = null;
+	}
+	
+	/**
+	 * This method binds the Logger to a text file with the given path. Messages not yet
+	 * written by the background writer are written to the new file.
+	 * 
+	 * @param path The Path of the text file
+	 * @throws FileNotFoundException Thrown if the path cannot be opened or created
+	 */
+	public void bindOutput(String path) throws FileNotFoundException
+	{
+		// The file is opened here so that failures reach the caller; the writer adopts it
+		pendingTextWriter = new PrintWriter(path);
 		
 		// Log the binding
 		StringBuilder strBuilder = new StringBuilder();
@@ -106,10 +362,79 @@ public class Logger
 	}
 	
 	/**
-	 * Creates the singleton instance of this class with a currently unbound state
+	 * Creates the singleton instance of this class with a currently unbound state, and
+	 * starts the background writer.
 	 */
 	private Logger()
 	{
-		initialized = false;
+		LogLevel defaultLevel = LogLevel.parse(System.getProperty("mathserver.logLevel"), LogLevel.INFO);
+		categoryLevels = new LogLevel[LogCategory.values().length];
+		
+		for(LogCategory category : LogCategory.values())
+		{
+			String property = "mathserver.logLevel." + category.name().toLowerCase();
+			categoryLevels[category.ordinal()] = LogLevel.parse(System.getProperty(property), defaultLevel);
+		}
+		
+		requestSampling = Math.max(1, Integer.getInteger("mathserver.requestLogSampling", 1));
+		bufferSize = Math.max(1, Integer.getInteger("mathserver.logBufferSize", DEFAULT_BUFFER_SIZE));
+		
+		pendingEntries = new ConcurrentLinkedQueue<LogEntry>();
+		pendingCount = new AtomicInteger();
+		droppedCount = new LongAdder();
+		consoleWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+		
+		writerThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writeMessages();
+			}
+		}, "logger");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		
+		// Write the messages still queued when the server exits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				shuttingDown = true;
+				LockSupport.unpark(writerThread);
+				
+				try
+				{
+					writerThread.join(SHUTDOWN_DRAIN_MILLIS);
+				}
+				catch(InterruptedException ex)
+				{
+				}
+			}
+		}, "logger-shutdown"));
+	}
+	
+	/**
+	 * A message waiting for the writer.
+	 */
+	private static class LogEntry
+	{
+		private final long timeMillis;			// The time the message was logged
+		private final LogCategory category;		// The category of the message
+		private final LogLevel level;			// The level of the message
+		private final int connectionID;			// The connection ID of CONNECTION and REQUEST messages
+		private final String username;			// The username of CONNECTION and REQUEST messages
+		private final String message;			// The message text
+		private final Object detail;			// Appended to the message by the writer, or null
+		
+		LogEntry(LogCategory category_, LogLevel level_, int connectionID_, String username_, String message_, Object detail_)
+		{
+			timeMillis = System.currentTimeMillis();
+			category = category_;
+			level = level_;
+			connectionID = connectionID_;
+			username = username_;
+			message = message_;
+			detail = detail_;
+		}
 	}
 }
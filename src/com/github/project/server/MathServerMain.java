@@ -2,10 +2,17 @@ package com.github.project.server;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * This is the main class of the server-side program. It launches the 
@@ -18,6 +25,8 @@ import java.net.UnknownHostException;
  */
 public class MathServerMain 
 {
+	private static final int DEFAULT_ACCEPT_BACKLOG = 1024; // Pending connections held by the OS before they are accepted
+	
 	/**
 	 * This is the entry method of the program. It launches the 
 	 * processing thread and listens/accepts connection requests.
@@ -38,9 +47,22 @@ public class MathServerMain
 			return;
 		}
 		
-		// Launch the processing queue thread and begin accepting connections on provided port
-		launchProcessingQueueThread();
-		acceptRequestConnections(new Integer(args[0]));
+		// Launch the processing queue threads and begin accepting connections on provided port
+		launchProcessingQueueThreads(parseWorkerCount(args));
+		launchStatisticsThread();
+		registerMetricsBean();
+		
+		// The front end is selected with the mathserver.frontEnd system property
+		String frontEnd = System.getProperty("mathserver.frontEnd", "threads");
+		
+		if("nio".equalsIgnoreCase(frontEnd))
+		{
+			acceptNioConnections(Integer.parseInt(args[0]));
+		}
+		else
+		{
+			acceptRequestConnections(Integer.parseInt(args[0]), "virtual".equalsIgnoreCase(frontEnd));
+		}
 	}
 	
 	/**
@@ -61,7 +83,7 @@ public class MathServerMain
 		}
 		catch(FileNotFoundException ex)
 		{
-			logger.serverLog("Failed to bind log output");
+			logger.serverLog(LogLevel.ERROR, "Failed to bind log output");
 			return false;
 		}
 		
@@ -71,7 +93,7 @@ public class MathServerMain
 	/**
 	 * Validates the command-line arguments
 	 * 
-	 * @param args The command-line arguments (0: port, 1: text file path)
+	 * @param args The command-line arguments (0: port, 1: text file path, 2: optional processing thread count)
 	 * @return Whether or not the command-line arguments are valid
 	 */
 	private static boolean assertArguments(String[] args)
@@ -84,55 +106,170 @@ public class MathServerMain
 		// Log error if there is not enough command-line args
 		if(args.length < 2)
 		{
-			logger.serverLog("Insufficient arguments");
+			logger.serverLog(LogLevel.ERROR, "Insufficient arguments");
 			return false;
 		}
 		
 		// Attempt to parse port number; log error if unsuccessful
-		Integer portNumber = null;
+		int portNumber;
 		
 		try
 		{
-			portNumber = new Integer(args[0]);
+			portNumber = Integer.parseInt(args[0]);
 		}
 		catch(NumberFormatException ex)
 		{
-			logger.serverLog("Bad server port number format");
+			logger.serverLog(LogLevel.ERROR, "Bad server port number format");
 			return false;
 		}
 		
 		// Log error if port number is out of valid range
 		if(portNumber < lowerPortRange || portNumber >= upperPortRange)
 		{
-			logger.serverLog("Server port in bad range");
+			logger.serverLog(LogLevel.ERROR, "Server port in bad range");
 			return false;
 		}
 		
+		// Attempt to parse the optional processing thread count; log error if unsuccessful
+		if(args.length >= 3)
+		{
+			int workerCount;
+			
+			try
+			{
+				workerCount = Integer.parseInt(args[2]);
+			}
+			catch(NumberFormatException ex)
+			{
+				logger.serverLog(LogLevel.ERROR, "Bad processing thread count format");
+				return false;
+			}
+			
+			if(workerCount < 1)
+			{
+				logger.serverLog(LogLevel.ERROR, "Processing thread count must be positive");
+				return false;
+			}
+		}
+		
 		return true;
 	}
 	
 	/**
-	 * This method launches the thread that processes math requests.
+	 * Returns the number of processing threads to launch. This is the optional third 
+	 * command-line argument, defaulting to the number of available processors.
+	 * 
+	 * @param args The validated command-line arguments
+	 * @return The number of processing threads to launch
+	 */
+	private static int parseWorkerCount(String[] args)
+	{
+		if(args.length >= 3)
+		{
+			return Integer.parseInt(args[2]);
+		}
+		
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * This method launches the threads that process math requests.
+	 * 
+	 * @param workerCount The number of processing threads to launch
 	 */
-	private static void launchProcessingQueueThread()
+	private static void launchProcessingQueueThreads(int workerCount)
 	{
-		// Create a thread and start it with the Runnable singleton instance
+		// Create the threads and start them with the Runnable singleton instance
 		ProcessingQueue instance = ProcessingQueue.getInstance();
-		Thread processingQueueThread = new Thread(instance);
-		processingQueueThread.start();
 		
-		// Log the start of the thread
+		for(int i = 0; i < workerCount; i++)
+		{
+			Thread processingQueueThread = new Thread(instance, "processing-" + i);
+			processingQueueThread.start();
+		}
+		
+		// Log the start of the threads
 		Logger logger = Logger.getInstance();
-		logger.serverLog("Processing queue thread launched");
+		StringBuilder builder = new StringBuilder();
+		builder.append("Processing queue threads launched: ");
+		builder.append(workerCount);
+		logger.serverLog(builder.toString());
+	}
+	
+	/**
+	 * This method launches a daemon thread that periodically logs the processing statistics. 
+	 * The interval is read from the mathserver.statisticsIntervalSeconds system property; 
+	 * an interval of 0 disables the thread.
+	 */
+	private static void launchStatisticsThread()
+	{
+		final long intervalMillis = Long.getLong("mathserver.statisticsIntervalSeconds", 60) * 1000;
+		
+		if(intervalMillis <= 0)
+		{
+			return;
+		}
+		
+		Thread statisticsThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				Logger logger = Logger.getInstance();
+				ProcessingQueue processingQueue = ProcessingQueue.getInstance();
+				
+				// Log the statistics every interval until the server is terminated
+				while(true)
+				{
+					try
+					{
+						Thread.sleep(intervalMillis);
+					}
+					catch(InterruptedException ex)
+					{
+						return;
+					}
+					
+					logger.serverLog(processingQueue.describeStatistics());
+					
+					String userStatistics = processingQueue.describeUserStatistics();
+					
+					if(userStatistics != null)
+					{
+						logger.serverLog(userStatistics);
+					}
+				}
+			}
+		}, "statistics");
+		statisticsThread.setDaemon(true);
+		statisticsThread.start();
+	}
+	
+	/**
+	 * This method registers the ServerMetrics with the platform MBean server, so that the
+	 * metrics can be read over JMX. A failed registration is logged and the server runs on.
+	 */
+	private static void registerMetricsBean()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(ServerMetrics.getInstance(), new ObjectName(ServerMetrics.OBJECT_NAME));
+		}
+		catch(JMException ex)
+		{
+			Logger.getInstance().serverLog(LogLevel.WARN, "Failed to register the metrics MBean");
+		}
 	}
 	
 	/**
 	 * This method listens for connection requests and accepts them if possible. 
-	 * It does this action in an infinite loop until the server is terminated.
+	 * It does this action in an infinite loop until the server is terminated. Each 
+	 * connection is handled by its own platform or virtual thread. The length of the 
+	 * accept backlog is read from the mathserver.acceptBacklog system property.
 	 * 
 	 * @param serverPort The TCP port on which to accept connection requests
+	 * @param virtualThreads Whether or not the connection handlers run on virtual threads
 	 */
-	private static void acceptRequestConnections(int serverPort)
+	private static void acceptRequestConnections(int serverPort, boolean virtualThreads)
 	{
 		// Get singleton instance of Logger
 		Logger logger = Logger.getInstance();
@@ -142,11 +279,11 @@ public class MathServerMain
 		
 		try
 		{
-			serverSocket = new ServerSocket(serverPort);
+			serverSocket = new ServerSocket(serverPort, Integer.getInteger("mathserver.acceptBacklog", DEFAULT_ACCEPT_BACKLOG));
 		}
 		catch(IOException ex)
 		{
-			logger.serverLog("Failed to open server socket on provided port");
+			logger.serverLog(LogLevel.ERROR, "Failed to open server socket on provided port");
 			return;
 		}
 		
@@ -158,25 +295,118 @@ public class MathServerMain
 			builder.append(serverSocket.getLocalPort());
 			builder.append(" at IP address ");
 			builder.append(InetAddress.getLocalHost().getHostAddress());
+			builder.append(virtualThreads ? " with virtual-thread handlers" : " with platform-thread handlers");
 			logger.serverLog(builder.toString());
 		}
 		catch(UnknownHostException ex)
 		{
-			
+		
 		}
-			
+		
+		// Virtual threads are cheap enough to keep one per connection for very many connections
+		Thread.Builder handlerThreadBuilder = virtualThreads ? Thread.ofVirtual().name("connection-", 0) : Thread.ofPlatform().name("connection-", 0);
+		
 		// Accept connections until the server is terminated
+		ServerMetrics metrics = ServerMetrics.getInstance();
+		
 		while(true)
 		{
 			try
 			{
 				// Accept a connection
 				Socket newConnection = serverSocket.accept();
+				metrics.connectionAccepted();
 				
 				// Launch a thread to handle incoming requests from the connection
 				ConnectionHandler newConnectionHandler = new ConnectionHandler(newConnection);
-				Thread newConnectionHandlerThread = new Thread(newConnectionHandler);
-				newConnectionHandlerThread.start();
+				handlerThreadBuilder.start(newConnectionHandler);
+				
+				logger.serverLog("Accepted new TCP connection...");
+			}
+			catch(IOException ex)
+			{
+			
+			}
+		}
+	}
+	
+	/**
+	 * This method launches the NIO event loop threads, then listens for connection requests and 
+	 * hands each accepted connection to an event loop in turn. It does this action in an infinite 
+	 * loop until the server is terminated. The number of event loops is read from the 
+	 * mathserver.eventLoops system property.
+	 * 
+	 * @param serverPort The TCP port on which to accept connection requests
+	 */
+	private static void acceptNioConnections(int serverPort)
+	{
+		// Get singleton instance of Logger
+		Logger logger = Logger.getInstance();
+		
+		// Launch the event loop threads
+		int defaultEventLoopCount = Math.min(4, Runtime.getRuntime().availableProcessors());
+		int eventLoopCount = Math.max(1, Integer.getInteger("mathserver.eventLoops", defaultEventLoopCount));
+		NioEventLoop[] eventLoops = new NioEventLoop[eventLoopCount];
+		
+		try
+		{
+			for(int i = 0; i < eventLoopCount; i++)
+			{
+				eventLoops[i] = new NioEventLoop();
+				Thread eventLoopThread = new Thread(eventLoops[i], "event-loop-" + i);
+				eventLoopThread.start();
+			}
+		}
+		catch(IOException ex)
+		{
+			logger.serverLog(LogLevel.ERROR, "Failed to open event loop selector");
+			return;
+		}
+		
+		// Attempt to create a ServerSocketChannel object on which to receive requests.
+		ServerSocketChannel serverChannel;
+		
+		try
+		{
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(serverPort));
+		}
+		catch(IOException ex)
+		{
+			logger.serverLog(LogLevel.ERROR, "Failed to open server socket on provided port");
+			return;
+		}
+		
+		// Log the opening of the ServerSocketChannel
+		try
+		{
+			StringBuilder builder = new StringBuilder();
+			builder.append("Opened TCP connection on port ");
+			builder.append(serverPort);
+			builder.append(" at IP address ");
+			builder.append(InetAddress.getLocalHost().getHostAddress());
+			builder.append(" with ");
+			builder.append(eventLoopCount);
+			builder.append(" NIO event loops");
+			logger.serverLog(builder.toString());
+		}
+		catch(UnknownHostException ex)
+		{
+		
+		}
+		
+		// Accept connections until the server is terminated, spreading them across the event loops
+		ServerMetrics metrics = ServerMetrics.getInstance();
+		int nextEventLoop = 0;
+		
+		while(true)
+		{
+			try
+			{
+				SocketChannel newConnection = serverChannel.accept();
+				metrics.connectionAccepted();
+				eventLoops[nextEventLoop].register(newConnection);
+				nextEventLoop = (nextEventLoop + 1) % eventLoopCount;
 				
 				logger.serverLog("Accepted new TCP connection...");
 			}
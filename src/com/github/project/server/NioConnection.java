@@ -0,0 +1,628 @@
+package com.github.project.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import com.github.project.core.BinaryMessageCodec;
+import com.github.project.core.CalculationBatchRequest;
+import com.github.project.core.CalculationRequest;
+import com.github.project.core.ConnectionEstablishRequest;
+import com.github.project.core.ConnectionEstablishResponse;
+import com.github.project.core.ConnectionTerminateRequest;
+import com.github.project.core.ConnectionTerminateResponse;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.PrepareRequest;
+import com.github.project.core.Response;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsRequest;
+import com.github.project.core.SweepRequest;
+import com.github.project.core.WireProtocol;
+
+/**
+ * This class implements a client connection of the NIO front end. It is driven by the
+ * NioEventLoop that owns its channel: received bytes are collected until a complete message
+ * has arrived, and only then deserialized, so the event loop never blocks on a client. The
+ * app-layer handshake and termination follow the same rules as the ConnectionHandler. Once
+ * the binary protocol is negotiated, complete messages are found by their frame length instead.
+ * 
+ * Responses may be sent from any thread. They are serialized into an outbound queue, and
+ * the event loop writes the queue to the channel as the socket accepts more bytes. A client
+ * that lets more than MAXIMUM_OUTBOUND_RESPONSES responses pile up is killed.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class NioConnection extends ClientConnection
+{
+	private static final int INITIAL_BUFFER_SIZE = 4096;		// The initial size of the inbound buffer
+	private static final int MAXIMUM_MESSAGE_SIZE = BinaryMessageCodec.HEADER_SIZE + BinaryMessageCodec.MAXIMUM_PAYLOAD_SIZE; // The size of the largest message accepted: a full binary frame
+	private static final int STREAM_HEADER_SIZE = 4;			// The size of the serialization stream header
+	
+	private final SocketChannel channel;		// The channel of this connection
+	private final NioEventLoop eventLoop;		// The event loop that owns the channel
+	private final SelectionKey selectionKey;	// The registration of the channel with the event loop
+	
+	private ByteBuffer inbound;								// Received bytes not yet deserialized
+	private final SerializationFrameScanner frameScanner;	// Finds complete messages in the received bytes
+	private final FrameInputStream frameStream;				// Exposes one complete message to the input stream
+	private ObjectInputStream ois;							// Input stream of the client's messages
+	private final DataInputStream binaryInput;				// Input stream of the client's binary messages
+	private boolean handshakeReceived;						// Reflects whether or not the first message has been handled
+	
+	private final ByteArrayOutputStream outboundBytes;	// Serialized bytes of the response being written
+	private final ObjectOutputStream oos;				// Output stream of the responses
+	private final DataOutputStream binaryOutput;		// Output stream of the binary responses
+	private final ArrayDeque<ByteBuffer> outbound;		// Serialized responses not yet written to the channel
+	private boolean flushScheduled;						// Reflects whether or not the event loop will flush the outbound queue
+	private int responsesSinceReset;					// The serialized responses written since the last stream reset
+	
+	/**
+	 * This method reads the available bytes from the channel and handles every complete
+	 * message among them. It is called by the event loop when the channel is readable.
+	 */
+	void handleReadable()
+	{
+		Logger logger = Logger.getInstance();
+		int bytesRead;
+		
+		try
+		{
+			bytesRead = channel.read(inbound);
+		}
+		catch(IOException ex)
+		{
+			kill("Underlying TCP connection failed. Killing connection...");
+			return;
+		}
+		
+		if(bytesRead < 0)
+		{
+			handleEndOfStream();
+			return;
+		}
+		
+		inbound.flip();
+		
+		try
+		{
+			handleReceivedMessages();
+		}
+		catch(IOException ex)
+		{
+			// The stream cannot be resynchronized after corrupt data, so the connection is dropped
+			logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received corrupt message stream");
+			sendResponse(new Response(ResponseCode.BAD_REQUEST));
+			kill("Killing connection...");
+			return;
+		}
+		
+		inbound.compact();
+		
+		// Grow the buffer if a message does not fit in it
+		if(!inbound.hasRemaining())
+		{
+			if(inbound.capacity() >= MAXIMUM_MESSAGE_SIZE)
+			{
+				logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received oversized message");
+				sendResponse(new Response(ResponseCode.BAD_REQUEST));
+				kill("Killing connection...");
+				return;
+			}
+			
+			ByteBuffer grownInbound = ByteBuffer.allocate(Math.min(inbound.capacity() * 2, MAXIMUM_MESSAGE_SIZE));
+			inbound.flip();
+			grownInbound.put(inbound);
+			inbound = grownInbound;
+		}
+	}
+	
+	/**
+	 * This method decodes and handles every complete message in the inbound buffer.
+	 * 
+	 * @throws IOException Thrown if the received bytes are not a valid message stream
+	 */
+	private void handleReceivedMessages() throws IOException
+	{
+		byte[] inboundArray = inbound.array();
+		
+		while(inbound.hasRemaining())
+		{
+			int start = inbound.arrayOffset() + inbound.position();
+			
+			// The stream header of the client must arrive before any message
+			if(ois == null)
+			{
+				if(inbound.remaining() < STREAM_HEADER_SIZE)
+				{
+					return;
+				}
+				
+				frameStream.setFrame(inboundArray, start, STREAM_HEADER_SIZE);
+				inbound.position(inbound.position() + STREAM_HEADER_SIZE);
+				ois = new ObjectInputStream(frameStream);
+				continue;
+			}
+			
+			// Stop once the rest of the buffer holds only part of a message
+			boolean binary = wireProtocol == WireProtocol.BINARY;
+			int frameLength;
+			
+			if(binary)
+			{
+				frameLength = BinaryMessageCodec.frameLength(inboundArray, start, inbound.remaining());
+			}
+			else
+			{
+				frameLength = frameScanner.scan(inboundArray, start, inbound.remaining());
+			}
+			
+			if(frameLength < 0)
+			{
+				return;
+			}
+			
+			frameStream.setFrame(inboundArray, start, frameLength);
+			inbound.position(inbound.position() + frameLength);
+			
+			Object receivedMessage;
+			
+			try
+			{
+				receivedMessage = binary ? BinaryMessageCodec.readMessage(binaryInput) : ois.readObject();
+			}
+			catch(ClassNotFoundException ex)
+			{
+				// The unknown object has been consumed, so the stream is still in step
+				handleBadRequest();
+				continue;
+			}
+			
+			handleMessage(receivedMessage);
+		}
+	}
+	
+	/**
+	 * This method handles one received message according to the app-layer connection state.
+	 * 
+	 * @param receivedMessage The deserialized message
+	 */
+	private void handleMessage(Object receivedMessage)
+	{
+		Logger logger = Logger.getInstance();
+		
+		// Messages after the terminate request are ignored until the client closes the connection
+		if(connectionState == ApplicationLayerConnectionState.FINALIZED)
+		{
+			return;
+		}
+		
+		// The first message must be the ConnectionEstablishRequest
+		if(!handshakeReceived)
+		{
+			handshakeReceived = true;
+			
+			if(receivedMessage instanceof ConnectionEstablishRequest)
+			{
+				ConnectionEstablishRequest establishRequest = (ConnectionEstablishRequest) receivedMessage;
+				username = establishRequest.getUsername();
+				connectionState = ApplicationLayerConnectionState.USERNAME;
+				
+				// The acknowledgement is the last serialized message if the binary protocol is negotiated
+				WireProtocol negotiatedProtocol = negotiateWireProtocol(establishRequest);
+				sendResponse(new ConnectionEstablishResponse(ResponseCode.OK, negotiatedProtocol));
+				switchWireProtocol(negotiatedProtocol);
+			}
+			else
+			{
+				sendResponse(new ConnectionEstablishResponse(ResponseCode.BAD_REQUEST));
+			}
+			
+			logger.connectionHandlerLog(connectionID, username, "Established application-layer connection");
+			return;
+		}
+		
+		if(rejectMalformedRequest(receivedMessage))
+		{
+			logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received request with a missing field");
+		}
+		else if(receivedMessage instanceof CalculationRequest)
+		{
+			CalculationRequest calcRequest = (CalculationRequest) receivedMessage;
+			
+			logger.requestLog(connectionID, username, "Received calculation request: ", calcRequest.getRawRequest());
+			
+			// Add calculation requests to the processing queue, tagged with their arrival order
+			submitCalculationRequest(calcRequest);
+		}
+		else if(receivedMessage instanceof CalculationBatchRequest)
+		{
+			CalculationBatchRequest batchRequest = (CalculationBatchRequest) receivedMessage;
+			logger.requestLog(connectionID, username, "Received calculation batch of requests: ", batchRequest.getRawRequests().length);
+			
+			// Add the whole batch to the processing queue as one unit
+			submitCalculationBatch(batchRequest);
+		}
+		else if(receivedMessage instanceof PrepareRequest)
+		{
+			PrepareRequest prepareRequest = (PrepareRequest) receivedMessage;
+			logger.requestLog(connectionID, username, "Received prepare request: ", prepareRequest.getExpression());
+			answerPrepareRequest(prepareRequest);
+		}
+		else if(receivedMessage instanceof ExecutePreparedRequest)
+		{
+			ExecutePreparedRequest executeRequest = (ExecutePreparedRequest) receivedMessage;
+			logger.requestLog(connectionID, username, "Received prepared execution of handle: ", executeRequest.getHandle());
+			
+			// Add the rows of parameter values to the processing queue as one batch
+			submitPreparedExecution(executeRequest);
+		}
+		else if(receivedMessage instanceof SweepRequest)
+		{
+			SweepRequest sweepRequest = (SweepRequest) receivedMessage;
+			logger.requestLog(connectionID, username, "Received sweep request: ", sweepRequest.getExpression());
+			
+			// Parse the expression once and add the whole grid to the processing queue as one unit
+			submitSweep(sweepRequest);
+		}
+		else if(receivedMessage instanceof StatsRequest)
+		{
+			// Answer at once, so that monitoring does not wait behind queued calculations
+			answerStatsRequest((StatsRequest) receivedMessage);
+		}
+		else if(receivedMessage instanceof ConnectionTerminateRequest)
+		{
+			logger.connectionHandlerLog(connectionID, username, "Received request to terminate. Sending acknowledgement...");
+			
+			// Acknowledge the terminate request and wait for the client to close the connection
+			sendResponse(new ConnectionTerminateResponse(ResponseCode.OK));
+			logger.connectionHandlerLog(connectionID, username, "Finalizing connection...");
+			connectionState = ApplicationLayerConnectionState.FINALIZED;
+		}
+	}
+	
+	/**
+	 * This method answers a message that could not be deserialized.
+	 */
+	private void handleBadRequest()
+	{
+		Logger logger = Logger.getInstance();
+		logger.connectionHandlerLog(LogLevel.WARN, connectionID, username, "Received bad request message");
+		
+		if(!handshakeReceived)
+		{
+			handshakeReceived = true;
+			sendResponse(new ConnectionEstablishResponse(ResponseCode.BAD_REQUEST));
+			return;
+		}
+		
+		sendResponse(new Response(ResponseCode.BAD_REQUEST));
+	}
+	
+	/**
+	 * This method switches the encoding of the following messages in both directions.
+	 * 
+	 * @param negotiatedProtocol The wire protocol acknowledged to the client
+	 */
+	private void switchWireProtocol(WireProtocol negotiatedProtocol)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			wireProtocol = negotiatedProtocol;
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method closes the connection after the client has closed its side.
+	 */
+	private void handleEndOfStream()
+	{
+		if(connectionState == ApplicationLayerConnectionState.FINALIZED)
+		{
+			close();
+			Logger.getInstance().connectionHandlerLog(connectionID, username, "Client terminated connection succesfully");
+			return;
+		}
+		
+		kill("Client closed connection without terminating. Killing connection...");
+	}
+	
+	/**
+	 * This method returns whether or not calculation responses should still be sent to the client
+	 * 
+	 * @return False if the connection is killed or finalized
+	 */
+	protected boolean isAcceptingResponses()
+	{
+		return connectionState != ApplicationLayerConnectionState.KILLED && connectionState != ApplicationLayerConnectionState.FINALIZED;
+	}
+	
+	/**
+	 * This method encodes the passed Response message into the outbound queue and asks the
+	 * event loop to write it. It may be called from any thread, and kills the connection if
+	 * the queue is full.
+	 * 
+	 * @param response The Response object to send to the client
+	 */
+	protected void sendResponse(Response response)
+	{
+		responseLock.lock();
+		
+		try
+		{
+			if(connectionState == ApplicationLayerConnectionState.KILLED)
+			{
+				return;
+			}
+			
+			if(outbound.size() >= MAXIMUM_OUTBOUND_RESPONSES)
+			{
+				kill("Client is not reading its responses. Killing connection...");
+				return;
+			}
+			
+			Response writtenResponse = response;
+			
+			if(wireProtocol == WireProtocol.BINARY)
+			{
+				writtenResponse = writeBinaryResponse(binaryOutput, response);
+			}
+			else
+			{
+				oos.writeObject(response);
+				
+				if(++responsesSinceReset >= SERIALIZED_RESET_INTERVAL)
+				{
+					oos.reset();
+					responsesSinceReset = 0;
+				}
+				
+				oos.flush();
+			}
+			
+			queueOutbound();
+			ServerMetrics.getInstance().responseSent(writtenResponse.getResponseCode());
+		}
+		catch(IOException ex)
+		{
+			// The memory buffer never fails, so the response itself could not be encoded and the stream is out of step
+			Logger.getInstance().connectionHandlerLog(LogLevel.ERROR, connectionID, username, "Failed to encode response: " + ex);
+			kill("Killing connection...");
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	protected int getOutboundBacklog()
+	{
+		return outbound.size();
+	}
+	
+	/**
+	 * This method moves the serialized bytes into the outbound queue and schedules a flush.
+	 */
+	private void queueOutbound()
+	{
+		outbound.add(ByteBuffer.wrap(outboundBytes.toByteArray()));
+		outboundBytes.reset();
+		
+		if(!flushScheduled)
+		{
+			flushScheduled = true;
+			eventLoop.scheduleFlush(this);
+		}
+	}
+	
+	/**
+	 * This method queues the stream header written when the connection was created, so that it
+	 * is sent before any response. The event loop calls it once the connection is attached to
+	 * its registration, outside of the constructor, as queueing hands the connection to the loop.
+	 */
+	void start()
+	{
+		responseLock.lock();
+		
+		try
+		{
+			queueOutbound();
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+	}
+	
+	/**
+	 * This method writes as much of the outbound queue as the channel accepts. It is called by
+	 * the event loop, and registers interest in writability while bytes remain queued. The time
+	 * taken by the writes is recorded in the server metrics.
+	 */
+	void flushOutbound()
+	{
+		responseLock.lock();
+		
+		try
+		{
+			flushScheduled = false;
+			
+			if(connectionState == ApplicationLayerConnectionState.KILLED)
+			{
+				return;
+			}
+			
+			long start = System.nanoTime();
+			
+			while(!outbound.isEmpty())
+			{
+				ByteBuffer nextBuffer = outbound.peek();
+				channel.write(nextBuffer);
+				
+				if(nextBuffer.hasRemaining())
+				{
+					break;
+				}
+				
+				outbound.poll();
+			}
+			
+			ServerMetrics.getInstance().recordResponseWrite(System.nanoTime() - start);
+			int interestOps = outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+			
+			if(selectionKey.isValid())
+			{
+				selectionKey.interestOps(interestOps);
+			}
+		}
+		catch(IOException ex)
+		{
+			kill("Underlying TCP connection failed. Killing connection...");
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		resumeSweeps();
+	}
+	
+	/**
+	 * This method severs the connection after a failure and logs the reason. The event loop
+	 * also calls it when handling the connection throws.
+	 * 
+	 * @param message The message to log
+	 */
+	void kill(String message)
+	{
+		Logger.getInstance().connectionHandlerLog(LogLevel.WARN, connectionID, username, message);
+		
+		responseLock.lock();
+		
+		try
+		{
+			connectionState = ApplicationLayerConnectionState.KILLED;
+			outbound.clear();
+		}
+		finally
+		{
+			responseLock.unlock();
+		}
+		
+		close();
+	}
+	
+	/**
+	 * This method closes the channel and cancels its registration.
+	 */
+	private void close()
+	{
+		recordClosed();
+		selectionKey.cancel();
+		
+		try
+		{
+			channel.close();
+		}
+		catch(IOException ex)
+		{
+		}
+	}
+	
+	/**
+	 * Creates a NioConnection object for a channel registered with the provided event loop.
+	 * The stream header the client waits for is written into the output buffer, and queued by start.
+	 * 
+	 * @param channel_ The non-blocking channel of the connection
+	 * @param eventLoop_ The event loop that owns the channel
+	 * @param selectionKey_ The registration of the channel with the event loop
+	 * @throws IOException Thrown if the output stream cannot be created
+	 */
+	public NioConnection(SocketChannel channel_, NioEventLoop eventLoop_, SelectionKey selectionKey_) throws IOException
+	{
+		channel = channel_;
+		eventLoop = eventLoop_;
+		selectionKey = selectionKey_;
+		
+		inbound = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		frameScanner = new SerializationFrameScanner();
+		frameStream = new FrameInputStream();
+		binaryInput = new DataInputStream(frameStream);
+		
+		outbound = new ArrayDeque<ByteBuffer>();
+		outboundBytes = new ByteArrayOutputStream();
+		binaryOutput = new DataOutputStream(outboundBytes);
+		
+		// Creating the output stream writes the stream header, which is sent first
+		oos = new ObjectOutputStream(outboundBytes);
+		oos.flush();
+	}
+	
+	/**
+	 * An input stream over exactly one complete message, so that the object input stream
+	 * can never read past the bytes that have arrived.
+	 */
+	private static class FrameInputStream extends InputStream
+	{
+		private byte[] frameBuffer;	// The buffer holding the message
+		private int framePosition;	// The next byte to read
+		private int frameLimit;		// The end of the message
+		
+		void setFrame(byte[] buffer_, int offset, int length)
+		{
+			frameBuffer = buffer_;
+			framePosition = offset;
+			frameLimit = offset + length;
+		}
+		
+		public int read()
+		{
+			if(framePosition >= frameLimit)
+			{
+				return -1;
+			}
+			
+			return frameBuffer[framePosition++] & 0xFF;
+		}
+		
+		public int read(byte[] b, int off, int len)
+		{
+			if(len == 0)
+			{
+				return 0;
+			}
+			
+			int available = frameLimit - framePosition;
+			
+			if(available <= 0)
+			{
+				return -1;
+			}
+			
+			int count = Math.min(len, available);
+			System.arraycopy(frameBuffer, framePosition, b, off, count);
+			framePosition += count;
+			return count;
+		}
+		
+		public int available()
+		{
+			return frameLimit - framePosition;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.github.project.server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class implements an event loop of the NIO front end. It is a Runnable class whose
+ * thread owns a Selector and every channel registered with it, performing all reads and
+ * writes of those channels without blocking. Other threads hand work to the loop through
+ * lock-free queues and wake its Selector.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class NioEventLoop implements Runnable
+{
+	private final Selector selector;										// The Selector of the channels owned by this loop
+	private final ConcurrentLinkedQueue<SocketChannel> pendingRegistrations;	// Accepted channels waiting to be registered
+	private final ConcurrentLinkedQueue<NioConnection> pendingFlushes;		// Connections with responses waiting to be written
+	private volatile Thread loopThread;										// The thread running this loop
+	
+	/**
+	 * This method hands an accepted channel to this loop. It may be called from any thread.
+	 * 
+	 * @param channel The accepted channel
+	 */
+	public void register(SocketChannel channel)
+	{
+		pendingRegistrations.add(channel);
+		selector.wakeup();
+	}
+	
+	/**
+	 * This method asks this loop to write the queued responses of a connection. It may be
+	 * called from any thread; the loop thread itself flushes before it next selects.
+	 * 
+	 * @param connection The connection with queued responses
+	 */
+	void scheduleFlush(NioConnection connection)
+	{
+		pendingFlushes.add(connection);
+		
+		if(Thread.currentThread() != loopThread)
+		{
+			selector.wakeup();
+		}
+	}
+	
+	/**
+	 * This method is the entry point for the event loop thread. It selects ready channels
+	 * and dispatches them to their connections in an infinite loop.
+	 */
+	public void run()
+	{
+		loopThread = Thread.currentThread();
+		Logger logger = Logger.getInstance();
+		
+		// Perform these actions until server is terminated
+		while(true)
+		{
+			registerPendingChannels();
+			flushPendingConnections();
+			
+			try
+			{
+				selector.select();
+			}
+			catch(IOException ex)
+			{
+				logger.serverLog(LogLevel.ERROR, "Event loop selector failed");
+				return;
+			}
+			
+			Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+			
+			while(selectedKeys.hasNext())
+			{
+				SelectionKey key = selectedKeys.next();
+				selectedKeys.remove();
+				
+				NioConnection connection = (NioConnection) key.attachment();
+				
+				// A failure while handling one connection must not stop the loop serving the others
+				try
+				{
+					if(key.isValid() && key.isReadable())
+					{
+						connection.handleReadable();
+					}
+					
+					if(key.isValid() && key.isWritable())
+					{
+						connection.flushOutbound();
+					}
+				}
+				catch(RuntimeException ex)
+				{
+					logger.serverLog(LogLevel.ERROR, "Handling of connection " + connection.getConnectionID() + " failed: " + ex);
+					connection.kill("Killing connection...");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This method registers the channels handed to this loop and creates their connections.
+	 */
+	private void registerPendingChannels()
+	{
+		Logger logger = Logger.getInstance();
+		SocketChannel channel;
+		
+		while((channel = pendingRegistrations.poll()) != null)
+		{
+			try
+			{
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				NioConnection connection = new NioConnection(channel, this, key);
+				key.attach(connection);
+				connection.start();
+			}
+			catch(IOException ex)
+			{
+				logger.serverLog(LogLevel.ERROR, "Failed to register accepted connection");
+				
+				try
+				{
+					channel.close();
+				}
+				catch(IOException closeEx)
+				{
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This method writes the queued responses of every connection that asked for a flush.
+	 */
+	private void flushPendingConnections()
+	{
+		NioConnection connection;
+		
+		while((connection = pendingFlushes.poll()) != null)
+		{
+			connection.flushOutbound();
+		}
+	}
+	
+	/**
+	 * Creates a NioEventLoop object with its own Selector.
+	 * 
+	 * @throws IOException Thrown if the Selector cannot be opened
+	 */
+	public NioEventLoop() throws IOException
+	{
+		selector = Selector.open();
+		pendingRegistrations = new ConcurrentLinkedQueue<SocketChannel>();
+		pendingFlushes = new ConcurrentLinkedQueue<NioConnection>();
+	}
+}
@@ -0,0 +1,230 @@
+package com.github.project.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.project.core.SweepRequest;
+
+/**
+ * This class holds the progress of a SweepRequest inside the processing queue. The expression
+ * is parsed once into a PreparedExpression whose parameters are the swept variables, and the
+ * points of the grid are claimed in chunks by any number of processing threads, each calculating
+ * with its own pooled Instance. Every chunk is sent to the client as soon as it is calculated,
+ * so a sweep never holds more than the chunks being calculated and the chunks not yet written.
+ * 
+ * A processing thread calculates one chunk of a sweep per turn and then queues the sweep again,
+ * so that a long sweep takes turns with the other requests of its lane.
+ * 
+ * A sweep whose client reads slower than the chunks are calculated is paused: it is parked on
+ * its ClientConnection rather than kept in a processing thread, and queued again once the
+ * connection has written most of its backlog. A sweep may also be stopped before every point
+ * is claimed; its last chunk then tells the client so.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ParameterSweep extends ChunkedWork
+{
+	private static final int CHUNK_SIZE = 4096;				// The number of points claimed by a processing thread at once
+	private static final long MAXIMUM_POINT_COUNT = 1L << 62;	// The largest grid, leaving room for claims past its end
+	
+	private final PreparedExpression prepared;	// The expression, with the swept variables as parameters
+	private final double[] starts;				// The first value of each variable
+	private final double[] steps;				// The step of each variable
+	private final long[] counts;				// The number of values of each variable
+	private final long pointCount;				// The number of points of the grid
+	private final long requestID;				// The request ID of the sweep
+	
+	private final AtomicLong nextPoint;		// The first point not yet claimed by a processing thread
+	private final AtomicLong remaining;		// The number of points not yet sent or given up
+	private final AtomicBoolean paused;		// Reflects whether or not the sweep is parked on its connection
+	private volatile boolean stopped;		// Reflects whether or not the unclaimed points were given up
+	
+	/**
+	 * This method returns the prepared expression of the sweep
+	 * 
+	 * @return The PreparedExpression whose parameters are the swept variables
+	 */
+	public PreparedExpression getPreparedExpression()
+	{
+		return prepared;
+	}
+	
+	/**
+	 * This method returns the request ID of the sweep
+	 * 
+	 * @return The request ID echoed in every chunk
+	 */
+	public long getRequestID()
+	{
+		return requestID;
+	}
+	
+	/**
+	 * This method returns the number of points of the grid
+	 * 
+	 * @return The product of the counts of the variables
+	 */
+	public long getPointCount()
+	{
+		return pointCount;
+	}
+	
+	public int getChunkCount()
+	{
+		return (int) Math.min(Integer.MAX_VALUE, (pointCount + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	}
+	
+	public int getCost()
+	{
+		return (int) Math.min(CHUNK_SIZE, pointCount);
+	}
+	
+	/**
+	 * This method claims the next chunk of points for the calling thread.
+	 * 
+	 * @return The first point of the chunk, or -1 if every chunk is claimed
+	 */
+	public long claimChunk()
+	{
+		long start = nextPoint.getAndAdd(CHUNK_SIZE);
+		return start < pointCount ? start : -1;
+	}
+	
+	/**
+	 * This method returns the end of the chunk starting at the provided point
+	 * 
+	 * @param start The first point of the chunk
+	 * @return The point after the last point of the chunk
+	 */
+	public long chunkEnd(long start)
+	{
+		return Math.min(start + CHUNK_SIZE, pointCount);
+	}
+	
+	/**
+	 * This method computes the values of the variables at a point of the grid.
+	 * 
+	 * @param point The row-major number of the point
+	 * @param into The array to receive one value per variable
+	 */
+	public void getValues(long point, double[] into)
+	{
+		for(int i = counts.length - 1; i >= 0; i--)
+		{
+			into[i] = starts[i] + (point % counts[i]) * steps[i];
+			point /= counts[i];
+		}
+	}
+	
+	/**
+	 * This method records that a number of points were sent or given up.
+	 * 
+	 * @param count The number of points
+	 * @return Whether or not the sweep is now complete; true for exactly one call
+	 */
+	public boolean complete(long count)
+	{
+		return remaining.addAndGet(-count) == 0;
+	}
+	
+	/**
+	 * This method gives up every point not yet claimed, so that the processing threads calculating
+	 * the sweep finish their chunks and leave it.
+	 * 
+	 * @return The number of points given up, which the caller must complete
+	 */
+	public long stop()
+	{
+		long start = nextPoint.getAndSet(pointCount);
+		
+		if(start >= pointCount)
+		{
+			return 0;
+		}
+		
+		stopped = true;
+		return pointCount - start;
+	}
+	
+	/**
+	 * This method returns whether or not points of the sweep were given up
+	 * 
+	 * @return True if the sweep was stopped before every point was claimed
+	 */
+	public boolean isStopped()
+	{
+		return stopped;
+	}
+	
+	/**
+	 * This method marks the sweep as parked on its connection. Only the first call succeeds,
+	 * so that the sweep is parked once however many processing threads leave it.
+	 * 
+	 * @return Whether or not the calling thread should park the sweep
+	 */
+	public boolean pause()
+	{
+		return paused.compareAndSet(false, true);
+	}
+	
+	/**
+	 * This method marks the sweep as no longer parked, before it is queued again. Every thread
+	 * helping with the sweep left it when it was paused, so it is also unshared: it is queued
+	 * at its cost, and the thread that takes it invites helpers again.
+	 */
+	public void resume()
+	{
+		paused.set(false);
+		unshare();
+	}
+	
+	/**
+	 * Creates a ParameterSweep object for a received SweepRequest, parsing its expression.
+	 * 
+	 * @param request_ The received SweepRequest
+	 * @param requestingHandler_ The ClientConnection that received the sweep
+	 * @param sequenceNumber_ The per-connection sequence number of the sweep
+	 * @throws IllegalArgumentException Thrown with the reason if the grid is invalid or the
+	 * expression does not parse with the variables as parameters
+	 */
+	public ParameterSweep(SweepRequest request_, ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		super(requestingHandler_, sequenceNumber_);
+		String[] variableNames = request_.getVariableNames();
+		starts = request_.getStarts();
+		steps = request_.getSteps();
+		counts = request_.getCounts();
+		
+		if(starts.length != variableNames.length || steps.length != variableNames.length || counts.length != variableNames.length)
+		{
+			throw new IllegalArgumentException("Every variable needs a start, a step and a count");
+		}
+		
+		long points = 1;
+		
+		for(int i = 0; i < counts.length; i++)
+		{
+			if(counts[i] <= 0)
+			{
+				throw new IllegalArgumentException("Variable " + variableNames[i] + " has no values");
+			}
+			
+			if(points > MAXIMUM_POINT_COUNT / counts[i])
+			{
+				throw new IllegalArgumentException("The sweep has more than " + MAXIMUM_POINT_COUNT + " points");
+			}
+			
+			points *= counts[i];
+		}
+		
+		prepared = PreparedExpression.prepare(request_.getExpression(), variableNames);
+		pointCount = points;
+		requestID = request_.getRequestID();
+		
+		nextPoint = new AtomicLong();
+		remaining = new AtomicLong(points);
+		paused = new AtomicBoolean();
+	}
+}
@@ -0,0 +1,200 @@
+package com.github.project.server;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.mariuszgromada.math.mxparser.Argument;
+import org.mariuszgromada.math.mxparser.Expression;
+
+/**
+ * This class holds an expression registered by a PrepareRequest, with its parameters bound to
+ * mXparser Arguments. Calculating it for new parameter values only sets the values of the
+ * Arguments, so the text is parsed once rather than for every set of values.
+ * 
+ * An mXparser Expression cannot be calculated by two threads at once, so the prepared expression
+ * keeps a pool of idle Instances, each an Expression with its own Arguments. A processing thread
+ * acquires an Instance, calculates it and releases it; the pool grows to the number of threads
+ * that calculate the expression at the same time.
+ * 
+ * An expression in the subset compiled by CompiledExpression is also kept compiled, and the
+ * processing threads calculate the compiled program instead of an Instance.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class PreparedExpression
+{
+	private final String expressionText;						// The text of the expression
+	private final String[] parameterNames;						// The names of the parameters, in the order of their values
+	private final CompiledExpression compiled;					// The compiled expression, or null if it is not in the subset
+	private final ConcurrentLinkedQueue<Instance> idleInstances;	// The parsed instances not being calculated
+	
+	/**
+	 * This method parses and checks an expression with the provided parameters.
+	 * 
+	 * @param expressionText The text of the expression
+	 * @param parameterNames The names of the parameters, in the order of their values
+	 * @return The prepared expression
+	 * @throws IllegalArgumentException Thrown with the reason if a parameter name is invalid or
+	 * repeated, or if the expression does not parse
+	 */
+	public static PreparedExpression prepare(String expressionText, String[] parameterNames)
+	{
+		HashSet<String> seenNames = new HashSet<String>();
+		
+		for(String parameterName : parameterNames)
+		{
+			if(!seenNames.add(parameterName))
+			{
+				throw new IllegalArgumentException("Parameter " + parameterName + " is named twice");
+			}
+			
+			if(!new Argument(parameterName, 0).checkSyntax())
+			{
+				throw new IllegalArgumentException("Invalid parameter name " + parameterName);
+			}
+		}
+		
+		PreparedExpression prepared = new PreparedExpression(expressionText, parameterNames.clone(), CompiledExpression.compile(expressionText, parameterNames));
+		Instance instance = prepared.createInstance();
+		
+		if(!instance.expression.checkSyntax())
+		{
+			throw new IllegalArgumentException(instance.expression.getErrorMessage());
+		}
+		
+		prepared.release(instance);
+		return prepared;
+	}
+	
+	/**
+	 * This method returns the text of the expression
+	 * 
+	 * @return The text of the expression
+	 */
+	public String getExpressionText()
+	{
+		return expressionText;
+	}
+	
+	/**
+	 * This method returns the compiled program of the expression
+	 * 
+	 * @return The CompiledExpression, or null if the expression is calculated by mXparser
+	 */
+	public CompiledExpression getCompiledExpression()
+	{
+		return compiled;
+	}
+	
+	/**
+	 * This method returns the number of parameters of the expression
+	 * 
+	 * @return The number of values in a row of parameter values
+	 */
+	public int getParameterCount()
+	{
+		return parameterNames.length;
+	}
+	
+	/**
+	 * This method returns the number of rows held by an array of packed parameter values
+	 * 
+	 * @param parameterValues The parameter values, row after row
+	 * @return The number of rows, or -1 if the values do not fill whole rows
+	 */
+	public int getRowCount(double[] parameterValues)
+	{
+		if(parameterNames.length == 0)
+		{
+			return parameterValues.length == 0 ? 1 : -1;
+		}
+		
+		return parameterValues.length % parameterNames.length == 0 ? parameterValues.length / parameterNames.length : -1;
+	}
+	
+	/**
+	 * This method takes an idle Instance from the pool, parsing a new one if none is idle.
+	 * 
+	 * @return An Instance used by no other thread
+	 */
+	public Instance acquire()
+	{
+		Instance instance = idleInstances.poll();
+		return instance != null ? instance : createInstance();
+	}
+	
+	/**
+	 * This method returns an Instance to the pool once its calculation has finished. An Instance
+	 * whose calculation was cancelled must not be returned, as mXparser fails its next calculation.
+	 * 
+	 * @param instance The Instance acquired by the calling thread
+	 */
+	public void release(Instance instance)
+	{
+		idleInstances.offer(instance);
+	}
+	
+	/**
+	 * This method parses a new Instance of the expression, which is in no pool until released.
+	 * 
+	 * @return The new Instance
+	 */
+	public Instance createInstance()
+	{
+		Argument[] arguments = new Argument[parameterNames.length];
+		
+		for(int i = 0; i < arguments.length; i++)
+		{
+			arguments[i] = new Argument(parameterNames[i], 0);
+		}
+		
+		return new Instance(new Expression(expressionText, arguments), arguments);
+	}
+	
+	/**
+	 * Creates a PreparedExpression object with an empty pool.
+	 */
+	private PreparedExpression(String expressionText_, String[] parameterNames_, CompiledExpression compiled_)
+	{
+		expressionText = expressionText_;
+		parameterNames = parameterNames_;
+		compiled = compiled_;
+		idleInstances = new ConcurrentLinkedQueue<Instance>();
+	}
+	
+	/**
+	 * One parsed copy of the prepared expression, with its own Arguments.
+	 */
+	public static class Instance
+	{
+		private final Expression expression;	// The parsed expression
+		private final Argument[] arguments;		// The Arguments of the parameters, in order
+		
+		/**
+		 * This method sets the Arguments to one row of parameter values.
+		 * 
+		 * @param parameterValues The parameter values, row after row
+		 * @param row The index of the row to bind
+		 * @return The Expression to calculate
+		 */
+		public Expression bind(double[] parameterValues, int row)
+		{
+			int offset = row * arguments.length;
+			
+			for(int i = 0; i < arguments.length; i++)
+			{
+				arguments[i].setArgumentValue(parameterValues[offset + i]);
+			}
+			
+			return expression;
+		}
+		
+		Instance(Expression expression_, Argument[] arguments_)
+		{
+			expression = expression_;
+			arguments = arguments_;
+		}
+	}
+}
@@ -1,24 +1,112 @@
 package com.github.project.server;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.mariuszgromada.math.mxparser.Expression;
 
+import com.github.project.core.CalculationBatchRequest;
 import com.github.project.core.CalculationRequest;
+import com.github.project.core.ExecutePreparedRequest;
+import com.github.project.core.ResponseCode;
 
 /**
- * This class implements the FIFO processing queue of the server. It is 
- * a Runnable singleton class, and a single thread will process requests 
- * in an infinite loop until the server is stopped.
+ * This class implements the FIFO processing queue of the server. It is
+ * a Runnable singleton class, and a configurable number of worker threads
+ * process requests in an infinite loop until the server is stopped. Requests
+ * from different connections are evaluated in parallel; the ClientConnection
+ * that received a request is responsible for sending responses in order.
+ * 
+ * Requests are held in a bounded RequestQueue chosen by the mathserver.scheduling system
+ * property: FAIR (the default) serves the users in deficit round-robin with the
+ * FairRequestQueue, and FIFO serves every request in arrival order from the lock-free
+ * RequestRingBuffer. The capacity is read from the mathserver.queueCapacity property, and the
+ * wait strategy of the ring buffer from mathserver.waitStrategy (SPIN, YIELD or PARK). Parsed
+ * expressions are kept in an ExpressionCache bounded by the mathserver.expressionCacheBytes
+ * property, and results of deterministic expressions are kept in a ResultCache bounded by the
+ * mathserver.resultCacheBytes property.
+ * 
+ * Requests are admitted rather than waited for: a request that would make the queue deeper
+ * than the mathserver.maximumQueueDepth property (default: the capacity), or that arrives
+ * while requests wait longer than the mathserver.maximumQueueAgeMillis property (default: no
+ * limit), is refused, and the connection answers it with a BUSY response instead.
+ * 
+ * Every expression is evaluated within the time budget of the mathserver.evaluationBudgetMillis
+ * property (default 10000, 0 for no budget), enforced by an EvaluationWatchdog. An expression 
+ * over budget is cancelled and answered with TIMED_OUT; a processing thread that ignores the
+ * cancellation for mathserver.abandonWorkerMillis more (default 5000) is replaced. An
+ * expression whose calculation throws is answered with a NaN result and the exception as its
+ * error message, and the processing thread moves on to the next request.
+ * 
+ * An expression in the common arithmetic subset is compiled by CompiledExpression and calculated
+ * without mXparser's parser, giving the same result; the ExpressionCache remembers the program of
+ * each text, or that the text cannot be compiled, and the result cache is not used for it. Every
+ * other expression is calculated by mXparser.
+ * 
+ * Identical CalculationRequests in flight at the same time are coalesced by a RequestCoalescer:
+ * a request for a deterministic text that is already queued or being evaluated is not queued
+ * again, and is answered with the result of the queued request. The mathserver.disableCoalescing
+ * property turns coalescing off.
+ * 
+ * Requests are routed by estimated cost into two lanes, each with its own queue and its own
+ * processing threads, so that plain arithmetic never waits behind iterated operators. The
+ * CostEstimator classifies a request by its tokens, then by the measured time of its earlier
+ * evaluations: an expression slower than mathserver.heavyExpressionMillis (default 20) is
+ * heavy. Up to mathserver.heavyWorkers processing threads (default: a quarter of the
+ * processors, at least 1) serve the heavy lane once the light lane has a thread; 0 routes
+ * every request to the light lane. Admission limits apply to each lane separately.
+ * 
+ * A CalculationBatchRequest is queued as a single CalculationBatch. The worker that takes it
+ * re-queues the batch once per idle worker, and every worker holding the batch claims chunks 
+ * of its expressions until none are left. An ExecutePreparedRequest is queued the same way,
+ * each row of parameter values being calculated with a pooled Instance of its PreparedExpression
+ * instead of an expression looked up by its text; the result cache is not used for its rows.
+ * 
+ * A SweepRequest is queued as a single ParameterSweep in the heavy lane, so that however long
+ * it runs it never holds up plain arithmetic. Its workers share it in chunks of points like a
+ * batch, each point being calculated with a pooled Instance of the swept expression, and send
+ * each chunk as soon as it is calculated. A worker calculates one chunk per turn and then queues
+ * the sweep again behind the requests queued meanwhile, so that the sweep takes turns with them
+ * under either scheduling policy; it goes on with the sweep only if the queue is full. A worker
+ * leaves a sweep whose connection has too many responses waiting to be written, and the
+ * connection queues the sweep again once they are.
  * 
  * @author Nathan Beck
  * @version 1.0
  * @since 31 October 2020
  */
 public class ProcessingQueue implements Runnable
-{	
+{
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;							// Default number of slots in the queue
+	private static final WaitStrategy DEFAULT_WAIT_STRATEGY = WaitStrategy.PARK;	// Default strategy of waiting threads
+	private static final SchedulingPolicy DEFAULT_SCHEDULING_POLICY = SchedulingPolicy.FAIR;	// Default order of queued requests
+	private static final long DEFAULT_EXPRESSION_CACHE_BYTES = 64L << 20;			// Default memory bound of the expression cache
+	private static final long DEFAULT_RESULT_CACHE_BYTES = 32L << 20;				// Default memory bound of the result cache
+	private static final int MINIMUM_RETRY_AFTER_MILLIS = 50;						// The shortest retry delay suggested to refused clients
+	private static final long DEFAULT_EVALUATION_BUDGET_MILLIS = 10000;			// Default time budget of one expression
+	private static final long DEFAULT_ABANDON_WORKER_MILLIS = 5000;				// Default time a cancelled expression may keep running
+	private static final long DEFAULT_HEAVY_EXPRESSION_MILLIS = 20;				// Default evaluation time above which an expression is heavy
+	private static final int DEFAULT_COST_HISTORY_SIZE = 16384;					// Default number of measured expressions remembered
+	
 	private static ProcessingQueue instance = new ProcessingQueue(); // The singleton instance of this class
 	
-	private QueueElement queueHead; // The head pointer of the queue
-	private QueueElement queueTail; // The tail pointer of the queue
+	private final Lane lightLane;					// The lane of cheap requests
+	private final Lane heavyLane;					// The lane of expensive requests
+	private final CostEstimator costEstimator;		// Classifies requests into the lanes
+	private final int heavyWorkerBudget;			// The number of worker threads that serve the heavy lane
+	private final ExpressionCache expressionCache;	// The cache of parsed expressions
+	private final ResultCache resultCache;			// The cache of deterministic results
+	private final RequestCoalescer coalescer;		// Shares the evaluation of identical requests in flight
+	private final AtomicInteger replacementCount;	// The number of worker threads started in place of stuck ones
+	private final EvaluationWatchdog watchdog;		// Enforces the time budget of expressions, or null without a budget
+	private final String timedOutMessage;			// The error message of an expression over budget
+	
+	private final long maximumQueueAgeNanos;		// The queueing delay above which requests are refused, or 0
+	private final LongAdder refusedCount;			// The number of requests and batches refused since startup
+	private final ServerMetrics metrics;			// Receives the queue wait and evaluation time of every request
 	
 	/**
 	 * This method returns the singleton instance of this class
@@ -31,83 +119,799 @@ public class ProcessingQueue implements Runnable
 	}
 	
 	/**
-	 * This method adds a CalculationRequest object to the queue with additional receiving 
-	 * Socket information. This method is synchronized as multiple threads may access this 
-	 * method at the same time.
+	 * This method adds a CalculationRequest object to the queue with additional receiving
+	 * Socket information. Multiple threads may call this method at the same time without 
+	 * locking. The calling thread never waits: if the queue is over its admission limits,
+	 * the request is refused. A request identical to one in flight joins it instead of being
+	 * queued, whatever the admission limits.
 	 * 
 	 * @param request The CalculationRequest object to add and process in the queue
-	 * @param requestingHandler The ConnectionHandler object that received the CalculationRequest object
+	 * @param requestingHandler The ClientConnection object that received the CalculationRequest object
+	 * @param sequenceNumber The per-connection sequence number of the request, used to order responses
+	 * @return Whether or not the request was queued or joined; false if it was refused
+	 */
+	public boolean addToQueue(CalculationRequest request, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		if(coalescer.board(request, requestingHandler, sequenceNumber))
+		{
+			return true;
+		}
+		
+		Lane lane = selectLane(costEstimator.isHeavy(request.getRawRequest()));
+		
+		if(isAdmitting(lane))
+		{
+			coalescer.open(request);
+			
+			if(lane.queue.offer(request, requestingHandler, sequenceNumber))
+			{
+				return true;
+			}
+			
+			refusePassengers(coalescer.land(request));
+		}
+		
+		refusedCount.increment();
+		return false;
+	}
+	
+	/**
+	 * This method answers with a BusyResponse every request that joined a request refused after all.
+	 * 
+	 * @param passengers The requests aboard the flight of the refused request, or null
 	 */
-	public synchronized void addToQueue(CalculationRequest request, ConnectionHandler requestingHandler)
+	private void refusePassengers(List<RequestCoalescer.Passenger> passengers)
 	{
-		// Create the QueueElement object, put it as the next element of the tail, and update the tail pointer
-		QueueElement addRequestQueueElement = new QueueElement(request, requestingHandler);
-		queueTail.setNext(addRequestQueueElement);
-		queueTail = addRequestQueueElement;
+		if(passengers == null)
+		{
+			return;
+		}
+		
+		int retryAfterMillis = getRetryAfterMillis();
 		
-		// Make the head point to new element if it is null, wake up processing thread if so
-		if(queueHead == null)
+		for(RequestCoalescer.Passenger passenger : passengers)
 		{
-			queueHead = addRequestQueueElement;
-			notifyAll();
+			refusedCount.increment();
+			passenger.getRequestingHandler().sendBusyResponse(passenger.getSequenceNumber(), passenger.getRequestID(), retryAfterMillis);
 		}
 	}
 	
 	/**
-	 * This method processes a request from the queue.
+	 * This method adds a CalculationBatchRequest object to the queue as one unit, with the
+	 * same admission limits as a single request.
 	 * 
-	 * @return A boolean signaling if a request was processed.
+	 * @param request The CalculationBatchRequest object to add and process in the queue
+	 * @param requestingHandler The ClientConnection object that received the batch
+	 * @param sequenceNumber The per-connection sequence number of the batch, used to order responses
+	 * @return Whether or not the batch was queued; false if it was refused
 	 */
-	private boolean processRequest()
+	public boolean addBatchToQueue(CalculationBatchRequest request, ClientConnection requestingHandler, long sequenceNumber)
 	{
-		// Return false if there is no element to process
-		if(queueHead == null)
+		Lane lane = selectLane(costEstimator.isHeavy(request));
+		
+		if(isAdmitting(lane) && lane.queue.offer(new CalculationBatch(request, requestingHandler, sequenceNumber)))
+		{
+			return true;
+		}
+		
+		refusedCount.increment();
+		return false;
+	}
+	
+	/**
+	 * This method adds an ExecutePreparedRequest object to the queue as one batch of rows, with
+	 * the same admission limits as a single request.
+	 * 
+	 * @param prepared The PreparedExpression named by the handle of the request
+	 * @param request The ExecutePreparedRequest object to add and process in the queue
+	 * @param requestingHandler The ClientConnection object that received the request
+	 * @param sequenceNumber The per-connection sequence number of the request, used to order responses
+	 * @return Whether or not the request was queued; false if it was refused
+	 */
+	public boolean addPreparedToQueue(PreparedExpression prepared, ExecutePreparedRequest request, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		Lane lane = selectLane(costEstimator.isHeavy(prepared.getExpressionText()));
+		
+		if(isAdmitting(lane) && lane.queue.offer(new CalculationBatch(prepared, request, requestingHandler, sequenceNumber)))
+		{
+			return true;
+		}
+		
+		refusedCount.increment();
+		return false;
+	}
+	
+	/**
+	 * This method adds a ParameterSweep object to the heavy lane as one unit, with the same
+	 * admission limits as a single request.
+	 * 
+	 * @param sweep The ParameterSweep object to add and process in the queue
+	 * @return Whether or not the sweep was queued; false if it was refused
+	 */
+	public boolean addSweepToQueue(ParameterSweep sweep)
+	{
+		Lane lane = selectLane(true);
+		
+		if(isAdmitting(lane) && lane.queue.offer(sweep))
+		{
+			return true;
+		}
+		
+		refusedCount.increment();
+		return false;
+	}
+	
+	/**
+	 * This method queues again a sweep that was paused while its client caught up. The sweep
+	 * was admitted already, so only the room in the queue is checked. It was unshared when it
+	 * was resumed, so the worker that takes it invites helpers again.
+	 * 
+	 * @param sweep The paused ParameterSweep object
+	 * @return Whether or not the sweep was queued; false if the queue is full
+	 */
+	public boolean resumeSweep(ParameterSweep sweep)
+	{
+		return selectLane(true).queue.offer(sweep);
+	}
+	
+	/**
+	 * This method returns the lane of a request with the provided estimated cost. Heavy 
+	 * requests share the light lane while no worker serves the heavy lane.
+	 * 
+	 * @param heavy Whether or not the request is estimated to be expensive
+	 * @return The lane in which to queue the request
+	 */
+	private Lane selectLane(boolean heavy)
+	{
+		return heavy && heavyLane.workerCount.get() > 0 ? heavyLane : lightLane;
+	}
+	
+	/**
+	 * This method returns whether or not a lane is within its admission limits. An empty
+	 * queue always admits, as the last measured queueing delay may be stale.
+	 * 
+	 * @param lane The lane in which a request would be queued
+	 * @return Whether or not a new request may be queued
+	 */
+	private boolean isAdmitting(Lane lane)
+	{
+		int depth = lane.queue.size();
+		
+		if(depth >= lane.maximumQueueDepth)
 		{
 			return false;
 		}
 		
-		// Process the request
-		CalculationRequest toProcess = queueHead.getItem();
-		Expression parseExpression = new Expression(toProcess.getRawRequest());
-		double expressionResult = parseExpression.calculate();
+		return depth == 0 || maximumQueueAgeNanos <= 0 || lane.queueDelayNanos <= maximumQueueAgeNanos;
+	}
+	
+	/**
+	 * This method returns how long a refused client should wait before sending its request
+	 * again: the time the last request of the slower lane spent in the queue, but no less 
+	 * than a minimum.
+	 * 
+	 * @return The suggested delay in milliseconds
+	 */
+	public int getRetryAfterMillis()
+	{
+		long queueDelayMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(lightLane.queueDelayNanos, heavyLane.queueDelayNanos));
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(MINIMUM_RETRY_AFTER_MILLIS, queueDelayMillis));
+	}
+	
+	/**
+	 * This method returns the number of requests and batches waiting in the queue
+	 * 
+	 * @return The number of queued requests of both lanes
+	 */
+	public int getQueueDepth()
+	{
+		return lightLane.queue.size() + heavyLane.queue.size();
+	}
+	
+	/**
+	 * This method returns the number of requests answered with the evaluation of an identical
+	 * request in flight
+	 * 
+	 * @return The number of coalesced requests since startup
+	 */
+	public long getCoalescedCount()
+	{
+		return coalescer.getCoalescedCount();
+	}
+	
+	/**
+	 * This method returns a one-line summary of the processing statistics for the server log
+	 * 
+	 * @return The processing statistics of this queue
+	 */
+	public String describeStatistics()
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append("Queued requests: ");
+		builder.append(lightLane.queue.size());
+		builder.append(" light, ");
+		builder.append(heavyLane.queue.size());
+		builder.append(" heavy, workers: ");
+		builder.append(lightLane.workerCount.get());
+		builder.append(" light, ");
+		builder.append(heavyLane.workerCount.get());
+		builder.append(" heavy, refused: ");
+		builder.append(refusedCount.sum());
+		builder.append(", replaced workers: ");
+		builder.append(replacementCount.get());
+		builder.append(", expression cache hits: ");
+		builder.append(expressionCache.getHitCount());
+		builder.append(", misses: ");
+		builder.append(expressionCache.getMissCount());
+		builder.append(", evictions: ");
+		builder.append(expressionCache.getEvictionCount());
+		builder.append(", cached: ");
+		builder.append(expressionCache.size());
+		builder.append(", result cache hit rate: ");
+		builder.append(String.format("%.1f%%", resultCache.getHitRate() * 100));
+		builder.append(" (hits: ");
+		builder.append(resultCache.getHitCount());
+		builder.append(", misses: ");
+		builder.append(resultCache.getMissCount());
+		builder.append(", non-deterministic: ");
+		builder.append(resultCache.getNonDeterministicCount());
+		builder.append(", evictions: ");
+		builder.append(resultCache.getEvictionCount());
+		long coalescedCount = coalescer.getCoalescedCount();
+		builder.append("), coalesced requests: ");
+		builder.append(coalescedCount);
+		builder.append(" of ");
+		builder.append(coalescedCount + coalescer.getFlightCount());
+		builder.append(" eligible");
+		return builder.toString();
+	}
+	
+	/**
+	 * This method returns the queue depth and queueing delay of each user since the last call,
+	 * for the server log
+	 * 
+	 * @return The per-user statistics, or null if requests are not scheduled per user or no user was active
+	 */
+	public String describeUserStatistics()
+	{
+		if(lightLane.fairQueue == null)
+		{
+			return null;
+		}
 		
-		// Create CalculationResponse message and send response
-		ConnectionHandler requestingHandler = queueHead.getRequestingHandler();
-		requestingHandler.sendCalculationResponse(expressionResult, parseExpression.getErrorMessage());
+		String lightUsers = lightLane.fairQueue.describeUsers();
+		String heavyUsers = heavyLane.fairQueue.describeUsers();
 		
-		// Remove the processed request from the queue
-		QueueElement nextQueueHead = queueHead.getNextQueueElement();
-		queueHead = nextQueueHead;
+		if(lightUsers.isEmpty() && heavyUsers.isEmpty())
+		{
+			return null;
+		}
 		
-		// Return true as a request was processed
-		return true;
+		StringBuilder builder = new StringBuilder();
+		builder.append("Users: ");
+		builder.append(lightUsers.isEmpty() ? "none" : lightUsers);
+		builder.append(" (light lane); ");
+		builder.append(heavyUsers.isEmpty() ? "none" : heavyUsers);
+		builder.append(" (heavy lane)");
+		return builder.toString();
 	}
 	
 	/**
-	 * This method is the entry point for the processing thread. It processes 
-	 * requests in an infinite loop. This method blocks when there are no requests 
-	 * in the queue. It resumes when requests are added to the queue.
+	 * This method processes a request taken from the queue. It is called outside of the
+	 * queue lock so that several workers may evaluate expressions at the same time.
+	 * 
+	 * @param toProcess The QueueElement holding the request or batch to process
+	 * @param lane The lane from which the request was taken
+	 * @param evaluation The evaluation of the calling worker, reused for every expression
 	 */
-	public void run()
-	{	
-		// Perform these actions until server is terminated
-		while(true)
+	private void processRequest(QueueElement toProcess, Lane lane, Evaluation evaluation)
+	{
+		if(toProcess.getWork() instanceof ParameterSweep)
+		{
+			processSweep((ParameterSweep) toProcess.getWork(), lane, evaluation);
+			return;
+		}
+		
+		if(toProcess.getWork() != null)
+		{
+			processBatch((CalculationBatch) toProcess.getWork(), lane, evaluation);
+			return;
+		}
+		
+		CalculationRequest request = toProcess.getItem();
+		evaluate(request.getRawRequest(), evaluation);
+		List<RequestCoalescer.Passenger> passengers = coalescer.land(request);
+		
+		// Create CalculationResponse message and send response
+		ClientConnection requestingHandler = toProcess.getRequestingHandler();
+		ResponseCode responseCode = evaluation.timedOut ? ResponseCode.TIMED_OUT : ResponseCode.OK;
+		requestingHandler.sendCalculationResponse(toProcess.getSequenceNumber(), request.getRequestID(), responseCode, evaluation.result, evaluation.errorMessage);
+		
+		// Answer the identical requests that joined this one with the same result
+		if(passengers != null)
+		{
+			for(RequestCoalescer.Passenger passenger : passengers)
+			{
+				passenger.getRequestingHandler().sendCalculationResponse(passenger.getSequenceNumber(), passenger.getRequestID(), responseCode, evaluation.result, evaluation.errorMessage);
+			}
+		}
+	}
+	
+	/**
+	 * This method calculates chunks of a batch until every chunk is claimed. The first worker
+	 * to take a batch queues it again in its lane for each other worker of the lane, so that idle
+	 * workers join in; a full queue simply means fewer helpers. The worker that completes the 
+	 * batch sends the response.
+	 * 
+	 * @param batch The batch to work on
+	 * @param lane The lane from which the batch was taken
+	 * @param evaluation The evaluation of the calling worker, reused for every expression
+	 */
+	private void processBatch(CalculationBatch batch, Lane lane, Evaluation evaluation)
+	{
+		ClientConnection requestingHandler = batch.getRequestingHandler();
+		
+		if(batch.isEmpty())
+		{
+			requestingHandler.sendBatchResponse(batch.getSequenceNumber(), batch.createResponse());
+			return;
+		}
+		
+		inviteHelpers(batch, lane);
+		
+		String[] rawRequests = batch.getRawRequests();
+		PreparedExpression prepared = batch.getPreparedExpression();
+		int start;
+		
+		while((start = batch.claimChunk()) >= 0)
 		{
-			// Attempt to process a request. If unsuccessful, block this thread until signaled by addToQueue
-			if(!processRequest())
+			int end = batch.chunkEnd(start);
+			
+			for(int i = start; i < end; i++)
 			{
-				try
+				if(prepared != null)
 				{
-					synchronized(this) 
-					{
-						wait();
-					}
+					evaluatePrepared(prepared, batch.getParameterValues(), i, evaluation);
 				}
-				catch(InterruptedException ex)
+				else
+				{
+					evaluate(rawRequests[i], evaluation);
+				}
+				
+				batch.setResult(i, evaluation.result, evaluation.errorMessage);
+			}
+			
+			if(batch.complete(end - start))
+			{
+				requestingHandler.sendBatchResponse(batch.getSequenceNumber(), batch.createResponse());
+			}
+		}
+	}
+	
+	/**
+	 * This method calculates one chunk of a sweep and sends it, then queues the sweep again in its
+	 * lane so that the requests queued meanwhile are served first. Helpers are invited as for a batch.
+	 * The worker calculates another chunk instead only if the queue is full, and leaves the sweep
+	 * without queueing it once every chunk is claimed, if its connection is closed, or if the
+	 * connection parks it until the client catches up.
+	 * 
+	 * @param sweep The sweep to work on
+	 * @param lane The lane from which the sweep was taken
+	 * @param evaluation The evaluation of the calling worker, reused for every point
+	 */
+	private void processSweep(ParameterSweep sweep, Lane lane, Evaluation evaluation)
+	{
+		ClientConnection requestingHandler = sweep.getRequestingHandler();
+		inviteHelpers(sweep, lane);
+		
+		PreparedExpression prepared = sweep.getPreparedExpression();
+		double[] values = new double[prepared.getParameterCount()];
+		long start;
+		
+		do
+		{
+			if(!requestingHandler.isAcceptingResponses() || requestingHandler.pauseSweep(sweep) || (start = sweep.claimChunk()) < 0)
+			{
+				return;
+			}
+			
+			double[] results = new double[(int) (sweep.chunkEnd(start) - start)];
+			
+			for(int i = 0; i < results.length; i++)
+			{
+				sweep.getValues(start + i, values);
+				evaluatePrepared(prepared, values, 0, evaluation);
+				results[i] = evaluation.result;
+			}
+			
+			requestingHandler.sendSweepChunk(sweep, start, results);
+		}
+		while(!lane.queue.requeue(sweep));
+	}
+	
+	/**
+	 * This method queues chunked work again in its lane for each other worker of the lane the
+	 * first time it is taken, so that idle workers join in; a full queue simply means fewer helpers.
+	 * 
+	 * @param work The batch or sweep taken by the calling worker
+	 * @param lane The lane from which the work was taken
+	 */
+	private void inviteHelpers(ChunkedWork work, Lane lane)
+	{
+		if(work.share())
+		{
+			int helperCount = Math.min(lane.workerCount.get() - 1, work.getChunkCount() - 1);
+			
+			for(int i = 0; i < helperCount && lane.queue.offer(work); i++);
+		}
+	}
+	
+	/**
+	 * This method evaluates one expression, and records the time it took so that later
+	 * requests for the same text are routed into the right lane, and in the server metrics.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void evaluate(String rawRequest, Evaluation into)
+	{
+		long start = System.nanoTime();
+		
+		try
+		{
+			lookUpOrCalculate(rawRequest, into);
+		}
+		catch(RuntimeException ex)
+		{
+			fail(ex, into);
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		costEstimator.record(rawRequest, elapsed);
+		metrics.recordEvaluation(elapsed);
+	}
+	
+	/**
+	 * This method calculates one row of parameter values of a prepared expression, and records
+	 * the time it took like evaluate does.
+	 * 
+	 * @param prepared The prepared expression to calculate
+	 * @param parameterValues The parameter values, row after row
+	 * @param row The index of the row to calculate
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void evaluatePrepared(PreparedExpression prepared, double[] parameterValues, int row, Evaluation into)
+	{
+		long start = System.nanoTime();
+		
+		try
+		{
+			calculatePrepared(prepared, parameterValues, row, into);
+		}
+		catch(RuntimeException ex)
+		{
+			fail(ex, into);
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		costEstimator.record(prepared.getExpressionText(), elapsed);
+		metrics.recordEvaluation(elapsed);
+	}
+	
+	/**
+	 * This method calculates one row of parameter values of a prepared expression, with its
+	 * compiled program if it has one, or else with a pooled Instance.
+	 * 
+	 * @param prepared The prepared expression to calculate
+	 * @param parameterValues The parameter values, row after row
+	 * @param row The index of the row to calculate
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void calculatePrepared(PreparedExpression prepared, double[] parameterValues, int row, Evaluation into)
+	{
+		into.timedOut = false;
+		CompiledExpression compiled = prepared.getCompiledExpression();
+		
+		if(compiled != null)
+		{
+			calculateCompiled(compiled, parameterValues, row * prepared.getParameterCount(), into);
+			return;
+		}
+		
+		PreparedExpression.Instance instance = prepared.acquire();
+		
+		while(true)
+		{
+			Expression expression = instance.bind(parameterValues, row);
+			CalculationOutcome outcome = calculateWithinBudget(expression, into);
+			
+			if(outcome == CalculationOutcome.CALCULATED)
+			{
+				into.errorMessage = expression.getErrorMessage();
+				prepared.release(instance);
+				return;
+			}
+			
+			// A cancelled Instance is not returned to the pool
+			if(outcome == CalculationOutcome.TIMED_OUT)
+			{
+				into.timedOut = true;
+				into.result = Double.NaN;
+				into.errorMessage = timedOutMessage;
+				return;
+			}
+			
+			instance = prepared.createInstance();
+		}
+	}
+	
+	/**
+	 * This method answers an expression whose calculation threw, as mXparser does for some
+	 * expressions it parses, with no result and the exception as its error message. The parsed
+	 * Expression or Instance that threw is not returned to its cache.
+	 * 
+	 * @param ex The exception thrown by the calculation
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void fail(RuntimeException ex, Evaluation into)
+	{
+		into.timedOut = false;
+		into.result = Double.NaN;
+		into.errorMessage = "Calculation failed: " + ex;
+	}
+	
+	/**
+	 * This method calculates one expression, with its compiled program if it is in the compiled
+	 * subset, or else answering it from the result cache if the expression is deterministic and
+	 * was calculated before.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void lookUpOrCalculate(String rawRequest, Evaluation into)
+	{
+		into.timedOut = false;
+		CompiledExpression compiled = expressionCache.getCompiled(rawRequest);
+		
+		if(compiled != null)
+		{
+			calculateCompiled(compiled, null, 0, into);
+			return;
+		}
+		
+		ResultCache.CachedResult cachedResult = resultCache.get(rawRequest);
+		
+		if(cachedResult != null && cachedResult.isDeterministic())
+		{
+			into.result = cachedResult.getResult();
+			into.errorMessage = cachedResult.getErrorMessage();
+			return;
+		}
+		
+		// Process the request with a parsed expression from the cache
+		Expression parseExpression = calculate(rawRequest, expressionCache.acquire(rawRequest), into);
+		
+		// A cancelled calculation has no result worth keeping, and its Expression is not returned to the cache
+		if(parseExpression == null)
+		{
+			into.timedOut = true;
+			into.result = Double.NaN;
+			into.errorMessage = timedOutMessage;
+			return;
+		}
+		
+		into.errorMessage = parseExpression.getErrorMessage();
+		
+		// Record the result unless the expression is already known to be non-deterministic
+		if(cachedResult == null)
+		{
+			resultCache.put(rawRequest, parseExpression, into.result, into.errorMessage);
+		}
+		
+		expressionCache.release(rawRequest, parseExpression);
+	}
+	
+	/**
+	 * This method calculates a compiled expression with the stack of the calling worker, under
+	 * the watchdog of the worker. A compiled expression is not stopped by mXparser's cancellation,
+	 * so it is only ever reported over budget, never calculated again.
+	 * 
+	 * @param compiled The compiled expression to calculate
+	 * @param parameterValues The parameter values, or null if the expression has no parameters
+	 * @param offset The index of the value of the first parameter
+	 * @param into The Evaluation object to receive the result and error message
+	 */
+	private void calculateCompiled(CompiledExpression compiled, double[] parameterValues, int offset, Evaluation into)
+	{
+		if(into.stack.length < compiled.getStackDepth())
+		{
+			into.stack = new double[compiled.getStackDepth()];
+		}
+		
+		if(watchdog == null)
+		{
+			into.result = compiled.evaluate(parameterValues, offset, into.stack);
+			into.errorMessage = compiled.getCalculatedMessage();
+			return;
+		}
+		
+		boolean overBudget;
+		into.worker.startEvaluation();
+		
+		try
+		{
+			into.result = compiled.evaluate(parameterValues, offset, into.stack);
+		}
+		finally
+		{
+			overBudget = into.worker.finishEvaluation();
+		}
+		
+		if(overBudget)
+		{
+			into.timedOut = true;
+			into.result = Double.NaN;
+			into.errorMessage = timedOutMessage;
+			return;
+		}
+		
+		into.errorMessage = compiled.getCalculatedMessage();
+	}
+	
+	/**
+	 * This method calculates a parsed expression within the time budget. A calculation that may
+	 * have been cancelled because of another expression over budget is calculated again with a
+	 * newly parsed Expression, as mXparser fails the next calculation of a cancelled Expression.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @param expression The parsed expression to calculate
+	 * @param into The Evaluation object to receive the result
+	 * @return The Expression that was calculated, or null if the calculation exceeded the budget
+	 */
+	private Expression calculate(String rawRequest, Expression expression, Evaluation into)
+	{
+		while(true)
+		{
+			CalculationOutcome outcome = calculateWithinBudget(expression, into);
+			
+			if(outcome == CalculationOutcome.CALCULATED)
+			{
+				return expression;
+			}
+			
+			if(outcome == CalculationOutcome.TIMED_OUT)
+			{
+				return null;
+			}
+			
+			expression = new Expression(rawRequest);
+		}
+	}
+	
+	/**
+	 * This method calculates a parsed expression once under the watchdog of the calling worker.
+	 * 
+	 * @param expression The parsed expression to calculate
+	 * @param into The Evaluation object to receive the result
+	 * @return CALCULATED, TIMED_OUT if the calculation exceeded the budget, or CANCELLED if it
+	 * may have been cancelled because of another expression and must be repeated with a new Expression
+	 */
+	private CalculationOutcome calculateWithinBudget(Expression expression, Evaluation into)
+	{
+		if(watchdog == null)
+		{
+			into.result = expression.calculate();
+			return CalculationOutcome.CALCULATED;
+		}
+		
+		long cancellationEpoch = watchdog.getCancellationEpoch();
+		boolean overBudget;
+		into.worker.startEvaluation();
+		
+		// An evaluation that throws is finished too, so that the watchdog never sees it running
+		try
+		{
+			into.result = expression.calculate();
+		}
+		finally
+		{
+			overBudget = into.worker.finishEvaluation();
+		}
+		
+		if(overBudget)
+		{
+			return CalculationOutcome.TIMED_OUT;
+		}
+		
+		return watchdog.awaitCancellationLifted(cancellationEpoch) ? CalculationOutcome.CANCELLED : CalculationOutcome.CALCULATED;
+	}
+	
+	/**
+	 * This method starts a worker thread in place of one stuck in an expression that ignored
+	 * its cancellation. It is called by the watchdog.
+	 * 
+	 * @param lane The lane of the stuck worker, which the new worker serves
+	 */
+	private void replaceWorker(final Lane lane)
+	{
+		lane.workerCount.incrementAndGet();
+		
+		Thread replacement = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				processLane(lane);
+			}
+		}, "processing-replacement-" + replacementCount.incrementAndGet());
+		replacement.start();
+	}
+	
+	/**
+	 * This method assigns a starting worker thread to a lane: the light lane first, then the
+	 * heavy lane up to its worker budget, then the light lane again.
+	 * 
+	 * @return The lane the worker serves
+	 */
+	private synchronized Lane joinLane()
+	{
+		Lane lane = lightLane.workerCount.get() > 0 && heavyLane.workerCount.get() < heavyWorkerBudget ? heavyLane : lightLane;
+		lane.workerCount.incrementAndGet();
+		return lane;
+	}
+	
+	/**
+	 * This method is the entry point for the worker threads. Each worker joins a lane and 
+	 * processes its requests until the server is terminated.
+	 */
+	public void run()
+	{
+		processLane(joinLane());
+	}
+	
+	/**
+	 * This method processes the requests of a lane in an infinite loop. It waits when there 
+	 * are no requests in the queue of the lane. It resumes when requests are added to it.
+	 * 
+	 * @param lane The lane the calling worker serves, which already counts the worker
+	 */
+	private void processLane(final Lane lane)
+	{
+		// Each worker reuses one element to receive requests from the queue, and one evaluation
+		QueueElement toProcess = new QueueElement();
+		Evaluation evaluation = new Evaluation();
+		
+		if(watchdog != null)
+		{
+			evaluation.worker = watchdog.register(new Runnable()
+			{
+				public void run()
 				{
+					replaceWorker(lane);
 				}
+			});
+		}
+		
+		// Perform these actions until server is terminated, or until this worker is replaced
+		while(evaluation.worker == null || !evaluation.worker.isAbandoned())
+		{
+			lane.queue.take(toProcess);
+			lane.queueDelayNanos = System.nanoTime() - toProcess.getEnqueueTime();
+			metrics.recordQueueWait(lane.queueDelayNanos);
+			
+			try
+			{
+				processRequest(toProcess, lane, evaluation);
+			}
+			catch(RuntimeException ex)
+			{
+				Logger.getInstance().serverLog(LogLevel.ERROR, "Processing of a request failed: " + ex);
 			}
+			
+			toProcess.clear();
 		}
+		
+		lane.workerCount.decrementAndGet();
+		watchdog.unregister(evaluation.worker);
 	}
 	
 	/**
@@ -115,8 +919,106 @@ public class ProcessingQueue implements Runnable
 	 */
 	private ProcessingQueue()
 	{
-		// Add a dummy QueueElement to the tail, which will be removed via automatic garbage collection as 
-		// soon as a request is added to the queue.
-		queueTail = new QueueElement(new CalculationRequest(""), null);
+		lightLane = new Lane(createQueue());
+		heavyLane = new Lane(createQueue());
+		
+		int defaultHeavyWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+		heavyWorkerBudget = Math.max(0, Integer.getInteger("mathserver.heavyWorkers", defaultHeavyWorkers));
+		long heavyExpressionMillis = Long.getLong("mathserver.heavyExpressionMillis", DEFAULT_HEAVY_EXPRESSION_MILLIS);
+		costEstimator = new CostEstimator(heavyExpressionMillis, Integer.getInteger("mathserver.costHistorySize", DEFAULT_COST_HISTORY_SIZE));
+		
+		maximumQueueAgeNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("mathserver.maximumQueueAgeMillis", 0));
+		refusedCount = new LongAdder();
+		metrics = ServerMetrics.getInstance();
+		
+		long budgetMillis = Long.getLong("mathserver.evaluationBudgetMillis", DEFAULT_EVALUATION_BUDGET_MILLIS);
+		long abandonMillis = Long.getLong("mathserver.abandonWorkerMillis", DEFAULT_ABANDON_WORKER_MILLIS);
+		replacementCount = new AtomicInteger();
+		timedOutMessage = "Calculation exceeded the time budget of " + budgetMillis + " ms";
+		
+		if(budgetMillis > 0)
+		{
+			watchdog = new EvaluationWatchdog(budgetMillis, Math.max(0, abandonMillis));
+			
+			Thread watchdogThread = new Thread(watchdog, "evaluation-watchdog");
+			watchdogThread.setDaemon(true);
+			watchdogThread.start();
+		}
+		else
+		{
+			watchdog = null;
+		}
+		
+		long expressionCacheBytes = Long.getLong("mathserver.expressionCacheBytes", DEFAULT_EXPRESSION_CACHE_BYTES);
+		expressionCache = new ExpressionCache(expressionCacheBytes);
+		
+		long resultCacheBytes = Long.getLong("mathserver.resultCacheBytes", DEFAULT_RESULT_CACHE_BYTES);
+		resultCache = new ResultCache(resultCacheBytes);
+		coalescer = new RequestCoalescer(!Boolean.getBoolean("mathserver.disableCoalescing"));
+	}
+	
+	/**
+	 * This method creates the queue of one lane with the scheduling policy and capacity read
+	 * from the system properties.
+	 * 
+	 * @return The new RequestQueue
+	 */
+	private static RequestQueue createQueue()
+	{
+		int capacity = Integer.getInteger("mathserver.queueCapacity", DEFAULT_QUEUE_CAPACITY);
+		SchedulingPolicy schedulingPolicy = SchedulingPolicy.parse(System.getProperty("mathserver.scheduling"), DEFAULT_SCHEDULING_POLICY);
+		
+		if(schedulingPolicy == SchedulingPolicy.FAIR)
+		{
+			Map<String, Integer> userWeights = FairRequestQueue.parseWeights(System.getProperty("mathserver.userWeights"));
+			return new FairRequestQueue(capacity, userWeights, Integer.getInteger("mathserver.defaultUserWeight", 1));
+		}
+		
+		WaitStrategy waitStrategy = WaitStrategy.parse(System.getProperty("mathserver.waitStrategy"), DEFAULT_WAIT_STRATEGY);
+		return new RequestRingBuffer(Math.max(1, capacity), waitStrategy);
+	}
+	
+	/**
+	 * One cost lane: a queue with its own worker threads and admission state.
+	 */
+	private static class Lane
+	{
+		private final RequestQueue queue;				// The queue holding the requests of this lane
+		private final FairRequestQueue fairQueue;		// The same queue if requests are scheduled per user, otherwise null
+		private final int maximumQueueDepth;			// The number of queued requests above which requests are refused
+		private final AtomicInteger workerCount;		// The number of worker threads serving this lane
+		private volatile long queueDelayNanos;			// The time the most recently taken request spent in the queue
+		
+		Lane(RequestQueue queue_)
+		{
+			queue = queue_;
+			fairQueue = queue_ instanceof FairRequestQueue ? (FairRequestQueue) queue_ : null;
+			
+			int requestedDepth = Integer.getInteger("mathserver.maximumQueueDepth", queue.getCapacity());
+			maximumQueueDepth = Math.max(1, Math.min(requestedDepth, queue.getCapacity()));
+			workerCount = new AtomicInteger();
+		}
+	}
+	
+	/**
+	 * The outcome of one calculation under the watchdog.
+	 */
+	private enum CalculationOutcome
+	{
+		CALCULATED,
+		TIMED_OUT,
+		CANCELLED
+	}
+	
+	/**
+	 * The result of one calculated expression, reused by a worker for every expression.
+	 */
+	private static class Evaluation
+	{
+		private double result;			// The result of the calculation
+		private String errorMessage;	// The error message of the calculation
+		private boolean timedOut;		// Reflects whether or not the calculation exceeded its time budget
+		private EvaluationWatchdog.Worker worker;	// The watchdog registration of the worker, or null without a budget
+		private double[] stack = new double[16];	// The stack of compiled expressions, grown to the deepest one
 	}
 }
@@ -4,8 +4,11 @@ import com.github.project.core.CalculationRequest;
 
 /**
  * This class implements an element of the generic queue structure. Here, 
- * the CalculationRequest object and the ConnectionHandler that received it are held 
- * in each element of the queue.
+ * the CalculationRequest object and the ClientConnection that received it are held 
+ * in each element of the queue. An element holds a ChunkedWork instead when a
+ * whole batch of expressions, or a parameter sweep, is queued as one unit.
+ * Elements are preallocated slots of the RequestRingBuffer and are overwritten
+ * in place as requests pass through the queue.
  * 
  * @author Nathan Beck
  * @version 1.0
@@ -14,8 +17,10 @@ import com.github.project.core.CalculationRequest;
 public class QueueElement
 {
 	private CalculationRequest request;				// The attached CalculationRequest
-	private ConnectionHandler requestingHandler;	// The attached ConnectionHandler to use in response messages
-	private QueueElement next;						// The next element in the queue
+	private ChunkedWork work;						// The attached ChunkedWork, if a batch or sweep was queued instead
+	private ClientConnection requestingHandler;	// The attached ClientConnection to use in response messages
+	private long sequenceNumber;					// The per-connection sequence number of the attached CalculationRequest
+	private long enqueueTime;						// The System.nanoTime at which the attached request was queued
 	
 	/**
 	 * This method returns the CalculationRequest object encapsulated in this QueueElement object
@@ -28,46 +33,101 @@ public class QueueElement
 	}
 	
 	/**
-	 * This method returns the ConnectionHandler object to which the calculation response should be 
+	 * This method returns the ChunkedWork object encapsulated in this QueueElement object
+	 * 
+	 * @return The attached CalculationBatch or ParameterSweep, or null if a single CalculationRequest is attached
+	 */
+	public ChunkedWork getWork()
+	{
+		return work;
+	}
+	
+	/**
+	 * This method returns the ClientConnection object to which the calculation response should be 
 	 * written
 	 * 
-	 * @return The ConnectionHandler that received the encapsulated CalculationRequest object
+	 * @return The ClientConnection that received the encapsulated CalculationRequest object
 	 */
-	public ConnectionHandler getRequestingHandler()
+	public ClientConnection getRequestingHandler()
 	{
 		return requestingHandler;
 	}
 	
 	/**
-	 * This method returns the next QueueElement object in the queue
+	 * This method returns the sequence number assigned to the encapsulated CalculationRequest 
+	 * by the ClientConnection that received it
+	 * 
+	 * @return The per-connection sequence number of the encapsulated CalculationRequest
+	 */
+	public long getSequenceNumber()
+	{
+		return sequenceNumber;
+	}
+	
+	/**
+	 * This method returns the time at which the encapsulated request or batch was queued
 	 * 
-	 * @return The next QueueElement object in the queue
+	 * @return The System.nanoTime value of the moment the request was queued
 	 */
-	public QueueElement getNextQueueElement()
+	public long getEnqueueTime()
 	{
-		return next;
+		return enqueueTime;
 	}
 	
 	/**
-	 * This method sets the next QueueElement object to be presented in the queue
+	 * This method sets the time at which the encapsulated request or batch was queued
 	 * 
-	 * @param next_ The next QueueElement object to be presented in the queue
+	 * @param enqueueTime_ The System.nanoTime value of the moment the request was queued
 	 */
-	public void setNext(QueueElement next_)
+	public void setEnqueueTime(long enqueueTime_)
 	{
-		next = next_;
+		enqueueTime = enqueueTime_;
 	}
 	
 	/**
-	 * Creates a QueueElement object that contains the CalculationRequest object to 
-	 * be processed and the ConnectionHandler object that received it.
+	 * This method overwrites the contents of this QueueElement object
 	 * 
 	 * @param request_ The CalculationRequest object to encapsulate
-	 * @param requestingHandler_ The ConnectionHandler object to encapsulate
+	 * @param requestingHandler_ The ClientConnection object to encapsulate
+	 * @param sequenceNumber_ The per-connection sequence number of the CalculationRequest object
+	 */
+	public void set(CalculationRequest request_, ClientConnection requestingHandler_, long sequenceNumber_)
+	{
+		set(request_, null, requestingHandler_, sequenceNumber_);
+	}
+	
+	/**
+	 * This method overwrites the contents of this QueueElement object with either a request
+	 * or a unit of chunked work
+	 * 
+	 * @param request_ The CalculationRequest object to encapsulate, or null
+	 * @param work_ The ChunkedWork object to encapsulate, or null
+	 * @param requestingHandler_ The ClientConnection object to encapsulate
+	 * @param sequenceNumber_ The per-connection sequence number of the request or work
 	 */
-	public QueueElement(CalculationRequest request_, ConnectionHandler requestingHandler_)
+	public void set(CalculationRequest request_, ChunkedWork work_, ClientConnection requestingHandler_, long sequenceNumber_)
 	{
 		request = request_;
+		work = work_;
 		requestingHandler = requestingHandler_;
+		sequenceNumber = sequenceNumber_;
+	}
+	
+	/**
+	 * This method releases the references held by this QueueElement object so that 
+	 * an emptied slot does not keep a request or a closed connection reachable
+	 */
+	public void clear()
+	{
+		request = null;
+		work = null;
+		requestingHandler = null;
+	}
+	
+	/**
+	 * Creates an empty QueueElement object to be filled with set.
+	 */
+	public QueueElement()
+	{
 	}
 }
@@ -0,0 +1,225 @@
+package com.github.project.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.project.core.CalculationRequest;
+
+/**
+ * This class coalesces identical CalculationRequests that are in flight at the same time, so
+ * that they share one evaluation. The first request for a text that is queued opens a Flight.
+ * Until that request has been evaluated, every request for the same text boards the Flight
+ * instead of being queued, and is answered with the result of the first. A boarded request
+ * takes no room in the queue and is not subject to admission; if the first request is refused
+ * after all, every request aboard is refused with it.
+ * 
+ * Only texts that name no random function or variable are coalesced, so every request receives
+ * the result its own evaluation would have given. A Flight lasts only while its request is
+ * queued and evaluated, and holds no result afterwards, so coalescing works the same whether
+ * or not the ResultCache is enabled.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class RequestCoalescer
+{
+	private final boolean enabled;								// Reflects whether or not requests are coalesced
+	private final ConcurrentHashMap<String, Flight> flights;	// The open flights by request text
+	private final LongAdder flightCount;						// The number of flights opened
+	private final LongAdder coalescedCount;						// The number of requests that boarded a flight
+	
+	/**
+	 * This method boards a request onto the open flight of the same text, if there is one.
+	 * Multiple threads may call this method at the same time.
+	 * 
+	 * @param request The received CalculationRequest
+	 * @param requestingHandler The ClientConnection that received the request
+	 * @param sequenceNumber The per-connection sequence number of the request
+	 * @return Whether or not the request boarded a flight, and will be answered by it
+	 */
+	public boolean board(CalculationRequest request, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		if(!enabled)
+		{
+			return false;
+		}
+		
+		Flight flight = flights.get(request.getRawRequest());
+		
+		if(flight == null || !flight.board(new Passenger(requestingHandler, sequenceNumber, request.getRequestID())))
+		{
+			return false;
+		}
+		
+		coalescedCount.increment();
+		return true;
+	}
+	
+	/**
+	 * This method opens a flight led by a request about to be queued, unless its text may be
+	 * non-deterministic or a flight of the same text is already open.
+	 * 
+	 * @param request The CalculationRequest about to be queued
+	 */
+	public void open(CalculationRequest request)
+	{
+		if(enabled && ResultCache.isDeterministic(request.getRawRequest()))
+		{
+			if(flights.putIfAbsent(request.getRawRequest(), new Flight(request)) == null)
+			{
+				flightCount.increment();
+			}
+		}
+	}
+	
+	/**
+	 * This method closes the flight led by a request once it has been evaluated or refused, so
+	 * that no more requests board it. Requests arriving later open a new flight.
+	 * 
+	 * @param request The CalculationRequest that may lead a flight
+	 * @return The requests aboard the flight, or null if the request led no flight or none boarded it
+	 */
+	public List<Passenger> land(CalculationRequest request)
+	{
+		if(!enabled)
+		{
+			return null;
+		}
+		
+		Flight flight = flights.get(request.getRawRequest());
+		
+		if(flight == null || flight.leader != request)
+		{
+			return null;
+		}
+		
+		flights.remove(request.getRawRequest(), flight);
+		return flight.land();
+	}
+	
+	/**
+	 * This method returns the number of requests answered with the evaluation of another request
+	 * 
+	 * @return The number of requests that boarded a flight
+	 */
+	public long getCoalescedCount()
+	{
+		return coalescedCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of flights opened, each one evaluation that could be shared
+	 * 
+	 * @return The number of flights opened
+	 */
+	public long getFlightCount()
+	{
+		return flightCount.sum();
+	}
+	
+	/**
+	 * Creates a RequestCoalescer object.
+	 * 
+	 * @param enabled_ Whether or not requests are coalesced; if not, no request ever boards
+	 */
+	public RequestCoalescer(boolean enabled_)
+	{
+		enabled = enabled_;
+		flights = new ConcurrentHashMap<String, Flight>();
+		flightCount = new LongAdder();
+		coalescedCount = new LongAdder();
+	}
+	
+	/**
+	 * A request aboard a flight, waiting for the result of the request leading it.
+	 */
+	public static class Passenger
+	{
+		private final ClientConnection requestingHandler;	// The ClientConnection that received the request
+		private final long sequenceNumber;					// The per-connection sequence number of the request
+		private final long requestID;						// The request ID of the request
+		
+		/**
+		 * This method returns the connection that received the request
+		 * 
+		 * @return The ClientConnection to answer
+		 */
+		public ClientConnection getRequestingHandler()
+		{
+			return requestingHandler;
+		}
+		
+		/**
+		 * This method returns the sequence number of the request
+		 * 
+		 * @return The per-connection sequence number of the request
+		 */
+		public long getSequenceNumber()
+		{
+			return sequenceNumber;
+		}
+		
+		/**
+		 * This method returns the request ID of the request
+		 * 
+		 * @return The request ID, or CalculationRequest.NO_REQUEST_ID
+		 */
+		public long getRequestID()
+		{
+			return requestID;
+		}
+		
+		Passenger(ClientConnection requestingHandler_, long sequenceNumber_, long requestID_)
+		{
+			requestingHandler = requestingHandler_;
+			sequenceNumber = sequenceNumber_;
+			requestID = requestID_;
+		}
+	}
+	
+	/**
+	 * The evaluation of one queued request, shared by the requests that board it.
+	 */
+	private static class Flight
+	{
+		private final CalculationRequest leader;	// The queued request whose evaluation is shared
+		private ArrayList<Passenger> passengers;	// The requests aboard, or null if none
+		private boolean landed;						// Reflects whether or not the flight is closed
+		
+		/**
+		 * This method adds a request to the flight unless it is closed.
+		 */
+		private synchronized boolean board(Passenger passenger)
+		{
+			if(landed)
+			{
+				return false;
+			}
+			
+			if(passengers == null)
+			{
+				passengers = new ArrayList<Passenger>();
+			}
+			
+			passengers.add(passenger);
+			return true;
+		}
+		
+		/**
+		 * This method closes the flight and returns the requests aboard.
+		 */
+		private synchronized List<Passenger> land()
+		{
+			landed = true;
+			return passengers;
+		}
+		
+		Flight(CalculationRequest leader_)
+		{
+			leader = leader_;
+		}
+	}
+}
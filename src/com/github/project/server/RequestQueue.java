@@ -0,0 +1,64 @@
+package com.github.project.server;
+
+import com.github.project.core.CalculationRequest;
+
+/**
+ * This interface contains the operations of the queue between the connections (producers)
+ * and the processing threads (consumers) of the ProcessingQueue. Producers never wait: a 
+ * request that does not fit is refused. Consumers wait until a request is available.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public interface RequestQueue
+{
+	/**
+	 * This method returns the number of requests this queue can hold
+	 * 
+	 * @return The capacity of this queue
+	 */
+	int getCapacity();
+	
+	/**
+	 * This method returns an estimate of the number of requests waiting in this queue
+	 * 
+	 * @return The approximate number of queued requests
+	 */
+	int size();
+	
+	/**
+	 * This method attempts to add a request to the queue without waiting.
+	 * 
+	 * @param request The CalculationRequest object to add
+	 * @param requestingHandler The ClientConnection object that received the request
+	 * @param sequenceNumber The per-connection sequence number of the request
+	 * @return Whether or not the request was added; false if the queue is full
+	 */
+	boolean offer(CalculationRequest request, ClientConnection requestingHandler, long sequenceNumber);
+	
+	/**
+	 * This method attempts to add a batch or sweep to the queue without waiting. The work
+	 * takes a single slot regardless of its size.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the queue is full
+	 */
+	boolean offer(ChunkedWork work);
+	
+	/**
+	 * This method attempts to add a batch or sweep that was partly calculated back to the queue
+	 * without waiting, behind the requests queued meanwhile, so that long work takes turns with them.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the queue is full
+	 */
+	boolean requeue(ChunkedWork work);
+	
+	/**
+	 * This method removes the next request from the queue, waiting while the queue is empty.
+	 * 
+	 * @param into The QueueElement object to receive the removed request
+	 */
+	void take(QueueElement into);
+}
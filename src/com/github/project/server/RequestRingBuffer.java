@@ -0,0 +1,293 @@
+package com.github.project.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.project.core.CalculationRequest;
+
+/**
+ * This class implements a bounded, lock-free ring buffer of request slots shared by the
+ * connection handler threads (producers) and the processing threads (consumers). All
+ * slots are preallocated QueueElement objects that are overwritten in place, so adding
+ * a request does not allocate.
+ * 
+ * Each slot carries a sequence number that tells a producer whether the slot is free for
+ * the current lap of the buffer and tells a consumer whether the slot has been published.
+ * Producers and consumers claim positions with a compare-and-set on their cursor, so no
+ * thread ever holds a lock while another waits on it.
+ * 
+ * A full buffer refuses a request at once, and the ProcessingQueue answers it as busy, so
+ * only consumers wait on the buffer, with the configured WaitStrategy.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class RequestRingBuffer implements RequestQueue
+{
+	private static final int SPIN_TRIES = 100;					// Idle attempts before a YIELD/PARK thread starts yielding
+	private static final int YIELD_TRIES = 200;					// Idle attempts before a PARK thread starts parking
+	private static final long PARK_NANOS = 1000000L;			// Upper bound of a single park, guarding against missed signals
+	
+	private final QueueElement[] slots;			// The preallocated request slots
+	private final AtomicLongArray sequences;	// The sequence number of each slot
+	private final int mask;						// The index mask of the buffer (capacity - 1)
+	
+	private final AtomicLong producerCursor;	// The next position to be claimed by a producer
+	private final AtomicLong consumerCursor;	// The next position to be claimed by a consumer
+	
+	private final WaitStrategy waitStrategy;					// The strategy of waiting threads
+	private final ConcurrentLinkedQueue<Thread> parkedConsumers;	// Consumers parked on an empty buffer
+	
+	/**
+	 * This method returns the number of slots in this buffer
+	 * 
+	 * @return The number of slots in this buffer
+	 */
+	public int getCapacity()
+	{
+		return slots.length;
+	}
+	
+	/**
+	 * This method returns an estimate of the number of requests waiting in this buffer
+	 * 
+	 * @return The approximate number of queued requests
+	 */
+	public int size()
+	{
+		long size = producerCursor.get() - consumerCursor.get();
+		return (int) Math.max(0, Math.min(size, slots.length));
+	}
+	
+	/**
+	 * This method attempts to add a request to the buffer without waiting.
+	 * 
+	 * @param request The CalculationRequest object to add
+	 * @param requestingHandler The ClientConnection object that received the request
+	 * @param sequenceNumber The per-connection sequence number of the request
+	 * @return Whether or not the request was added; false if the buffer is full
+	 */
+	public boolean offer(CalculationRequest request, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		return offer(request, null, requestingHandler, sequenceNumber);
+	}
+	
+	/**
+	 * This method attempts to add a batch or sweep to the buffer without waiting. The work
+	 * takes a single slot regardless of its size.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the buffer is full
+	 */
+	public boolean offer(ChunkedWork work)
+	{
+		return offer(null, work, work.getRequestingHandler(), work.getSequenceNumber());
+	}
+	
+	/**
+	 * This method attempts to add a batch or sweep that was partly calculated back to the
+	 * buffer without waiting. Every slot is served in order, so it simply takes the next one.
+	 * 
+	 * @param work The ChunkedWork object to add
+	 * @return Whether or not the work was added; false if the buffer is full
+	 */
+	public boolean requeue(ChunkedWork work)
+	{
+		return offer(work);
+	}
+	
+	/**
+	 * This method attempts to fill the next free slot with a request or chunked work without waiting.
+	 */
+	private boolean offer(CalculationRequest request, ChunkedWork work, ClientConnection requestingHandler, long sequenceNumber)
+	{
+		while(true)
+		{
+			long position = producerCursor.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			
+			if(difference == 0)
+			{
+				// The slot is free for this lap; claim it and publish the request
+				if(producerCursor.compareAndSet(position, position + 1))
+				{
+					// The publishing write is volatile so that it is visible before parked consumers are checked
+					slots[index].set(request, work, requestingHandler, sequenceNumber);
+					slots[index].setEnqueueTime(System.nanoTime());
+					sequences.set(index, position + 1);
+					signalConsumer();
+					return true;
+				}
+			}
+			else if(difference < 0)
+			{
+				// The slot still holds a request from the previous lap; the buffer is full
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * This method attempts to remove a request from the buffer without waiting. The contents
+	 * of the removed slot are copied into the provided element, and the slot is released.
+	 * 
+	 * @param into The QueueElement object to receive the removed request
+	 * @return Whether or not a request was removed; false if the buffer is empty
+	 */
+	public boolean poll(QueueElement into)
+	{
+		while(true)
+		{
+			long position = consumerCursor.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			
+			if(difference == 0)
+			{
+				// The slot has been published for this lap; claim it and release it for the next lap
+				if(consumerCursor.compareAndSet(position, position + 1))
+				{
+					QueueElement slot = slots[index];
+					into.set(slot.getItem(), slot.getWork(), slot.getRequestingHandler(), slot.getSequenceNumber());
+					into.setEnqueueTime(slot.getEnqueueTime());
+					slot.clear();
+					sequences.lazySet(index, position + slots.length);
+					return true;
+				}
+			}
+			else if(difference < 0)
+			{
+				// The slot has not been published yet; the buffer is empty
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * This method removes a request from the buffer, waiting with the configured strategy
+	 * while the buffer is empty.
+	 * 
+	 * @param into The QueueElement object to receive the removed request
+	 */
+	public void take(QueueElement into)
+	{
+		int idleCount = 0;
+		
+		while(!poll(into))
+		{
+			if(waitStrategy == WaitStrategy.PARK && idleCount >= YIELD_TRIES)
+			{
+				parkConsumer();
+			}
+			else
+			{
+				idle(idleCount++);
+			}
+		}
+	}
+	
+	/**
+	 * This method returns whether or not a request is ready to be removed from the buffer
+	 * 
+	 * @return Whether or not the slot at the consumer cursor has been published
+	 */
+	private boolean hasPublishedRequest()
+	{
+		long position = consumerCursor.get();
+		return sequences.get((int) position & mask) == position + 1;
+	}
+	
+	/**
+	 * This method waits for a short while according to the configured strategy.
+	 * 
+	 * @param idleCount The number of consecutive unsuccessful attempts made by the caller
+	 */
+	private void idle(int idleCount)
+	{
+		if(waitStrategy == WaitStrategy.SPIN || idleCount < SPIN_TRIES)
+		{
+			return;
+		}
+		
+		if(waitStrategy == WaitStrategy.YIELD || idleCount < YIELD_TRIES)
+		{
+			Thread.yield();
+			return;
+		}
+		
+		LockSupport.parkNanos(this, PARK_NANOS);
+	}
+	
+	/**
+	 * This method parks the calling consumer until a producer publishes a request. The
+	 * consumer registers itself before re-checking the buffer so that a request published
+	 * in between is never missed.
+	 */
+	private void parkConsumer()
+	{
+		Thread currentThread = Thread.currentThread();
+		parkedConsumers.add(currentThread);
+		
+		if(!hasPublishedRequest())
+		{
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		
+		parkedConsumers.remove(currentThread);
+	}
+	
+	/**
+	 * This method wakes one parked consumer, if any, after a request is published.
+	 */
+	private void signalConsumer()
+	{
+		if(waitStrategy != WaitStrategy.PARK)
+		{
+			return;
+		}
+		
+		Thread parkedConsumer = parkedConsumers.poll();
+		
+		if(parkedConsumer != null)
+		{
+			LockSupport.unpark(parkedConsumer);
+		}
+	}
+	
+	/**
+	 * Creates a RequestRingBuffer object with the provided capacity and wait strategy.
+	 * 
+	 * @param requestedCapacity The minimum number of slots; rounded up to a power of two
+	 * @param waitStrategy_ The strategy of processing threads waiting on an empty buffer
+	 */
+	public RequestRingBuffer(int requestedCapacity, WaitStrategy waitStrategy_)
+	{
+		// Round the capacity up to a power of two so positions map to slots with a mask
+		int capacity = 1;
+		
+		while(capacity < requestedCapacity)
+		{
+			capacity <<= 1;
+		}
+		
+		slots = new QueueElement[capacity];
+		sequences = new AtomicLongArray(capacity);
+		mask = capacity - 1;
+		
+		// Every slot starts free for the first lap
+		for(int i = 0; i < capacity; i++)
+		{
+			slots[i] = new QueueElement();
+			sequences.set(i, i);
+		}
+		
+		producerCursor = new AtomicLong();
+		consumerCursor = new AtomicLong();
+		waitStrategy = waitStrategy_;
+		parkedConsumers = new ConcurrentLinkedQueue<Thread>();
+	}
+}
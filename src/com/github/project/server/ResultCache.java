@@ -0,0 +1,398 @@
+package com.github.project.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mariuszgromada.math.mxparser.Expression;
+import org.mariuszgromada.math.mxparser.mXparser;
+import org.mariuszgromada.math.mxparser.parsertokens.Function2Arg;
+import org.mariuszgromada.math.mxparser.parsertokens.FunctionVariadic;
+import org.mariuszgromada.math.mxparser.parsertokens.KeyWord;
+import org.mariuszgromada.math.mxparser.parsertokens.RandomVariable;
+import org.mariuszgromada.math.mxparser.parsertokens.Token;
+
+/**
+ * This class implements a bounded LRU cache of calculation results keyed by the raw request
+ * text, so that repeated deterministic expressions are answered without being calculated.
+ * 
+ * The first calculation of each distinct text inspects the tokens of the Expression. Texts
+ * that use mXparser random functions (rUni, rUnid, rNor, rList) or random variables ([Uni],
+ * [Int], ...) are remembered as non-deterministic and are always calculated. The cache is
+ * split into independently locked segments, each bounded by the estimated memory size of
+ * its entries.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ResultCache
+{
+	private static final int SEGMENT_COUNT = 16;		// The number of independently locked segments
+	private static final long BASE_ENTRY_BYTES = 96;	// Estimated size of an entry regardless of its strings
+	private static final String[] RANDOM_KEYWORDS = findRandomKeywords();	// The names of the random functions and variables
+	
+	private final Segment[] segments;	// The segments of this cache, selected by hash of the request text
+	private final boolean enabled;		// Reflects whether or not this cache holds any results
+	
+	private final LongAdder hitCount;				// The number of lookups answered from the cache
+	private final LongAdder missCount;				// The number of lookups of deterministic or unseen texts that missed
+	private final LongAdder nonDeterministicCount;	// The number of lookups of texts known to be non-deterministic
+	private final LongAdder evictionCount;			// The number of entries evicted to stay within the bound
+	
+	/**
+	 * This method returns the cached entry for the provided request text. The entry is either
+	 * a cached result, or a marker showing that the text must always be calculated.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The cached entry, or null if the text has not been seen or was evicted
+	 */
+	public CachedResult get(String rawRequest)
+	{
+		if(!enabled)
+		{
+			return null;
+		}
+		
+		CachedResult cachedResult = segmentFor(rawRequest).get(rawRequest);
+		
+		if(cachedResult == null)
+		{
+			missCount.increment();
+		}
+		else if(cachedResult.isDeterministic())
+		{
+			hitCount.increment();
+		}
+		else
+		{
+			nonDeterministicCount.increment();
+		}
+		
+		return cachedResult;
+	}
+	
+	/**
+	 * This method records the result of a calculated Expression. If the Expression is
+	 * deterministic its result is cached; otherwise a marker is cached so that the tokens
+	 * of the text are not inspected again.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @param calculatedExpression The Expression after calculation
+	 * @param result The result of the calculation
+	 * @param errorMessage The error message of the calculation
+	 */
+	public void put(String rawRequest, Expression calculatedExpression, double result, String errorMessage)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		
+		CachedResult cachedResult;
+		
+		if(isDeterministic(calculatedExpression))
+		{
+			cachedResult = new CachedResult(result, errorMessage, true);
+		}
+		else
+		{
+			cachedResult = new CachedResult(Double.NaN, null, false);
+		}
+		
+		evictionCount.add(segmentFor(rawRequest).put(rawRequest, cachedResult));
+	}
+	
+	/**
+	 * This method returns the number of lookups answered from the cache
+	 * 
+	 * @return The number of cache hits
+	 */
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of lookups that had to be calculated, excluding
+	 * lookups of texts known to be non-deterministic
+	 * 
+	 * @return The number of cache misses
+	 */
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of lookups of texts known to be non-deterministic
+	 * 
+	 * @return The number of non-deterministic lookups
+	 */
+	public long getNonDeterministicCount()
+	{
+		return nonDeterministicCount.sum();
+	}
+	
+	/**
+	 * This method returns the number of entries evicted to stay within the memory bound
+	 * 
+	 * @return The number of evictions
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+	
+	/**
+	 * This method returns the fraction of lookups answered from the cache
+	 * 
+	 * @return The hit rate of the cache, between 0 and 1
+	 */
+	public double getHitRate()
+	{
+		long hits = getHitCount();
+		long lookups = hits + getMissCount() + getNonDeterministicCount();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+	
+	/**
+	 * This method returns whether or not a calculated Expression always produces the same
+	 * result, by looking for random functions and random variables among its tokens.
+	 * 
+	 * @param calculatedExpression The Expression after calculation
+	 * @return Whether or not the result of the Expression may be cached
+	 */
+	public static boolean isDeterministic(Expression calculatedExpression)
+	{
+		List<Token> tokens = calculatedExpression.getCopyOfInitialTokens();
+		
+		for(Token token : tokens)
+		{
+			if(isRandom(token.tokenTypeId, token.tokenId))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * This method returns whether or not an expression text is certain to produce the same
+	 * result every time, without parsing it. A text holding the name of a random function or
+	 * random variable anywhere, even within a longer name, is treated as non-deterministic.
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return Whether or not the text names no random function or variable
+	 */
+	public static boolean isDeterministic(String rawRequest)
+	{
+		for(String keyword : RANDOM_KEYWORDS)
+		{
+			if(rawRequest.contains(keyword))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * This method returns whether or not an mXparser token or keyword is a random function or
+	 * a random variable
+	 */
+	private static boolean isRandom(int typeId, int id)
+	{
+		if(typeId == RandomVariable.TYPE_ID)
+		{
+			return true;
+		}
+		
+		if(typeId == Function2Arg.TYPE_ID)
+		{
+			return id == Function2Arg.RND_UNIFORM_CONT_ID
+					|| id == Function2Arg.RND_UNIFORM_DISCR_ID
+					|| id == Function2Arg.RND_NORMAL_ID;
+		}
+		
+		return typeId == FunctionVariadic.TYPE_ID && id == FunctionVariadic.RND_LIST_ID;
+	}
+	
+	/**
+	 * This method lists the names of the random functions and random variables known to mXparser
+	 */
+	private static String[] findRandomKeywords()
+	{
+		ArrayList<String> keywords = new ArrayList<String>();
+		
+		for(KeyWord keyword : mXparser.getKeyWords())
+		{
+			if(isRandom(keyword.wordTypeId, keyword.wordId))
+			{
+				keywords.add(keyword.wordString);
+			}
+		}
+		
+		return keywords.toArray(new String[keywords.size()]);
+	}
+	
+	/**
+	 * This method returns the estimated memory size of an entry
+	 * 
+	 * @param rawRequest The raw request text of the entry
+	 * @param cachedResult The cached result of the entry
+	 * @return The estimated size of the entry in bytes
+	 */
+	private static long estimateSize(String rawRequest, CachedResult cachedResult)
+	{
+		long size = BASE_ENTRY_BYTES + 2L * rawRequest.length();
+		
+		if(cachedResult.getErrorMessage() != null)
+		{
+			size += 2L * cachedResult.getErrorMessage().length();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * This method returns the segment responsible for the provided request text
+	 * 
+	 * @param rawRequest The raw request text of the expression
+	 * @return The segment holding results of the provided text
+	 */
+	private Segment segmentFor(String rawRequest)
+	{
+		int hash = rawRequest.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENT_COUNT - 1)];
+	}
+	
+	/**
+	 * Creates a ResultCache object bounded by the provided estimated memory size.
+	 * 
+	 * @param maximumBytes The estimated memory size the cache may hold; 0 disables caching
+	 */
+	public ResultCache(long maximumBytes)
+	{
+		enabled = maximumBytes > 0;
+		segments = new Segment[SEGMENT_COUNT];
+		
+		for(int i = 0; i < SEGMENT_COUNT; i++)
+		{
+			segments[i] = new Segment(maximumBytes / SEGMENT_COUNT);
+		}
+		
+		hitCount = new LongAdder();
+		missCount = new LongAdder();
+		nonDeterministicCount = new LongAdder();
+		evictionCount = new LongAdder();
+	}
+	
+	/**
+	 * This class holds a cached calculation result, or marks a text as non-deterministic.
+	 * 
+	 * @author Nathan Beck
+	 */
+	public static class CachedResult
+	{
+		private final double result;			// The cached result of the calculation
+		private final String errorMessage;		// The cached error message of the calculation
+		private final boolean deterministic;	// Reflects whether or not the result may be reused
+		
+		/**
+		 * This method returns the cached result of the calculation
+		 * 
+		 * @return The cached result
+		 */
+		public double getResult()
+		{
+			return result;
+		}
+		
+		/**
+		 * This method returns the cached error message of the calculation
+		 * 
+		 * @return The cached error message
+		 */
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+		
+		/**
+		 * This method returns whether or not the cached result may be reused
+		 * 
+		 * @return False if the text must always be calculated
+		 */
+		public boolean isDeterministic()
+		{
+			return deterministic;
+		}
+		
+		CachedResult(double result_, String errorMessage_, boolean deterministic_)
+		{
+			result = result_;
+			errorMessage = errorMessage_;
+			deterministic = deterministic_;
+		}
+	}
+	
+	/**
+	 * A segment of the cache. Entries are kept in access order, so the first entry is
+	 * always the least recently used.
+	 */
+	private static class Segment
+	{
+		private final LinkedHashMap<String, CachedResult> entries;	// The cached results of this segment
+		private final long maximumBytes;							// The estimated memory size this segment may hold
+		private long currentBytes;									// The estimated memory size currently held
+		
+		synchronized CachedResult get(String rawRequest)
+		{
+			return entries.get(rawRequest);
+		}
+		
+		/**
+		 * Caches the result for the provided text, then evicts least recently used entries
+		 * until the segment is within its bound.
+		 * 
+		 * @return The number of evicted entries
+		 */
+		synchronized int put(String rawRequest, CachedResult cachedResult)
+		{
+			CachedResult previousResult = entries.put(rawRequest, cachedResult);
+			
+			if(previousResult != null)
+			{
+				currentBytes -= estimateSize(rawRequest, previousResult);
+			}
+			
+			currentBytes += estimateSize(rawRequest, cachedResult);
+			
+			int evicted = 0;
+			Iterator<Map.Entry<String, CachedResult>> iterator = entries.entrySet().iterator();
+			
+			while(currentBytes > maximumBytes && iterator.hasNext())
+			{
+				Map.Entry<String, CachedResult> eldest = iterator.next();
+				currentBytes -= estimateSize(eldest.getKey(), eldest.getValue());
+				iterator.remove();
+				evicted++;
+			}
+			
+			return evicted;
+		}
+		
+		Segment(long maximumBytes_)
+		{
+			entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+			maximumBytes = maximumBytes_;
+		}
+	}
+}
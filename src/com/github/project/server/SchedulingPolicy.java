@@ -0,0 +1,48 @@
+package com.github.project.server;
+
+/**
+ * This enum contains the orders in which the ProcessingQueue hands queued requests to the
+ * processing threads.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum SchedulingPolicy
+{
+	/**
+	 * One first-in, first-out queue shared by every connection, held in the lock-free
+	 * RequestRingBuffer. Lowest overhead, but a user who floods the server delays everyone.
+	 */
+	FIFO,
+	
+	/**
+	 * One queue per username, served by deficit round-robin in the FairRequestQueue so that
+	 * each user receives a share of the processing threads proportional to their weight.
+	 */
+	FAIR;
+	
+	/**
+	 * Returns the SchedulingPolicy with the provided name, ignoring case.
+	 * 
+	 * @param name The name of the policy
+	 * @param defaultPolicy The policy to return if the name is null or unknown
+	 * @return The SchedulingPolicy with the provided name, or the default policy
+	 */
+	public static SchedulingPolicy parse(String name, SchedulingPolicy defaultPolicy)
+	{
+		if(name == null)
+		{
+			return defaultPolicy;
+		}
+		
+		try
+		{
+			return valueOf(name.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return defaultPolicy;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package com.github.project.server;
+
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This class finds the boundaries of top-level objects in a Java serialization stream without
+ * deserializing them. Clients write their messages with a single ObjectOutputStream, which has
+ * no message framing, so a non-blocking reader cannot otherwise tell whether the bytes it has
+ * received so far hold a complete message. Once the scanner reports a complete object, exactly
+ * those bytes can be handed to the connection's ObjectInputStream without it ever blocking.
+ * 
+ * The scanner follows the grammar of the Java Object Serialization Specification. It tracks
+ * the class descriptors of the stream by handle, as later objects refer back to them, and
+ * rolls its handle table back when an object turns out to be incomplete.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class SerializationFrameScanner implements ObjectStreamConstants
+{
+	private static final Incomplete INCOMPLETE = new Incomplete(); // Thrown internally when the buffer ends early
+	
+	private ArrayList<ClassLayout> handles;	// The stream handles seen so far; class descriptors carry their layout
+	
+	private byte[] buffer;	// The buffer being scanned
+	private int position;	// The position of the scan within the buffer
+	private int limit;		// The end of the valid bytes of the buffer
+	
+	/**
+	 * This method returns the length of the complete top-level object at the start of the
+	 * provided region, including any stream resets before it.
+	 * 
+	 * @param buffer_ The buffer holding received bytes
+	 * @param offset The start of the unread bytes in the buffer
+	 * @param length The number of unread bytes in the buffer
+	 * @return The number of bytes of the next complete object, or -1 if the object is incomplete
+	 * @throws StreamCorruptedException Thrown if the bytes do not form a supported serialization stream
+	 */
+	public int scan(byte[] buffer_, int offset, int length) throws StreamCorruptedException
+	{
+		buffer = buffer_;
+		position = offset;
+		limit = offset + length;
+		
+		ArrayList<ClassLayout> savedHandles = handles;
+		int savedHandleCount = handles.size();
+		
+		try
+		{
+			// A reset before the object clears every handle, as ObjectInputStream does
+			while(peekByte() == TC_RESET)
+			{
+				position++;
+				handles = new ArrayList<ClassLayout>();
+			}
+			
+			// Block data at the top level is a primitive write, which no message consists of
+			byte typeCode = peekByte();
+			
+			if(typeCode == TC_BLOCKDATA || typeCode == TC_BLOCKDATALONG)
+			{
+				throw new StreamCorruptedException("Unexpected block data");
+			}
+			
+			skipContent();
+			return position - offset;
+		}
+		catch(Incomplete ex)
+		{
+			// Undo the handles assigned by the incomplete object
+			handles = savedHandles;
+			
+			while(handles.size() > savedHandleCount)
+			{
+				handles.remove(handles.size() - 1);
+			}
+			
+			return -1;
+		}
+		finally
+		{
+			buffer = null;
+		}
+	}
+	
+	/**
+	 * Skips one object, string, array, enum, class or class descriptor.
+	 * 
+	 * @return The layout of the skipped class descriptor, or null for other content
+	 */
+	private ClassLayout skipContent() throws StreamCorruptedException
+	{
+		byte typeCode = readByte();
+		
+		switch(typeCode)
+		{
+		case TC_NULL:
+			return null;
+		case TC_REFERENCE:
+			return resolveHandle(readInt());
+		case TC_CLASSDESC:
+			return skipClassDescriptor();
+		case TC_PROXYCLASSDESC:
+			return skipProxyClassDescriptor();
+		case TC_OBJECT:
+			skipObject();
+			return null;
+		case TC_STRING:
+			handles.add(null);
+			skip(readUnsignedShort());
+			return null;
+		case TC_LONGSTRING:
+			handles.add(null);
+			skip(readLong());
+			return null;
+		case TC_ARRAY:
+			skipArray();
+			return null;
+		case TC_CLASS:
+			skipClassDescriptorReference();
+			handles.add(null);
+			return null;
+		case TC_ENUM:
+			skipClassDescriptorReference();
+			handles.add(null);
+			skipContent();
+			return null;
+		default:
+			throw new StreamCorruptedException("Unsupported type code " + typeCode);
+		}
+	}
+	
+	/**
+	 * Skips a class descriptor appearing where a descriptor is expected.
+	 * 
+	 * @return The layout of the descriptor, or null for a null descriptor
+	 */
+	private ClassLayout skipClassDescriptorReference() throws StreamCorruptedException
+	{
+		byte typeCode = peekByte();
+		
+		if(typeCode != TC_CLASSDESC && typeCode != TC_PROXYCLASSDESC && typeCode != TC_NULL && typeCode != TC_REFERENCE)
+		{
+			throw new StreamCorruptedException("Expected class descriptor, found type code " + typeCode);
+		}
+		
+		return skipContent();
+	}
+	
+	/**
+	 * Skips a new class descriptor after its type code and records its layout.
+	 */
+	private ClassLayout skipClassDescriptor() throws StreamCorruptedException
+	{
+		String className = readUTF();
+		skip(8); // serialVersionUID
+		
+		ClassLayout layout = new ClassLayout(className);
+		handles.add(layout);
+		
+		layout.flags = readByte();
+		int fieldCount = readUnsignedShort();
+		layout.fieldTypes = new char[fieldCount];
+		
+		for(int i = 0; i < fieldCount; i++)
+		{
+			char fieldType = (char) readByte();
+			layout.fieldTypes[i] = fieldType;
+			readUTF(); // field name
+			
+			// Object fields name their type with a string
+			if(fieldType == '[' || fieldType == 'L')
+			{
+				skipContent();
+			}
+		}
+		
+		skipAnnotation();
+		layout.superLayout = skipClassDescriptorReference();
+		return layout;
+	}
+	
+	/**
+	 * Skips a new proxy class descriptor after its type code and records its layout.
+	 */
+	private ClassLayout skipProxyClassDescriptor() throws StreamCorruptedException
+	{
+		ClassLayout layout = new ClassLayout(null);
+		handles.add(layout);
+		
+		layout.flags = SC_SERIALIZABLE;
+		layout.fieldTypes = new char[0];
+		
+		int interfaceCount = readInt();
+		
+		for(int i = 0; i < interfaceCount; i++)
+		{
+			readUTF();
+		}
+		
+		skipAnnotation();
+		layout.superLayout = skipClassDescriptorReference();
+		return layout;
+	}
+	
+	/**
+	 * Skips a new object after its type code, including the data of each class in its hierarchy.
+	 */
+	private void skipObject() throws StreamCorruptedException
+	{
+		ClassLayout layout = skipClassDescriptorReference();
+		handles.add(null);
+		
+		if(layout == null)
+		{
+			throw new StreamCorruptedException("Object without class descriptor");
+		}
+		
+		// Class data is written from the topmost serializable superclass down
+		ArrayList<ClassLayout> hierarchy = new ArrayList<ClassLayout>();
+		
+		for(ClassLayout current = layout; current != null; current = current.superLayout)
+		{
+			hierarchy.add(0, current);
+		}
+		
+		for(ClassLayout current : hierarchy)
+		{
+			if((current.flags & SC_EXTERNALIZABLE) != 0)
+			{
+				if((current.flags & SC_BLOCK_DATA) == 0)
+				{
+					throw new StreamCorruptedException("Unsupported externalizable class " + current.className);
+				}
+				
+				skipAnnotation();
+				continue;
+			}
+			
+			for(char fieldType : current.fieldTypes)
+			{
+				skipValue(fieldType);
+			}
+			
+			if((current.flags & SC_WRITE_METHOD) != 0)
+			{
+				skipAnnotation();
+			}
+		}
+	}
+	
+	/**
+	 * Skips a new array after its type code.
+	 */
+	private void skipArray() throws StreamCorruptedException
+	{
+		ClassLayout layout = skipClassDescriptorReference();
+		handles.add(null);
+		
+		if(layout == null || layout.className == null || layout.className.length() < 2)
+		{
+			throw new StreamCorruptedException("Array without array class descriptor");
+		}
+		
+		char componentType = layout.className.charAt(1);
+		int size = readInt();
+		
+		for(int i = 0; i < size; i++)
+		{
+			skipValue(componentType);
+		}
+	}
+	
+	/**
+	 * Skips one field or array element of the provided type.
+	 * 
+	 * @param type The type code of the value
+	 */
+	private void skipValue(char type) throws StreamCorruptedException
+	{
+		switch(type)
+		{
+		case 'B':
+		case 'Z':
+			skip(1);
+			break;
+		case 'C':
+		case 'S':
+			skip(2);
+			break;
+		case 'F':
+		case 'I':
+			skip(4);
+			break;
+		case 'D':
+		case 'J':
+			skip(8);
+			break;
+		case 'L':
+		case '[':
+			skipContent();
+			break;
+		default:
+			throw new StreamCorruptedException("Unsupported field type " + type);
+		}
+	}
+	
+	/**
+	 * Skips block data and objects up to and including the end-of-block marker.
+	 */
+	private void skipAnnotation() throws StreamCorruptedException
+	{
+		while(true)
+		{
+			byte typeCode = peekByte();
+			
+			if(typeCode == TC_ENDBLOCKDATA)
+			{
+				position++;
+				return;
+			}
+			
+			if(typeCode == TC_BLOCKDATA || typeCode == TC_BLOCKDATALONG)
+			{
+				skipBlockData();
+			}
+			else
+			{
+				skipContent();
+			}
+		}
+	}
+	
+	/**
+	 * Skips one block of primitive data including its header.
+	 */
+	private void skipBlockData() throws StreamCorruptedException
+	{
+		if(readByte() == TC_BLOCKDATA)
+		{
+			skip(readByte() & 0xFF);
+		}
+		else
+		{
+			skip(readInt() & 0xFFFFFFFFL);
+		}
+	}
+	
+	/**
+	 * Returns the class layout recorded for the provided stream handle.
+	 */
+	private ClassLayout resolveHandle(int handle) throws StreamCorruptedException
+	{
+		int index = handle - baseWireHandle;
+		
+		if(index < 0 || index >= handles.size())
+		{
+			throw new StreamCorruptedException("Invalid handle " + handle);
+		}
+		
+		return handles.get(index);
+	}
+	
+	private byte peekByte()
+	{
+		need(1);
+		return buffer[position];
+	}
+	
+	private byte readByte()
+	{
+		need(1);
+		return buffer[position++];
+	}
+	
+	private int readUnsignedShort()
+	{
+		need(2);
+		int value = ((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF);
+		position += 2;
+		return value;
+	}
+	
+	private int readInt()
+	{
+		need(4);
+		int value = 0;
+		
+		for(int i = 0; i < 4; i++)
+		{
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		
+		return value;
+	}
+	
+	private long readLong()
+	{
+		need(8);
+		long value = 0;
+		
+		for(int i = 0; i < 8; i++)
+		{
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Reads a modified UTF-8 string. Only descriptor names are read this way, so the bytes
+	 * are decoded as Latin-1; the names are used to find array component types only.
+	 */
+	private String readUTF()
+	{
+		int length = readUnsignedShort();
+		need(length);
+		String value = new String(buffer, position, length, StandardCharsets.ISO_8859_1);
+		position += length;
+		return value;
+	}
+	
+	private void skip(long count)
+	{
+		if(count < 0 || count > limit - position)
+		{
+			throw INCOMPLETE;
+		}
+		
+		position += (int) count;
+	}
+	
+	private void need(int count)
+	{
+		if(count > limit - position)
+		{
+			throw INCOMPLETE;
+		}
+	}
+	
+	/**
+	 * Creates a SerializationFrameScanner object for a new stream, positioned after the stream header.
+	 */
+	public SerializationFrameScanner()
+	{
+		handles = new ArrayList<ClassLayout>();
+	}
+	
+	/**
+	 * The layout of a class descriptor needed to skip the data of its instances.
+	 */
+	private static class ClassLayout
+	{
+		private final String className;	// The name of the described class
+		private byte flags;				// The SC_* flags of the descriptor
+		private char[] fieldTypes;		// The type codes of the serialized fields, in stream order
+		private ClassLayout superLayout;	// The layout of the serializable superclass, or null
+		
+		ClassLayout(String className_)
+		{
+			className = className_;
+		}
+	}
+	
+	/**
+	 * Signals that the scanned bytes end before the current object does.
+	 */
+	private static class Incomplete extends RuntimeException
+	{
+		public static final long serialVersionUID = 1L;
+		
+		Incomplete()
+		{
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package com.github.project.server;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.project.core.LatencyHistogram;
+import com.github.project.core.ResponseCode;
+import com.github.project.core.StatsResponse;
+
+/**
+ * This class provides a singleton instance that collects the live metrics of the server:
+ * accepted and active connections, the depth of the processing queue, the time requests
+ * wait in the queue, the time expressions take to evaluate, the time responses take to write,
+ * and the number of responses sent with each ResponseCode. The metrics are read through the
+ * JMX MBean registered by MathServerMain and through the StatsResponse sent to a StatsRequest.
+ * 
+ * Recording takes no lock, so the processing and connection threads never wait on the metrics.
+ * Latencies are recorded into LatencyHistograms that are moved into a completed window once
+ * the window has lasted mathserver.metricsWindowSeconds (default 10); percentiles and throughput
+ * are reported over the last completed window, and are 0 until the first window completes.
+ * The window is moved when the metrics are read, so an unread server does no work for it.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public class ServerMetrics implements ServerMetricsMBean
+{
+	public static final String OBJECT_NAME = "com.github.project.server:type=ServerMetrics";	// The JMX name of the singleton instance
+	
+	private static final long DEFAULT_WINDOW_SECONDS = 10;	// Default length of a metrics window
+	private static final ResponseCode[] RESPONSE_CODES = ResponseCode.values(); // Response codes by ordinal
+	
+	private static final ServerMetrics instance = new ServerMetrics(); // The singleton instance of this class
+	
+	private final long startNanos;						// The time the metrics started
+	private final long windowNanos;						// The length of a metrics window
+	private final LongAdder acceptedConnections;		// The number of accepted TCP connections
+	private final AtomicInteger activeConnections;		// The number of open client connections
+	private final LongAdder evaluatedExpressions;		// The number of evaluated expressions
+	private final LongAdder[] responseCounts;			// The number of sent responses, by response code ordinal
+	
+	private final LatencyHistogram queueWait;			// The queue waits recorded in the current window
+	private final LatencyHistogram evaluation;			// The evaluation times recorded in the current window
+	private final LatencyHistogram responseWrite;		// The response write times recorded in the current window
+	
+	private long windowStartNanos;						// The start of the current window, guarded by this
+	private Window completedWindow;						// The last completed window, guarded by this
+	
+	/**
+	 * Returns the singleton instance of the ServerMetrics class.
+	 * 
+	 * @return The singleton instance of the ServerMetrics class
+	 */
+	public static ServerMetrics getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * This method counts a TCP connection accepted by the server socket.
+	 */
+	void connectionAccepted()
+	{
+		acceptedConnections.increment();
+	}
+	
+	/**
+	 * This method counts a client connection as open.
+	 */
+	void connectionOpened()
+	{
+		activeConnections.incrementAndGet();
+	}
+	
+	/**
+	 * This method counts a client connection as closed. Each connection calls it once.
+	 */
+	void connectionClosed()
+	{
+		activeConnections.decrementAndGet();
+	}
+	
+	/**
+	 * This method records the time a request spent in the processing queue.
+	 * 
+	 * @param nanos The queue wait in nanoseconds
+	 */
+	void recordQueueWait(long nanos)
+	{
+		queueWait.record(nanos);
+	}
+	
+	/**
+	 * This method records the time one expression took to evaluate, or to look up.
+	 * 
+	 * @param nanos The evaluation time in nanoseconds
+	 */
+	void recordEvaluation(long nanos)
+	{
+		evaluatedExpressions.increment();
+		evaluation.record(nanos);
+	}
+	
+	/**
+	 * This method records the time a connection took to write and flush its pending responses.
+	 * 
+	 * @param nanos The write time in nanoseconds
+	 */
+	void recordResponseWrite(long nanos)
+	{
+		responseWrite.record(nanos);
+	}
+	
+	/**
+	 * This method counts a response sent to a client.
+	 * 
+	 * @param responseCode The response code of the response
+	 */
+	void responseSent(ResponseCode responseCode)
+	{
+		responseCounts[responseCode.ordinal()].increment();
+	}
+	
+	/**
+	 * This method creates the StatsResponse answering a StatsRequest, holding every metric.
+	 * 
+	 * @param requestID The ID of the answered request
+	 * @return The StatsResponse
+	 */
+	public StatsResponse createResponse(long requestID)
+	{
+		Window window = getCompletedWindow();
+		LinkedHashMap<String, Long> metrics = new LinkedHashMap<String, Long>();
+		metrics.put("uptimeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		metrics.put("connections.accepted", getAcceptedConnections());
+		metrics.put("connections.active", (long) getActiveConnections());
+		metrics.put("queue.depth", (long) getQueueDepth());
+		metrics.put("expressions.evaluated", getEvaluatedExpressions());
+		metrics.put("expressions.coalesced", getCoalescedExpressions());
+		
+		for(ResponseCode responseCode : RESPONSE_CODES)
+		{
+			metrics.put("responses." + responseCode.name(), responseCounts[responseCode.ordinal()].sum());
+		}
+		
+		metrics.put("window.millis", TimeUnit.NANOSECONDS.toMillis(window.lengthNanos));
+		metrics.put("throughput.perSecond", Math.round(window.getThroughputPerSecond()));
+		putLatencies(metrics, "queueWait", window.queueWait);
+		putLatencies(metrics, "evaluation", window.evaluation);
+		putLatencies(metrics, "responseWrite", window.responseWrite);
+		return new StatsResponse(metrics, requestID);
+	}
+	
+	public long getAcceptedConnections()
+	{
+		return acceptedConnections.sum();
+	}
+	
+	public int getActiveConnections()
+	{
+		return activeConnections.get();
+	}
+	
+	public int getQueueDepth()
+	{
+		return ProcessingQueue.getInstance().getQueueDepth();
+	}
+	
+	public long getEvaluatedExpressions()
+	{
+		return evaluatedExpressions.sum();
+	}
+	
+	public long getCoalescedExpressions()
+	{
+		return ProcessingQueue.getInstance().getCoalescedCount();
+	}
+	
+	public double getThroughputPerSecond()
+	{
+		return getCompletedWindow().getThroughputPerSecond();
+	}
+	
+	public long getWindowMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getCompletedWindow().lengthNanos);
+	}
+	
+	public long getQueueWaitP50Micros()
+	{
+		return toMicros(getCompletedWindow().queueWait.getValueAtPercentile(50));
+	}
+	
+	public long getQueueWaitP99Micros()
+	{
+		return toMicros(getCompletedWindow().queueWait.getValueAtPercentile(99));
+	}
+	
+	public long getQueueWaitMaxMicros()
+	{
+		return toMicros(getCompletedWindow().queueWait.getMaximum());
+	}
+	
+	public long getEvaluationP50Micros()
+	{
+		return toMicros(getCompletedWindow().evaluation.getValueAtPercentile(50));
+	}
+	
+	public long getEvaluationP99Micros()
+	{
+		return toMicros(getCompletedWindow().evaluation.getValueAtPercentile(99));
+	}
+	
+	public long getEvaluationMaxMicros()
+	{
+		return toMicros(getCompletedWindow().evaluation.getMaximum());
+	}
+	
+	public long getResponseWriteP50Micros()
+	{
+		return toMicros(getCompletedWindow().responseWrite.getValueAtPercentile(50));
+	}
+	
+	public long getResponseWriteP99Micros()
+	{
+		return toMicros(getCompletedWindow().responseWrite.getValueAtPercentile(99));
+	}
+	
+	public long getResponseWriteMaxMicros()
+	{
+		return toMicros(getCompletedWindow().responseWrite.getMaximum());
+	}
+	
+	public long getOkResponses()
+	{
+		return responseCounts[ResponseCode.OK.ordinal()].sum();
+	}
+	
+	public long getBadRequestResponses()
+	{
+		return responseCounts[ResponseCode.BAD_REQUEST.ordinal()].sum();
+	}
+	
+	public long getBusyResponses()
+	{
+		return responseCounts[ResponseCode.BUSY.ordinal()].sum();
+	}
+	
+	public long getTimedOutResponses()
+	{
+		return responseCounts[ResponseCode.TIMED_OUT.ordinal()].sum();
+	}
+	
+	/**
+	 * This method returns the last completed window, first completing the current one if it
+	 * has lasted a window length.
+	 */
+	private synchronized Window getCompletedWindow()
+	{
+		long now = System.nanoTime();
+		
+		if(now - windowStartNanos >= windowNanos)
+		{
+			Window window = new Window(now - windowStartNanos);
+			queueWait.drainInto(window.queueWait);
+			evaluation.drainInto(window.evaluation);
+			responseWrite.drainInto(window.responseWrite);
+			completedWindow = window;
+			windowStartNanos = now;
+		}
+		
+		return completedWindow;
+	}
+	
+	/**
+	 * This method adds the percentiles and maximum of a histogram to the provided metrics
+	 */
+	private static void putLatencies(LinkedHashMap<String, Long> metrics, String name, LatencyHistogram histogram)
+	{
+		metrics.put(name + ".count", histogram.getTotalCount());
+		metrics.put(name + ".p50Micros", toMicros(histogram.getValueAtPercentile(50)));
+		metrics.put(name + ".p99Micros", toMicros(histogram.getValueAtPercentile(99)));
+		metrics.put(name + ".p999Micros", toMicros(histogram.getValueAtPercentile(99.9)));
+		metrics.put(name + ".maxMicros", toMicros(histogram.getMaximum()));
+	}
+	
+	private static long toMicros(long nanos)
+	{
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+	
+	/**
+	 * Creates the singleton instance of this class.
+	 */
+	private ServerMetrics()
+	{
+		startNanos = System.nanoTime();
+		windowNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.getLong("mathserver.metricsWindowSeconds", DEFAULT_WINDOW_SECONDS)));
+		acceptedConnections = new LongAdder();
+		activeConnections = new AtomicInteger();
+		evaluatedExpressions = new LongAdder();
+		responseCounts = new LongAdder[RESPONSE_CODES.length];
+		
+		for(int i = 0; i < responseCounts.length; i++)
+		{
+			responseCounts[i] = new LongAdder();
+		}
+		
+		queueWait = new LatencyHistogram();
+		evaluation = new LatencyHistogram();
+		responseWrite = new LatencyHistogram();
+		
+		windowStartNanos = startNanos;
+		completedWindow = new Window(0);
+	}
+	
+	/**
+	 * The latencies recorded during one completed metrics window.
+	 */
+	private static class Window
+	{
+		private final long lengthNanos;						// The length of the window, or 0 before the first window completes
+		private final LatencyHistogram queueWait;			// The queue waits of the window
+		private final LatencyHistogram evaluation;			// The evaluation times of the window
+		private final LatencyHistogram responseWrite;		// The response write times of the window
+		
+		/**
+		 * Returns the number of expressions evaluated per second during the window.
+		 */
+		double getThroughputPerSecond()
+		{
+			return lengthNanos == 0 ? 0 : evaluation.getTotalCount() * 1e9 / lengthNanos;
+		}
+		
+		Window(long lengthNanos_)
+		{
+			lengthNanos = lengthNanos_;
+			queueWait = new LatencyHistogram();
+			evaluation = new LatencyHistogram();
+			responseWrite = new LatencyHistogram();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.github.project.server;
+
+/**
+ * This interface is the JMX management interface of the ServerMetrics. Counters are totals
+ * since the server started; latencies and throughput cover the most recent metrics window.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public interface ServerMetricsMBean
+{
+	long getAcceptedConnections();
+	
+	int getActiveConnections();
+	
+	int getQueueDepth();
+	
+	long getEvaluatedExpressions();
+	
+	long getCoalescedExpressions();
+	
+	double getThroughputPerSecond();
+	
+	long getWindowMillis();
+	
+	long getQueueWaitP50Micros();
+	
+	long getQueueWaitP99Micros();
+	
+	long getQueueWaitMaxMicros();
+	
+	long getEvaluationP50Micros();
+	
+	long getEvaluationP99Micros();
+	
+	long getEvaluationMaxMicros();
+	
+	long getResponseWriteP50Micros();
+	
+	long getResponseWriteP99Micros();
+	
+	long getResponseWriteMaxMicros();
+	
+	long getOkResponses();
+	
+	long getBadRequestResponses();
+	
+	long getBusyResponses();
+	
+	long getTimedOutResponses();
+}
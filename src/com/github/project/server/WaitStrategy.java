@@ -0,0 +1,53 @@
+package com.github.project.server;
+
+/**
+ * This enum contains the strategies by which the processing threads wait when the
+ * RequestRingBuffer is empty. Connection handler threads never wait; a full buffer
+ * refuses their requests at once.
+ * 
+ * @author Nathan Beck
+ * @version 1.0
+ * @since 31 October 2020
+ */
+public enum WaitStrategy
+{
+	/**
+	 * Busy-spin on the buffer. Lowest latency, but each waiting thread occupies a core.
+	 */
+	SPIN,
+	
+	/**
+	 * Yield the processor between attempts. Low latency while leaving cores to other threads.
+	 */
+	YIELD,
+	
+	/**
+	 * Park waiting threads until a connection handler thread publishes a request. Waiting
+	 * threads use no processor time, at the cost of a wakeup on each hand-off to an idle thread.
+	 */
+	PARK;
+	
+	/**
+	 * Returns the WaitStrategy with the provided name, ignoring case.
+	 * 
+	 * @param name The name of the strategy
+	 * @param defaultStrategy The strategy to return if the name is null or unknown
+	 * @return The WaitStrategy with the provided name, or the default strategy
+	 */
+	public static WaitStrategy parse(String name, WaitStrategy defaultStrategy)
+	{
+		if(name == null)
+		{
+			return defaultStrategy;
+		}
+		
+		try
+		{
+			return valueOf(name.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return defaultStrategy;
+		}
+	}
+}